@@ -2,6 +2,8 @@ package net.devaction.transfersservice.api.entity.account;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import net.devaction.transfersservice.api.entity.ResponseData;
 
 /**
@@ -17,19 +19,29 @@ public class AccountInfo implements ResponseData {
     private final long balance;
     private final List<AccountHistoryItem> history;
 
+    // It is used to get the next page of the history, it is null when there are no more items
+    private final String nextCursor;
+
     public AccountInfo(String accountId, String currency, long balance,
             List<AccountHistoryItem> history) {
 
+        this(accountId, currency, balance, history, null);
+    }
+
+    public AccountInfo(String accountId, String currency, long balance,
+            List<AccountHistoryItem> history, String nextCursor) {
+
         this.accountId = accountId;
         this.currency = currency;
         this.balance = balance;
         this.history = history;
+        this.nextCursor = nextCursor;
     }
 
     @Override
     public String toString() {
         return "AccountInfo [accountId: " + accountId + ", currency: " + currency
-                + ", balance: " + balance + ", history: " + history + "]";
+                + ", balance: " + balance + ", history: " + history + ", nextCursor: " + nextCursor + "]";
     }
 
     public String getAccountId() {
@@ -47,4 +59,9 @@ public class AccountInfo implements ResponseData {
     public List<AccountHistoryItem> getHistory() {
         return history;
     }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getNextCursor() {
+        return nextCursor;
+    }
 }
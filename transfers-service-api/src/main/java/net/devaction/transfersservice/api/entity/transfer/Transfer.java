@@ -4,12 +4,11 @@ import java.beans.ConstructorProperties;
 
 import java.time.Instant;
 
-import java.util.UUID;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.util.id.HexIds;
 import net.devaction.transfersservice.api.util.timestamp.TimestampFormatter;
 
 /**
@@ -25,8 +24,8 @@ public class Transfer {
             "Two different entities have same id value:\n{}\nvs\n{}";
 
     // This is an automatically (internally) generated
-    // random id
-    private final String id;
+    // random id, 12 hexadecimal digits stored as a long (see "HexIds")
+    private final long id;
 
     private final String sourceAccountId;
     private final AccountType sourceAccountType;
@@ -39,7 +38,7 @@ public class Transfer {
     private final String currency;
 
     // Milliseconds from UNIX epoch
-    private long timestamp;
+    private final long timestamp;
 
     @ConstructorProperties({"source_account_id", "source_account_type",
             "target_account_id", "target_account_type", "amount", "currency"})
@@ -59,17 +58,42 @@ public class Transfer {
         this.currency = currency;
 
         timestamp = Instant.now().toEpochMilli();
-        id = generateRandomId();
+        id = HexIds.randomId();
     }
 
-    private String generateRandomId() {
-        // last 12 hexadecimal digits of the random UUID
-        return UUID.randomUUID().toString().substring(24);
+    // This is used when the transfer is rebuilt from its persisted form,
+    // hence the id and the timestamp are not generated again
+    public Transfer(String id, String sourceAccountId, AccountType sourceAccountType,
+            String targetAccountId, AccountType targetAccountType, long amount, String currency,
+            long timestamp) {
+
+        checkConstructorArguments(sourceAccountId, sourceAccountType, targetAccountId,
+                targetAccountType, amount, currency);
+
+        long encodedId = HexIds.parse(id);
+        if (encodedId == HexIds.NO_ID) {
+            String errorMessage = "The id must be made of " + HexIds.LENGTH + " lowercase hexadecimal digits: " + id;
+            log.debug(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
+
+        this.id = encodedId;
+
+        this.sourceAccountId = sourceAccountId;
+        this.sourceAccountType = sourceAccountType;
+
+        this.targetAccountId = targetAccountId;
+        this.targetAccountType = targetAccountType;
+
+        this.amount = amount;
+        this.currency = currency;
+
+        this.timestamp = timestamp;
     }
 
     @Override
     public String toString() {
-        return "Transfer [id: " + id + ", sourceAccountId: " + sourceAccountId + ", sourceAccountType: "
+        return "Transfer [id: " + getId() + ", sourceAccountId: " + sourceAccountId + ", sourceAccountType: "
                 + sourceAccountType + ", targetAccountId: " + targetAccountId + ", targetAccountType: "
                 + targetAccountType + ", amount (in cents): " + amount + ", currency: " + currency
                 + ", timestamp: " + TimestampFormatter.getTimestampString(timestamp) + "]";
@@ -83,7 +107,7 @@ public class Transfer {
         // In theory just taking into account the id should be enough
         // but we use all the fields in the hashcode computation to be
         // on the safe side
-        result = prime * result + id.hashCode();
+        result = prime * result + Long.hashCode(id);
         result = prime * result + (int) (amount ^ (amount >>> 32));
         result = prime * result + currency.hashCode();
 
@@ -114,13 +138,7 @@ public class Transfer {
         }
 
         Transfer other = (Transfer) obj;
-        if (other.getId() == null) {
-            // This should never happen
-            log.error("Transfer entity has null id:\n{}", other);
-            return false;
-        }
-
-        if (!id.equals(other.getId())) {
+        if (id != other.id) {
             return false;
         }
 
@@ -171,7 +189,7 @@ public class Transfer {
                 || targetAccountType == null || currency == null || amount < 1) {
 
             String errorMessage = "One or more of the arguments provided are invalid";
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new IllegalArgumentException(errorMessage);
         }
     }
@@ -196,7 +214,12 @@ public class Transfer {
         return timestamp;
     }
 
+    // It creates a new String every time, see "getEncodedId"
     public String getId() {
+        return HexIds.toHex(id);
+    }
+
+    public long getEncodedId() {
         return id;
     }
 
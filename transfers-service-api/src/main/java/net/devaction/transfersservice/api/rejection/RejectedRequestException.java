@@ -0,0 +1,16 @@
+package net.devaction.transfersservice.api.rejection;
+
+/**
+ * Base class of the exceptions thrown when a request is rejected for an expected
+ * reason (invalid input, not enough balance, unknown account, lock timeout...).
+ * The message tells what went wrong, hence the stack trace is not captured (it is
+ * most of the cost of a rejection) and the exception is immutable, so an instance
+ * with a constant message can be preallocated and thrown many times.
+ */
+public abstract class RejectedRequestException extends Exception {
+    private static final long serialVersionUID = -2862043518520461532L;
+
+    protected RejectedRequestException(String errorMessage) {
+        super(errorMessage, null, false, false);
+    }
+}
@@ -0,0 +1,68 @@
+package net.devaction.transfersservice.api.util.id;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The ids of the accounts and the transfers generated by the service are 12
+ * lowercase hexadecimal digits, i.e., 48-bit values. They are generated and
+ * stored as primitive longs and only converted to their hexadecimal form at
+ * the boundaries (JSON, journal, snapshots, logs).
+ */
+public class HexIds {
+
+    public static final int LENGTH = 12;
+    // Returned when a string is not a valid id
+    public static final long NO_ID = -1L;
+
+    private static final long BOUND = 1L << (4 * LENGTH);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private HexIds() {}
+
+    public static long randomId() {
+        return ThreadLocalRandom.current().nextLong(BOUND);
+    }
+
+    // It returns "NO_ID" when the value is not made of 12 lowercase hexadecimal digits
+    public static long parse(String value) {
+        if (value == null || value.length() != LENGTH) {
+            return NO_ID;
+        }
+
+        long id = 0L;
+        for (int i = 0; i < LENGTH; i++) {
+            char c = value.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return NO_ID;
+            }
+            id = (id << 4) | digit;
+        }
+        return id;
+    }
+
+    public static boolean isValid(long id) {
+        return id >= 0L && id < BOUND;
+    }
+
+    public static String toHex(long id) {
+        char[] digits = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            digits[i] = HEX_DIGITS[(int) (id & 0xf)];
+            id >>>= 4;
+        }
+        return new String(digits);
+    }
+
+    // The same bytes as the UTF-8 encoding of "toHex", without creating the String
+    public static void putHex(ByteBuffer buffer, long id) {
+        for (int shift = 4 * (LENGTH - 1); shift >= 0; shift -= 4) {
+            buffer.put((byte) HEX_DIGITS[(int) ((id >>> shift) & 0xf)]);
+        }
+    }
+}
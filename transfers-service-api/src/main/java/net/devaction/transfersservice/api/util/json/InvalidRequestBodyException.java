@@ -0,0 +1,15 @@
+package net.devaction.transfersservice.api.util.json;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+/**
+ * The body of a request is not valid JSON or it does not hold what the request
+ * needs, it is caused by the client hence it is a rejection.
+ */
+public class InvalidRequestBodyException extends RejectedRequestException {
+    private static final long serialVersionUID = 5186470293816547210L;
+
+    public InvalidRequestBodyException(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -1,10 +1,17 @@
 package net.devaction.transfersservice.api.util.json;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 
@@ -17,9 +24,14 @@ public class JsonUnmarshaller<T> {
     private static final Logger log = LoggerFactory.getLogger(JsonUnmarshaller.class);
 
     private final ObjectReader objectReader;
+    private final ObjectReader listReader;
+    private final JsonFactory jsonFactory;
 
     public JsonUnmarshaller(Class<T> clazz) {
-        objectReader = new ObjectMapper().readerFor(clazz);
+        ObjectMapper mapper = new ObjectMapper();
+        objectReader = mapper.readerFor(clazz);
+        listReader = mapper.readerFor(mapper.getTypeFactory().constructCollectionType(List.class, clazz));
+        jsonFactory = mapper.getFactory();
     }
 
     public T unmarshall(String jsonString) throws IOException {
@@ -36,4 +48,56 @@ public class JsonUnmarshaller<T> {
         log.trace("Unmarshalled/deserialized object from JSON String:\n{}", object);
         return object;
     }
+
+    // The JSON string has to be an array, it is the body of a request hence an
+    // invalid one is a rejection (the JSON string is not logged, it can be big)
+    public List<T> unmarshallList(String jsonString) throws InvalidRequestBodyException {
+        List<T> objects = null;
+        try {
+            objects = listReader.readValue(jsonString);
+        } catch (IOException ex) {
+            String errorMessage = "Invalid request body: " + (ex instanceof JsonProcessingException
+                    ? ((JsonProcessingException) ex).getOriginalMessage() : ex.getMessage());
+            log.debug(errorMessage);
+            throw new InvalidRequestBodyException(errorMessage);
+        }
+
+        if (objects == null) {
+            String errorMessage = "The request body is not an array";
+            log.debug(errorMessage);
+            throw new InvalidRequestBodyException(errorMessage);
+        }
+
+        log.trace("Unmarshalled/deserialized {} objects from JSON String", objects.size());
+        return objects;
+    }
+
+    /*
+     * Same as above, the JSON array is parsed straight from the stream (the body
+     * is not read into a String) and the parsing stops after "maxSize + 1" elements:
+     * the caller rejects a bigger list without the rest of it being read.
+     * */
+    public List<T> unmarshallList(InputStream jsonStream, int maxSize) throws IOException,
+            InvalidRequestBodyException {
+
+        List<T> objects = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(jsonStream)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                String errorMessage = "The request body is not an array";
+                log.debug(errorMessage);
+                throw new InvalidRequestBodyException(errorMessage);
+            }
+
+            while (parser.nextToken() != JsonToken.END_ARRAY && objects.size() <= maxSize) {
+                objects.add(objectReader.readValue(parser));
+            }
+        } catch (JsonProcessingException ex) {
+            String errorMessage = "Invalid request body: " + ex.getOriginalMessage();
+            log.debug(errorMessage);
+            throw new InvalidRequestBodyException(errorMessage);
+        }
+
+        log.trace("Unmarshalled/deserialized {} objects from JSON stream", objects.size());
+        return objects;
+    }
 }
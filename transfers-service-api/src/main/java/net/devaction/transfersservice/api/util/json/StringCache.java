@@ -0,0 +1,56 @@
+package net.devaction.transfersservice.api.util.json;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Direct-mapped cache of ASCII strings (account ids, currency codes) keyed by
+ * their bytes, so a value which has already been seen is returned without
+ * allocating a new String. A collision simply replaces the previous entry.
+ *
+ * The entries are read and written without synchronization: String is immutable
+ * (final fields), hence a thread sees either a complete String or another entry,
+ * and the worst case is a miss.
+ */
+class StringCache {
+
+    private final String[] entries;
+    private final int mask;
+
+    StringCache(int numOfEntries) {
+        if (Integer.bitCount(numOfEntries) != 1) {
+            throw new IllegalArgumentException("The number of entries must be a power of two: " + numOfEntries);
+        }
+        entries = new String[numOfEntries];
+        mask = numOfEntries - 1;
+    }
+
+    // All the bytes have to be ASCII
+    String get(byte[] bytes, int offset, int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        int index = (hash ^ (hash >>> 16)) & mask;
+
+        String entry = entries[index];
+        if (entry != null && equals(entry, bytes, offset, length)) {
+            return entry;
+        }
+
+        entry = new String(bytes, offset, length, StandardCharsets.US_ASCII);
+        entries[index] = entry;
+        return entry;
+    }
+
+    private static boolean equals(String entry, byte[] bytes, int offset, int length) {
+        if (entry.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (entry.charAt(i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,413 @@
+package net.devaction.transfersservice.api.util.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+/**
+ * Parses the JSON body of a transfer request straight from its bytes, without
+ * building a String of the whole body nor any intermediate token objects.
+ * Each thread reuses its own buffer and parsing state (the virtual threads, which
+ * are not reused, take them from a small shared pool), and the account ids and
+ * currency codes are taken from a shared cache of the values which have already
+ * been seen, hence the only objects created for a well-formed request are the
+ * "Transfer" itself and its generated id.
+ *
+ * It accepts the same fields as "JsonUnmarshaller<Transfer>" (with the
+ * "@ConstructorProperties" of "Transfer"), the amount has to be an integer
+ * number. The error messages contain the position of the error but not the body.
+ */
+public class TransferJsonParser {
+    private static final Logger log = LoggerFactory.getLogger(TransferJsonParser.class);
+
+    public static final int MAX_BODY_SIZE = 64 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int STRING_CACHE_SIZE = 1 << 16;
+    private static final int MAX_POOLED_STATES = 256;
+
+    private static final byte[] SOURCE_ACCOUNT_ID = ascii("source_account_id");
+    private static final byte[] SOURCE_ACCOUNT_TYPE = ascii("source_account_type");
+    private static final byte[] TARGET_ACCOUNT_ID = ascii("target_account_id");
+    private static final byte[] TARGET_ACCOUNT_TYPE = ascii("target_account_type");
+    private static final byte[] AMOUNT = ascii("amount");
+    private static final byte[] CURRENCY = ascii("currency");
+
+    private static final byte[] INTERNAL = ascii(AccountType.INTERNAL.name());
+    private static final byte[] EXTERNAL = ascii(AccountType.EXTERNAL.name());
+    private static final byte[] NULL = ascii("null");
+
+    private final StringCache stringCache = new StringCache(STRING_CACHE_SIZE);
+    private final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+    private final BlockingQueue<State> virtualThreadStates = new ArrayBlockingQueue<>(MAX_POOLED_STATES);
+
+    // The stream is read until its end but it is not closed
+    public Transfer parse(InputStream inputStream) throws IOException, InvalidRequestBodyException {
+        State state = acquireState();
+        try {
+            return parse(state, inputStream);
+        } finally {
+            releaseState(state);
+        }
+    }
+
+    public Transfer parse(byte[] bytes, int offset, int length) throws InvalidRequestBodyException {
+        State state = acquireState();
+        try {
+            return parse(state, bytes, offset, length);
+        } finally {
+            releaseState(state);
+        }
+    }
+
+    private State acquireState() {
+        if (!Thread.currentThread().isVirtual()) {
+            return states.get();
+        }
+
+        State state = virtualThreadStates.poll();
+        return state == null ? new State() : state;
+    }
+
+    private void releaseState(State state) {
+        if (Thread.currentThread().isVirtual()) {
+            // It is dropped when the pool is full
+            virtualThreadStates.offer(state);
+        }
+    }
+
+    private Transfer parse(State state, InputStream inputStream) throws IOException,
+            InvalidRequestBodyException {
+
+        int length = 0;
+        int numOfBytesRead;
+        while (true) {
+            if (length == state.buffer.length) {
+                if (length == MAX_BODY_SIZE) {
+                    String errorMessage = "Invalid transfer request, the body is bigger than "
+                            + MAX_BODY_SIZE + " bytes";
+                    log.debug(errorMessage);
+                    throw new InvalidRequestBodyException(errorMessage);
+                }
+                byte[] biggerBuffer = new byte[Math.min(2 * length, MAX_BODY_SIZE)];
+                System.arraycopy(state.buffer, 0, biggerBuffer, 0, length);
+                state.buffer = biggerBuffer;
+            }
+            numOfBytesRead = inputStream.read(state.buffer, length, state.buffer.length - length);
+            if (numOfBytesRead < 0) {
+                break;
+            }
+            length += numOfBytesRead;
+        }
+
+        return parse(state, state.buffer, 0, length);
+    }
+
+    private Transfer parse(State state, byte[] bytes, int offset, int length) throws InvalidRequestBodyException {
+        state.reset(bytes, offset, offset + length);
+        try {
+            parseObject(state);
+            return new Transfer(state.sourceAccountId, state.sourceAccountType, state.targetAccountId,
+                    state.targetAccountType, state.amount, state.currency);
+        } catch (IllegalArgumentException ex) {
+            String errorMessage = "Invalid transfer request: " + ex.getMessage();
+            log.debug(errorMessage);
+            throw new InvalidRequestBodyException(errorMessage);
+        } finally {
+            state.clear();
+        }
+    }
+
+    private void parseObject(State state) throws InvalidRequestBodyException {
+        skipWhitespace(state);
+        expect(state, '{');
+        skipWhitespace(state);
+
+        if (peek(state) == '}') {
+            state.position++;
+        } else {
+            while (true) {
+                parseField(state);
+                skipWhitespace(state);
+                byte next = next(state);
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw parseError(state, "',' or '}' expected");
+                }
+                skipWhitespace(state);
+            }
+        }
+
+        skipWhitespace(state);
+        if (state.position != state.limit) {
+            throw parseError(state, "unexpected content after the transfer object");
+        }
+    }
+
+    private void parseField(State state) throws InvalidRequestBodyException {
+        expect(state, '"');
+        int keyStart = state.position;
+        while (next(state) != '"') {
+            // The names of the fields have no escaped characters
+        }
+        int keyLength = state.position - 1 - keyStart;
+
+        skipWhitespace(state);
+        expect(state, ':');
+        skipWhitespace(state);
+
+        byte[] bytes = state.bytes;
+        if (matches(SOURCE_ACCOUNT_ID, bytes, keyStart, keyLength)) {
+            state.sourceAccountId = parseString(state);
+        } else if (matches(TARGET_ACCOUNT_ID, bytes, keyStart, keyLength)) {
+            state.targetAccountId = parseString(state);
+        } else if (matches(AMOUNT, bytes, keyStart, keyLength)) {
+            state.amount = parseAmount(state);
+        } else if (matches(CURRENCY, bytes, keyStart, keyLength)) {
+            state.currency = parseString(state);
+        } else if (matches(SOURCE_ACCOUNT_TYPE, bytes, keyStart, keyLength)) {
+            state.sourceAccountType = parseAccountType(state);
+        } else if (matches(TARGET_ACCOUNT_TYPE, bytes, keyStart, keyLength)) {
+            state.targetAccountType = parseAccountType(state);
+        } else {
+            state.position = keyStart;
+            throw parseError(state, "unknown field");
+        }
+    }
+
+    private String parseString(State state) throws InvalidRequestBodyException {
+        if (parseNull(state)) {
+            return null;
+        }
+        expect(state, '"');
+
+        int start = state.position;
+        boolean ascii = true;
+        boolean escaped = false;
+        byte next;
+        while ((next = next(state)) != '"') {
+            if (next == '\\') {
+                escaped = true;
+                next(state);
+            } else if (next < 0) {
+                ascii = false;
+            }
+        }
+        int length = state.position - 1 - start;
+
+        if (ascii && !escaped) {
+            return stringCache.get(state.bytes, start, length);
+        }
+        String value = new String(state.bytes, start, length, StandardCharsets.UTF_8);
+        return escaped ? unescape(state, value) : value;
+    }
+
+    private String unescape(State state, String value) throws InvalidRequestBodyException {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            c = value.charAt(++i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append(c);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= value.length()) {
+                        throw parseError(state, "invalid unicode escape sequence");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException ex) {
+                        throw parseError(state, "invalid unicode escape sequence");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    throw parseError(state, "invalid escape sequence");
+            }
+        }
+        return builder.toString();
+    }
+
+    private AccountType parseAccountType(State state) throws InvalidRequestBodyException {
+        if (parseNull(state)) {
+            return null;
+        }
+        expect(state, '"');
+
+        int start = state.position;
+        while (next(state) != '"') {
+            // The valid values have no escaped characters
+        }
+        int length = state.position - 1 - start;
+
+        if (matches(INTERNAL, state.bytes, start, length)) {
+            return AccountType.INTERNAL;
+        }
+        if (matches(EXTERNAL, state.bytes, start, length)) {
+            return AccountType.EXTERNAL;
+        }
+        state.position = start;
+        throw parseError(state, "invalid account type, valid values: " + AccountType.INTERNAL + ", "
+                + AccountType.EXTERNAL);
+    }
+
+    private long parseAmount(State state) throws InvalidRequestBodyException {
+        if (parseNull(state)) {
+            return 0L;
+        }
+
+        boolean negative = peek(state) == '-';
+        if (negative) {
+            state.position++;
+        }
+
+        int start = state.position;
+        long value = 0L;
+        while (state.position < state.limit) {
+            int digit = state.bytes[state.position] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                throw parseError(state, "the amount is too big");
+            }
+            value = value * 10 + digit;
+            state.position++;
+        }
+
+        if (state.position == start) {
+            throw parseError(state, "number expected");
+        }
+        if (state.position < state.limit) {
+            byte next = state.bytes[state.position];
+            if (next == '.' || next == 'e' || next == 'E') {
+                throw parseError(state, "the amount has to be an integer number of cents");
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean parseNull(State state) {
+        if (matches(NULL, state.bytes, state.position, Math.min(NULL.length, state.limit - state.position))) {
+            state.position += NULL.length;
+            return true;
+        }
+        return false;
+    }
+
+    private static void skipWhitespace(State state) {
+        while (state.position < state.limit) {
+            byte next = state.bytes[state.position];
+            if (next != ' ' && next != '\n' && next != '\r' && next != '\t') {
+                return;
+            }
+            state.position++;
+        }
+    }
+
+    private byte peek(State state) throws InvalidRequestBodyException {
+        if (state.position == state.limit) {
+            throw parseError(state, "unexpected end of the body");
+        }
+        return state.bytes[state.position];
+    }
+
+    private byte next(State state) throws InvalidRequestBodyException {
+        byte next = peek(state);
+        state.position++;
+        return next;
+    }
+
+    private void expect(State state, char expected) throws InvalidRequestBodyException {
+        if (peek(state) != expected) {
+            throw parseError(state, "'" + expected + "' expected");
+        }
+        state.position++;
+    }
+
+    private static boolean matches(byte[] expected, byte[] bytes, int offset, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static InvalidRequestBodyException parseError(State state, String reason) {
+        String errorMessage = "Invalid transfer request, " + reason + " at position " + state.position;
+        log.debug(errorMessage);
+        return new InvalidRequestBodyException(errorMessage);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Reused by all the requests parsed by the same thread
+    private static class State {
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        private byte[] bytes;
+        private int position;
+        private int limit;
+
+        private String sourceAccountId;
+        private AccountType sourceAccountType;
+        private String targetAccountId;
+        private AccountType targetAccountType;
+        private long amount;
+        private String currency;
+
+        private void reset(byte[] bytes, int position, int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+            amount = 0L;
+        }
+
+        // So the strings of the last request are not retained by the thread
+        private void clear() {
+            bytes = null;
+            sourceAccountId = null;
+            sourceAccountType = null;
+            targetAccountId = null;
+            targetAccountType = null;
+            currency = null;
+        }
+    }
+}
@@ -16,7 +16,7 @@ public class TimestampFormatter {
     private TimestampFormatter() {}
 
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(
-            "EEEE dd-MMM-yyyy HH:mm:ss.SSSZ", new Locale("en"));
+            "EEEE dd-MMM-yyyy HH:mm:ss.SSSZ", Locale.ENGLISH);
 
     public static String getTimestampString(long epochMilli) {
 
@@ -3,11 +3,17 @@ package net.devaction.transfersservice.api.entity.transfer;
 import org.junit.jupiter.api.Test;
 
 import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
 import net.devaction.transfersservice.api.util.json.FileReader;
+import net.devaction.transfersservice.api.util.json.InvalidRequestBodyException;
 import net.devaction.transfersservice.api.util.json.JsonUnmarshaller;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 
 /**
@@ -40,4 +46,40 @@ public class TransferDeserializationTest {
 
         assertThat(transfer.getTimestamp()).isGreaterThan(milli);
     }
+
+    @Test
+    public void testInvalidListIsRejected() {
+        JsonUnmarshaller<Transfer> unmarshaller = new JsonUnmarshaller<>(Transfer.class);
+
+        // A rejection, it is not logged as an error
+        assertThatThrownBy(() -> unmarshaller.unmarshallList("[{\"amount\": 100}]"))
+                .isInstanceOf(InvalidRequestBodyException.class).isInstanceOf(RejectedRequestException.class);
+        assertThatThrownBy(() -> unmarshaller.unmarshallList("[{"))
+                .isInstanceOf(InvalidRequestBodyException.class);
+        assertThatThrownBy(() -> unmarshaller.unmarshallList("null"))
+                .isInstanceOf(InvalidRequestBodyException.class);
+    }
+
+    @Test
+    public void testListIsNotParsedBeyondTheMaximumSize() throws Exception {
+        JsonUnmarshaller<Transfer> unmarshaller = new JsonUnmarshaller<>(Transfer.class);
+        String transferJson = new FileReader().readFileFromClasspath("transfer_01.json");
+
+        assertThat(unmarshaller.unmarshallList(stream("[" + transferJson + "," + transferJson + "]"), 2))
+                .hasSize(2);
+        // The invalid element is never reached
+        assertThat(unmarshaller.unmarshallList(stream("[" + transferJson + "," + transferJson + ","
+                + transferJson + ", {"), 1)).hasSize(2);
+
+        assertThatThrownBy(() -> unmarshaller.unmarshallList(stream("[" + transferJson + ", {"), 2))
+                .isInstanceOf(InvalidRequestBodyException.class);
+        assertThatThrownBy(() -> unmarshaller.unmarshallList(stream(transferJson), 2))
+                .isInstanceOf(InvalidRequestBodyException.class);
+        assertThatThrownBy(() -> unmarshaller.unmarshallList(stream(""), 2))
+                .isInstanceOf(InvalidRequestBodyException.class);
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,52 @@
+package net.devaction.transfersservice.api.util.id;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HexIdsTest {
+
+    @Test
+    public void testRandomIdsAreValid() {
+        for (int i = 0; i < 1000; i++) {
+            long id = HexIds.randomId();
+            assertThat(HexIds.isValid(id)).isTrue();
+            assertThat(HexIds.toHex(id)).hasSize(HexIds.LENGTH);
+            assertThat(HexIds.parse(HexIds.toHex(id))).isEqualTo(id);
+        }
+    }
+
+    @Test
+    public void testParseAndToHex() {
+        assertThat(HexIds.parse("000000000000")).isEqualTo(0L);
+        assertThat(HexIds.parse("ffffffffffff")).isEqualTo((1L << 48) - 1);
+        assertThat(HexIds.parse("9b6ffcbb26ab")).isEqualTo(0x9b6ffcbb26abL);
+
+        assertThat(HexIds.toHex(0L)).isEqualTo("000000000000");
+        assertThat(HexIds.toHex(0x9b6ffcbb26abL)).isEqualTo("9b6ffcbb26ab");
+    }
+
+    @Test
+    public void testParseInvalidIds() {
+        assertThat(HexIds.parse(null)).isEqualTo(HexIds.NO_ID);
+        assertThat(HexIds.parse("")).isEqualTo(HexIds.NO_ID);
+        assertThat(HexIds.parse("9b6ffcbb26a")).isEqualTo(HexIds.NO_ID);
+        assertThat(HexIds.parse("9b6ffcbb26abc")).isEqualTo(HexIds.NO_ID);
+        assertThat(HexIds.parse("9B6FFCBB26AB")).isEqualTo(HexIds.NO_ID);
+        assertThat(HexIds.parse("external-acc")).isEqualTo(HexIds.NO_ID);
+
+        assertThat(HexIds.isValid(HexIds.NO_ID)).isFalse();
+        assertThat(HexIds.isValid(1L << 48)).isFalse();
+    }
+
+    @Test
+    public void testPutHex() {
+        ByteBuffer buffer = ByteBuffer.allocate(HexIds.LENGTH);
+        HexIds.putHex(buffer, 0x157016b32e6cL);
+
+        assertThat(new String(buffer.array(), StandardCharsets.US_ASCII)).isEqualTo("157016b32e6c");
+    }
+}
@@ -0,0 +1,142 @@
+package net.devaction.transfersservice.api.util.json;
+
+import org.junit.jupiter.api.Test;
+
+import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class TransferJsonParserTest {
+
+    private final TransferJsonParser parser = new TransferJsonParser();
+
+    @Test
+    public void testParseSameAsUnmarshaller() throws Exception {
+        String transferJson = new FileReader().readFileFromClasspath("transfer_01.json");
+
+        Transfer expected = new JsonUnmarshaller<>(Transfer.class).unmarshall(transferJson);
+        Transfer transfer = parser.parse(new ByteArrayInputStream(transferJson.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(transfer.getId()).hasSize(12);
+        assertThat(transfer.getSourceAccountId()).isEqualTo(expected.getSourceAccountId());
+        assertThat(transfer.getSourceAccountType()).isEqualTo(expected.getSourceAccountType());
+        assertThat(transfer.getTargetAccountId()).isEqualTo(expected.getTargetAccountId());
+        assertThat(transfer.getTargetAccountType()).isEqualTo(expected.getTargetAccountType());
+        assertThat(transfer.getAmount()).isEqualTo(expected.getAmount());
+        assertThat(transfer.getCurrency()).isEqualTo(expected.getCurrency());
+    }
+
+    @Test
+    public void testParseReusesTheStrings() {
+        byte[] body = ("{\"amount\":250,\"currency\":\"EUR\",\"target_account_type\":\"EXTERNAL\","
+                + "\"target_account_id\":\"6fcbdb359fcc\",\"source_account_type\":\"INTERNAL\","
+                + "\"source_account_id\":\"22bfc5696816\"}").getBytes(StandardCharsets.UTF_8);
+
+        Transfer transfer1 = null;
+        Transfer transfer2 = null;
+        try {
+            transfer1 = parser.parse(body, 0, body.length);
+            transfer2 = parser.parse(body, 0, body.length);
+        } catch (InvalidRequestBodyException ex) {
+            fail(InvalidRequestBodyException.class.getSimpleName() + " was thrown");
+            return;
+        }
+
+        assertThat(transfer1.getAmount()).isEqualTo(250L);
+        assertThat(transfer1.getTargetAccountType()).isEqualTo(AccountType.EXTERNAL);
+        assertThat(transfer2.getId()).isNotEqualTo(transfer1.getId());
+        assertThat(transfer2.getSourceAccountId()).isSameAs(transfer1.getSourceAccountId());
+        assertThat(transfer2.getTargetAccountId()).isSameAs(transfer1.getTargetAccountId());
+        assertThat(transfer2.getCurrency()).isSameAs(transfer1.getCurrency());
+    }
+
+    @Test
+    public void testParseOnVirtualThreads() throws Exception {
+        byte[] body = ("{\"source_account_id\": \"22bfc5696816\", \"source_account_type\": \"INTERNAL\", "
+                + "\"target_account_id\": \"6fcbdb359fcc\", \"target_account_type\": \"INTERNAL\", "
+                + "\"amount\": 500, \"currency\": \"EUR\"}").getBytes(StandardCharsets.UTF_8);
+
+        // The virtual threads share the pooled parsing states instead of having their own
+        Transfer[] transfers = new Transfer[64];
+        Thread[] threads = new Thread[transfers.length];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = Thread.ofVirtual().start(() -> {
+                try {
+                    transfers[index] = parser.parse(new ByteArrayInputStream(body));
+                } catch (IOException | InvalidRequestBodyException ex) {
+                    fail(ex.getClass().getSimpleName() + " was thrown");
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (Transfer transfer : transfers) {
+            assertThat(transfer.getSourceAccountId()).isEqualTo("22bfc5696816");
+            assertThat(transfer.getTargetAccountId()).isEqualTo("6fcbdb359fcc");
+            assertThat(transfer.getAmount()).isEqualTo(500L);
+        }
+    }
+
+    @Test
+    public void testParseEscapedStringsAndLongBody() {
+        StringBuilder body = new StringBuilder("{\"source_account_id\": \"22bfc\\u0035696816\",");
+        // Bigger than the initial buffer
+        for (int i = 0; i < 5000; i++) {
+            body.append(' ');
+        }
+        body.append("\"source_account_type\": \"INTERNAL\", \"target_account_id\": \"6fcb\\/db359\\\"fcc\", ")
+                .append("\"target_account_type\": \"INTERNAL\", \"amount\": 100, \"currency\": \"USD\"}\n");
+
+        Transfer transfer = null;
+        try {
+            transfer = parser.parse(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException | InvalidRequestBodyException ex) {
+            fail(ex.getClass().getSimpleName() + " was thrown");
+            return;
+        }
+
+        assertThat(transfer.getSourceAccountId()).isEqualTo("22bfc5696816");
+        assertThat(transfer.getTargetAccountId()).isEqualTo("6fcb/db359\"fcc");
+    }
+
+    @Test
+    public void testParseInvalidRequests() {
+        String valid = "\"source_account_id\": \"22bfc5696816\", \"source_account_type\": \"INTERNAL\", "
+                + "\"target_account_id\": \"6fcbdb359fcc\", \"target_account_type\": \"INTERNAL\", "
+                + "\"currency\": \"USD\", ";
+
+        assertInvalid("{" + valid + "\"amount\": 100");
+        assertInvalid("{" + valid + "\"amount\": 100.5}");
+        assertInvalid("{" + valid + "\"amount\": 99999999999999999999}");
+        assertInvalid("{" + valid + "\"amount\": -100}");
+        assertInvalid("{" + valid + "\"amount\": null}");
+        assertInvalid("{" + valid + "\"amount\": 100, \"unknown\": 1}");
+        assertInvalid("{" + valid + "\"amount\": 100} {}");
+        assertInvalid("{" + valid.replace("\"INTERNAL\"", "\"internal\"") + "\"amount\": 100}");
+        assertInvalid("{" + valid.replace("\"USD\"", "null") + "\"amount\": 100}");
+        assertInvalid("[{" + valid + "\"amount\": 100}]");
+        assertInvalid("{}");
+        assertInvalid("");
+
+        byte[] tooBig = new byte[TransferJsonParser.MAX_BODY_SIZE + 1];
+        assertThatThrownBy(() -> parser.parse(new ByteArrayInputStream(tooBig)))
+                .isInstanceOf(InvalidRequestBodyException.class);
+    }
+
+    private void assertInvalid(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        assertThatThrownBy(() -> parser.parse(bytes, 0, bytes.length))
+                .isInstanceOf(InvalidRequestBodyException.class);
+    }
+}
@@ -0,0 +1,76 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.accountsmanager.InvalidAccountIdsQueryException;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+
+/**
+ * Time needed to get the ids of all the accounts and a page of them.
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar AccountIdsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AccountIdsBenchmark {
+
+    @Param({"1000", "100000"})
+    private int numOfAccounts;
+
+    private static final int PAGE_SIZE = 100;
+
+    private AccountsManager accountsManager;
+    private final SplittableRandom random = new SplittableRandom(42L);
+
+    @Setup
+    public void createAccounts() {
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        for (int i = 0; i < numOfAccounts; i++) {
+            String accountId = String.format("%012x", i);
+            accountRegistry.put(new Account(accountId, "EUR"));
+        }
+
+        accountsManager = new AccountsManagerImpl(accountRegistry, new TransferCheckerImpl(),
+                new AccountLockManagerImpl(), new NoOpJournal());
+    }
+
+    // The ids are iterated since they are returned as a view, as the response streamer does
+    @Benchmark
+    public void getAllAccountIds(Blackhole blackhole) {
+        for (String accountId : accountsManager.getAllAccountIds()) {
+            blackhole.consume(accountId);
+        }
+    }
+
+    // A page which starts at a random position
+    @Benchmark
+    public List<String> getAccountIdsPage() throws InvalidAccountIdsQueryException {
+        return accountsManager.getAccountIds(null, String.format("%012x", random.nextInt(numOfAccounts)), PAGE_SIZE);
+    }
+}
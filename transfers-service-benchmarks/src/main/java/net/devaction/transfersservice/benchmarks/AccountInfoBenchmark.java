@@ -0,0 +1,72 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.response.ResponseStreamer;
+
+/**
+ * Time needed to get the info of an account, including its whole history, and to
+ * get and write the first page of its history (as "GET /transfers/info" does).
+ * Neither of them should depend on the size of the history, add "-prof gc" to see
+ * the allocated bytes.
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar AccountInfoBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AccountInfoBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"100", "1000", "1000000"})
+    private int numOfHistoryItems;
+
+    private Account account;
+
+    private final ResponseStreamer responseStreamer = new ResponseStreamer();
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void createAccount() {
+        AccountHistory history = new AccountHistory();
+        for (int i = 0; i < numOfHistoryItems; i++) {
+            history.add(String.format("%012x", i), "9b6ffcbb26ab", 100L, Direction.RECEIVED, 1581000000000L + i);
+        }
+        account = new Account("0e1f2f1b5612", "EUR", 100L * numOfHistoryItems, history, 0L);
+    }
+
+    @Benchmark
+    public AccountInfo getAccountInfo() {
+        return account.getAccountInfo();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeFirstPage() throws IOException {
+        outputStream.reset();
+        responseStreamer.writeSuccess(outputStream, account.getAccountInfo(0, Long.MIN_VALUE, Long.MAX_VALUE,
+                PAGE_SIZE));
+        return outputStream;
+    }
+}
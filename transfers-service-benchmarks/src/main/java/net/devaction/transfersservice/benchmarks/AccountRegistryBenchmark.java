@@ -0,0 +1,105 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.util.id.HexIds;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+
+/**
+ * Lookups of the accounts of the transfers ("get" of an existing account and
+ * "contains" of an account which does not exist) with 10M accounts, in the
+ * previous "ConcurrentHashMap<String, Account>" and in the open addressing
+ * registry. The ids looked up are different String objects from the ones of the
+ * map, as the ones of the incoming transfers. The heap bytes per account used by
+ * the registry (without the accounts themselves) are printed on setup.
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar AccountRegistryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class AccountRegistryBenchmark {
+
+    public enum RegistryType {
+        CONCURRENT_HASH_MAP, OPEN_ADDRESSING
+    }
+
+    private static final int NUM_OF_LOOKUP_IDS = 1 << 20;
+
+    @Param({"CONCURRENT_HASH_MAP", "OPEN_ADDRESSING"})
+    private RegistryType registryType;
+
+    @Param({"10000000"})
+    private int numOfAccounts;
+
+    private AccountRegistry registry;
+    private String[] existingAccountIds;
+    private String[] missingAccountIds;
+    private int index;
+
+    @Setup
+    public void createAccounts() {
+        SplittableRandom random = new SplittableRandom(42L);
+        // The history is not relevant here, a shared one keeps the heap small
+        AccountHistory history = new AccountHistory();
+        Account[] accounts = new Account[numOfAccounts];
+        for (int i = 0; i < numOfAccounts; i++) {
+            accounts[i] = new Account(HexIds.toHex(random.nextLong(1L << 48)), "EUR", 0L, history, 0L);
+        }
+
+        long before = usedMemory();
+        registry = registryType == RegistryType.CONCURRENT_HASH_MAP
+                ? new MapAccountRegistry(numOfAccounts) : new OpenAddressingAccountRegistry(numOfAccounts);
+        for (Account account : accounts) {
+            registry.put(account);
+        }
+        long registryBytes = usedMemory() - before;
+        System.out.printf("%nRegistry: %,d accounts, %,d bytes, %.1f bytes per account%n",
+                registry.size(), registryBytes, (double) registryBytes / numOfAccounts);
+
+        existingAccountIds = new String[NUM_OF_LOOKUP_IDS];
+        missingAccountIds = new String[NUM_OF_LOOKUP_IDS];
+        for (int i = 0; i < NUM_OF_LOOKUP_IDS; i++) {
+            existingAccountIds[i] = accounts[random.nextInt(numOfAccounts)].getId();
+            // The odds that a random id exists are negligible
+            missingAccountIds[i] = HexIds.toHex(random.nextLong(1L << 48));
+        }
+    }
+
+    @Benchmark
+    public Account getExistingAccount() {
+        return registry.get(existingAccountIds[index++ & (NUM_OF_LOOKUP_IDS - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsMissingAccount() {
+        return registry.contains(missingAccountIds[index++ & (NUM_OF_LOOKUP_IDS - 1)]);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,43 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Sequences of account indexes, generated beforehand so picking the next account
+ * does not add any noise to the measurements. With the Zipf distribution a few
+ * accounts get most of the transfers (e.g., the accounts of big merchants), which
+ * increases the contention on their locks.
+ */
+public enum AccountSelection {
+    UNIFORM, ZIPF;
+
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    public int[] generate(int numOfAccounts, int length, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] indexes = new int[length];
+
+        if (this == UNIFORM) {
+            for (int i = 0; i < length; i++) {
+                indexes[i] = random.nextInt(numOfAccounts);
+            }
+            return indexes;
+        }
+
+        // Cumulative distribution function, the probability of the account
+        // with rank "k" is proportional to 1 / k^exponent
+        double[] cdf = new double[numOfAccounts];
+        double sum = 0.0;
+        for (int i = 0; i < numOfAccounts; i++) {
+            sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            indexes[i] = Math.min(index >= 0 ? index : -index - 1, numOfAccounts - 1);
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,121 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.api.util.id.HexIds;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OffHeapAccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+
+/**
+ * Heap bytes per account and duration of a full GC with the accounts stored in the
+ * heap (an "Account" object each) and in the off-heap account table (see
+ * "OffHeapAccountRegistry"), along with the GC time spent while the accounts are
+ * created and the time needed to make a deposit into a percentage of them (the
+ * accounts which receive a transfer get a history, which is in the heap in both
+ * cases). It is not a JMH benchmark since it measures memory instead of time:
+ *
+ * java -Xmx4g -XX:MaxDirectMemorySize=4g -cp transfers-service-benchmarks/target/benchmarks.jar
+ *     net.devaction.transfersservice.benchmarks.AccountTableFootprint
+ *     [numOfAccounts] [percentageOfActiveAccounts] [heap|offheap|both]
+ */
+public class AccountTableFootprint {
+
+    private static final String EXTERNAL_ACCOUNT_ID = "000000000000";
+    private static final int NUM_OF_FULL_GCS = 3;
+    private static final long ID_MASK = (1L << 48) - 1L;
+
+    public static void main(String[] args) throws Exception {
+        int numOfAccounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int percentageOfActiveAccounts = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String storage = args.length > 2 ? args[2] : "both";
+
+        System.out.printf("%,d accounts, %d%% of them receive a transfer%n", numOfAccounts,
+                percentageOfActiveAccounts);
+
+        // The off-heap table goes first, the objects of the other registry could still be
+        // in the heap after it has been cleared
+        if (!storage.equals("heap")) {
+            measure("Off-heap account table", new OffHeapAccountRegistry(numOfAccounts), numOfAccounts,
+                    percentageOfActiveAccounts);
+        }
+        if (!storage.equals("offheap")) {
+            measure("Heap (an object per account)", new OpenAddressingAccountRegistry(numOfAccounts),
+                    numOfAccounts, percentageOfActiveAccounts);
+        }
+    }
+
+    // The ids are not kept in the heap, they would take more than the accounts
+    // themselves. Multiplying by an odd number is a bijection, hence they are unique
+    private static String accountId(int index) {
+        return HexIds.toHex(((index + 1L) * 0x9E3779B97F4A7C15L) & ID_MASK);
+    }
+
+    private static void measure(String name, AccountRegistry registry, int numOfAccounts,
+            int percentageOfActiveAccounts) throws Exception {
+
+        long before = usedMemory();
+        long gcMillisBefore = gcMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < numOfAccounts; i++) {
+            registry.put(new Account(accountId(i), "EUR"));
+        }
+        long creationMillis = (System.nanoTime() - start) / 1000000L;
+        long creationGcMillis = gcMillis() - gcMillisBefore;
+        long accountsBytes = usedMemory() - before;
+
+        // A single thread makes the deposits, hence the locks of the accounts are not taken
+        int numOfActiveAccounts = (int) ((long) numOfAccounts * percentageOfActiveAccounts / 100L);
+        long timestamp = System.currentTimeMillis();
+        start = System.nanoTime();
+        for (int i = 0; i < numOfActiveAccounts; i++) {
+            String accountId = accountId(i);
+            Transfer transfer = new Transfer(HexIds.toHex(i + 1L), EXTERNAL_ACCOUNT_ID, AccountType.EXTERNAL,
+                    accountId, AccountType.INTERNAL, 100L, "EUR", timestamp);
+            registry.get(accountId).add(transfer, Direction.RECEIVED);
+        }
+        long depositNanos = System.nanoTime() - start;
+        long totalBytes = usedMemory() - before;
+
+        gcMillisBefore = gcMillis();
+        start = System.nanoTime();
+        for (int i = 0; i < NUM_OF_FULL_GCS; i++) {
+            System.gc();
+        }
+        long fullGcMillis = (System.nanoTime() - start) / 1000000L / NUM_OF_FULL_GCS;
+        long fullGcPauseMillis = (gcMillis() - gcMillisBefore) / NUM_OF_FULL_GCS;
+
+        long offHeapBytes = registry instanceof OffHeapAccountRegistry
+                ? ((OffHeapAccountRegistry) registry).getOffHeapBytes() : 0L;
+        System.out.printf("%-30s heap: %,d bytes (%.1f bytes per account), with the deposits: %,d bytes, "
+                + "off-heap: %,d bytes (%.1f bytes per account), creation: %,d ms (GC: %,d ms), "
+                + "deposit: %,d ns, full GC: %,d ms (%,d ms reported)%n", name, accountsBytes,
+                (double) accountsBytes / numOfAccounts, totalBytes, offHeapBytes,
+                (double) offHeapBytes / numOfAccounts, creationMillis, creationGcMillis,
+                numOfActiveAccounts == 0 ? 0L : depositNanos / numOfActiveAccounts, fullGcMillis,
+                fullGcPauseMillis);
+
+        registry.clear();
+    }
+
+    private static long gcMillis() {
+        long millis = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0L, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
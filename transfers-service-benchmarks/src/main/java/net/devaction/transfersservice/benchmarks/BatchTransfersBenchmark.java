@@ -0,0 +1,165 @@
+package net.devaction.transfersservice.benchmarks;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.api.util.json.JsonUnmarshaller;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.MappedJournal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.response.ResponseStreamer;
+import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransferResult;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+/**
+ * Transfers per second submitted one by one (like "/transfers/transfer": JSON
+ * parsing, processing and response of each transfer) vs in batches of 1000
+ * (like "/transfers/batch"). The HTTP overhead of each request is not included.
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar BatchTransfersBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BatchTransfersBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String CURRENCY = "EUR";
+    private static final String EXTERNAL_ACCOUNT_ID = "external-account-3c2f";
+
+    public enum JournalMode {
+        NONE, ASYNC, FSYNC
+    }
+
+    @Param({"NONE", "ASYNC", "FSYNC"})
+    private JournalMode mode;
+
+    @Param({"1024"})
+    private int numOfAccounts;
+
+    private Path journalDir;
+    private Journal journal;
+    private TransfersManager transfersManager;
+
+    private String[] transferRequests;
+    private String batchRequest;
+
+    private final JsonUnmarshaller<Transfer> transferUnmarshaller = new JsonUnmarshaller<>(Transfer.class);
+    private final ResponseStreamer responseStreamer = new ResponseStreamer();
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024 * 1024);
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        if (mode == JournalMode.NONE) {
+            journal = new NoOpJournal();
+        } else {
+            journalDir = Files.createTempDirectory("transfers-batch-benchmark");
+            journal = new MappedJournal(journalDir, mode == JournalMode.FSYNC);
+        }
+
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+        AccountsManager accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+
+        String[] accountIds = new String[numOfAccounts];
+        for (int i = 0; i < numOfAccounts; i++) {
+            accountIds[i] = accountsManager.openNewAccount(CURRENCY);
+            transfersManager.processTransfer(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, accountIds[i], INTERNAL,
+                    1000000000L, CURRENCY));
+        }
+
+        // Half of them are internal transfers and the other half are external ones
+        SplittableRandom random = new SplittableRandom(42L);
+        transferRequests = new String[BATCH_SIZE];
+        StringJoiner batch = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int accountIndex = random.nextInt(numOfAccounts);
+            String accountId = accountIds[accountIndex];
+            String counterpartyId = i % 2 == 0 ? EXTERNAL_ACCOUNT_ID
+                    : accountIds[(accountIndex + 1 + random.nextInt(numOfAccounts - 1)) % numOfAccounts];
+            transferRequests[i] = "{\"source_account_id\": \"" + accountId + "\", \"source_account_type\": \"INTERNAL\", "
+                    + "\"target_account_id\": \"" + counterpartyId + "\", \"target_account_type\": \""
+                    + (i % 2 == 0 ? EXTERNAL : INTERNAL) + "\", \"amount\": 100, \"currency\": \"" + CURRENCY + "\"}";
+            batch.add(transferRequests[i]);
+        }
+        batchRequest = batch.toString();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        journal.close();
+        if (journalDir != null) {
+            try (Stream<Path> paths = Files.walk(journalDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+            journalDir = null;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void oneByOne() throws IOException {
+        for (String transferRequest : transferRequests) {
+            outputStream.reset();
+            try {
+                transfersManager.processTransfer(transferUnmarshaller.unmarshall(transferRequest));
+            } catch (Exception ex) {
+                responseStreamer.writeError(outputStream, ex.toString());
+                continue;
+            }
+            responseStreamer.writeSuccess(outputStream);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void batch() throws Exception {
+        outputStream.reset();
+        List<TransferResult> transferResults = transfersManager.processTransfers(
+                transferUnmarshaller.unmarshallList(batchRequest));
+        responseStreamer.writeSuccess(outputStream, transferResults);
+    }
+}
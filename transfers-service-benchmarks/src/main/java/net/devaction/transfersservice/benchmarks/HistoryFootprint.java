@@ -0,0 +1,65 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.core.account.AccountHistory;
+
+/**
+ * Heap bytes per history item of an account with 1M items, stored as the
+ * previous "LinkedList<AccountHistoryItem>" and as an "AccountHistory".
+ * It is not a JMH benchmark since it measures memory instead of time:
+ *
+ * java -cp transfers-service-benchmarks/target/benchmarks.jar
+ *     net.devaction.transfersservice.benchmarks.HistoryFootprint [numOfItems] [numOfCounterparties]
+ */
+public class HistoryFootprint {
+
+    public static void main(String[] args) {
+        int numOfItems = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int numOfCounterparties = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        // The ids are created beforehand since both representations get them
+        // from the incoming transfers
+        SplittableRandom random = new SplittableRandom(42L);
+        String[] counterpartyIds = new String[numOfCounterparties];
+        for (int i = 0; i < numOfCounterparties; i++) {
+            counterpartyIds[i] = String.format("%012x", random.nextLong(1L << 48));
+        }
+
+        long before = usedMemory();
+        List<AccountHistoryItem> linkedList = new LinkedList<>();
+        for (int i = 0; i < numOfItems; i++) {
+            linkedList.add(new AccountHistoryItem(String.format("%012x", random.nextLong(1L << 48)),
+                    counterpartyIds[random.nextInt(numOfCounterparties)], 100L, Direction.RECEIVED, i));
+        }
+        long linkedListBytes = usedMemory() - before;
+        print("LinkedList<AccountHistoryItem>", linkedListBytes, numOfItems, linkedList.size());
+        linkedList = null;
+
+        before = usedMemory();
+        AccountHistory history = new AccountHistory();
+        for (int i = 0; i < numOfItems; i++) {
+            history.add(String.format("%012x", random.nextLong(1L << 48)),
+                    counterpartyIds[random.nextInt(numOfCounterparties)], 100L, Direction.RECEIVED, i);
+        }
+        long historyBytes = usedMemory() - before;
+        print("AccountHistory", historyBytes, numOfItems, history.size());
+    }
+
+    private static void print(String name, long bytes, int numOfItems, int size) {
+        System.out.printf("%-32s %,d items: %,d bytes, %.1f bytes per item%n", name, size, bytes,
+                (double) bytes / numOfItems);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,62 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountHistory;
+
+/**
+ * Time needed to get a page of 100 history items within a time range, it
+ * should not depend on the total number of items of the account:
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar HistoryPageBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HistoryPageBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+    private static final long FIRST_TIMESTAMP = 1581000000000L;
+
+    @Param({"1000", "100000", "10000000"})
+    private int numOfItems;
+
+    private Account account;
+    private SplittableRandom random;
+
+    @Setup
+    public void createAccount() {
+        AccountHistory history = new AccountHistory();
+        for (int i = 0; i < numOfItems; i++) {
+            history.add(String.format("%012x", i), "9b6ffcbb26ab", 100L, Direction.RECEIVED,
+                    FIRST_TIMESTAMP + 1000L * i);
+        }
+        account = new Account("0e1f2f1b5612", "EUR", 100L * numOfItems, history, 0L);
+        random = new SplittableRandom(42L);
+    }
+
+    @Benchmark
+    public AccountInfo getPage() {
+        long from = FIRST_TIMESTAMP + 1000L * random.nextInt(numOfItems - PAGE_SIZE);
+        return account.getAccountInfo(0, from, Long.MAX_VALUE, PAGE_SIZE);
+    }
+}
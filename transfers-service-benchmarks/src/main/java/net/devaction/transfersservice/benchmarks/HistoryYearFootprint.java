@@ -0,0 +1,124 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.MappedHistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+
+/**
+ * Heap bytes of the histories of the accounts after a simulated year of internal
+ * transfers (each one adds an item to the history of both accounts), with the whole
+ * history in the heap and with the old items archived (see "MappedHistoryArchive"),
+ * along with the time spent in GC while the year is simulated and the time needed
+ * to go through the whole history of an account. It is not a JMH benchmark since
+ * it measures memory instead of time:
+ *
+ * java -Xmx4g -cp transfers-service-benchmarks/target/benchmarks.jar
+ *     net.devaction.transfersservice.benchmarks.HistoryYearFootprint
+ *     [numOfAccounts] [transfersPerDay] [retainedItems] [retentionDays]
+ */
+public class HistoryYearFootprint {
+
+    private static final long START_TIMESTAMP = 1577836800000L; // 2020-01-01
+    private static final int DAYS_PER_YEAR = 365;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int numOfAccounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int transfersPerDay = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int numOfRetainedItems = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long retentionMillis = TimeUnit.DAYS.toMillis(args.length > 3 ? Long.parseLong(args[3]) : 30L);
+
+        String[] accountIds = new String[numOfAccounts];
+        SplittableRandom random = new SplittableRandom(42L);
+        for (int i = 0; i < numOfAccounts; i++) {
+            accountIds[i] = String.format("%012x", random.nextLong(1L << 48));
+        }
+
+        System.out.printf("%,d accounts, %,d transfers per day, %,d history items after a year%n", numOfAccounts,
+                transfersPerDay, 2L * transfersPerDay * DAYS_PER_YEAR);
+
+        simulate("Whole history in the heap", new NoOpHistoryArchive(), accountIds, transfersPerDay);
+
+        Path directory = Files.createTempDirectory("history-archive");
+        simulate(String.format("Archived beyond %,d items or %d days", numOfRetainedItems,
+                TimeUnit.MILLISECONDS.toDays(retentionMillis)),
+                new MappedHistoryArchive(directory, numOfRetainedItems, retentionMillis), accountIds,
+                transfersPerDay);
+        System.out.println("The archive segments are in " + directory);
+    }
+
+    private static void simulate(String name, HistoryArchive archive, String[] accountIds, int transfersPerDay)
+            throws InterruptedException {
+        long before = usedMemory();
+        long gcMillisBefore = gcMillis();
+        long start = System.nanoTime();
+
+        AccountHistory[] histories = new AccountHistory[accountIds.length];
+        for (int i = 0; i < histories.length; i++) {
+            histories[i] = new AccountHistory(archive);
+        }
+
+        SplittableRandom random = new SplittableRandom(7L);
+        long millisBetweenTransfers = TimeUnit.DAYS.toMillis(1L) / transfersPerDay;
+        long numOfTransfers = (long) transfersPerDay * DAYS_PER_YEAR;
+        for (long i = 0; i < numOfTransfers; i++) {
+            int source = random.nextInt(accountIds.length);
+            int target = random.nextInt(accountIds.length - 1);
+            if (target >= source) {
+                target++;
+            }
+            String transferId = String.format("%012x", random.nextLong(1L << 48));
+            long amount = 1L + random.nextInt(100000);
+            long timestamp = START_TIMESTAMP + i * millisBetweenTransfers;
+            histories[source].add(transferId, accountIds[target], amount, Direction.SENT, timestamp);
+            histories[target].add(transferId, accountIds[source], amount, Direction.RECEIVED, timestamp);
+        }
+
+        // The old chunks are archived in the background
+        if (archive instanceof MappedHistoryArchive) {
+            ((MappedHistoryArchive) archive).awaitArchiving();
+        }
+        long simulationMillis = (System.nanoTime() - start) / 1000000L;
+        long gcMillis = gcMillis() - gcMillisBefore;
+        long bytes = usedMemory() - before;
+
+        // Going through the whole history of an account, most of it is archived
+        start = System.nanoTime();
+        AccountHistory history = histories[0];
+        long sum = 0L;
+        for (int i = 0; i < history.size(); i++) {
+            sum += history.getAmount(i);
+        }
+        long readMicros = (System.nanoTime() - start) / 1000L;
+
+        System.out.printf("%-40s heap: %,d bytes (%.1f bytes per item), archived: %,d bytes, "
+                + "simulation: %,d ms (GC: %,d ms), reading the %,d items of an account: %,d us (%d)%n", name,
+                bytes, (double) bytes / (2.0 * numOfTransfers), archive.getArchivedBytes(), simulationMillis,
+                gcMillis, history.size(), readMicros, sum & 1L);
+    }
+
+    private static long gcMillis() {
+        long millis = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0L, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
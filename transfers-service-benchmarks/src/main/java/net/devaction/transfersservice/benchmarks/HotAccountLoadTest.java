@@ -0,0 +1,236 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import spark.Spark;
+
+import net.devaction.transfersservice.core.GuiceModule;
+import net.devaction.transfersservice.core.TransfersServiceMain;
+
+/**
+ * Latency of the transfers between unrelated accounts while a hot account is
+ * saturated, i.e., many concurrent transfers to the same account are waiting for
+ * its lock, which is also held for a while by batches of transfers to it. The
+ * service is started in the same JVM with the given HTTP threads mode
+ * ("platform" or "virtual", see "GuiceModule.HTTP_THREADS_PROPERTY"). With
+ * the platform threads of the Jetty pool the waiting requests take all of them
+ * and the unrelated requests are queued behind. It is not a JMH benchmark since
+ * it measures the latency of each request:
+ *
+ * java -cp transfers-service-benchmarks/target/benchmarks.jar
+ *     net.devaction.transfersservice.benchmarks.HotAccountLoadTest [mode] [seconds] [numOfHotRequests] [numOfClients]
+ */
+public class HotAccountLoadTest {
+
+    private static final String BASE_URL = "http://localhost:4567/transfers";
+    private static final String EXTERNAL_ACCOUNT_ID = "157016b32e6c";
+    private static final int NUM_OF_ACCOUNTS = 1000;
+    private static final String CURRENCY = "EUR";
+    private static final int BATCH_SIZE = 5000;
+
+    private final long durationInNanos;
+    private final int numOfHotRequests;
+    private final int numOfClients;
+    // Used for the transfers to the hot account, the other clients have their own one
+    private final HttpClient httpClient = createHttpClient();
+    private final String[] accountIds = new String[NUM_OF_ACCOUNTS];
+    private String hotAccountId;
+
+    private HotAccountLoadTest(long durationInSeconds, int numOfHotRequests, int numOfClients) {
+        this.durationInNanos = TimeUnit.SECONDS.toNanos(durationInSeconds);
+        this.numOfHotRequests = numOfHotRequests;
+        this.numOfClients = numOfClients;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : GuiceModule.VIRTUAL_HTTP_THREADS;
+        long durationInSeconds = args.length > 1 ? Long.parseLong(args[1]) : 10L;
+        int numOfHotRequests = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        int numOfClients = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+        System.setProperty(GuiceModule.HTTP_THREADS_PROPERTY, mode);
+        TransfersServiceMain.main(new String[0]);
+        Spark.awaitInitialization();
+
+        HotAccountLoadTest loadTest = new HotAccountLoadTest(durationInSeconds, numOfHotRequests, numOfClients);
+        loadTest.openAccounts();
+
+        System.out.printf("%nHTTP threads: %s, %d in-flight transfers to the hot account, %d client threads "
+                + "of unrelated transfers, %d seconds per test%n", mode, numOfHotRequests, numOfClients,
+                durationInSeconds);
+        // The first round warms up the JIT compiler
+        for (int round = 0; round < 2; round++) {
+            System.out.println(round == 0 ? "Warm-up round:" : "Measurement round:");
+            loadTest.run(false);
+            loadTest.run(true);
+        }
+        System.exit(0);
+    }
+
+    private void openAccounts() throws IOException, InterruptedException {
+        for (int i = 0; i < NUM_OF_ACCOUNTS; i++) {
+            String body = send(HttpRequest.newBuilder(URI.create(BASE_URL + "/account?currency=" + CURRENCY))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build());
+            int start = body.indexOf('"', body.indexOf(':', body.indexOf("\"accountId\"")) + 1) + 1;
+            accountIds[i] = body.substring(start, body.indexOf('"', start));
+
+            // Enough balance for any number of transfers of one cent
+            send(transferRequest(EXTERNAL_ACCOUNT_ID, "EXTERNAL", accountIds[i], "INTERNAL", Long.MAX_VALUE / 4));
+        }
+        // The hot account is not used by the unrelated transfers
+        hotAccountId = accountIds[0];
+    }
+
+    private void run(boolean withHotAccount) throws InterruptedException {
+        AtomicLong numOfHotTransfers = new AtomicLong();
+        CountDownLatch hotRequestsDone = new CountDownLatch(withHotAccount ? numOfHotRequests : 0);
+        long end = System.nanoTime() + durationInNanos;
+        Thread batchClient = new Thread(() -> runBatchClient(end, numOfHotTransfers));
+        if (withHotAccount) {
+            batchClient.start();
+            HttpRequest hotRequest = transferRequest(EXTERNAL_ACCOUNT_ID, "EXTERNAL", hotAccountId, "INTERNAL", 1L);
+            for (int i = 0; i < numOfHotRequests; i++) {
+                sendHotTransfer(hotRequest, end, numOfHotTransfers, hotRequestsDone);
+            }
+        }
+
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numOfClients; i++) {
+            long seed = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    long[] clientLatencies = runClient(seed, end);
+                    synchronized (latencies) {
+                        latencies.add(clientLatencies);
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        hotRequestsDone.await();
+        if (withHotAccount) {
+            batchClient.join();
+        }
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        String name = withHotAccount ? "With the hot account saturated" : "Without the hot account";
+        if (all.length == 0) {
+            System.out.printf("  %-32s no requests%n", name);
+            return;
+        }
+        System.out.printf("  %-32s hot: %,8.0f transfers/s   unrelated: %,8.0f transfers/s   "
+                + "p50: %,9.1f us   p99: %,9.1f us   max: %,9.1f us%n", name,
+                numOfHotTransfers.get() / (durationInNanos / 1e9), all.length / (durationInNanos / 1e9),
+                all[all.length / 2] / 1e3, all[(int) (all.length * 0.99)] / 1e3, all[all.length - 1] / 1e3);
+    }
+
+    // Each completed transfer sends the next one, hence there are always "numOfHotRequests" in flight
+    private void sendHotTransfer(HttpRequest request, long end, AtomicLong numOfHotTransfers,
+            CountDownLatch hotRequestsDone) {
+
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, ex) -> {
+            if (ex == null) {
+                numOfHotTransfers.incrementAndGet();
+            }
+            if (ex != null || System.nanoTime() >= end) {
+                hotRequestsDone.countDown();
+            } else {
+                sendHotTransfer(request, end, numOfHotTransfers, hotRequestsDone);
+            }
+        });
+    }
+
+    // The lock of the hot account is held while the whole batch is applied
+    private void runBatchClient(long end, AtomicLong numOfHotTransfers) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            body.append(i == 0 ? "" : ",").append(transferJson(EXTERNAL_ACCOUNT_ID, "EXTERNAL", hotAccountId,
+                    "INTERNAL", 1L));
+        }
+        HttpClient batchHttpClient = createHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(BASE_URL + "/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.append("]").toString())).build();
+
+        try {
+            while (System.nanoTime() < end) {
+                send(batchHttpClient, request);
+                numOfHotTransfers.addAndGet(BATCH_SIZE);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private long[] runClient(long seed, long end) throws IOException, InterruptedException {
+        SplittableRandom random = new SplittableRandom(seed);
+        HttpClient clientHttpClient = createHttpClient();
+        long[] latencies = new long[1 << 16];
+        int size = 0;
+
+        long start;
+        while ((start = System.nanoTime()) < end) {
+            // Any account but the hot one
+            int sourceIndex = 1 + random.nextInt(NUM_OF_ACCOUNTS - 1);
+            int targetIndex = 1 + (sourceIndex + random.nextInt(NUM_OF_ACCOUNTS - 2)) % (NUM_OF_ACCOUNTS - 1);
+            send(clientHttpClient, transferRequest(accountIds[sourceIndex], "INTERNAL", accountIds[targetIndex],
+                    "INTERNAL", 1L));
+
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * size);
+            }
+            latencies[size++] = System.nanoTime() - start;
+        }
+        return Arrays.copyOf(latencies, size);
+    }
+
+    private HttpRequest transferRequest(String sourceAccountId, String sourceAccountType, String targetAccountId,
+            String targetAccountType, long amount) {
+
+        String body = transferJson(sourceAccountId, sourceAccountType, targetAccountId, targetAccountType, amount);
+        return HttpRequest.newBuilder(URI.create(BASE_URL + "/transfer"))
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    private static String transferJson(String sourceAccountId, String sourceAccountType, String targetAccountId,
+            String targetAccountType, long amount) {
+
+        return "{\"source_account_id\": \"" + sourceAccountId + "\", \"source_account_type\": \""
+                + sourceAccountType + "\", \"target_account_id\": \"" + targetAccountId
+                + "\", \"target_account_type\": \"" + targetAccountType + "\", \"amount\": " + amount
+                + ", \"currency\": \"" + CURRENCY + "\"}";
+    }
+
+    private static HttpClient createHttpClient() {
+        return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    private String send(HttpRequest request) throws IOException, InterruptedException {
+        return send(httpClient, request);
+    }
+
+    private static String send(HttpClient client, HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200 || !response.body().contains("\"SUCCESS\"")) {
+            throw new IllegalStateException("Unexpected response: " + response.body());
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,50 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.util.id.HexIds;
+
+/**
+ * Generation of an account or transfer id, the way it was done before ("UUID"
+ * substring) and by means of "HexIds", from several threads since the random
+ * UUIDs share a single "SecureRandom". Add "-prof gc" to see the allocated bytes:
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar IdGenerationBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class IdGenerationBenchmark {
+
+    @Benchmark
+    public String uuidSubstring() {
+        // last 12 hexadecimal digits of the random UUID
+        return UUID.randomUUID().toString().substring(24);
+    }
+
+    @Benchmark
+    public long hexId() {
+        return HexIds.randomId();
+    }
+
+    @Benchmark
+    public String hexIdToHex() {
+        return HexIds.toHex(HexIds.randomId());
+    }
+}
@@ -0,0 +1,119 @@
+package net.devaction.transfersservice.benchmarks;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.MappedJournal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+/**
+ * Transfers per second with the journal disabled, enabled without "fsync"
+ * and enabled with "fsync" (group commit). Each iteration starts with new
+ * accounts and an empty journal so the account histories do not keep
+ * growing during the whole run.
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar JournalBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+public class JournalBenchmark {
+
+    private static final String CURRENCY = "EUR";
+    private static final String EXTERNAL_ACCOUNT_ID = "external-account-3c2f";
+
+    public enum JournalMode {
+        NONE, ASYNC, FSYNC
+    }
+
+    @Param({"NONE", "ASYNC", "FSYNC"})
+    private JournalMode mode;
+
+    @Param({"1024"})
+    private int numOfAccounts;
+
+    private Path journalDir;
+    private Journal journal;
+    private TransfersManager transfersManager;
+    private String[] accountIds;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        if (mode == JournalMode.NONE) {
+            journal = new NoOpJournal();
+        } else {
+            journalDir = Files.createTempDirectory("transfers-journal-benchmark");
+            journal = new MappedJournal(journalDir, mode == JournalMode.FSYNC);
+        }
+
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+        AccountsManager accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+
+        accountIds = new String[numOfAccounts];
+        for (int i = 0; i < numOfAccounts; i++) {
+            accountIds[i] = accountsManager.openNewAccount(CURRENCY);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        journal.close();
+        if (journalDir != null) {
+            try (Stream<Path> paths = Files.walk(journalDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+            journalDir = null;
+        }
+    }
+
+    @Benchmark
+    public void externalTransfer() throws Exception {
+        String accountId = accountIds[ThreadLocalRandom.current().nextInt(accountIds.length)];
+        transfersManager.processTransfer(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, accountId, INTERNAL,
+                100L, CURRENCY));
+    }
+}
@@ -0,0 +1,65 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.api.util.json.InvalidRequestBodyException;
+import net.devaction.transfersservice.api.util.json.JsonUnmarshaller;
+import net.devaction.transfersservice.api.util.json.TransferJsonParser;
+
+/**
+ * Unmarshalling of the body of a "/transfers/transfer" request, with Jackson
+ * (from a String, as the body was read before) and with "TransferJsonParser"
+ * (from the bytes). Add "-prof gc" to see the allocated bytes per request, the
+ * remaining ones of "TransferJsonParser" are the "Transfer" object itself:
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar JsonBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JsonBenchmark {
+
+    private static final String TRANSFER_REQUEST = "{\n"
+            + "    \"source_account_id\": \"157016b32e6c\",\n"
+            + "    \"source_account_type\": \"EXTERNAL\",\n"
+            + "    \"target_account_id\": \"8a7fc0492e50\",\n"
+            + "    \"target_account_type\": \"INTERNAL\",\n"
+            + "    \"amount\": 100000,\n"
+            + "    \"currency\": \"GBP\"\n"
+            + "}";
+
+    private final JsonUnmarshaller<Transfer> transferUnmarshaller = new JsonUnmarshaller<>(Transfer.class);
+    private final TransferJsonParser transferParser = new TransferJsonParser();
+
+    // Reset before each request, like the cached body of a Spark request
+    private final ByteArrayInputStream requestStream =
+            new ByteArrayInputStream(TRANSFER_REQUEST.getBytes(StandardCharsets.UTF_8));
+
+    @Benchmark
+    public Transfer unmarshallTransfer() throws IOException {
+        return transferUnmarshaller.unmarshall(TRANSFER_REQUEST);
+    }
+
+    @Benchmark
+    public Transfer parseTransfer() throws IOException, InvalidRequestBodyException {
+        requestStream.reset();
+        return transferParser.parse(requestStream);
+    }
+}
@@ -0,0 +1,66 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+
+/**
+ * The previous registry of the accounts, a "ConcurrentHashMap<String, Account>",
+ * to compare it with "OpenAddressingAccountRegistry".
+ */
+public class MapAccountRegistry implements AccountRegistry {
+
+    private final Map<String, Account> accountMap;
+
+    public MapAccountRegistry(int expectedNumOfAccounts) {
+        accountMap = new ConcurrentHashMap<>(expectedNumOfAccounts);
+    }
+
+    @Override
+    public Account get(String accountId) {
+        return accountMap.get(accountId);
+    }
+
+    @Override
+    public Account get(long encodedAccountId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(String accountId) {
+        return accountMap.containsKey(accountId);
+    }
+
+    @Override
+    public void put(Account account) {
+        accountMap.put(account.getId(), account);
+    }
+
+    @Override
+    public Account putIfAbsent(Account account) {
+        return accountMap.putIfAbsent(account.getId(), account);
+    }
+
+    @Override
+    public Account remove(String accountId) {
+        return accountMap.remove(accountId);
+    }
+
+    @Override
+    public int size() {
+        return accountMap.size();
+    }
+
+    @Override
+    public void clear() {
+        accountMap.clear();
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        return accountMap.values().iterator();
+    }
+}
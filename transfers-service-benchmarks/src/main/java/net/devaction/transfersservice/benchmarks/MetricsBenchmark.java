@@ -0,0 +1,116 @@
+package net.devaction.transfersservice.benchmarks;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.metrics.HistogramTransferMetrics;
+import net.devaction.transfersservice.core.metrics.NoOpTransferMetrics;
+import net.devaction.transfersservice.core.metrics.Stage;
+import net.devaction.transfersservice.core.metrics.TransferMetrics;
+import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+/**
+ * Overhead of the latency metrics of the transfers: the time needed to process
+ * an external transfer (without journal) without metrics ("NONE"), with the default
+ * sampling ("SAMPLED", one in 16 transfers) and measuring all of them ("ALL"), and
+ * the time needed to measure all the stages of a single transfer ("recordStages",
+ * the same calls as the processing of an external transfer, most of it is spent
+ * reading the clock).
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar MetricsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MetricsBenchmark {
+
+    private static final String CURRENCY = "EUR";
+    private static final String EXTERNAL_ACCOUNT_ID = "external-account-3c2f";
+    private static final int NUM_OF_ACCOUNTS = 1024;
+
+    @Param({"NONE", "SAMPLED", "ALL"})
+    private String metricsType;
+
+    private TransferMetrics metrics;
+    private TransfersManager transfersManager;
+    private String[] accountIds;
+    private int position;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        if ("NONE".equals(metricsType)) {
+            metrics = new NoOpTransferMetrics();
+        } else {
+            metrics = new HistogramTransferMetrics("ALL".equals(metricsType)
+                    ? 1 : HistogramTransferMetrics.DEFAULT_SAMPLING_INTERVAL);
+        }
+
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
+
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal,
+                metrics);
+        AccountsManager accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+
+        accountIds = new String[NUM_OF_ACCOUNTS];
+        for (int i = 0; i < NUM_OF_ACCOUNTS; i++) {
+            accountIds[i] = accountsManager.openNewAccount(CURRENCY);
+        }
+    }
+
+    @Benchmark
+    public void recordStages() {
+        long start = System.nanoTime();
+        long validated = System.nanoTime();
+        metrics.record(Stage.VALIDATION, validated - start);
+        long resolved = System.nanoTime();
+        metrics.record(Stage.LOOKUP, resolved - validated);
+        long locked = System.nanoTime();
+        metrics.record(Stage.LOCK, locked - resolved);
+        long applied = System.nanoTime();
+        metrics.record(Stage.APPLY, applied - locked);
+        long durable = System.nanoTime();
+        metrics.record(Stage.JOURNAL, durable - applied);
+        metrics.record(Stage.TOTAL, durable - start);
+    }
+
+    @Benchmark
+    public void externalTransfer() throws Exception {
+        position = (position + 1) & (NUM_OF_ACCOUNTS - 1);
+        transfersManager.processTransfer(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, accountIds[position], INTERNAL,
+                100L, CURRENCY));
+    }
+}
@@ -0,0 +1,252 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import spark.Spark;
+
+import net.devaction.transfersservice.core.GuiceModule;
+import net.devaction.transfersservice.core.TransfersServiceMain;
+import net.devaction.transfersservice.core.binary.BinaryProtocol;
+import net.devaction.transfersservice.core.binary.BinaryProtocolClient;
+import net.devaction.transfersservice.core.binary.BinaryResponse;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+/**
+ * Throughput and p50/p99 latency of internal transfers sent to the JSON HTTP API
+ * and to the binary protocol (one request at a time and pipelined), from several
+ * client threads. The service is started in the same JVM with its default
+ * settings (no journal unless "-Dtransfers.journal.dir" is set). It is not a JMH
+ * benchmark since it measures the latency of each request:
+ *
+ * java -cp transfers-service-benchmarks/target/benchmarks.jar
+ *     net.devaction.transfersservice.benchmarks.ProtocolLoadTest [seconds] [numOfClients] [pipelineDepth]
+ */
+public class ProtocolLoadTest {
+
+    private static final String HOST = "localhost";
+    private static final int HTTP_PORT = 4567;
+    private static final int BINARY_PORT = 4568;
+    private static final int NUM_OF_ACCOUNTS = 1000;
+    private static final String CURRENCY = "EUR";
+
+    private final long durationInNanos;
+    private final int numOfClients;
+    private final int pipelineDepth;
+    private final String[] accountIds = new String[NUM_OF_ACCOUNTS];
+
+    private ProtocolLoadTest(long durationInSeconds, int numOfClients, int pipelineDepth) {
+        this.durationInNanos = TimeUnit.SECONDS.toNanos(durationInSeconds);
+        this.numOfClients = numOfClients;
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long durationInSeconds = args.length > 0 ? Long.parseLong(args[0]) : 10L;
+        int numOfClients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int pipelineDepth = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        System.setProperty(GuiceModule.BINARY_PORT_PROPERTY, String.valueOf(BINARY_PORT));
+        System.setProperty("http.maxConnections", String.valueOf(numOfClients));
+        TransfersServiceMain.main(new String[0]);
+        Spark.awaitInitialization();
+
+        ProtocolLoadTest loadTest = new ProtocolLoadTest(durationInSeconds, numOfClients, pipelineDepth);
+        loadTest.openAccounts();
+
+        System.out.printf("%n%d client threads, %d seconds per test%n", numOfClients, durationInSeconds);
+        // The first round warms up the JIT compiler
+        for (int round = 0; round < 2; round++) {
+            System.out.println(round == 0 ? "Warm-up round:" : "Measurement round:");
+            loadTest.run("JSON over HTTP", loadTest::runJsonClient);
+            loadTest.run("Binary, one request at a time", seed -> loadTest.runBinaryClient(seed, 1));
+            loadTest.run("Binary, pipelined (depth " + pipelineDepth + ")",
+                    seed -> loadTest.runBinaryClient(seed, pipelineDepth));
+        }
+        System.exit(0);
+    }
+
+    private void openAccounts() throws IOException {
+        try (BinaryProtocolClient client = new BinaryProtocolClient(HOST, BINARY_PORT)) {
+            for (int i = 0; i < NUM_OF_ACCOUNTS; i++) {
+                client.sendOpenAccount(CURRENCY);
+            }
+            client.flush();
+            for (int i = 0; i < NUM_OF_ACCOUNTS; i++) {
+                BinaryResponse response = receiveSuccess(client);
+                accountIds[response.getRequestId()] = BinaryProtocol.getId(response.getPayload());
+            }
+
+            // Enough balance for any number of transfers of one cent
+            for (String accountId : accountIds) {
+                client.sendTransfer("157016b32e6c", EXTERNAL, accountId, INTERNAL, Long.MAX_VALUE / 4, CURRENCY);
+            }
+            client.flush();
+            for (int i = 0; i < NUM_OF_ACCOUNTS; i++) {
+                receiveSuccess(client);
+            }
+        }
+    }
+
+    private void run(String name, Client client) throws InterruptedException {
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numOfClients; i++) {
+            long seed = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    long[] clientLatencies = client.run(seed);
+                    synchronized (latencies) {
+                        latencies.add(clientLatencies);
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        if (all.length == 0) {
+            System.out.printf("  %-36s no requests%n", name);
+            return;
+        }
+        System.out.printf("  %-36s %,10.0f transfers/s   p50: %,8.1f us   p99: %,8.1f us%n", name,
+                all.length / (durationInNanos / 1e9), all[all.length / 2] / 1e3, all[(int) (all.length * 0.99)] / 1e3);
+    }
+
+    private long[] runJsonClient(long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        URL url = URI.create("http://" + HOST + ":" + HTTP_PORT + "/transfers/transfer").toURL();
+        LatencyList latencies = new LatencyList();
+        byte[] buffer = new byte[1024];
+
+        long end = System.nanoTime() + durationInNanos;
+        long start;
+        while ((start = System.nanoTime()) < end) {
+            int sourceIndex = random.nextInt(NUM_OF_ACCOUNTS);
+            int targetIndex = (sourceIndex + 1 + random.nextInt(NUM_OF_ACCOUNTS - 1)) % NUM_OF_ACCOUNTS;
+            String body = "{\"source_account_id\": \"" + accountIds[sourceIndex]
+                    + "\", \"source_account_type\": \"INTERNAL\", \"target_account_id\": \""
+                    + accountIds[targetIndex] + "\", \"target_account_type\": \"INTERNAL\", "
+                    + "\"amount\": 1, \"currency\": \"" + CURRENCY + "\"}";
+
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            // The whole response has to be read so the connection is reused
+            try (InputStream inputStream = connection.getInputStream()) {
+                while (inputStream.read(buffer) >= 0) {
+                    // Discarded
+                }
+            }
+            latencies.add(System.nanoTime() - start);
+        }
+        return latencies.toArray();
+    }
+
+    private long[] runBinaryClient(long seed, int depth) throws Exception {
+        SplittableRandom random = new SplittableRandom(seed);
+        LatencyList latencies = new LatencyList();
+        Semaphore window = new Semaphore(depth);
+        int mask = Integer.highestOneBit(depth) * 2 - 1;
+        AtomicLongArray sendTimes = new AtomicLongArray(mask + 1);
+
+        try (BinaryProtocolClient client = new BinaryProtocolClient(HOST, BINARY_PORT)) {
+            AtomicLong numOfSentRequests = new AtomicLong();
+            Thread sender = new Thread(() -> {
+                long end = System.nanoTime() + durationInNanos;
+                try {
+                    while (System.nanoTime() < end) {
+                        window.acquire();
+                        // As many requests as the window allows are sent together
+                        do {
+                            int sourceIndex = random.nextInt(NUM_OF_ACCOUNTS);
+                            int targetIndex = (sourceIndex + 1 + random.nextInt(NUM_OF_ACCOUNTS - 1))
+                                    % NUM_OF_ACCOUNTS;
+                            long now = System.nanoTime();
+                            sendTimes.set((int) numOfSentRequests.get() & mask, now);
+                            client.sendTransfer(accountIds[sourceIndex], INTERNAL, accountIds[targetIndex],
+                                    INTERNAL, 1L, CURRENCY);
+                            numOfSentRequests.incrementAndGet();
+                        } while (window.tryAcquire());
+                        client.flush();
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            });
+            sender.start();
+
+            long numOfReceivedResponses = 0L;
+            while (true) {
+                if (numOfReceivedResponses < numOfSentRequests.get()) {
+                    BinaryResponse response = receiveSuccess(client);
+                    latencies.add(System.nanoTime() - sendTimes.get(response.getRequestId() & mask));
+                    numOfReceivedResponses++;
+                    window.release();
+                } else if (!sender.isAlive()) {
+                    if (numOfReceivedResponses == numOfSentRequests.get()) {
+                        break;
+                    }
+                } else {
+                    // Nothing in flight, the sender is about to send more requests
+                    Thread.yield();
+                }
+            }
+            sender.join();
+        }
+        return latencies.toArray();
+    }
+
+    private static BinaryResponse receiveSuccess(BinaryProtocolClient client) throws IOException {
+        BinaryResponse response = client.receive();
+        if (!response.isSuccess()) {
+            throw new IllegalStateException("Unexpected error response: " + response.getErrorMessage());
+        }
+        return response;
+    }
+
+    @FunctionalInterface
+    private interface Client {
+        long[] run(long seed) throws Exception;
+    }
+
+    private static class LatencyList {
+        private long[] values = new long[1 << 16];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
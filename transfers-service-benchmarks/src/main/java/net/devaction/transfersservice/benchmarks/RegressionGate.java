@@ -0,0 +1,156 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the core paths and compares their scores with a baseline
+ * file, it exits with status 1 when any of them is worse than the baseline by more
+ * than the tolerance (10% by default). The baseline has to be recorded on the same
+ * machine, from the reference version of the code:
+ *
+ * java -cp transfers-service-benchmarks/target/benchmarks.jar
+ *     net.devaction.transfersservice.benchmarks.RegressionGate baseline.tsv --record
+ * java -cp transfers-service-benchmarks/target/benchmarks.jar
+ *     net.devaction.transfersservice.benchmarks.RegressionGate baseline.tsv [--tolerance=15]
+ *
+ * A subset of the benchmarks can be selected with "--include=<regex>" (e.g., "--include=JsonBenchmark").
+ *
+ * Baseline file format: one line per benchmark (and parameters), with the key,
+ * the mode and the score separated by tabs.
+ */
+public class RegressionGate {
+
+    private static final String BENCHMARKS = "net\\.devaction\\.transfersservice\\.benchmarks\\."
+            + "(TransfersBenchmark|AccountInfoBenchmark|AccountIdsBenchmark|JsonBenchmark|HistoryPageBenchmark)\\.";
+
+    private static final double DEFAULT_TOLERANCE_PERCENTAGE = 10.0;
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        if (args.length == 0) {
+            System.err.println("Usage: RegressionGate <baseline file> [--record] [--tolerance=<percentage>] "
+                    + "[--include=<benchmarks regex>]");
+            System.exit(2);
+        }
+
+        Path baselinePath = Paths.get(args[0]);
+        boolean record = false;
+        double tolerance = DEFAULT_TOLERANCE_PERCENTAGE / 100.0;
+        String include = BENCHMARKS;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--record")) {
+                record = true;
+            } else if (args[i].startsWith("--tolerance=")) {
+                tolerance = Double.parseDouble(args[i].substring("--tolerance=".length())) / 100.0;
+            } else if (args[i].startsWith("--include=")) {
+                include = args[i].substring("--include=".length());
+            } else {
+                System.err.println("Unknown argument: " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        Options options = new OptionsBuilder().include(include).build();
+        Map<String, Score> scores = toScores(new Runner(options).run());
+
+        if (record) {
+            write(baselinePath, scores);
+            System.out.println("The baseline has been recorded in " + baselinePath);
+            return;
+        }
+
+        int numOfRegressions = compare(read(baselinePath), scores, tolerance);
+        if (numOfRegressions > 0) {
+            System.out.println(numOfRegressions + " performance regression(s) detected");
+            System.exit(1);
+        }
+        System.out.println("No performance regressions detected");
+    }
+
+    private static Map<String, Score> toScores(Collection<RunResult> runResults) {
+        Map<String, Score> scores = new TreeMap<>();
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+
+            StringBuilder key = new StringBuilder(params.getBenchmark()
+                    .substring(params.getBenchmark().lastIndexOf('.', params.getBenchmark().lastIndexOf('.') - 1) + 1));
+            for (String paramKey : params.getParamsKeys()) {
+                key.append(':').append(paramKey).append('=').append(params.getParam(paramKey));
+            }
+
+            scores.put(key.toString(), new Score(params.getMode(), runResult.getPrimaryResult().getScore()));
+        }
+        return scores;
+    }
+
+    private static int compare(Map<String, Score> baseline, Map<String, Score> scores, double tolerance) {
+        int numOfRegressions = 0;
+        System.out.printf("%n%-70s %15s %15s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+
+        for (Map.Entry<String, Score> entry : baseline.entrySet()) {
+            Score expected = entry.getValue();
+            Score current = scores.get(entry.getKey());
+            if (current == null) {
+                System.out.printf("%-70s %15.3f %15s%n", entry.getKey(), expected.value, "missing");
+                continue;
+            }
+
+            // For the throughput the higher the better, for the times the lower the better
+            double change = (current.value - expected.value) / expected.value;
+            boolean regression = expected.mode == Mode.Throughput ? change < -tolerance : change > tolerance;
+            if (regression) {
+                numOfRegressions++;
+            }
+            System.out.printf("%-70s %15.3f %15.3f %+8.1f%%%s%n", entry.getKey(), expected.value, current.value,
+                    100.0 * change, regression ? "  REGRESSION" : "");
+        }
+        return numOfRegressions;
+    }
+
+    private static void write(Path path, Map<String, Score> scores) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Score> entry : scores.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue().mode.shortLabel() + "\t"
+                        + entry.getValue().value);
+                writer.newLine();
+            }
+        }
+    }
+
+    private static Map<String, Score> read(Path path) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            scores.put(fields[0], new Score(Mode.deepValueOf(fields[1]), Double.parseDouble(fields[2])));
+        }
+        return scores;
+    }
+
+    private static class Score {
+        private final Mode mode;
+        private final double value;
+
+        Score(Mode mode, double value) {
+            this.mode = mode;
+            this.value = value;
+        }
+    }
+}
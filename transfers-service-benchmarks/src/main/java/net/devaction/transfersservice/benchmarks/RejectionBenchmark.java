@@ -0,0 +1,123 @@
+package net.devaction.transfersservice.benchmarks;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.rejection.RejectionLogger;
+import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+/**
+ * Transfers per second processed by "TransfersManagerImpl" (without journal) when
+ * they are accepted and when they are rejected (not enough balance, unknown account).
+ * The failures are logged the same way the HTTP routes do it. The benchmarks log
+ * the errors but not the warnings, see "log4j2.xml".
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar RejectionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+public class RejectionBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(RejectionBenchmark.class);
+
+    private static final String CURRENCY = "EUR";
+    private static final String EXTERNAL_ACCOUNT_ID = "external-account-3c2f";
+    private static final String UNKNOWN_ACCOUNT_ID = "0e1f2f1b5612";
+    private static final int NUM_OF_ACCOUNTS = 1024;
+
+    private final RejectionLogger rejectionLogger = new RejectionLogger(log);
+
+    private TransfersManager transfersManager;
+    private String[] accountIds;
+    private String emptyAccountId;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
+
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+        AccountsManager accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+
+        accountIds = new String[NUM_OF_ACCOUNTS];
+        for (int i = 0; i < NUM_OF_ACCOUNTS; i++) {
+            accountIds[i] = accountsManager.openNewAccount(CURRENCY);
+        }
+        // Nothing is ever transferred to it
+        emptyAccountId = accountsManager.openNewAccount(CURRENCY);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        int next() {
+            position = (position + 1) & (NUM_OF_ACCOUNTS - 1);
+            return position;
+        }
+    }
+
+    @Benchmark
+    public boolean accepted(Cursor cursor) {
+        return process(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, accountIds[cursor.next()], INTERNAL, 100L,
+                CURRENCY));
+    }
+
+    @Benchmark
+    public boolean notEnoughBalance(Cursor cursor) {
+        return process(new Transfer(emptyAccountId, INTERNAL, accountIds[cursor.next()], INTERNAL, 100L,
+                CURRENCY));
+    }
+
+    @Benchmark
+    public boolean unknownAccount() {
+        return process(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, UNKNOWN_ACCOUNT_ID, INTERNAL, 100L, CURRENCY));
+    }
+
+    // Same as the "/transfers/transfer" route, without the HTTP layer
+    private boolean process(Transfer transfer) {
+        try {
+            transfersManager.processTransfer(transfer);
+            return true;
+        } catch (Exception ex) {
+            rejectionLogger.log(ex);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.core.response.Response;
+import net.devaction.transfersservice.core.response.ResponseStreamer;
+import net.devaction.transfersservice.core.response.Status;
+
+/**
+ * Serialization of an "AccountInfo" response: "Response" ("JsonNode" tree, then
+ * a String, then its bytes) vs "ResponseStreamer" (straight to the output stream).
+ * The output stream is reused, like the buffer of the HTTP server. The allocated
+ * bytes per request are reported by the GC profiler:
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar ResponseSerializationBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ResponseSerializationBenchmark {
+
+    @Param({"100", "1000"})
+    private int numOfItems;
+
+    private AccountInfo accountInfo;
+
+    private final ObjectWriter responseWriter = new ObjectMapper().writerFor(Response.class);
+    private final ResponseStreamer responseStreamer = new ResponseStreamer();
+    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024 * 1024);
+
+    @Setup
+    public void createAccountInfo() {
+        List<AccountHistoryItem> history = new ArrayList<>(numOfItems);
+        for (int i = 0; i < numOfItems; i++) {
+            history.add(new AccountHistoryItem(String.format("%012x", i), "9b6ffcbb26ab", 100L + i,
+                    i % 2 == 0 ? Direction.RECEIVED : Direction.SENT, 1581000000000L + i));
+        }
+        accountInfo = new AccountInfo("0e1f2f1b5612", "EUR", 1000000L, history, String.valueOf(numOfItems));
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream tree() throws IOException {
+        outputStream.reset();
+        String json = responseWriter.writeValueAsString(new Response(Status.SUCCESS, accountInfo));
+        outputStream.write(json.getBytes(StandardCharsets.UTF_8));
+        return outputStream;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream streaming() throws IOException {
+        outputStream.reset();
+        responseStreamer.writeSuccess(outputStream, accountInfo);
+        return outputStream;
+    }
+}
@@ -0,0 +1,107 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.snapshot.SnapshotReader;
+import net.devaction.transfersservice.core.snapshot.SnapshotWriter;
+
+/**
+ * Time needed to load a snapshot on startup. The default size fits in a small
+ * heap, the target size (1M accounts, 50M history items) needs a bigger one:
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar SnapshotStartupBenchmark
+ *     -p numOfAccounts=1000000 -jvmArgsAppend -Xmx24g
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotStartupBenchmark {
+
+    private static final int NUM_OF_COUNTERPARTIES = 10000;
+
+    @Param({"100000"})
+    private int numOfAccounts;
+
+    @Param({"50"})
+    private int numOfItemsPerAccount;
+
+    private Path snapshotPath;
+    private AccountRegistry accountRegistry;
+
+    @Setup(Level.Trial)
+    public void writeSnapshot() throws Exception {
+        SplittableRandom random = new SplittableRandom(42L);
+
+        String[] counterpartyIds = new String[NUM_OF_COUNTERPARTIES];
+        for (int i = 0; i < NUM_OF_COUNTERPARTIES; i++) {
+            counterpartyIds[i] = String.format("%012x", random.nextLong(1L << 48));
+        }
+
+        AccountRegistry sourceAccountRegistry = new OpenAddressingAccountRegistry(numOfAccounts);
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < numOfAccounts; i++) {
+            AccountHistory history = new AccountHistory();
+            long balance = 0L;
+            for (int j = 0; j < numOfItemsPerAccount; j++) {
+                long amount = 1L + random.nextInt(100000);
+                Direction direction = balance >= amount && random.nextBoolean() ? Direction.SENT : Direction.RECEIVED;
+                balance += direction == Direction.RECEIVED ? amount : -amount;
+                history.add(String.format("%012x", random.nextLong(1L << 48)),
+                        counterpartyIds[random.nextInt(NUM_OF_COUNTERPARTIES)], amount, direction, timestamp + j);
+            }
+
+            String accountId = String.format("%012x", i);
+            sourceAccountRegistry.put(new Account(accountId, "EUR", balance, history, i + 1L));
+        }
+
+        snapshotPath = Files.createTempFile("transfers-snapshot-benchmark", ".snap");
+        new SnapshotWriter(sourceAccountRegistry, new AccountLockManagerImpl()).write(snapshotPath, numOfAccounts);
+        System.out.println("\nSnapshot size in MB: " + Files.size(snapshotPath) / (1024 * 1024));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSnapshot() throws IOException {
+        Files.deleteIfExists(snapshotPath);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearAccounts() {
+        // The accounts loaded by the previous iteration become garbage before measuring
+        accountRegistry = null;
+        System.gc();
+    }
+
+    @Benchmark
+    public AccountRegistry loadSnapshot() throws IOException {
+        accountRegistry = new OpenAddressingAccountRegistry(numOfAccounts);
+        new SnapshotReader().read(snapshotPath, accountRegistry);
+        return accountRegistry;
+    }
+}
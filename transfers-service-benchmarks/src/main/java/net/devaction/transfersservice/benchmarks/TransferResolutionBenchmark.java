@@ -0,0 +1,120 @@
+package net.devaction.transfersservice.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.api.util.id.HexIds;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.transfersmanager.ResolvedTransfer;
+import net.devaction.transfersservice.core.transfersmanager.TransferResolver;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+/**
+ * Per-transfer overhead of finding the accounts of an internal transfer and the
+ * direction of the transfer for each of them: the way it used to be done (check
+ * that both accounts exist, look them up again, then each account compares its
+ * id with the ids of the transfer twice) and by means of "TransferResolver".
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar TransferResolutionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TransferResolutionBenchmark {
+
+    private static final int NUM_OF_TRANSFERS = 1 << 16;
+
+    @Param({"1024", "1000000"})
+    private int numOfAccounts;
+
+    private AccountRegistry accountRegistry;
+    private TransferResolver transferResolver;
+    private Transfer[] transfers;
+    private int index;
+
+    @Setup
+    public void createAccountsAndTransfers() {
+        SplittableRandom random = new SplittableRandom(42L);
+        accountRegistry = new OpenAddressingAccountRegistry(numOfAccounts);
+        String[] accountIds = new String[numOfAccounts];
+        for (int i = 0; i < numOfAccounts; i++) {
+            Account account = new Account(HexIds.toHex(random.nextLong(1L << 48)), "EUR");
+            accountRegistry.put(account);
+            accountIds[i] = account.getId();
+        }
+        transferResolver = new TransferResolver(accountRegistry);
+
+        transfers = new Transfer[NUM_OF_TRANSFERS];
+        for (int i = 0; i < NUM_OF_TRANSFERS; i++) {
+            int sourceIndex = random.nextInt(numOfAccounts);
+            int targetIndex = (sourceIndex + 1 + random.nextInt(numOfAccounts - 1)) % numOfAccounts;
+            transfers[i] = new Transfer(accountIds[sourceIndex], INTERNAL, accountIds[targetIndex], INTERNAL,
+                    100L, "EUR");
+        }
+    }
+
+    @Benchmark
+    public void checkThenLookUp(Blackhole blackhole) {
+        Transfer transfer = transfers[index++ & (NUM_OF_TRANSFERS - 1)];
+        if (!accountRegistry.contains(transfer.getSourceAccountId())
+                || !accountRegistry.contains(transfer.getTargetAccountId())) {
+            throw new IllegalStateException();
+        }
+
+        Account sourceAccount = accountRegistry.get(transfer.getSourceAccountId());
+        Account targetAccount = accountRegistry.get(transfer.getTargetAccountId());
+        blackhole.consume(extractDirection(sourceAccount, transfer));
+        blackhole.consume(extractCounterpartyId(sourceAccount, transfer));
+        blackhole.consume(extractDirection(targetAccount, transfer));
+        blackhole.consume(extractCounterpartyId(targetAccount, transfer));
+    }
+
+    @Benchmark
+    public void resolve(Blackhole blackhole) throws Exception {
+        ResolvedTransfer resolvedTransfer = transferResolver.resolve(transfers[index++ & (NUM_OF_TRANSFERS - 1)]);
+        blackhole.consume(resolvedTransfer.getSourceAccount());
+        blackhole.consume(resolvedTransfer.getTargetAccount());
+    }
+
+    // What "Account" used to do for every transfer
+    private static Direction extractDirection(Account account, Transfer transfer) {
+        if (HexIds.parse(transfer.getSourceAccountId()) == account.getEncodedId()) {
+            return Direction.SENT;
+        }
+        if (HexIds.parse(transfer.getTargetAccountId()) == account.getEncodedId()) {
+            return Direction.RECEIVED;
+        }
+        throw new IllegalArgumentException();
+    }
+
+    private static String extractCounterpartyId(Account account, Transfer transfer) {
+        if (HexIds.parse(transfer.getSourceAccountId()) == account.getEncodedId()) {
+            return transfer.getTargetAccountId();
+        }
+        if (HexIds.parse(transfer.getTargetAccountId()) == account.getEncodedId()) {
+            return transfer.getSourceAccountId();
+        }
+        throw new IllegalArgumentException();
+    }
+}
@@ -0,0 +1,126 @@
+package net.devaction.transfersservice.benchmarks;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+/**
+ * Transfers per second processed by "TransfersManagerImpl" (without journal),
+ * external and internal transfers, with the accounts picked uniformly or
+ * following a Zipf distribution (a few hot accounts). Each iteration starts
+ * with new accounts so the account histories do not keep growing.
+ *
+ * java -jar transfers-service-benchmarks/target/benchmarks.jar TransfersBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+public class TransfersBenchmark {
+
+    private static final String CURRENCY = "EUR";
+    private static final String EXTERNAL_ACCOUNT_ID = "external-account-3c2f";
+    private static final long INITIAL_BALANCE = Long.MAX_VALUE / 2;
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+
+    @Param({"UNIFORM", "ZIPF"})
+    private AccountSelection selection;
+
+    @Param({"1024"})
+    private int numOfAccounts;
+
+    private TransfersManager transfersManager;
+    private String[] accountIds;
+    private int[] accountIndexes;
+
+    // Each thread starts at a different position of the sequence of accounts
+    private final AtomicLong nextThreadSeed = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
+
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+        AccountsManager accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+
+        accountIds = new String[numOfAccounts];
+        for (int i = 0; i < numOfAccounts; i++) {
+            accountIds[i] = accountsManager.openNewAccount(CURRENCY);
+            // The internal transfers never run out of balance
+            transfersManager.processTransfer(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, accountIds[i], INTERNAL,
+                    INITIAL_BALANCE, CURRENCY));
+        }
+
+        accountIndexes = selection.generate(numOfAccounts, SEQUENCE_LENGTH, 42L);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        @Setup(Level.Iteration)
+        public void setUp(TransfersBenchmark benchmark) {
+            position = (int) (benchmark.nextThreadSeed.getAndIncrement() * 7919L % SEQUENCE_LENGTH);
+        }
+
+        int next(int[] accountIndexes) {
+            position = (position + 1) & (SEQUENCE_LENGTH - 1);
+            return accountIndexes[position];
+        }
+    }
+
+    @Benchmark
+    public void externalTransfer(Cursor cursor) throws Exception {
+        String accountId = accountIds[cursor.next(accountIndexes)];
+        transfersManager.processTransfer(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, accountId, INTERNAL,
+                100L, CURRENCY));
+    }
+
+    @Benchmark
+    public void internalTransfer(Cursor cursor) throws Exception {
+        int sourceIndex = cursor.next(accountIndexes);
+        int targetIndex = cursor.next(accountIndexes);
+        if (targetIndex == sourceIndex) {
+            targetIndex = (targetIndex + 1) % numOfAccounts;
+        }
+        transfersManager.processTransfer(new Transfer(accountIds[sourceIndex], INTERNAL, accountIds[targetIndex],
+                INTERNAL, 100L, CURRENCY));
+    }
+}
@@ -1,15 +1,35 @@
 package net.devaction.transfersservice.core;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
 import com.google.inject.Scopes;
-import com.google.inject.TypeLiteral;
+import com.google.inject.Singleton;
 
-import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OffHeapAccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
 import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
 import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.MappedHistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.MappedJournal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.metrics.HistogramTransferMetrics;
+import net.devaction.transfersservice.core.metrics.NoOpTransferMetrics;
+import net.devaction.transfersservice.core.metrics.TransferMetrics;
+import net.devaction.transfersservice.core.snapshot.FileSnapshotManager;
+import net.devaction.transfersservice.core.snapshot.NoOpSnapshotManager;
+import net.devaction.transfersservice.core.snapshot.SnapshotManager;
+import net.devaction.transfersservice.core.transfersmanager.ShardedTransfersManager;
 import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
 import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
 import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
@@ -22,17 +42,164 @@ import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl
  */
 public class GuiceModule extends AbstractModule {
 
+    // Example: -Dtransfers.engine=sharded
+    public static final String ENGINE_PROPERTY = "transfers.engine";
+    public static final String LOCKING_ENGINE = "locking";
+    public static final String SHARDED_ENGINE = "sharded";
+
+    // Example: -Dtransfers.accounts.storage=offheap
+    // With "offheap" the state of the accounts is stored outside of the heap (see
+    // "OffHeapAccountRegistry"), the direct memory has to be big enough for it
+    // (-XX:MaxDirectMemorySize, ~60 bytes per account)
+    public static final String ACCOUNTS_STORAGE_PROPERTY = "transfers.accounts.storage";
+    public static final String HEAP_ACCOUNTS_STORAGE = "heap";
+    public static final String OFF_HEAP_ACCOUNTS_STORAGE = "offheap";
+
+    // Example: -Dtransfers.journal.dir=/var/lib/transfers-service/journal
+    // When it is not set the journal is disabled
+    public static final String JOURNAL_DIR_PROPERTY = "transfers.journal.dir";
+    // Example: -Dtransfers.journal.fsync=false
+    // Without "fsync" the records survive a crash of the service but not a crash of the OS
+    public static final String JOURNAL_FSYNC_PROPERTY = "transfers.journal.fsync";
+    // Example: -Dtransfers.snapshot.interval=60
+    // The snapshots are stored in the "snapshots" subdirectory of the journal directory
+    public static final String SNAPSHOT_INTERVAL_PROPERTY = "transfers.snapshot.interval";
+    private static final String DEFAULT_SNAPSHOT_INTERVAL_IN_SECONDS = "300";
+    private static final String SNAPSHOTS_DIR = "snapshots";
+
+    // Example: -Dtransfers.binary.port=4568
+    // When it is not set the binary protocol is disabled
+    public static final String BINARY_PORT_PROPERTY = "transfers.binary.port";
+    // Example: -Dtransfers.binary.threads=64
+    public static final String BINARY_THREADS_PROPERTY = "transfers.binary.threads";
+    public static final String DEFAULT_BINARY_THREADS = "32";
+
+    // Example: -Dtransfers.http.threads=virtual
+    // With "virtual" each HTTP request is processed by its own virtual thread
+    // instead of a thread of the bounded pool of Jetty
+    public static final String HTTP_THREADS_PROPERTY = "transfers.http.threads";
+    public static final String PLATFORM_HTTP_THREADS = "platform";
+    public static final String VIRTUAL_HTTP_THREADS = "virtual";
+
+    // Example: -Dtransfers.metrics=false
+    // The latency of each stage of the transfers is recorded unless it is "false"
+    public static final String METRICS_PROPERTY = "transfers.metrics";
+    // Example: -Dtransfers.metrics.sampling=1
+    // One in that many transfers is measured (a power of two), 1 measures all of them
+    public static final String METRICS_SAMPLING_PROPERTY = "transfers.metrics.sampling";
+
+    // Example: -Dtransfers.history.archive.dir=/var/tmp/transfers-service/history
+    // When it is not set the whole history of the accounts is kept in the heap.
+    // The archive is not persistent, it is wiped on startup
+    public static final String HISTORY_ARCHIVE_DIR_PROPERTY = "transfers.history.archive.dir";
+    // Example: -Dtransfers.history.retained.items=10000
+    // Number of recent items of each account which are kept in the heap
+    public static final String HISTORY_RETAINED_ITEMS_PROPERTY = "transfers.history.retained.items";
+    private static final String DEFAULT_HISTORY_RETAINED_ITEMS = "10000";
+    // Example: -Dtransfers.history.retention.days=30
+    // The items older than that (with respect to the newest one of the account) are archived too
+    public static final String HISTORY_RETENTION_DAYS_PROPERTY = "transfers.history.retention.days";
+    // Example: -Dtransfers.history.archive.max.mb=16384
+    // Maximum size of the archive, it only grows while the service runs (see "MappedHistoryArchive")
+    public static final String HISTORY_ARCHIVE_MAX_MB_PROPERTY = "transfers.history.archive.max.mb";
+
     @Override
     protected void configure() {
 
-        bind(TransfersManager.class).to(TransfersManagerImpl.class).in(Scopes.SINGLETON);
+        String engine = System.getProperty(ENGINE_PROPERTY, LOCKING_ENGINE);
+        if (SHARDED_ENGINE.equals(engine)) {
+            bind(TransfersManager.class).to(ShardedTransfersManager.class).in(Scopes.SINGLETON);
+        } else if (LOCKING_ENGINE.equals(engine)) {
+            bind(TransfersManager.class).to(TransfersManagerImpl.class).in(Scopes.SINGLETON);
+        } else {
+            addError("Unknown transfers engine \"%s\", valid values: %s, %s", engine,
+                    LOCKING_ENGINE, SHARDED_ENGINE);
+        }
 
         bind(AccountsManager.class).to(AccountsManagerImpl.class).in(Scopes.SINGLETON);
 
         bind(TransferChecker.class).to(TransferCheckerImpl.class).in(Scopes.SINGLETON);
 
-        bind(new TypeLiteral<Map<String, Account>>(){})
-                .to(new TypeLiteral<ConcurrentHashMap<String, Account>>(){})
-                .in(Scopes.SINGLETON);
+        bind(AccountLockManager.class).to(AccountLockManagerImpl.class).in(Scopes.SINGLETON);
+
+        String accountsStorage = System.getProperty(ACCOUNTS_STORAGE_PROPERTY, HEAP_ACCOUNTS_STORAGE);
+        if (OFF_HEAP_ACCOUNTS_STORAGE.equals(accountsStorage)) {
+            bind(AccountRegistry.class).to(OffHeapAccountRegistry.class).in(Scopes.SINGLETON);
+        } else if (HEAP_ACCOUNTS_STORAGE.equals(accountsStorage)) {
+            bind(AccountRegistry.class).to(OpenAddressingAccountRegistry.class).in(Scopes.SINGLETON);
+        } else {
+            addError("Unknown accounts storage \"%s\", valid values: %s, %s", accountsStorage,
+                    HEAP_ACCOUNTS_STORAGE, OFF_HEAP_ACCOUNTS_STORAGE);
+        }
+    }
+
+    @Provides
+    @Singleton
+    Journal provideJournal() {
+        String journalDir = System.getProperty(JOURNAL_DIR_PROPERTY);
+        if (journalDir == null) {
+            return new NoOpJournal();
+        }
+
+        boolean syncEnabled = Boolean.parseBoolean(System.getProperty(JOURNAL_FSYNC_PROPERTY, "true"));
+        try {
+            return new MappedJournal(Paths.get(journalDir), syncEnabled);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to open the journal in " + journalDir, ex);
+        }
+    }
+
+    @Provides
+    @Singleton
+    HistoryArchive provideHistoryArchive() {
+        String archiveDir = System.getProperty(HISTORY_ARCHIVE_DIR_PROPERTY);
+        if (archiveDir == null) {
+            return new NoOpHistoryArchive();
+        }
+
+        int numOfRetainedItems = Integer.parseInt(System.getProperty(HISTORY_RETAINED_ITEMS_PROPERTY,
+                DEFAULT_HISTORY_RETAINED_ITEMS));
+        String retentionDays = System.getProperty(HISTORY_RETENTION_DAYS_PROPERTY);
+        long retentionMillis = retentionDays == null ? Long.MAX_VALUE
+                : TimeUnit.DAYS.toMillis(Long.parseLong(retentionDays));
+        String maxMegabytes = System.getProperty(HISTORY_ARCHIVE_MAX_MB_PROPERTY);
+        long maxBytes = maxMegabytes == null ? MappedHistoryArchive.DEFAULT_MAX_BYTES
+                : Long.parseLong(maxMegabytes) * 1024L * 1024L;
+        try {
+            return new MappedHistoryArchive(Paths.get(archiveDir), numOfRetainedItems, retentionMillis,
+                    MappedHistoryArchive.DEFAULT_SEGMENT_SIZE, maxBytes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to open the history archive in " + archiveDir, ex);
+        }
+    }
+
+    @Provides
+    @Singleton
+    TransferMetrics provideTransferMetrics() {
+        if (Boolean.parseBoolean(System.getProperty(METRICS_PROPERTY, "true"))) {
+            return new HistogramTransferMetrics(Integer.parseInt(System.getProperty(METRICS_SAMPLING_PROPERTY,
+                    String.valueOf(HistogramTransferMetrics.DEFAULT_SAMPLING_INTERVAL))));
+        }
+        return new NoOpTransferMetrics();
+    }
+
+    @Provides
+    @Singleton
+    SnapshotManager provideSnapshotManager(AccountRegistry accountRegistry,
+            AccountLockManager accountLockManager, Journal journal, HistoryArchive historyArchive) {
+
+        String journalDir = System.getProperty(JOURNAL_DIR_PROPERTY);
+        if (journalDir == null) {
+            return new NoOpSnapshotManager();
+        }
+
+        long intervalInSeconds = Long.parseLong(System.getProperty(SNAPSHOT_INTERVAL_PROPERTY,
+                DEFAULT_SNAPSHOT_INTERVAL_IN_SECONDS));
+        try {
+            return new FileSnapshotManager(accountRegistry, accountLockManager, journal,
+                    Paths.get(journalDir, SNAPSHOTS_DIR), intervalInSeconds, historyArchive);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to open the snapshots directory in " + journalDir, ex);
+        }
     }
 }
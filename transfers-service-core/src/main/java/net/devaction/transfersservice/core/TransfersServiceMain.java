@@ -3,21 +3,36 @@ package net.devaction.transfersservice.core;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-
 import net.devaction.transfersservice.api.entity.account.AccountInfo;
 import net.devaction.transfersservice.api.entity.balance.Balance;
 import net.devaction.transfersservice.api.entity.transfer.Transfer;
 import net.devaction.transfersservice.api.util.json.JsonUnmarshaller;
+import net.devaction.transfersservice.api.util.json.TransferJsonParser;
+import net.devaction.transfersservice.core.account.AccountCounters;
+import net.devaction.transfersservice.core.account.HotAccount;
+import net.devaction.transfersservice.core.account.InvalidHotAccountsQueryException;
 import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
-import net.devaction.transfersservice.core.response.Response;
+import net.devaction.transfersservice.core.accountsmanager.InvalidAccountIdsQueryException;
+import net.devaction.transfersservice.core.accountsmanager.InvalidHistoryQueryException;
+import net.devaction.transfersservice.core.binary.BinaryProtocolServer;
+import net.devaction.transfersservice.core.binary.BinaryRequestHandler;
+import net.devaction.transfersservice.core.http.VirtualThreadJettyFactory;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.JournalReplayer;
+import net.devaction.transfersservice.core.metrics.Stage;
+import net.devaction.transfersservice.core.metrics.TransferMetrics;
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+import net.devaction.transfersservice.core.rejection.RejectionLogger;
+import net.devaction.transfersservice.core.response.ResponseStreamer;
+import net.devaction.transfersservice.core.snapshot.SnapshotManager;
+import net.devaction.transfersservice.core.transfersmanager.BatchTooBigException;
+import net.devaction.transfersservice.core.transfersmanager.TransferResult;
 import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
 
-import static net.devaction.transfersservice.core.response.Status.SUCCESS;
-import static net.devaction.transfersservice.core.response.Status.ERROR;
-
-import java.util.Set;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
 
 import spark.Spark;
 
@@ -36,143 +51,317 @@ public class TransfersServiceMain {
 
     private static final String TRANSFERS = "/transfers";
     private static final String APPLICATION_JSON = "application/json";
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4";
     private static final String ACCOUNT_ID = "accountId";
+    private static final String NO_BODY = "";
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 100;
+    private static final int DEFAULT_ACCOUNT_IDS_PAGE_SIZE = 1000;
+    private static final int DEFAULT_HOT_ACCOUNTS_LIMIT = 10;
+    private static final int MAX_BATCH_SIZE = 10000;
 
     private final AccountsManager accountsManager;
     private final TransfersManager transfersManager;
+    private final TransferMetrics metrics;
+    // It is null when the binary protocol is disabled
+    private volatile BinaryProtocolServer binaryProtocolServer;
 
     private final JsonUnmarshaller<Transfer> transferUnmarshaller = new JsonUnmarshaller<>(Transfer.class);
-    private final ObjectWriter responseWriter = new ObjectMapper().writerFor(Response.class);
+    // Used for the single transfer requests, it does not build a String of the body
+    private final TransferJsonParser transferParser = new TransferJsonParser();
+    // The responses are written straight to the output stream, the routes return an empty body
+    private final ResponseStreamer responseStreamer = new ResponseStreamer();
+    // The rejected requests are logged without stack trace and up to a maximum per second
+    private final RejectionLogger rejectionLogger = new RejectionLogger(log);
 
     @Inject
-    public TransfersServiceMain(AccountsManager accountsManager, TransfersManager transfersManager) {
+    public TransfersServiceMain(AccountsManager accountsManager, TransfersManager transfersManager,
+            TransferMetrics metrics) {
+
         this.accountsManager = accountsManager;
         this.transfersManager = transfersManager;
+        this.metrics = metrics;
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         Injector injector = Guice.createInjector(new GuiceModule());
+
+        // The accounts have to be rebuilt before accepting any request (and before
+        // the accounts manager is created, it indexes the ids of the loaded accounts)
+        SnapshotManager snapshotManager = injector.getInstance(SnapshotManager.class);
+        snapshotManager.loadLatest();
+        injector.getInstance(JournalReplayer.class).replay();
+        snapshotManager.start();
+
+        Journal journal = injector.getInstance(Journal.class);
         TransfersServiceMain main = injector.getInstance(TransfersServiceMain.class);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // No request can reach the journal once it has been closed
+            main.stopAcceptingRequests();
+            snapshotManager.close();
+            journal.close();
+        }, "transfers-service-shutdown"));
+
         main.run();
     }
 
-    private void run() {
+    private void run() throws IOException {
         log.info("Starting the Transfers service");
 
+        String httpThreads = System.getProperty(GuiceModule.HTTP_THREADS_PROPERTY,
+                GuiceModule.PLATFORM_HTTP_THREADS);
+        if (GuiceModule.VIRTUAL_HTTP_THREADS.equals(httpThreads)) {
+            // It has to be done before the first route is added
+            VirtualThreadJettyFactory.install();
+            log.info("The HTTP requests are going to be processed by virtual threads");
+        } else if (!GuiceModule.PLATFORM_HTTP_THREADS.equals(httpThreads)) {
+            String errorMessage = "Unknown HTTP threads mode \"" + httpThreads + "\", valid values: "
+                    + GuiceModule.PLATFORM_HTTP_THREADS + ", " + GuiceModule.VIRTUAL_HTTP_THREADS;
+            log.error(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
+
         // Example URL: http://localhost:4567/transfers/transfer
         Spark.post(TRANSFERS + "/transfer", (sparkRequest, sparkResponse) -> {
             sparkResponse.type(APPLICATION_JSON);
-            String requestBody = sparkRequest.body();
-            log.trace("Request to process a new \"Transfer\" has been received:\n{}", requestBody);
+            log.trace("Request to process a new \"Transfer\" has been received");
 
             Transfer transfer = null;
-            Response response = null;
             try {
-                transfer = transferUnmarshaller.unmarshall(requestBody);
+                transfer = transferParser.parse(sparkRequest.raw().getInputStream());
+                log.trace("Transfer to be processed: {}", transfer);
                 transfersManager.processTransfer(transfer);
             } catch (Exception ex) {
-                // In case it is a runtime exception which has not been logged yet
-                log.error("{}", ex, ex);
-                response = new Response(ERROR, ex.toString());
-                return responseWriter.writeValueAsString(response);
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
             }
 
-            return responseWriter.writeValueAsString(new Response(SUCCESS));
+            if (!metrics.isSampled(transfer.getEncodedId())) {
+                responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream());
+                return NO_BODY;
+            }
+
+            long start = System.nanoTime();
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream());
+            metrics.record(Stage.SERIALIZATION, System.nanoTime() - start);
+            return NO_BODY;
+        });
+
+        // Example URL: http://localhost:4567/transfers/batch
+        // The request body is an array of transfers, the response contains the status of each one
+        Spark.post(TRANSFERS + "/batch", (sparkRequest, sparkResponse) -> {
+            sparkResponse.type(APPLICATION_JSON);
+            log.trace("Request to process a batch of transfers has been received");
+
+            List<TransferResult> transferResults = null;
+            try {
+                // A bigger batch is not parsed beyond its first "MAX_BATCH_SIZE + 1" transfers
+                List<Transfer> transfers = transferUnmarshaller.unmarshallList(sparkRequest.raw().getInputStream(),
+                        MAX_BATCH_SIZE);
+                if (transfers.size() > MAX_BATCH_SIZE) {
+                    String errorMessage = "Too many transfers in the batch, maximum: " + MAX_BATCH_SIZE;
+                    log.debug(errorMessage);
+                    throw new BatchTooBigException(errorMessage);
+                }
+                transferResults = transfersManager.processTransfers(transfers);
+            } catch (Exception ex) {
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
+            }
+
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream(), transferResults);
+            return NO_BODY;
         });
 
         // Example URL: http://localhost:4567/transfers/account?currency=GBP
         Spark.post(TRANSFERS + "/account", (sparkRequest, sparkResponse) -> {
             sparkResponse.type(APPLICATION_JSON);
 
-            Response response = null;
             String accountId = null;
             String currency = sparkRequest.queryParams("currency");
             try {
                 accountId = accountsManager.openNewAccount(currency);
             } catch (Exception ex) {
-                // In case it is a runtime exception which has not been logged yet
-                log.error("{}", ex, ex);
-                response = new Response(ERROR, ex.toString());
-                return responseWriter.writeValueAsString(response);
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
             }
 
             Balance accountBalance = new Balance(accountId);
-            return responseWriter.writeValueAsString(new Response(SUCCESS, accountBalance));
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream(), accountBalance);
+            return NO_BODY;
         });
 
         // Example URL: http://localhost:4567/transfers/balance?accountId=9b6ffcbb26ab
         Spark.get(TRANSFERS + "/balance", (sparkRequest, sparkResponse) -> {
             sparkResponse.type(APPLICATION_JSON);
 
-            Response response = null;
             String accountId = sparkRequest.queryParams(ACCOUNT_ID);
             long balance = -1L;
             try {
                 balance = accountsManager.getBalance(accountId);
             } catch (Exception ex) {
-                // In case it is a runtime exception which has not been logged yet
-                log.error("{}", ex, ex);
-                response = new Response(ERROR, ex.toString());
-                return responseWriter.writeValueAsString(response);
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
             }
 
             Balance accountBalance = new Balance(accountId, balance);
-            return responseWriter.writeValueAsString(new Response(SUCCESS, accountBalance));
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream(), accountBalance);
+            return NO_BODY;
         });
 
         // Example URL: http://localhost:4567/transfers/info?accountId=0e1f2f1b5612
+        // Optional parameters: "cursor" (the "nextCursor" of the previous page), "from" and
+        // "to" (epoch milliseconds, both inclusive) and "limit" (number of history items)
         Spark.get(TRANSFERS + "/info", (sparkRequest, sparkResponse) -> {
             sparkResponse.type(APPLICATION_JSON);
 
-            Response response = null;
             String accountId = sparkRequest.queryParams(ACCOUNT_ID);
             AccountInfo accountInfo = null;
             try {
-                accountInfo = accountsManager.getAccountInfo(accountId);
+                long from = parseLongParam(sparkRequest.queryParams("from"), Long.MIN_VALUE,
+                        InvalidHistoryQueryException::new);
+                long to = parseLongParam(sparkRequest.queryParams("to"), Long.MAX_VALUE,
+                        InvalidHistoryQueryException::new);
+                long limit = parseLongParam(sparkRequest.queryParams("limit"), DEFAULT_HISTORY_PAGE_SIZE,
+                        InvalidHistoryQueryException::new);
+                accountInfo = accountsManager.getAccountInfo(accountId, sparkRequest.queryParams("cursor"),
+                        from, to, (int) Math.max(Math.min(limit, Integer.MAX_VALUE), 0));
             } catch (Exception ex) {
-                // In case it is a runtime exception which has not been logged yet
-                log.error("{}", ex, ex);
-                response = new Response(ERROR, ex.toString());
-                return responseWriter.writeValueAsString(response);
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
             }
 
-            return responseWriter.writeValueAsString(new Response(SUCCESS, accountInfo));
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream(), accountInfo);
+            return NO_BODY;
         });
 
         // Example URL: http://localhost:4567/transfers/account/id/all
+        // Optional parameters: "prefix", "after" (the last id of the previous page) and
+        // "limit" (number of ids), all the ids are returned when none of them is set
         Spark.get(TRANSFERS + "/account/id/all", (sparkRequest, sparkResponse) -> {
             sparkResponse.type(APPLICATION_JSON);
 
-            Response response = null;
-            Set<String> allAccountIds = null;
+            String prefix = sparkRequest.queryParams("prefix");
+            String after = sparkRequest.queryParams("after");
+            String limitParam = sparkRequest.queryParams("limit");
+            Collection<String> accountIds = null;
             try {
-                allAccountIds = accountsManager.getAllAccountIds();
+                if (prefix == null && after == null && limitParam == null) {
+                    accountIds = accountsManager.getAllAccountIds();
+                } else {
+                    long limit = parseLongParam(limitParam, DEFAULT_ACCOUNT_IDS_PAGE_SIZE,
+                            InvalidAccountIdsQueryException::new);
+                    accountIds = accountsManager.getAccountIds(prefix, after,
+                            (int) Math.max(Math.min(limit, Integer.MAX_VALUE), 0));
+                }
             } catch (Exception ex) {
-                // In case it is a runtime exception which has not been logged yet
-                log.error("{}", ex, ex);
-                response = new Response(ERROR, ex.toString());
-                return responseWriter.writeValueAsString(response);
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
             }
 
-            return responseWriter.writeValueAsString(new Response(SUCCESS, allAccountIds));
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream(), accountIds);
+            return NO_BODY;
         });
 
         // Example URL: http://localhost:4567/transfers/account?accountId=9b6ffcbb26ab
         Spark.delete(TRANSFERS + "/account", (sparkRequest, sparkResponse) -> {
             sparkResponse.type(APPLICATION_JSON);
 
-            Response response = null;
             String accountId = sparkRequest.queryParams(ACCOUNT_ID);
             try {
                 accountsManager.closeAccount(accountId);
             } catch (Exception ex) {
-                // In case it is a runtime exception which has not been logged yet
-                log.error("{}", ex, ex);
-                response = new Response(ERROR, ex.toString());
-                return responseWriter.writeValueAsString(response);
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
             }
 
-            return responseWriter.writeValueAsString(new Response(SUCCESS));
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream());
+            return NO_BODY;
         });
+
+        // Example URL: http://localhost:4567/transfers/metrics
+        // Prometheus text format, the latency of each stage of the transfers and the contention counters
+        Spark.get(TRANSFERS + "/metrics", (sparkRequest, sparkResponse) -> {
+            sparkResponse.type(PROMETHEUS_TEXT);
+
+            StringBuilder builder = new StringBuilder();
+            metrics.writePrometheus(builder);
+            return builder.toString();
+        });
+
+        // Example URL: http://localhost:4567/transfers/admin/hot-accounts?limit=10
+        // The accounts whose locks have made the most threads wait since the start (or the last reset)
+        Spark.get(TRANSFERS + "/admin/hot-accounts", (sparkRequest, sparkResponse) -> {
+            sparkResponse.type(APPLICATION_JSON);
+
+            List<HotAccount> hotAccounts = null;
+            try {
+                long limit = parseLongParam(sparkRequest.queryParams("limit"), DEFAULT_HOT_ACCOUNTS_LIMIT,
+                        InvalidHotAccountsQueryException::new);
+                hotAccounts = AccountCounters.getHotAccounts((int) Math.max(Math.min(limit, Integer.MAX_VALUE), 0));
+            } catch (Exception ex) {
+                rejectionLogger.log(ex);
+                responseStreamer.writeError(sparkResponse.raw().getOutputStream(), ex.toString());
+                return NO_BODY;
+            }
+
+            responseStreamer.writeHotAccounts(sparkResponse.raw().getOutputStream(), hotAccounts);
+            return NO_BODY;
+        });
+
+        // Example URL: http://localhost:4567/transfers/admin/hot-accounts
+        // It resets the hot accounts, e.g. after moving some of them
+        Spark.delete(TRANSFERS + "/admin/hot-accounts", (sparkRequest, sparkResponse) -> {
+            sparkResponse.type(APPLICATION_JSON);
+
+            AccountCounters.clearHotAccounts();
+            responseStreamer.writeSuccess(sparkResponse.raw().getOutputStream());
+            return NO_BODY;
+        });
+
+        // Optional binary protocol for high-volume clients, see "BinaryProtocol"
+        String binaryPort = System.getProperty(GuiceModule.BINARY_PORT_PROPERTY);
+        if (binaryPort != null) {
+            int numOfWorkerThreads = Integer.parseInt(System.getProperty(GuiceModule.BINARY_THREADS_PROPERTY,
+                    GuiceModule.DEFAULT_BINARY_THREADS));
+            binaryProtocolServer = new BinaryProtocolServer(Integer.parseInt(binaryPort), numOfWorkerThreads,
+                    new BinaryRequestHandler(accountsManager, transfersManager));
+            binaryProtocolServer.start();
+        }
+    }
+
+    // Both the HTTP server and the binary protocol server are stopped, after
+    // the requests which are being processed have been completed
+    private void stopAcceptingRequests() {
+        log.info("Stopping the Transfers service");
+        Spark.stop();
+        Spark.awaitStop();
+
+        BinaryProtocolServer server = binaryProtocolServer;
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    // Each route rejects an invalid parameter with its own exception
+    private static <E extends RejectedRequestException> long parseLongParam(String value, long defaultValue,
+            Function<String, E> exceptionFactory) throws E {
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            String errorMessage = "Invalid numeric parameter: " + value;
+            log.debug(errorMessage);
+            throw exceptionFactory.apply(errorMessage);
+        }
     }
 }
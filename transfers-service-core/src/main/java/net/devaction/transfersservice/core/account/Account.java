@@ -1,15 +1,10 @@
 package net.devaction.transfersservice.core.account;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
-import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +13,8 @@ import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
 import net.devaction.transfersservice.api.entity.account.AccountInfo;
 import net.devaction.transfersservice.api.entity.account.Direction;
 import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.api.util.id.HexIds;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
 import net.devaction.transfersservice.core.transfersmanager.InvalidCurrencyException;
 
 import static net.devaction.transfersservice.api.entity.account.Direction.RECEIVED;
@@ -31,7 +28,17 @@ public class Account {
 
     private static final Logger log = LoggerFactory.getLogger(Account.class);
 
-    private final String id;
+    // Their messages do not depend on the transfer, they are thrown without allocating anything
+    private static final AmountTooBigException AMOUNT_TOO_BIG =
+            new AmountTooBigException("The amount is too big for the current balance");
+    private static final NotEnoughBalanceException NOT_ENOUGH_BALANCE =
+            new NotEnoughBalanceException("Not enough balance in account");
+
+    // Failed optimistic reads before falling back to the read lock, see "getAccountInfo"
+    static final int MAX_OPTIMISTIC_READS = 4;
+
+    // 12 hexadecimal digits stored as a long, see "HexIds"
+    private final long id;
     private final String currency;
 
     // Since we use manual locking for the write/update operations
@@ -39,55 +46,179 @@ public class Account {
     // just the current account balance.
     private volatile long balance;
 
-    private final List<AccountHistoryItem> history = new LinkedList<>();
+    private final AccountHistory history;
 
-    // We use this lock to allow multiple concurrent read operations (getAccountInfo)
-    // while preventing dirty reads
-    private ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    // The writers take its write lock for the few instructions needed to update
+    // the balance and the history (they are already serialized by the account lock).
+    // The readers (getAccountInfo) do not take it, they read optimistically and
+    // check that no writer got in, only repeated conflicts make them take the read lock.
+    private final StampedLock stampedLock;
 
     // This is used for concurrency, to avoid race conditions when we need to process
     // two or more requests which have one or both accounts in common.
-    private BlockingQueue<AccountMutex> mutexQueue = new LinkedBlockingQueue<>(1);
+    // See "AccountLockManager"
+    private final AccountLock lock;
 
-    private final Random randomGenerator = new Random();
+    // Sequence number of the last journal record applied to this account,
+    // it is guarded by the account lock (see "AccountLockManager")
+    private long journalSequence;
 
     public Account(String currency) {
+        this(HexIds.randomId(), currency, 0L, new AccountHistory(), 0L);
+    }
+
+    // The old items of the history are moved to the archive, see "AccountHistory"
+    public Account(String currency, HistoryArchive archive) {
+        this(HexIds.randomId(), currency, 0L, new AccountHistory(archive), 0L);
+    }
+
+    // This is used when the account is rebuilt from its persisted form
+    public Account(String id, String currency) {
+        this(id, currency, 0L, new AccountHistory(), 0L);
+    }
+
+    public Account(String id, String currency, HistoryArchive archive) {
+        this(id, currency, 0L, new AccountHistory(archive), 0L);
+    }
+
+    // This is used when the account is restored from a snapshot
+    public Account(String id, String currency, long balance, AccountHistory history,
+            long journalSequence) {
+
+        this(parseId(id), currency, balance, history, journalSequence);
+    }
+
+    private Account(long id, String currency, long balance, AccountHistory history,
+            long journalSequence) {
+
         if (currency == null) {
             throw new IllegalArgumentException("Currency must not be null");
         }
 
-        this.id = generateRandomId();
+        this.id = id;
+        this.lock = new AccountLock(id);
+        this.stampedLock = new StampedLock();
         this.currency = currency;
+        this.balance = balance;
+        this.history = history;
+        this.journalSequence = journalSequence;
+    }
 
-        mutexQueue.add(AccountMutex.ACCOUNT_IS_OPEN);
+    // Its state is stored somewhere else, see "OffHeapAccount"
+    Account(long id, String currency) {
+        this.id = id;
+        this.currency = currency;
+        this.lock = null;
+        this.stampedLock = null;
+        this.history = null;
+    }
+
+    private static long parseId(String id) {
+        long encodedId = HexIds.parse(id);
+        if (encodedId == HexIds.NO_ID) {
+            throw new IllegalArgumentException("Id must be made of " + HexIds.LENGTH
+                    + " lowercase hexadecimal digits: " + id);
+        }
+        return encodedId;
     }
 
     public void add(Transfer transfer) throws NotEnoughBalanceException, AmountTooBigException,
             InvalidCurrencyException, UnableToObtainMutexException {
 
+        add(transfer, extractDirection(transfer));
+    }
+
+    // The direction of the transfer for this account is already known, see "ResolvedTransfer"
+    public void add(Transfer transfer, Direction direction) throws NotEnoughBalanceException,
+            AmountTooBigException, InvalidCurrencyException, UnableToObtainMutexException {
+
+        checkCurrency(transfer);
+
+        String counterpartyId = direction == Direction.SENT ? transfer.getTargetAccountId()
+                : transfer.getSourceAccountId();
+        updateBalanceAndAddItemToHistory(transfer.getEncodedId(), counterpartyId, transfer.getAmount(),
+                direction, transfer.getTimestamp());
+    }
+
+    /*
+     * It checks that an incoming transfer can be added to this account without changing
+     * anything, the lock of the account has to be held. The target account of an internal
+     * transfer is checked before the source account is debited (see "TransfersManagerImpl"),
+     * hence a transfer which is rejected by the target account leaves no trace.
+     * */
+    public void checkCanReceive(Transfer transfer) throws InvalidCurrencyException, AmountTooBigException {
+        checkCurrency(transfer);
+
+        // This is to prevent "long overflow"
+        if (transfer.getAmount() > Long.MAX_VALUE - getBalance()) {
+            log.debug(AMOUNT_TOO_BIG.getMessage());
+            throw AMOUNT_TOO_BIG;
+        }
+    }
+
+    private void checkCurrency(Transfer transfer) throws InvalidCurrencyException {
         if (!transfer.getCurrency().equals(currency)) {
             String errorMessage = "The transfer currency does not match this "
                     + "account currency: " + transfer.getCurrency() + " vs "
                     + currency;
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new InvalidCurrencyException(errorMessage);
         }
+    }
 
-        AccountHistoryItem historyItem = createHistoryItem(transfer);
+    /*
+     * It gives back the amount of an outgoing transfer which has already been
+     * added to this account, it is used when the transfer could not be completed
+     * on the other account. It is recorded as an incoming item so the history
+     * keeps track of both movements.
+     * */
+    public void refund(Transfer transfer) throws AmountTooBigException, UnableToObtainMutexException {
+        if (extractDirection(transfer) != Direction.SENT) {
+            String errorMessage = "Only outgoing transfers can be refunded. Transfer:\n" + transfer;
+            log.error(errorMessage);
+            throw new IllegalArgumentException(errorMessage);
+        }
 
-        updateBalanceAndAddItemToHistory(historyItem);
+        try {
+            updateBalanceAndAddItemToHistory(transfer.getEncodedId(), transfer.getTargetAccountId(),
+                    transfer.getAmount(), RECEIVED, transfer.getTimestamp());
+        } catch (NotEnoughBalanceException ex) {
+            // This should never happen since the balance can only grow
+            throw new IllegalStateException(ex);
+        }
     }
 
     /*
-     * We need to use a write lock to prevent "dirty reads".
-     * See the other method which also uses the same lock below.
+     * We need to use a write lock to prevent "dirty reads", i.e., a reader
+     * getting a balance which does not match the size of the history.
+     * See "getAccountInfo" below.
      * */
-    private void updateBalanceAndAddItemToHistory(AccountHistoryItem historyItem)
-            throws NotEnoughBalanceException, AmountTooBigException, UnableToObtainMutexException {
+    void updateBalanceAndAddItemToHistory(long transferId, String counterpartyId, long amount,
+            Direction direction, long timestamp) throws NotEnoughBalanceException, AmountTooBigException, UnableToObtainMutexException {
+
+        // The write lock is only contended by the readers which have fallen back
+        // to the read lock, the writers already hold the lock of the account
+        long stamp = stampedLock.tryWriteLock();
+        if (stamp == 0L) {
+            stamp = waitForWriteLock();
+        }
+
+        try {
+            balance = updateBalance(balance, amount, direction);
+
+            history.add(transferId, counterpartyId, amount, direction, timestamp);
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
 
-        boolean writeLockAcquired;
+    private long waitForWriteLock() throws UnableToObtainMutexException {
+        AccountContentionEvent event = new AccountContentionEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long stamp;
         try {
-            writeLockAcquired = readWriteLock.writeLock().tryLock(500, TimeUnit.MILLISECONDS);
+            stamp = stampedLock.tryWriteLock(500, TimeUnit.MILLISECONDS);
         } catch (InterruptedException ex) {
             String errorMessage = "Failed to process transfer, unable to obtain write lock, "
                     + "the thread got interrupted";
@@ -95,33 +226,19 @@ public class Account {
             log.error(errorMessage, ex);
             throw new UnableToObtainMutexException(errorMessage);
         }
+        long waitNanos = System.nanoTime() - start;
+        event.end();
+        AccountCounters.recordContention(event, id, AccountContentionEvent.WRITE_LOCK, waitNanos, 0,
+                stamp == 0L);
 
-        if (!writeLockAcquired) {
+        if (stamp == 0L) {
+            AccountCounters.WRITE_LOCK_TIMEOUTS.increment();
             String errorMessage = "Failed to process transfer, unable to obtain the write lock, "
                     + "time out reached while waiting";
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new UnableToObtainMutexException(errorMessage);
         }
-
-        balance = updateBalance(balance, historyItem.getAmount(),
-                historyItem.getDirection());
-
-        history.add(historyItem);
-
-        readWriteLock.writeLock().unlock();
-    }
-
-    private String generateRandomId() {
-        // last 12 hexadecimal digits of the random UUID
-        return UUID.randomUUID().toString().substring(24);
-    }
-
-    AccountHistoryItem createHistoryItem(Transfer transfer) {
-        String counterpartyId = extractCounterpartyId(transfer);
-        Direction direction = extractDirection(transfer);
-
-        return new AccountHistoryItem(transfer.getId(),
-                counterpartyId, transfer.getAmount(), direction, transfer.getTimestamp());
+        return stamp;
     }
 
     long updateBalance(long balance, long amount, Direction direction) throws NotEnoughBalanceException, AmountTooBigException {
@@ -130,120 +247,149 @@ public class Account {
         if (direction == RECEIVED) {
             // This is to prevent "long overflow"
             if (amount > Long.MAX_VALUE - balance) {
-                String errorMessage = "The amount is too big for the current balance";
-                log.error(errorMessage);
-                throw new AmountTooBigException(errorMessage);
+                log.debug(AMOUNT_TOO_BIG.getMessage());
+                throw AMOUNT_TOO_BIG;
             }
             updatedBalance = balance + amount;
         } else {
             updatedBalance = balance - amount;
             if (updatedBalance < 0) {
-                String errorMessage = "Not enough balance in account";
-                log.error(errorMessage);
-                throw new NotEnoughBalanceException(errorMessage);
+                log.debug(NOT_ENOUGH_BALANCE.getMessage());
+                throw NOT_ENOUGH_BALANCE;
             }
         }
 
         return updatedBalance;
     }
 
-    String extractCounterpartyId(Transfer transfer) {
-        if (transfer.getSourceAccountId().equals(id)) {
-            return transfer.getTargetAccountId();
-        }
-
-        if (transfer.getTargetAccountId().equals(id)) {
-            return transfer.getSourceAccountId();
-        }
-
-        String errorMessage = "Either the source or the target account id should match "
-                + "this account id. Transfer:\n" + transfer;
-        log.error(errorMessage);
-        throw new IllegalArgumentException(errorMessage);
-    }
-
     Direction extractDirection(Transfer transfer) {
-        if (transfer.getSourceAccountId().equals(id)) {
+        if (isThisAccount(transfer.getSourceAccountId())) {
             return Direction.SENT;
         }
 
-        if (transfer.getTargetAccountId().equals(id)) {
+        if (isThisAccount(transfer.getTargetAccountId())) {
             return Direction.RECEIVED;
         }
 
         String errorMessage = "Either the source or the target account id should match "
-                + "this account id \"" + id + "\". Transfer:\n" + transfer;
+                + "this account id \"" + getId() + "\". Transfer:\n" + transfer;
         log.error(errorMessage);
         throw new IllegalArgumentException(errorMessage);
     }
 
+    private boolean isThisAccount(String accountId) {
+        return HexIds.parse(accountId) == id;
+    }
+
+    public AccountInfo getAccountInfo() {
+        return getAccountInfo(0, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
     /*
-     * We need to use a read lock to prevent "dirty reads".
+     * It returns a page of the history: up to "limit" items, from the "startIndex"
+     * item on, whose timestamp is within the "from" and "to" range (both inclusive).
+     * The next cursor is the index of the first item of the next page, if any.
+     *
+     * The balance and the size of the history are read together without blocking
+     * the writers: the read is optimistic and it is retried when a writer has got
+     * in meanwhile. Only after a few conflicts in a row the read lock is taken,
+     * the writers hold the write lock for a few instructions, hence the wait is short
+     * and there is no timeout.
      * See the other method which also uses the same lock above.
      * */
-    public AccountInfo getAccountInfo() throws UnableToObtainMutexException {
+    public AccountInfo getAccountInfo(int startIndex, long from, long to, int limit) {
+        long currentBalance = 0L;
+        int historySize = 0;
+        boolean consistent = false;
+        for (int i = 0; i < MAX_OPTIMISTIC_READS && !consistent; i++) {
+            // It is zero when the write lock is held
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0L) {
+                currentBalance = balance;
+                historySize = history.size();
+                consistent = stampedLock.validate(stamp);
+            }
+        }
 
-        boolean readLockAcquired;
-        try {
-            readLockAcquired = readWriteLock.readLock().tryLock(100, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ex) {
-            String errorMessage = "Failed to get the account info, unable to obtain the read lock, "
-                    + "the thread got interrupted";
-            Thread.currentThread().interrupt();
-            log.error(errorMessage, ex);
-            throw new UnableToObtainMutexException(errorMessage);
+        if (!consistent) {
+            long stamp = stampedLock.readLock();
+            try {
+                currentBalance = balance;
+                historySize = history.size();
+            } finally {
+                stampedLock.unlockRead(stamp);
+            }
         }
 
-        if (!readLockAcquired) {
-            String errorMessage = "Failed get the account info, unable to obtain the read lock, "
-                    + "time out reached while waiting";
-            log.error(errorMessage);
-            throw new UnableToObtainMutexException(errorMessage);
+        return getAccountInfo(currentBalance, history, historySize, startIndex, from, to, limit);
+    }
+
+    // The balance and the size of the history have been read consistently
+    AccountInfo getAccountInfo(long currentBalance, AccountHistory history, int historySize, int startIndex,
+            long from, long to, int limit) {
+
+        // The history is append-only, the items up to "historySize" can be
+        // read without holding the lock
+        List<AccountHistoryItem> historyPage;
+        int index;
+        if (from == Long.MIN_VALUE && to == Long.MAX_VALUE) {
+            // Without a time range the page is a contiguous range of items, it is
+            // not copied whatever its size, see "AccountHistoryView"
+            int start = Math.min(startIndex, historySize);
+            index = (int) Math.min((long) start + limit, historySize);
+            historyPage = history.view(start, index);
+        } else {
+            List<AccountHistoryItem> items = new ArrayList<>(Math.min(limit, Math.max(historySize - startIndex, 0)));
+            index = history.nextIndexInRange(startIndex, historySize, from, to);
+            while (index < historySize && items.size() < limit) {
+                items.add(history.getItem(index));
+                index = history.nextIndexInRange(index + 1, historySize, from, to);
+            }
+            historyPage = Collections.unmodifiableList(items);
         }
+        String nextCursor = index < historySize ? String.valueOf(index) : null;
 
-        // We use "defensive copying" because we want to decouple the two lists
-        List<AccountHistoryItem> historyCopy = Collections.unmodifiableList(new LinkedList<>(history));
+        AccountInfo accountInfo = new AccountInfo(getId(), currency, currentBalance, historyPage, nextCursor);
 
-        AccountInfo accountInfo = new AccountInfo(id, currency, balance, historyCopy);
         log.trace("AccountInfo:\n{}", accountInfo);
         return accountInfo;
     }
 
-    public AccountMutex getMutex() throws UnableToObtainMutexException {
-        AccountMutex mutex = null;
-        final int maxNumberOfAttempts = 5;
-        int count = 1;
+    AccountLock getLock() {
+        return lock;
+    }
 
-        try {
-            while (count <= maxNumberOfAttempts) {
-                mutex = mutexQueue.poll(getRandomMillis(), TimeUnit.MILLISECONDS);
-                if (mutex == null) {
-                    log.warn("Unable to obtain mutex, attempt number: {}", count);
-                    count++;
-                } else {
-                    return mutex;
-                }
-            }
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            String errorMessage = "Thread interrupted while waiting for mutex";
-            log.error(errorMessage);
-            throw new UnableToObtainMutexException(errorMessage);
-        }
+    // See "AccountLockManagerImpl"
+    void lockInterruptibly() throws InterruptedException {
+        lock.lockInterruptibly();
+    }
 
-        String errorMessage = "Unable to obtain mutex after " + maxNumberOfAttempts + " attempts";
-        log.error(errorMessage);
-        throw new UnableToObtainMutexException(errorMessage);
+    void unlock() {
+        lock.unlock();
     }
 
-    public void returnMutex(AccountMutex mutex) {
-        if (!mutexQueue.offer(mutex)) {
-            log.error("Unable to return the mutex to the queue");
-        }
+    // It has to be called while holding the lock
+    boolean isClosed() {
+        return lock.isClosed();
+    }
+
+    // It has to be called while holding the lock
+    void markAsClosed() {
+        lock.markAsClosed();
     }
 
-    long getRandomMillis() {
-        return randomGenerator.nextInt(51) + 50L; // from 50 to 100 inclusive
+    // The lock of the account (see "AccountLockManager") has to be held
+    // to get its size consistent with the balance
+    public AccountHistory getHistory() {
+        return history;
+    }
+
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
     }
 
     @Override
@@ -251,7 +397,7 @@ public class Account {
         final int prime = 31;
         int result = 1;
 
-        result = prime * result + ((id == null) ? 0 : id.hashCode());
+        result = prime * result + Long.hashCode(id);
         result = prime * result + ((currency == null) ? 0 : currency.hashCode());
 
         return result;
@@ -272,8 +418,7 @@ public class Account {
         }
 
         Account other = (Account) obj;
-        // We know there is no way an id can be null
-        if (!id.equals(other.id)) {
+        if (id != other.id) {
             return false;
         }
 
@@ -288,11 +433,16 @@ public class Account {
 
     @Override
     public String toString() {
-        return "Account [id: " + id + ", currency: " + currency + ", balance: "
-                + balance + ", number of history items: " + history.size() + "]";
+        return "Account [id: " + getId() + ", currency: " + currency + ", balance: "
+                + getBalance() + ", number of history items: " + getHistory().size() + "]";
     }
 
+    // It creates a new String every time, see "getEncodedId"
     public String getId() {
+        return HexIds.toHex(id);
+    }
+
+    public long getEncodedId() {
         return id;
     }
 
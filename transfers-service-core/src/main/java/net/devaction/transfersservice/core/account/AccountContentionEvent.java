@@ -0,0 +1,52 @@
+package net.devaction.transfersservice.core.account;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import net.devaction.transfersservice.api.util.id.HexIds;
+
+/**
+ * JFR event of a thread which had to wait for a lock of an account, its duration
+ * is the wait. Any recording includes it, e.g.:
+ *
+ * jcmd <pid> JFR.start duration=60s filename=transfers.jfr
+ *
+ * When there is no recording, creating and committing it is optimized away by the JIT.
+ */
+@Name("net.devaction.transfersservice.AccountContention")
+@Label("Account Contention")
+@Category("Transfers Service")
+@Description("A thread had to wait for the lock of an account")
+@StackTrace(false)
+class AccountContentionEvent extends jdk.jfr.Event {
+
+    static final String ACCOUNT_LOCK = "account";
+    static final String WRITE_LOCK = "write";
+
+    @Label("Account Id")
+    String accountId;
+
+    @Label("Lock")
+    @Description("\"account\" (see \"AccountLock\") or \"write\" (the lock of the balance and the history)")
+    String lock;
+
+    @Label("Spins")
+    int spins;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    // It must be called after "end"
+    void commitIfEnabled(long encodedAccountId, String lockName, int numOfSpins, boolean hasTimedOut) {
+        if (shouldCommit()) {
+            accountId = HexIds.toHex(encodedAccountId);
+            lock = lockName;
+            spins = numOfSpins;
+            timedOut = hasTimedOut;
+            commit();
+        }
+    }
+}
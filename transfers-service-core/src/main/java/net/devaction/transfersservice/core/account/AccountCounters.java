@@ -0,0 +1,56 @@
+package net.devaction.transfersservice.core.account;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the contention on the accounts, for all the accounts of the process.
+ * They are only updated when a lock is not free straight away, the uncontended
+ * path does not touch them.
+ *
+ * The contention events are also aggregated per account (see "HotAccountsSketch")
+ * and emitted as JFR events (see "AccountContentionEvent").
+ */
+public final class AccountCounters {
+
+    // Failed attempts to take an account lock while spinning
+    static final LongAdder LOCK_SPINS = new LongAdder();
+    // Threads which had to be queued (parked) to take an account lock
+    static final LongAdder LOCK_WAITS = new LongAdder();
+    // Updates which failed because the write lock of the account was not obtained in time
+    static final LongAdder WRITE_LOCK_TIMEOUTS = new LongAdder();
+
+    static final int NUM_OF_TRACKED_ACCOUNTS = 64;
+    static final HotAccountsSketch HOT_ACCOUNTS = new HotAccountsSketch(NUM_OF_TRACKED_ACCOUNTS);
+
+    private AccountCounters() {
+    }
+
+    public static long getNumOfLockSpins() {
+        return LOCK_SPINS.sum();
+    }
+
+    public static long getNumOfLockWaits() {
+        return LOCK_WAITS.sum();
+    }
+
+    public static long getNumOfWriteLockTimeouts() {
+        return WRITE_LOCK_TIMEOUTS.sum();
+    }
+
+    public static List<HotAccount> getHotAccounts(int limit) {
+        return HOT_ACCOUNTS.getHotAccounts(limit);
+    }
+
+    public static void clearHotAccounts() {
+        HOT_ACCOUNTS.clear();
+    }
+
+    // It has to be called after "event.end()"
+    static void recordContention(AccountContentionEvent event, long accountId, String lockName, long waitNanos,
+            int numOfSpins, boolean timedOut) {
+
+        HOT_ACCOUNTS.record(accountId, waitNanos, numOfSpins, timedOut);
+        event.commitIfEnabled(accountId, lockName, numOfSpins, timedOut);
+    }
+}
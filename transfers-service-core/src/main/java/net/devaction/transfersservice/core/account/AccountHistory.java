@@ -0,0 +1,526 @@
+package net.devaction.transfersservice.core.account;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.util.id.HexIds;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+
+/**
+ * Append-only history of an account stored in columns (parallel arrays) instead of
+ * one "AccountHistoryItem" object per item. The items are stored in chunks of
+ * "CHUNK_SIZE" items, the first chunk grows as needed (most accounts only have
+ * a few items) and the rest are allocated full size, hence appending an item
+ * does not allocate any object (except when a new chunk is needed).
+ *
+ * The counterparty account ids are dictionary-encoded (every account only deals
+ * with a limited number of counterparties). The transfer ids generated by this
+ * service (12 hexadecimal digits) are stored as a "long", any other transfer id
+ * is dictionary-encoded too.
+ *
+ * There can only be one writer at a time (the thread holding the account lock)
+ * but any number of concurrent readers, which do not need any lock: the items
+ * are written before the size is published (it is "volatile") and they are never
+ * modified afterwards. A reader which reads the size first can read all the items
+ * up to that size.
+ *
+ * Every chunk also keeps the range of its timestamps, the maximum timestamp of
+ * all the items up to (and including) that chunk and the minimum timestamp of
+ * all the items from that chunk on. The items are in the order they have been
+ * processed, so their timestamps are almost always increasing: the last two
+ * values are monotonic and can be binary searched, hence the items within a
+ * time range are found without scanning the whole history (see
+ * "nextIndexInRange"). Out-of-order timestamps are still found, the range of
+ * each chunk is used to skip the chunks which do not contain any of them.
+ *
+ * The old chunks can be moved out of the heap (see "HistoryArchive"): when a new
+ * chunk is started, the full chunks beyond the retained number of items, or older
+ * than the retention period, are encoded (see "HistoryChunkCodec") and archived,
+ * only their timestamp index is kept in memory. The writer holds the account lock,
+ * hence it only hands the chunks over to the archive (see "HistoryArchive.submit"),
+ * which encodes them into a reused buffer and appends them later on: a full chunk
+ * is never modified and its columns stay readable until it has been archived. A
+ * history has at most one archiving task at a time, the chunks which are started
+ * in the meantime are covered by the next one. They are decoded again when they
+ * are read, the last decoded chunk is kept, hence going through the pages of an
+ * archived range only decodes each chunk once.
+ */
+public class AccountHistory {
+
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final HistoryArchive NO_ARCHIVE = new NoOpHistoryArchive();
+
+    // A chunk is encoded by the thread which archives it, the buffer is reused
+    private static final ThreadLocal<byte[]> ENCODING_BUFFERS = ThreadLocal.withInitial(
+            () -> new byte[HistoryChunkCodec.maxLength(CHUNK_SIZE)]);
+
+    private Chunk[] chunks;
+    private volatile int size;
+
+    private final HistoryArchive archive;
+    private final int numOfRetainedChunks;
+    // Nothing is ever archived when the archive retains everything
+    private final boolean archivingEnabled;
+    // Newest chunks to be archived, they are replaced when the writer starts a new
+    // chunk before the archiving task has taken them
+    private final AtomicReference<ArchivingRequest> pendingArchiving = new AtomicReference<>();
+    // There is an archiving task which has been submitted and has not finished yet
+    private final AtomicBoolean archiving = new AtomicBoolean();
+    // Index of the oldest chunk which has not been archived, only used by the archiving task
+    private int firstRetainedChunk;
+    // Last archived chunk which has been decoded
+    private volatile DecodedChunk lastDecodedChunk;
+
+    private String[] dictionary = new String[INITIAL_CAPACITY];
+    private volatile int dictionarySize;
+    // Only used by the writer, it is built the first time it is needed
+    // (most of the accounts restored from a snapshot are never updated)
+    private Map<String, Integer> dictionaryIndexes;
+
+    public AccountHistory() {
+        this(INITIAL_CAPACITY, NO_ARCHIVE);
+    }
+
+    public AccountHistory(HistoryArchive archive) {
+        this(INITIAL_CAPACITY, archive);
+    }
+
+    // The expected number of items is used when the history is restored from a snapshot
+    public AccountHistory(int expectedSize) {
+        this(expectedSize, NO_ARCHIVE);
+    }
+
+    public AccountHistory(int expectedSize, HistoryArchive archive) {
+        chunks = new Chunk[] {new Chunk(Math.max(INITIAL_CAPACITY, Math.min(expectedSize, CHUNK_SIZE)))};
+        this.archive = archive;
+        // The chunk which is being written is never archived, at least one more is kept
+        this.numOfRetainedChunks = Math.max(1, (int) ((archive.getNumOfRetainedItems() + (long) CHUNK_MASK)
+                >>> CHUNK_SHIFT));
+        this.archivingEnabled = archive.getNumOfRetainedItems() != Integer.MAX_VALUE
+                || archive.getRetentionMillis() != Long.MAX_VALUE;
+    }
+
+    public void add(String transferId, String counterpartyAccountId, long amount,
+            Direction direction, long timestamp) {
+
+        add(encodeTransferId(transferId), getDictionaryIndex(counterpartyAccountId), amount,
+                (byte) direction.ordinal(), timestamp);
+    }
+
+    // The transfer id has been generated by the service (see "Transfer.getEncodedId")
+    public void add(long encodedTransferId, String counterpartyAccountId, long amount,
+            Direction direction, long timestamp) {
+
+        add(encodedTransferId, getDictionaryIndex(counterpartyAccountId), amount, (byte) direction.ordinal(),
+                timestamp);
+    }
+
+    // This is used when the history is restored from a snapshot, the transfer id
+    // and the counterparty account id must have been encoded by this history
+    // (see "addDictionaryEntry")
+    public void add(long encodedTransferId, int counterpartyIndex, long amount, byte direction, long timestamp) {
+        int index = size;
+        Columns columns = getColumnsForWriting(index, timestamp);
+        int offset = index & CHUNK_MASK;
+
+        columns.transferIds[offset] = encodedTransferId;
+        columns.counterparties[offset] = counterpartyIndex;
+        columns.amounts[offset] = amount;
+        columns.directions[offset] = direction;
+        columns.timestamps[offset] = timestamp;
+        updateTimestampIndex(index >>> CHUNK_SHIFT, timestamp);
+
+        // Publication of the new item
+        size = index + 1;
+    }
+
+    private void updateTimestampIndex(int chunkIndex, long timestamp) {
+        Chunk chunk = chunks[chunkIndex];
+        if (timestamp < chunk.minTimestamp) {
+            chunk.minTimestamp = timestamp;
+        }
+        if (timestamp > chunk.maxTimestamp) {
+            chunk.maxTimestamp = timestamp;
+        }
+        if (timestamp > chunk.maxTimestampUpToHere) {
+            chunk.maxTimestampUpToHere = timestamp;
+        }
+        // An out-of-order timestamp can lower the minimum of the previous chunks too
+        for (int i = chunkIndex; i >= 0 && chunks[i].minTimestampFromHere > timestamp; i--) {
+            chunks[i].minTimestampFromHere = timestamp;
+        }
+    }
+
+    public int addDictionaryEntry(String value) {
+        int index = dictionarySize;
+        if (index == dictionary.length) {
+            dictionary = Arrays.copyOf(dictionary, 2 * index);
+        }
+        dictionary[index] = value;
+        if (dictionaryIndexes != null) {
+            dictionaryIndexes.put(value, index);
+        }
+
+        dictionarySize = index + 1;
+        return index;
+    }
+
+    private int getDictionaryIndex(String value) {
+        if (dictionaryIndexes == null) {
+            dictionaryIndexes = new HashMap<>();
+            for (int i = 0; i < dictionarySize; i++) {
+                dictionaryIndexes.put(dictionary[i], i);
+            }
+        }
+
+        Integer index = dictionaryIndexes.get(value);
+        if (index != null) {
+            return index;
+        }
+        return addDictionaryEntry(value);
+    }
+
+    private Columns getColumnsForWriting(int index, long timestamp) {
+        int chunkIndex = index >>> CHUNK_SHIFT;
+
+        if (chunkIndex == chunks.length) {
+            Chunk[] newChunks = Arrays.copyOf(chunks, chunkIndex + 1);
+            newChunks[chunkIndex] = new Chunk(CHUNK_SIZE);
+            newChunks[chunkIndex].maxTimestampUpToHere = chunks[chunkIndex - 1].maxTimestampUpToHere;
+            chunks = newChunks;
+            if (archivingEnabled) {
+                requestArchiving(newChunks, chunkIndex, timestamp);
+            }
+        }
+
+        Chunk chunk = chunks[chunkIndex];
+        Columns columns = chunk.columns;
+        int offset = index & CHUNK_MASK;
+        if (offset == columns.amounts.length) {
+            // Only the first chunk can grow
+            columns = new Columns(columns, Math.min(2 * offset, CHUNK_SIZE));
+            chunk.columns = columns;
+        }
+        return columns;
+    }
+
+    private void requestArchiving(Chunk[] currentChunks, int currentChunkIndex, long newestTimestamp) {
+        pendingArchiving.set(new ArchivingRequest(currentChunks, currentChunkIndex, newestTimestamp));
+        if (archiving.compareAndSet(false, true)) {
+            archive.submit(this::archivePendingChunks);
+        }
+    }
+
+    private void archivePendingChunks() {
+        do {
+            try {
+                ArchivingRequest request;
+                while ((request = pendingArchiving.getAndSet(null)) != null) {
+                    archiveOldChunks(request.chunks, request.currentChunkIndex, request.newestTimestamp);
+                }
+            } finally {
+                archiving.set(false);
+            }
+            // A request which came after the last "getAndSet" but before "archiving" was
+            // cleared has not submitted a task, it is taken by this one
+        } while (pendingArchiving.get() != null && archiving.compareAndSet(false, true));
+    }
+
+    private void archiveOldChunks(Chunk[] currentChunks, int currentChunkIndex, long newestTimestamp) {
+        long retentionMillis = archive.getRetentionMillis();
+        byte[] buffer = ENCODING_BUFFERS.get();
+        while (firstRetainedChunk < currentChunkIndex) {
+            Chunk chunk = currentChunks[firstRetainedChunk];
+            boolean beyondRetainedItems = currentChunkIndex - firstRetainedChunk > numOfRetainedChunks;
+            boolean beyondRetentionPeriod = newestTimestamp > chunk.maxTimestamp
+                    && newestTimestamp - chunk.maxTimestamp > retentionMillis;
+            if (!beyondRetainedItems && !beyondRetentionPeriod) {
+                return;
+            }
+
+            Columns columns = chunk.columns;
+            int length = HistoryChunkCodec.encode(columns.transferIds, columns.counterparties, columns.amounts,
+                    columns.directions, columns.timestamps, CHUNK_SIZE, buffer);
+            long position = archive.append(buffer, length);
+            if (position == HistoryArchive.NOT_ARCHIVED) {
+                // It is kept in memory, it is tried again when the next chunk is started
+                return;
+            }
+
+            // The position has to be visible before the columns are gone, see "getColumns"
+            chunk.archivePosition = position;
+            chunk.columns = null;
+            firstRetainedChunk++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getAmount(int index) {
+        return getColumns(index).amounts[index & CHUNK_MASK];
+    }
+
+    public long getTimestamp(int index) {
+        return getColumns(index).timestamps[index & CHUNK_MASK];
+    }
+
+    public Direction getDirection(int index) {
+        return DIRECTIONS[getColumns(index).directions[index & CHUNK_MASK]];
+    }
+
+    public String getTransferId(int index) {
+        return decodeTransferId(getEncodedTransferId(index));
+    }
+
+    public String getCounterpartyAccountId(int index) {
+        return dictionary[getCounterpartyIndex(index)];
+    }
+
+    public AccountHistoryItem getItem(int index) {
+        Columns columns = getColumns(index);
+        int offset = index & CHUNK_MASK;
+
+        return new AccountHistoryItem(decodeTransferId(columns.transferIds[offset]),
+                dictionary[columns.counterparties[offset]], columns.amounts[offset],
+                DIRECTIONS[columns.directions[offset]], columns.timestamps[offset]);
+    }
+
+    // Items from "fromIndex" (inclusive) to "toIndex" (exclusive), without copying
+    // them, "toIndex" must not be bigger than a previous value of "size()"
+    public List<AccountHistoryItem> view(int fromIndex, int toIndex) {
+        return new AccountHistoryView(this, fromIndex, toIndex);
+    }
+
+    /*
+     * It returns the index of the first item, from "start" (inclusive) to "end"
+     * (exclusive), whose timestamp is within the "from" and "to" range (both
+     * inclusive), or "end" when there is none. The "end" index must not be bigger
+     * than a previous value of "size()".
+     * */
+    public int nextIndexInRange(int start, int end, long from, long to) {
+        if (start >= end) {
+            return end;
+        }
+        if (start < 0 || end > size) {
+            throw new IndexOutOfBoundsException("Start: " + start + ", end: " + end + ", size: " + size);
+        }
+
+        Chunk[] currentChunks = chunks;
+        int lastChunkIndex = (end - 1) >>> CHUNK_SHIFT;
+
+        // Every item before the first chunk whose "maxTimestampUpToHere" is not
+        // lower than "from" is too old
+        int firstChunkIndex = start >>> CHUNK_SHIFT;
+        if (currentChunks[firstChunkIndex].maxTimestampUpToHere < from) {
+            int low = firstChunkIndex + 1;
+            int high = lastChunkIndex + 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (currentChunks[middle].maxTimestampUpToHere < from) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low > lastChunkIndex) {
+                return end;
+            }
+            firstChunkIndex = low;
+            start = low << CHUNK_SHIFT;
+        }
+
+        // Every item from the first chunk whose "minTimestampFromHere" is higher
+        // than "to" is too new
+        if (currentChunks[lastChunkIndex].minTimestampFromHere > to) {
+            int low = firstChunkIndex;
+            int high = lastChunkIndex;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (currentChunks[middle].minTimestampFromHere > to) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            if (low == firstChunkIndex) {
+                return end;
+            }
+            lastChunkIndex = low - 1;
+        }
+
+        for (int chunkIndex = firstChunkIndex; chunkIndex <= lastChunkIndex; chunkIndex++) {
+            Chunk chunk = currentChunks[chunkIndex];
+            if (chunk.maxTimestamp < from || chunk.minTimestamp > to) {
+                continue;
+            }
+
+            int chunkStart = chunkIndex << CHUNK_SHIFT;
+            int fromOffset = Math.max(start, chunkStart) - chunkStart;
+            int toOffset = Math.min(end, chunkStart + CHUNK_SIZE) - chunkStart;
+            long[] timestamps = getColumns(chunk).timestamps;
+            for (int offset = fromOffset; offset < toOffset; offset++) {
+                if (timestamps[offset] >= from && timestamps[offset] <= to) {
+                    return chunkStart + offset;
+                }
+            }
+        }
+        return end;
+    }
+
+    // The encoded values are used by the snapshots
+
+    public long getEncodedTransferId(int index) {
+        return getColumns(index).transferIds[index & CHUNK_MASK];
+    }
+
+    public int getCounterpartyIndex(int index) {
+        return getColumns(index).counterparties[index & CHUNK_MASK];
+    }
+
+    public byte getDirectionCode(int index) {
+        return getColumns(index).directions[index & CHUNK_MASK];
+    }
+
+    // It has to be called after "size()", then it covers all the items up to that size
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    public String getDictionaryEntry(int index) {
+        return dictionary[index];
+    }
+
+    private Columns getColumns(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return getColumns(chunks[index >>> CHUNK_SHIFT]);
+    }
+
+    private Columns getColumns(Chunk chunk) {
+        Columns columns = chunk.columns;
+        if (columns != null) {
+            return columns;
+        }
+
+        DecodedChunk decodedChunk = lastDecodedChunk;
+        if (decodedChunk != null && decodedChunk.chunk == chunk) {
+            return decodedChunk.columns;
+        }
+
+        // Only the full chunks are archived
+        columns = new Columns(CHUNK_SIZE);
+        ByteBuffer buffer = archive.read(chunk.archivePosition);
+        HistoryChunkCodec.decode(buffer, columns.transferIds, columns.counterparties, columns.amounts,
+                columns.directions, columns.timestamps);
+        lastDecodedChunk = new DecodedChunk(chunk, columns);
+        return columns;
+    }
+
+    // Number of chunks which have been archived
+    int getNumOfArchivedChunks() {
+        int numOfArchivedChunks = 0;
+        Chunk[] currentChunks = chunks;
+        for (Chunk chunk : currentChunks) {
+            if (chunk.columns == null) {
+                numOfArchivedChunks++;
+            }
+        }
+        return numOfArchivedChunks;
+    }
+
+    // Non-negative values are the 12 hexadecimal digits of the transfer
+    // id, negative values are "-(dictionary index + 1)"
+    private long encodeTransferId(String transferId) {
+        long encodedTransferId = HexIds.parse(transferId);
+        if (encodedTransferId != HexIds.NO_ID) {
+            return encodedTransferId;
+        }
+        return -(getDictionaryIndex(transferId) + 1L);
+    }
+
+    private String decodeTransferId(long encodedTransferId) {
+        if (encodedTransferId < 0) {
+            return dictionary[(int) (-encodedTransferId - 1L)];
+        }
+        return HexIds.toHex(encodedTransferId);
+    }
+
+    private static class Chunk {
+        // They are null once the chunk has been archived
+        private volatile Columns columns;
+        private volatile long archivePosition = HistoryArchive.NOT_ARCHIVED;
+
+        // Timestamp index, the values of the chunk can include items
+        // which have not been published yet, which is harmless
+        private volatile long minTimestamp = Long.MAX_VALUE;
+        private volatile long maxTimestamp = Long.MIN_VALUE;
+        private volatile long maxTimestampUpToHere = Long.MIN_VALUE;
+        private volatile long minTimestampFromHere = Long.MAX_VALUE;
+
+        Chunk(int capacity) {
+            columns = new Columns(capacity);
+        }
+    }
+
+    private static class Columns {
+        private final long[] transferIds;
+        private final int[] counterparties;
+        private final long[] amounts;
+        private final byte[] directions;
+        private final long[] timestamps;
+
+        Columns(int capacity) {
+            transferIds = new long[capacity];
+            counterparties = new int[capacity];
+            amounts = new long[capacity];
+            directions = new byte[capacity];
+            timestamps = new long[capacity];
+        }
+
+        Columns(Columns columns, int capacity) {
+            transferIds = Arrays.copyOf(columns.transferIds, capacity);
+            counterparties = Arrays.copyOf(columns.counterparties, capacity);
+            amounts = Arrays.copyOf(columns.amounts, capacity);
+            directions = Arrays.copyOf(columns.directions, capacity);
+            timestamps = Arrays.copyOf(columns.timestamps, capacity);
+        }
+    }
+
+    private static class ArchivingRequest {
+        private final Chunk[] chunks;
+        private final int currentChunkIndex;
+        private final long newestTimestamp;
+
+        ArchivingRequest(Chunk[] chunks, int currentChunkIndex, long newestTimestamp) {
+            this.chunks = chunks;
+            this.currentChunkIndex = currentChunkIndex;
+            this.newestTimestamp = newestTimestamp;
+        }
+    }
+
+    private static class DecodedChunk {
+        private final Chunk chunk;
+        private final Columns columns;
+
+        DecodedChunk(Chunk chunk, Columns columns) {
+            this.chunk = chunk;
+            this.columns = columns;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.devaction.transfersservice.core.account;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+
+/**
+ * Read-only view of a range of the items of an "AccountHistory", it is created
+ * in constant time whatever the size of the range. The history is append-only
+ * and its items are never modified, hence the view is immutable as long as its
+ * range is within a size which has already been published (see "AccountHistory").
+ *
+ * The "AccountHistoryItem" objects are only created when they are requested,
+ * e.g., while the response is being written, and they are not kept.
+ */
+class AccountHistoryView extends AbstractList<AccountHistoryItem> implements RandomAccess {
+
+    private final AccountHistory history;
+    private final int fromIndex;
+    private final int toIndex;
+
+    AccountHistoryView(AccountHistory history, int fromIndex, int toIndex) {
+        if (fromIndex < 0 || fromIndex > toIndex || toIndex > history.size()) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", to: " + toIndex
+                    + ", size: " + history.size());
+        }
+
+        this.history = history;
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+    }
+
+    @Override
+    public AccountHistoryItem get(int index) {
+        if (index < 0 || index >= toIndex - fromIndex) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (toIndex - fromIndex));
+        }
+        return history.getItem(fromIndex + index);
+    }
+
+    @Override
+    public int size() {
+        return toIndex - fromIndex;
+    }
+}
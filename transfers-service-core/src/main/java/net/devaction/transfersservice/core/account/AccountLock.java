@@ -0,0 +1,136 @@
+package net.devaction.transfersservice.core.account;
+
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/**
+ * Exclusive and non-reentrant lock which guards the write operations
+ * of a single account.
+ *
+ * The ownership is taken with a CAS on the lock state. When the lock is
+ * already taken the thread spins for a few iterations and then it gets parked
+ * in a FIFO queue until the owner releases the lock, so there is no sleeping
+ * nor polling. New threads are only allowed to barge (i.e., to take the lock
+ * ahead of other threads) when nobody is queued, that bounds the unfairness.
+ *
+ * Its id is only used to report the contention, see "AccountCounters".
+ *
+ * A virtual thread does not spin: the owner may be a virtual thread which is not
+ * even mounted, and a parked virtual thread releases its carrier thread.
+ */
+class AccountLock {
+
+    private static final int MAX_SPINS = 64;
+
+    private final Sync sync = new Sync();
+    private final long accountId;
+
+    // Only written while holding the lock, the lock release/acquire pair
+    // makes the write visible to the next owner but readers which do not
+    // own the lock may also check it
+    private volatile boolean closed;
+
+    AccountLock(long accountId) {
+        this.accountId = accountId;
+    }
+
+    void lockInterruptibly() throws InterruptedException {
+        int numOfSpins = 0;
+        if (Thread.currentThread().isVirtual()) {
+            if (sync.tryAcquire(1)) {
+                return;
+            }
+        } else {
+            numOfSpins = tryLockFast();
+            if (numOfSpins < 0) {
+                return;
+            }
+        }
+
+        // Slow path, the thread is going to be parked anyway
+        AccountCounters.LOCK_WAITS.increment();
+        AccountContentionEvent event = new AccountContentionEvent();
+        event.begin();
+        long start = System.nanoTime();
+        sync.acquireInterruptibly(1);
+        long waitNanos = System.nanoTime() - start;
+        event.end();
+        AccountCounters.recordContention(event, accountId, AccountContentionEvent.ACCOUNT_LOCK, waitNanos,
+                numOfSpins, false);
+    }
+
+    void unlock() {
+        sync.release(1);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    // It must be called while holding the lock
+    void markAsClosed() {
+        closed = true;
+    }
+
+    boolean isLocked() {
+        return sync.isHeldExclusively();
+    }
+
+    int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    // It returns -1 when the lock has been taken, otherwise the number of failed spins
+    private int tryLockFast() {
+        for (int i = 0; i < MAX_SPINS; i++) {
+            if (sync.hasQueuedThreads()) {
+                countSpins(i);
+                return i;
+            }
+
+            if (sync.tryAcquire(1)) {
+                countSpins(i);
+                return -1;
+            }
+
+            Thread.onSpinWait();
+        }
+
+        countSpins(MAX_SPINS);
+        return MAX_SPINS;
+    }
+
+    private static void countSpins(int numOfSpins) {
+        if (numOfSpins > 0) {
+            AccountCounters.LOCK_SPINS.add(numOfSpins);
+        }
+    }
+
+    private static class Sync extends AbstractQueuedSynchronizer {
+
+        private static final long serialVersionUID = 5418745296541782356L;
+
+        @Override
+        protected boolean tryAcquire(int ignored) {
+            if (getState() == 0 && !hasQueuedPredecessors() && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int ignored) {
+            if (getState() == 0) {
+                throw new IllegalMonitorStateException("The account lock is not held");
+            }
+            setExclusiveOwnerThread(null);
+            setState(0);
+            return true;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getState() == 1;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package net.devaction.transfersservice.core.account;
+
+import java.util.Collection;
+import java.util.Set;
+
+import net.devaction.transfersservice.core.accountsmanager.AccountIsAlreadyBeingClosedException;
+
+/**
+ * This is used for concurrency, to avoid race conditions when we need to process
+ * two or more requests which have one or both accounts in common.
+ *
+ * The locks are always grabbed in ascending account id order, hence there is
+ * no way two threads can end up waiting for each other and there is no need
+ * for any time out. The "UnableToObtainMutexException" is only thrown
+ * when the waiting thread gets interrupted.
+ */
+public interface AccountLockManager {
+
+    // It returns "ACCOUNT_HAS_BEEN_CLOSED" when the account got closed while
+    // we were waiting, the lock is held in both cases and it has to be released
+    public AccountMutex lock(Account account) throws UnableToObtainMutexException;
+
+    // Either both locks are grabbed or none of them
+    public void lockBoth(Account account1, Account account2) throws UnableToObtainMutexException,
+            AccountIsAlreadyBeingClosedException;
+
+    // Either all the locks are grabbed or none of them. It returns the accounts
+    // which got closed while we were waiting, their locks are held too.
+    public Set<Account> lockAll(Collection<Account> accounts) throws UnableToObtainMutexException;
+
+    public void unlock(Account account);
+
+    public void unlockBoth(Account account1, Account account2);
+
+    public void unlockAll(Collection<Account> accounts);
+
+    // The lock must be held by the calling thread
+    public void closeAndUnlock(Account account);
+}
@@ -0,0 +1,140 @@
+package net.devaction.transfersservice.core.account;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.core.accountsmanager.AccountIsAlreadyBeingClosedException;
+
+public class AccountLockManagerImpl implements AccountLockManager {
+    private static final Logger log = LoggerFactory.getLogger(AccountLockManagerImpl.class);
+
+    @Override
+    public AccountMutex lock(Account account) throws UnableToObtainMutexException {
+        try {
+            account.lockInterruptibly();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            String errorMessage = "Thread interrupted while waiting for the lock of account \""
+                    + account.getId() + "\"";
+            log.error(errorMessage);
+            throw new UnableToObtainMutexException(errorMessage);
+        }
+
+        if (account.isClosed()) {
+            return AccountMutex.ACCOUNT_HAS_BEEN_CLOSED;
+        }
+
+        return AccountMutex.ACCOUNT_IS_OPEN;
+    }
+
+    @Override
+    public void lockBoth(Account account1, Account account2) throws UnableToObtainMutexException,
+            AccountIsAlreadyBeingClosedException {
+
+        // The same account may be represented by two objects, see "OffHeapAccountRegistry"
+        if (account1.getEncodedId() == account2.getEncodedId()) {
+            throw new IllegalArgumentException("Both locks belong to the same account: " + account1.getId());
+        }
+
+        // Two concurrent requests in opposite directions would block each other
+        // forever unless both locks are always grabbed in the same order
+        Account firstAccount = account1;
+        Account secondAccount = account2;
+        if (account1.getEncodedId() > account2.getEncodedId()) {
+            firstAccount = account2;
+            secondAccount = account1;
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Going to grab the lock of account \"{}\" and then the lock of account \"{}\"",
+                    firstAccount.getId(), secondAccount.getId());
+        }
+
+        AccountMutex firstAccountMutex = lock(firstAccount);
+
+        AccountMutex secondAccountMutex;
+        try {
+            secondAccountMutex = lock(secondAccount);
+        } catch (UnableToObtainMutexException ex) {
+            unlock(firstAccount);
+            throw ex;
+        }
+
+        if (firstAccountMutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED
+                || secondAccountMutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
+
+            Account closedAccount = firstAccountMutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED
+                    ? firstAccount : secondAccount;
+            unlockBoth(firstAccount, secondAccount);
+
+            String errorMessage = "Account with id \"" + closedAccount.getId() + "\" is already being closed"
+                    + ". The locks of both accounts have been released";
+            log.debug(errorMessage);
+            throw new AccountIsAlreadyBeingClosedException(errorMessage);
+        }
+    }
+
+    @Override
+    public Set<Account> lockAll(Collection<Account> accounts) throws UnableToObtainMutexException {
+        // Same order as "lockBoth", hence they cannot block each other forever either
+        List<Account> sortedAccounts = new ArrayList<>(accounts);
+        sortedAccounts.sort(Comparator.comparingLong(Account::getEncodedId));
+
+        for (int i = 1; i < sortedAccounts.size(); i++) {
+            if (sortedAccounts.get(i).getEncodedId() == sortedAccounts.get(i - 1).getEncodedId()) {
+                throw new IllegalArgumentException("The same account has been provided twice: "
+                        + sortedAccounts.get(i).getId());
+            }
+        }
+
+        log.trace("Going to grab the locks of {} accounts", sortedAccounts.size());
+
+        Set<Account> closedAccounts = new HashSet<>();
+        for (int i = 0; i < sortedAccounts.size(); i++) {
+            Account account = sortedAccounts.get(i);
+            AccountMutex mutex;
+            try {
+                mutex = lock(account);
+            } catch (UnableToObtainMutexException ex) {
+                unlockAll(sortedAccounts.subList(0, i));
+                throw ex;
+            }
+
+            if (mutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
+                closedAccounts.add(account);
+            }
+        }
+        return closedAccounts;
+    }
+
+    @Override
+    public void unlock(Account account) {
+        account.unlock();
+    }
+
+    @Override
+    public void unlockBoth(Account account1, Account account2) {
+        account1.unlock();
+        account2.unlock();
+    }
+
+    @Override
+    public void unlockAll(Collection<Account> accounts) {
+        for (Account account : accounts) {
+            account.unlock();
+        }
+    }
+
+    @Override
+    public void closeAndUnlock(Account account) {
+        account.markAsClosed();
+        account.unlock();
+    }
+}
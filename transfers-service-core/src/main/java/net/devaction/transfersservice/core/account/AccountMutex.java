@@ -5,11 +5,11 @@ package net.devaction.transfersservice.core.account;
  *
  * since February 2020
  * 
- * The reason for using this Enum as a mutex lock instead of
- * just an "Object" is that it may happen that while processing
- * a "delete/close account" request, there may be other threads waiting
- * to add a transaction related to this account and we want to let
- * them know that the account is being closed.
+ * This Enum is returned when the lock of an account is acquired
+ * (see "AccountLockManager"). The reason is that it may happen that
+ * while processing a "delete/close account" request, there may be
+ * other threads waiting to add a transaction related to this account
+ * and we want to let them know that the account is being closed.
  */
 public enum AccountMutex {
 
@@ -0,0 +1,30 @@
+package net.devaction.transfersservice.core.account;
+
+/**
+ * The open accounts, by id. The lookups do not block and can run concurrently
+ * with the updates. The iterations are weakly consistent: an account which is
+ * added or removed while they run may or may not be returned.
+ */
+public interface AccountRegistry extends Iterable<Account> {
+
+    // It returns null when there is no such account, including when the id is not
+    // made of 12 lowercase hexadecimal digits
+    public Account get(String accountId);
+
+    public Account get(long encodedAccountId);
+
+    public boolean contains(String accountId);
+
+    // It replaces the account with the same id, if any
+    public void put(Account account);
+
+    // It returns the account with the same id when there is already one, null otherwise
+    public Account putIfAbsent(Account account);
+
+    // It returns the removed account, null when there was no such account
+    public Account remove(String accountId);
+
+    public int size();
+
+    public void clear();
+}
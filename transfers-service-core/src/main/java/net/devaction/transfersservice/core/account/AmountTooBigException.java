@@ -1,11 +1,13 @@
 package net.devaction.transfersservice.core.account;
 
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
 /**
  * @author Víctor Gil
  *
  * since February 2020
  */
-public class AmountTooBigException extends Exception {
+public class AmountTooBigException extends RejectedRequestException {
 
     private static final long serialVersionUID = 1359729895168821777L;
 
@@ -0,0 +1,93 @@
+package net.devaction.transfersservice.core.account;
+
+import java.nio.ByteBuffer;
+
+import net.devaction.transfersservice.api.entity.account.Direction;
+
+/**
+ * Compact encoding of a chunk of a history, used to archive it (see "HistoryArchive").
+ * Every item is made of variable-length integers (7 bits per byte):
+ * - transfer id (zigzag, the ids generated by the service take 7 bytes)
+ * - counterparty index and direction, combined
+ * - amount (zigzag)
+ * - difference with the previous timestamp (zigzag, usually 1-3 bytes)
+ *
+ * An item takes ~13 bytes instead of the 29 bytes of the columns in memory.
+ */
+final class HistoryChunkCodec {
+
+    private static final int NUM_OF_DIRECTIONS = Direction.values().length;
+    private static final int MAX_VARINT_LENGTH = 10;
+
+    // The four values of an item
+    private static final int MAX_ITEM_LENGTH = 4 * MAX_VARINT_LENGTH;
+
+    private HistoryChunkCodec() {
+    }
+
+    // The number of items comes first
+    static int maxLength(int numOfItems) {
+        return MAX_VARINT_LENGTH + numOfItems * MAX_ITEM_LENGTH;
+    }
+
+    static int encode(long[] transferIds, int[] counterparties, long[] amounts, byte[] directions,
+            long[] timestamps, int numOfItems, byte[] buffer) {
+
+        int position = putVarLong(buffer, 0, numOfItems);
+        long previousTimestamp = 0L;
+        for (int i = 0; i < numOfItems; i++) {
+            position = putVarLong(buffer, position, zigzag(transferIds[i]));
+            position = putVarLong(buffer, position, (long) counterparties[i] * NUM_OF_DIRECTIONS + directions[i]);
+            position = putVarLong(buffer, position, zigzag(amounts[i]));
+            position = putVarLong(buffer, position, zigzag(timestamps[i] - previousTimestamp));
+            previousTimestamp = timestamps[i];
+        }
+        return position;
+    }
+
+    // It returns the number of items
+    static int decode(ByteBuffer buffer, long[] transferIds, int[] counterparties, long[] amounts,
+            byte[] directions, long[] timestamps) {
+
+        int numOfItems = (int) getVarLong(buffer);
+        long previousTimestamp = 0L;
+        for (int i = 0; i < numOfItems; i++) {
+            transferIds[i] = unzigzag(getVarLong(buffer));
+            long counterpartyAndDirection = getVarLong(buffer);
+            counterparties[i] = (int) (counterpartyAndDirection / NUM_OF_DIRECTIONS);
+            directions[i] = (byte) (counterpartyAndDirection % NUM_OF_DIRECTIONS);
+            amounts[i] = unzigzag(getVarLong(buffer));
+            previousTimestamp += unzigzag(getVarLong(buffer));
+            timestamps[i] = previousTimestamp;
+        }
+        return numOfItems;
+    }
+
+    private static int putVarLong(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0L;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+}
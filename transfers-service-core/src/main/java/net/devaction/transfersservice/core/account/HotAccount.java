@@ -0,0 +1,58 @@
+package net.devaction.transfersservice.core.account;
+
+/**
+ * Contention on a single account, see "HotAccountsSketch".
+ */
+public class HotAccount {
+
+    private final String accountId;
+    private final long contentions;
+    private final long overestimation;
+    private final long waitNanos;
+    private final long spins;
+    private final long timeouts;
+
+    public HotAccount(String accountId, long contentions, long overestimation, long waitNanos,
+            long spins, long timeouts) {
+
+        this.accountId = accountId;
+        this.contentions = contentions;
+        this.overestimation = overestimation;
+        this.waitNanos = waitNanos;
+        this.spins = spins;
+        this.timeouts = timeouts;
+    }
+
+    @Override
+    public String toString() {
+        return "HotAccount [accountId: " + accountId + ", contentions: " + contentions
+                + ", overestimation: " + overestimation + ", waitNanos: " + waitNanos
+                + ", spins: " + spins + ", timeouts: " + timeouts + "]";
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    // Number of times a thread had to wait for a lock of the account, it may be overestimated
+    public long getContentions() {
+        return contentions;
+    }
+
+    // Maximum error of the number of contentions
+    public long getOverestimation() {
+        return overestimation;
+    }
+
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    public long getSpins() {
+        return spins;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+}
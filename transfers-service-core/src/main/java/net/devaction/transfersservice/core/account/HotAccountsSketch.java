@@ -0,0 +1,140 @@
+package net.devaction.transfersservice.core.account;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.devaction.transfersservice.api.util.id.HexIds;
+
+/**
+ * Accounts with the most contention events (a thread which had to wait for one
+ * of their locks), tracked with the "Space-Saving" algorithm: it keeps a fixed
+ * number of entries and a new account replaces the one with the fewest events,
+ * inheriting its count. Any account with more events than the total divided by
+ * the capacity is guaranteed to be in the sketch, and the count of each entry
+ * overestimates the real one by at most its "overestimation".
+ *
+ * The wait time, spins and timeouts of an entry are only the ones recorded since
+ * the account got into the sketch.
+ *
+ * It is only called after a thread had to wait for a lock. An event is dropped
+ * rather than waiting when another thread is recording, the sketch must not
+ * become a contention point itself.
+ */
+public class HotAccountsSketch {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final long[] accountIds;
+    private final long[] counts;
+    private final long[] overestimations;
+    private final long[] waitNanos;
+    private final long[] spins;
+    private final long[] timeouts;
+    private int size;
+
+    private final LongAdder numOfDroppedEvents = new LongAdder();
+
+    public HotAccountsSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+
+        accountIds = new long[capacity];
+        counts = new long[capacity];
+        overestimations = new long[capacity];
+        waitNanos = new long[capacity];
+        spins = new long[capacity];
+        timeouts = new long[capacity];
+    }
+
+    public void record(long accountId, long waitedNanos, int numOfSpins, boolean timedOut) {
+        if (!lock.tryLock()) {
+            numOfDroppedEvents.increment();
+            return;
+        }
+
+        try {
+            int index = indexOf(accountId);
+            if (index < 0) {
+                index = addOrReplace(accountId);
+            }
+
+            counts[index]++;
+            waitNanos[index] += waitedNanos;
+            spins[index] += numOfSpins;
+            if (timedOut) {
+                timeouts[index]++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The "limit" accounts with the most contention events, the hottest one first
+    public List<HotAccount> getHotAccounts(int limit) {
+        List<HotAccount> hotAccounts = new ArrayList<>();
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                hotAccounts.add(new HotAccount(HexIds.toHex(accountIds[i]), counts[i], overestimations[i],
+                        waitNanos[i], spins[i], timeouts[i]));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        hotAccounts.sort(Comparator.comparingLong(HotAccount::getContentions).reversed());
+        return hotAccounts.size() > limit ? new ArrayList<>(hotAccounts.subList(0, limit)) : hotAccounts;
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Events which were not recorded because the sketch was busy
+    public long getNumOfDroppedEvents() {
+        return numOfDroppedEvents.sum();
+    }
+
+    private int indexOf(long accountId) {
+        // The capacity is small, a linear scan over a primitive array is faster than boxing the id
+        for (int i = 0; i < size; i++) {
+            if (accountIds[i] == accountId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int addOrReplace(long accountId) {
+        int index;
+        long minCount = 0L;
+        if (size < accountIds.length) {
+            index = size++;
+        } else {
+            index = 0;
+            for (int i = 1; i < size; i++) {
+                if (counts[i] < counts[index]) {
+                    index = i;
+                }
+            }
+            minCount = counts[index];
+        }
+
+        accountIds[index] = accountId;
+        counts[index] = minCount;
+        overestimations[index] = minCount;
+        waitNanos[index] = 0L;
+        spins[index] = 0L;
+        timeouts[index] = 0L;
+        return index;
+    }
+}
@@ -0,0 +1,11 @@
+package net.devaction.transfersservice.core.account;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+public class InvalidHotAccountsQueryException extends RejectedRequestException {
+    private static final long serialVersionUID = 7301925584621937048L;
+
+    public InvalidHotAccountsQueryException(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -0,0 +1,170 @@
+package net.devaction.transfersservice.core.account;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.account.Direction;
+
+/**
+ * Account whose state is a record of an "OffHeapAccountTable", it is created by
+ * "OffHeapAccountRegistry" every time the account is got. There can be several
+ * objects for the same account, all of them share the same record, the same
+ * lock and the same history.
+ *
+ * The slot of a removed account can be reused by another account: an object which
+ * was got before the account was removed finds out that its account has been
+ * closed when it takes the lock (see "isClosed"), its info is an empty account.
+ */
+class OffHeapAccount extends Account {
+    private static final Logger log = LoggerFactory.getLogger(OffHeapAccount.class);
+
+    private static final AccountHistory EMPTY_HISTORY = new AccountHistory(1);
+
+    private final OffHeapAccountTable table;
+    private final int slot;
+
+    OffHeapAccount(OffHeapAccountTable table, int slot, long id, String currency) {
+        super(id, currency);
+        this.table = table;
+        this.slot = slot;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    OffHeapAccountTable getTable() {
+        return table;
+    }
+
+    // The lock of the slot is held, the record belongs to this account unless the
+    // caller did not check that the account is open (see "AccountMutex")
+    @Override
+    void updateBalanceAndAddItemToHistory(long transferId, String counterpartyId, long amount,
+            Direction direction, long timestamp) throws NotEnoughBalanceException, AmountTooBigException {
+
+        if (table.getId(slot) != getEncodedId()) {
+            String errorMessage = "Account with id \"" + getId() + "\" has been closed, its slot belongs "
+                    + "to another account now";
+            log.error(errorMessage);
+            throw new IllegalStateException(errorMessage);
+        }
+
+        long updatedBalance = updateBalance(table.getBalance(slot), amount, direction);
+        AccountHistory history = table.getHistory(slot);
+        if (history == null) {
+            history = table.createHistory(slot);
+        }
+
+        table.beginWrite(slot);
+        try {
+            table.setBalance(slot, updatedBalance);
+            history.add(transferId, counterpartyId, amount, direction, timestamp);
+        } finally {
+            table.endWrite(slot);
+        }
+    }
+
+    /*
+     * The balance and the size of the history are read without any lock, the read
+     * is retried when the account has been written meanwhile. Only after a few
+     * conflicts in a row the lock of the account is taken (as "Account" falls back
+     * to its read lock): no writer is in the record while it is held.
+     * */
+    @Override
+    public AccountInfo getAccountInfo(int startIndex, long from, long to, int limit) {
+        long currentBalance;
+        AccountHistory history;
+        int historySize;
+        boolean locked = false;
+        try {
+            for (int i = 1; ; i++) {
+                long version = table.getVersion(slot);
+                if ((version & 1L) == 0L) {
+                    currentBalance = table.getBalance(slot);
+                    history = table.getHistory(slot);
+                    boolean isThisAccount = table.getId(slot) == getEncodedId();
+                    historySize = history == null ? 0 : history.size();
+                    if (table.getVersion(slot) == version) {
+                        if (!isThisAccount) {
+                            currentBalance = 0L;
+                            history = null;
+                            historySize = 0;
+                        }
+                        break;
+                    }
+                }
+
+                if (i == MAX_OPTIMISTIC_READS) {
+                    locked = lockForReading();
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+        } finally {
+            if (locked) {
+                table.unlock(slot);
+            }
+        }
+
+        return getAccountInfo(currentBalance, history == null ? EMPTY_HISTORY : history, historySize, startIndex,
+                from, to, limit);
+    }
+
+    // An interrupted reader keeps on reading optimistically, a writer only
+    // holds the record for a few instructions
+    private boolean lockForReading() {
+        try {
+            table.lockInterruptibly(slot);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public long getBalance() {
+        return table.getBalance(slot);
+    }
+
+    // The lock of the account (see "AccountLockManager") has to be held
+    // to get its size consistent with the balance
+    @Override
+    public AccountHistory getHistory() {
+        AccountHistory history = table.getHistory(slot);
+        return history == null ? EMPTY_HISTORY : history;
+    }
+
+    @Override
+    public long getJournalSequence() {
+        return table.getJournalSequence(slot);
+    }
+
+    @Override
+    public void setJournalSequence(long journalSequence) {
+        table.setJournalSequence(slot, journalSequence);
+    }
+
+    @Override
+    void lockInterruptibly() throws InterruptedException {
+        table.lockInterruptibly(slot);
+    }
+
+    @Override
+    void unlock() {
+        table.unlock(slot);
+    }
+
+    // The slot has been reused when the account has been removed from the registry
+    @Override
+    boolean isClosed() {
+        return table.isClosed(slot) || table.getId(slot) != getEncodedId();
+    }
+
+    @Override
+    void markAsClosed() {
+        table.markAsClosed(slot);
+    }
+}
@@ -0,0 +1,381 @@
+package net.devaction.transfersservice.core.account;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.inject.Inject;
+
+import net.devaction.transfersservice.api.util.id.HexIds;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+
+/**
+ * Registry which keeps the accounts outside of the heap: the state of each account
+ * (balance, journal sequence, currency, lock and history) is a fixed-size record of
+ * an "OffHeapAccountTable", and the hash table which maps the ids to the records is
+ * off-heap too (open addressing, linear probing, one long per slot: a 32-bit
+ * fingerprint of the id and the index of the record). Only the histories, which are
+ * created along with their first item, and the currencies stay in the heap.
+ *
+ * There is no object per account: "get" returns a new "OffHeapAccount", a view of
+ * the record. An account which is put is copied into a record (its history is
+ * kept), that object must not be used afterwards, the account has to be got from
+ * the registry.
+ *
+ * As "OpenAddressingAccountRegistry", the lookups do not take any lock, the updates
+ * are serialized by a lock and a new hash table is built and published in a single
+ * volatile write when it gets too full. The records never move.
+ */
+public class OffHeapAccountRegistry implements AccountRegistry {
+
+    private static final long EMPTY = 0L;
+    private static final int REMOVED = 1;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    // 1 MB per page
+    private static final int MAX_SLOTS_PER_PAGE = 1 << 17;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final int initialCapacity;
+    private final HistoryArchive historyArchive;
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    private volatile Table table;
+    private volatile int size;
+
+    public OffHeapAccountRegistry() {
+        this(DEFAULT_INITIAL_CAPACITY, new NoOpHistoryArchive());
+    }
+
+    // The expected number of accounts, e.g., when it is known before loading them
+    public OffHeapAccountRegistry(int expectedNumOfAccounts) {
+        this(expectedNumOfAccounts, new NoOpHistoryArchive());
+    }
+
+    // The histories which are created by the registry use the archive, see "AccountHistory"
+    @Inject
+    public OffHeapAccountRegistry(HistoryArchive historyArchive) {
+        this(DEFAULT_INITIAL_CAPACITY, historyArchive);
+    }
+
+    public OffHeapAccountRegistry(int expectedNumOfAccounts, HistoryArchive historyArchive) {
+        this.initialCapacity = capacityFor(expectedNumOfAccounts);
+        this.historyArchive = historyArchive;
+        table = new Table(initialCapacity, new OffHeapAccountTable(historyArchive));
+    }
+
+    @Override
+    public Account get(String accountId) {
+        return get(HexIds.parse(accountId));
+    }
+
+    @Override
+    public Account get(long encodedAccountId) {
+        if (encodedAccountId < 0L) {
+            return null;
+        }
+
+        Table current = table;
+        OffHeapAccountTable records = current.records;
+        int fingerprint = fingerprintOf(encodedAccountId);
+        int index = current.indexOf(encodedAccountId);
+        while (true) {
+            long bucket = current.getAcquire(index);
+            int bucketFingerprint = (int) (bucket >>> 32);
+            if (bucketFingerprint == fingerprint) {
+                int slot = (int) bucket;
+                // Another account with the same fingerprint, or the record has been reused
+                // since the bucket was read
+                if (records.getId(slot) == encodedAccountId) {
+                    return new OffHeapAccount(records, slot, encodedAccountId, records.getCurrency(slot));
+                }
+            } else if (bucket == EMPTY) {
+                return null;
+            }
+            index = (index + 1) & current.mask;
+        }
+    }
+
+    @Override
+    public boolean contains(String accountId) {
+        return get(accountId) != null;
+    }
+
+    @Override
+    public void put(Account account) {
+        update(account, true);
+    }
+
+    @Override
+    public Account putIfAbsent(Account account) {
+        return update(account, false);
+    }
+
+    private Account update(Account account, boolean mustReplace) {
+        long encodedAccountId = account.getEncodedId();
+        int fingerprint = fingerprintOf(encodedAccountId);
+
+        updateLock.lock();
+        try {
+            Table current = table;
+            OffHeapAccountTable records = current.records;
+            int index = current.indexOf(encodedAccountId);
+            int freeIndex = -1;
+            while (true) {
+                long bucket = current.get(index);
+                int bucketFingerprint = (int) (bucket >>> 32);
+                int slot = (int) bucket;
+                if (bucketFingerprint == fingerprint && records.getId(slot) == encodedAccountId) {
+                    Account previous = new OffHeapAccount(records, slot, encodedAccountId, records.getCurrency(slot));
+                    if (mustReplace && !isStoredIn(account, records, slot)) {
+                        records.replace(slot, account.getCurrency(), account.getBalance(),
+                                account.getJournalSequence(), account.getHistory());
+                    }
+                    return previous;
+                }
+                if (bucketFingerprint == REMOVED && freeIndex < 0) {
+                    freeIndex = index;
+                }
+                if (bucket == EMPTY) {
+                    break;
+                }
+                index = (index + 1) & current.mask;
+            }
+
+            if (freeIndex < 0) {
+                // A new bucket is going to be used
+                if (current.numOfUsedBuckets + 1 > current.maxNumOfUsedBuckets) {
+                    current = rebuild(size + 1);
+                    freeIndex = current.findEmptyBucket(encodedAccountId);
+                } else {
+                    freeIndex = index;
+                }
+                current.numOfUsedBuckets++;
+            }
+
+            // The record is written before the bucket is published
+            int slot = records.allocate(encodedAccountId, account.getCurrency(), account.getBalance(),
+                    account.getJournalSequence(), account.getHistory());
+            current.setRelease(freeIndex, bucketOf(fingerprint, slot));
+            size++;
+            return null;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private static boolean isStoredIn(Account account, OffHeapAccountTable records, int slot) {
+        return account instanceof OffHeapAccount && ((OffHeapAccount) account).getTable() == records
+                && ((OffHeapAccount) account).getSlot() == slot;
+    }
+
+    @Override
+    public Account remove(String accountId) {
+        long encodedAccountId = HexIds.parse(accountId);
+        if (encodedAccountId < 0L) {
+            return null;
+        }
+        int fingerprint = fingerprintOf(encodedAccountId);
+
+        updateLock.lock();
+        try {
+            Table current = table;
+            OffHeapAccountTable records = current.records;
+            int index = current.indexOf(encodedAccountId);
+            while (true) {
+                long bucket = current.get(index);
+                int slot = (int) bucket;
+                if ((int) (bucket >>> 32) == fingerprint && records.getId(slot) == encodedAccountId) {
+                    Account account = new OffHeapAccount(records, slot, encodedAccountId, records.getCurrency(slot));
+                    current.setRelease(index, bucketOf(REMOVED, 0));
+                    records.release(slot);
+                    size--;
+                    return account;
+                }
+                if (bucket == EMPTY) {
+                    return null;
+                }
+                index = (index + 1) & current.mask;
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        updateLock.lock();
+        try {
+            table = new Table(initialCapacity, new OffHeapAccountTable(historyArchive));
+            size = 0;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    // Bytes of the records and the hash table, which are not in the heap
+    public long getOffHeapBytes() {
+        Table current = table;
+        return current.records.getOffHeapBytes() + (long) current.capacity * Long.BYTES;
+    }
+
+    // Called with the lock held, the tombstones are dropped
+    private Table rebuild(int numOfAccounts) {
+        Table current = table;
+        Table rebuilt = new Table(Math.max(current.capacity, capacityFor(2 * numOfAccounts)), current.records);
+        for (int i = 0; i < current.capacity; i++) {
+            long bucket = current.get(i);
+            if (bucket != EMPTY && (int) (bucket >>> 32) != REMOVED) {
+                int index = rebuilt.findEmptyBucket(current.records.getId((int) bucket));
+                rebuilt.set(index, bucket);
+                rebuilt.numOfUsedBuckets++;
+            }
+        }
+        // The volatile write publishes the whole table
+        table = rebuilt;
+        return rebuilt;
+    }
+
+    private static int capacityFor(int numOfAccounts) {
+        long capacity = Long.highestOneBit(Math.max((long) Math.ceil(numOfAccounts / MAX_LOAD_FACTOR), 16L));
+        if (capacity * MAX_LOAD_FACTOR < numOfAccounts) {
+            capacity <<= 1;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Too many accounts: " + numOfAccounts);
+        }
+        return (int) capacity;
+    }
+
+    // Same as "OpenAddressingAccountRegistry", the values of "EMPTY" and "REMOVED" are never used
+    private static int fingerprintOf(long id) {
+        int fingerprint = (int) ((id * 0xc2b2ae3d27d4eb4fL) >>> 32);
+        return fingerprint == 0 || fingerprint == REMOVED ? fingerprint + 2 : fingerprint;
+    }
+
+    private static long bucketOf(int fingerprint, int slot) {
+        return ((long) fingerprint << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        return new AccountIterator(table);
+    }
+
+    private static class Table {
+        // The records do not move, they are shared by the tables which are rebuilt
+        private final OffHeapAccountTable records;
+        private final ByteBuffer[] pages;
+        private final int capacity;
+        private final int mask;
+        private final int shift;
+        private final int pageShift;
+        private final int pageMask;
+        private final int maxNumOfUsedBuckets;
+
+        // Accounts and tombstones, only used with the lock held
+        private int numOfUsedBuckets;
+
+        private Table(int capacity, OffHeapAccountTable records) {
+            this.records = records;
+            int slotsPerPage = Math.min(capacity, MAX_SLOTS_PER_PAGE);
+            pages = new ByteBuffer[capacity / slotsPerPage];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = ByteBuffer.allocateDirect(slotsPerPage * Long.BYTES + Long.BYTES)
+                        .alignedSlice(Long.BYTES).order(ByteOrder.nativeOrder());
+            }
+            this.capacity = capacity;
+            mask = capacity - 1;
+            shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+            pageShift = Integer.numberOfTrailingZeros(slotsPerPage);
+            pageMask = slotsPerPage - 1;
+            maxNumOfUsedBuckets = (int) (capacity * MAX_LOAD_FACTOR);
+        }
+
+        // Fibonacci hashing, the ids of the tests and the benchmarks are not random
+        private int indexOf(long id) {
+            return (int) ((id * 0x9e3779b97f4a7c15L) >>> shift) & mask;
+        }
+
+        private long get(int index) {
+            return (long) LONGS.get(pages[index >>> pageShift], (index & pageMask) * Long.BYTES);
+        }
+
+        private long getAcquire(int index) {
+            return (long) LONGS.getAcquire(pages[index >>> pageShift], (index & pageMask) * Long.BYTES);
+        }
+
+        private void set(int index, long bucket) {
+            LONGS.set(pages[index >>> pageShift], (index & pageMask) * Long.BYTES, bucket);
+        }
+
+        private void setRelease(int index, long bucket) {
+            LONGS.setRelease(pages[index >>> pageShift], (index & pageMask) * Long.BYTES, bucket);
+        }
+
+        private int findEmptyBucket(long id) {
+            int index = indexOf(id);
+            while (get(index) != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+    }
+
+    private static class AccountIterator implements Iterator<Account> {
+        private final OffHeapAccountTable records;
+        private final Table table;
+        private int index = -1;
+        private Account next;
+
+        private AccountIterator(Table table) {
+            this.records = table.records;
+            this.table = table;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && ++index < table.capacity) {
+                long bucket = table.getAcquire(index);
+                if (bucket != EMPTY && (int) (bucket >>> 32) != REMOVED) {
+                    int slot = (int) bucket;
+                    long id = records.getId(slot);
+                    // The account may have been removed meanwhile
+                    if (id >= 0L) {
+                        next = new OffHeapAccount(records, slot, id, records.getCurrency(slot));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Account next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Account account = next;
+            advance();
+            return account;
+        }
+    }
+}
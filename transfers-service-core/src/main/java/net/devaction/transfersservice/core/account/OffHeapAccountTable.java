@@ -0,0 +1,428 @@
+package net.devaction.transfersservice.core.account;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+
+/**
+ * State of the accounts stored in fixed-size records outside of the heap (direct
+ * buffers), see "OffHeapAccountRegistry". A record never moves, it is identified
+ * by its slot:
+ * - id (long)
+ * - balance (long)
+ * - journal sequence (long)
+ * - version (long), odd while the balance and the history are being updated
+ * - lock word (int): locked and closed flags and the number of waiting threads
+ * - currency (int), index of the currency in a table of currencies
+ * - history (int), index of the history in a table of histories, -1 when the
+ *   account has no history yet (it is only created along with its first item)
+ *
+ * The lock word is taken with a CAS, as "AccountLock" does, the waiting threads are
+ * parked on one of a fixed number of wait queues (picked by the slot) and all the
+ * threads waiting on a queue are woken up when a lock of that queue with waiters
+ * is released.
+ *
+ * The readers do not take any lock: they read the version, then the balance and
+ * the history size, and they retry when the version has changed meanwhile (only
+ * after a few retries they take the lock of the account, see "OffHeapAccount").
+ *
+ * The slots are allocated and released by the registry while it holds its update
+ * lock. A released slot is not reused while its lock is held or awaited.
+ */
+final class OffHeapAccountTable {
+
+    static final int NO_HISTORY = -1;
+
+    static final int RECORD_SIZE = 48;
+    private static final int ID = 0;
+    private static final int BALANCE = 8;
+    private static final int JOURNAL_SEQUENCE = 16;
+    private static final int VERSION = 24;
+    private static final int LOCK_WORD = 32;
+    private static final int CURRENCY = 36;
+    private static final int HISTORY = 40;
+
+    private static final int LOCKED = 1;
+    private static final int CLOSED = 2;
+    private static final int WAITER = 4;
+
+    private static final int MAX_SPINS = 64;
+
+    // 3 MB per page
+    private static final int RECORD_PAGE_SHIFT = 16;
+    private static final int RECORDS_PER_PAGE = 1 << RECORD_PAGE_SHIFT;
+    private static final int RECORD_PAGE_MASK = RECORDS_PER_PAGE - 1;
+    private static final int HISTORY_PAGE_SHIFT = 12;
+    private static final int HISTORY_PAGE_MASK = (1 << HISTORY_PAGE_SHIFT) - 1;
+    private static final int NUM_OF_WAIT_QUEUES = 256;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.nativeOrder());
+
+    private final HistoryArchive historyArchive;
+    private final WaitQueue[] waitQueues = new WaitQueue[NUM_OF_WAIT_QUEUES];
+
+    // Replaced (copy on write) when a page is added, the readers do not take any lock
+    private volatile ByteBuffer[] recordPages = new ByteBuffer[0];
+    // Guarded by the update lock of the registry
+    private int numOfSlots;
+    private int[] freeSlots = new int[16];
+    private int numOfFreeSlots;
+
+    private volatile String[] currencies = new String[0];
+    private final Map<String, Integer> currencyIndexes = new HashMap<>();
+
+    // The histories are created by the writers of the accounts, not by the registry
+    private final ReentrantLock historyLock = new ReentrantLock();
+    private volatile AccountHistory[][] historyPages = new AccountHistory[0][];
+    private int numOfHistories;
+    private int[] freeHistories = new int[16];
+    private int numOfFreeHistories;
+
+    OffHeapAccountTable(HistoryArchive historyArchive) {
+        this.historyArchive = historyArchive;
+        for (int i = 0; i < waitQueues.length; i++) {
+            waitQueues[i] = new WaitQueue();
+        }
+    }
+
+    // Called with the update lock of the registry held
+    int allocate(long id, String currency, long balance, long journalSequence, AccountHistory history) {
+        int slot = -1;
+        if (numOfFreeSlots > 0) {
+            int freeSlot = freeSlots[numOfFreeSlots - 1];
+            ByteBuffer page = page(freeSlot);
+            int offset = offset(freeSlot);
+            int lockWord = (int) INTS.getVolatile(page, offset + LOCK_WORD);
+            // A thread which got the account before it was removed may still hold its lock
+            if ((lockWord & ~CLOSED) == 0 && INTS.compareAndSet(page, offset + LOCK_WORD, lockWord, 0)) {
+                slot = freeSlot;
+                numOfFreeSlots--;
+            }
+        }
+
+        if (slot < 0) {
+            slot = numOfSlots++;
+            if (slot >>> RECORD_PAGE_SHIFT == recordPages.length) {
+                ByteBuffer[] newPages = Arrays.copyOf(recordPages, recordPages.length + 1);
+                newPages[recordPages.length] = ByteBuffer.allocateDirect(RECORDS_PER_PAGE * RECORD_SIZE + Long.BYTES)
+                        .alignedSlice(Long.BYTES).order(ByteOrder.nativeOrder());
+                recordPages = newPages;
+            }
+        }
+
+        write(slot, id, currencyIndex(currency), balance, journalSequence, history);
+        return slot;
+    }
+
+    // Called with the update lock of the registry held, for an account which is already stored
+    void replace(int slot, String currency, long balance, long journalSequence, AccountHistory history) {
+        int previousHistoryIndex = (int) INTS.getVolatile(page(slot), offset(slot) + HISTORY);
+        write(slot, getId(slot), currencyIndex(currency), balance, journalSequence, history);
+        freeHistory(previousHistoryIndex);
+    }
+
+    // Called with the update lock of the registry held
+    void release(int slot) {
+        // The history goes along with the balance, a reader never sees one without the other
+        beginWrite(slot);
+        ByteBuffer page = page(slot);
+        int offset = offset(slot);
+        int historyIndex = (int) INTS.getVolatile(page, offset + HISTORY);
+        LONGS.setVolatile(page, offset + ID, -1L);
+        LONGS.setVolatile(page, offset + BALANCE, 0L);
+        INTS.setVolatile(page, offset + HISTORY, NO_HISTORY);
+        endWrite(slot);
+        freeHistory(historyIndex);
+
+        if (numOfFreeSlots == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, 2 * freeSlots.length);
+        }
+        freeSlots[numOfFreeSlots++] = slot;
+    }
+
+    private void write(int slot, long id, int currency, long balance, long journalSequence,
+            AccountHistory history) {
+
+        int historyIndex = history == null || history.size() == 0 ? NO_HISTORY : addHistory(history);
+
+        beginWrite(slot);
+        ByteBuffer page = page(slot);
+        int offset = offset(slot);
+        LONGS.setVolatile(page, offset + ID, id);
+        LONGS.setVolatile(page, offset + BALANCE, balance);
+        LONGS.setVolatile(page, offset + JOURNAL_SEQUENCE, journalSequence);
+        INTS.setVolatile(page, offset + CURRENCY, currency);
+        INTS.setVolatile(page, offset + HISTORY, historyIndex);
+        endWrite(slot);
+    }
+
+    private int currencyIndex(String currency) {
+        Integer index = currencyIndexes.get(currency);
+        if (index == null) {
+            index = currencies.length;
+            String[] newCurrencies = Arrays.copyOf(currencies, index + 1);
+            newCurrencies[index] = currency;
+            currencies = newCurrencies;
+            currencyIndexes.put(currency, index);
+        }
+        return index;
+    }
+
+    long getId(int slot) {
+        return (long) LONGS.getVolatile(page(slot), offset(slot) + ID);
+    }
+
+    String getCurrency(int slot) {
+        return currencies[(int) INTS.getVolatile(page(slot), offset(slot) + CURRENCY)];
+    }
+
+    long getBalance(int slot) {
+        return (long) LONGS.getVolatile(page(slot), offset(slot) + BALANCE);
+    }
+
+    // The version has to be odd, see "beginWrite"
+    void setBalance(int slot, long balance) {
+        LONGS.setVolatile(page(slot), offset(slot) + BALANCE, balance);
+    }
+
+    long getJournalSequence(int slot) {
+        return (long) LONGS.getVolatile(page(slot), offset(slot) + JOURNAL_SEQUENCE);
+    }
+
+    void setJournalSequence(int slot, long journalSequence) {
+        LONGS.setVolatile(page(slot), offset(slot) + JOURNAL_SEQUENCE, journalSequence);
+    }
+
+    // There is a single writer per account (it holds the lock of the account, or the
+    // registry is being updated), it makes the version odd until "endWrite"
+    void beginWrite(int slot) {
+        ByteBuffer page = page(slot);
+        int offset = offset(slot) + VERSION;
+        LONGS.setVolatile(page, offset, (long) LONGS.getVolatile(page, offset) + 1L);
+    }
+
+    void endWrite(int slot) {
+        beginWrite(slot);
+    }
+
+    long getVersion(int slot) {
+        return (long) LONGS.getVolatile(page(slot), offset(slot) + VERSION);
+    }
+
+    // It returns null when the account has no history yet
+    AccountHistory getHistory(int slot) {
+        int historyIndex = (int) INTS.getVolatile(page(slot), offset(slot) + HISTORY);
+        if (historyIndex == NO_HISTORY) {
+            return null;
+        }
+        return historyPages[historyIndex >>> HISTORY_PAGE_SHIFT][historyIndex & HISTORY_PAGE_MASK];
+    }
+
+    // Called by the writer of the account (it holds its lock) before adding the first item
+    AccountHistory createHistory(int slot) {
+        AccountHistory history = new AccountHistory(historyArchive);
+        INTS.setVolatile(page(slot), offset(slot) + HISTORY, addHistory(history));
+        return history;
+    }
+
+    private int addHistory(AccountHistory history) {
+        historyLock.lock();
+        try {
+            int historyIndex;
+            if (numOfFreeHistories > 0) {
+                historyIndex = freeHistories[--numOfFreeHistories];
+            } else {
+                historyIndex = numOfHistories++;
+                if (historyIndex >>> HISTORY_PAGE_SHIFT == historyPages.length) {
+                    AccountHistory[][] newPages = Arrays.copyOf(historyPages, historyPages.length + 1);
+                    newPages[historyPages.length] = new AccountHistory[HISTORY_PAGE_MASK + 1];
+                    historyPages = newPages;
+                }
+            }
+            // The index is published afterwards by a volatile write
+            historyPages[historyIndex >>> HISTORY_PAGE_SHIFT][historyIndex & HISTORY_PAGE_MASK] = history;
+            return historyIndex;
+        } finally {
+            historyLock.unlock();
+        }
+    }
+
+    // The index is no longer in the record, a reader which still got it
+    // from there finds out that the version has changed
+    private void freeHistory(int historyIndex) {
+        if (historyIndex == NO_HISTORY) {
+            return;
+        }
+
+        historyLock.lock();
+        try {
+            historyPages[historyIndex >>> HISTORY_PAGE_SHIFT][historyIndex & HISTORY_PAGE_MASK] = null;
+            if (numOfFreeHistories == freeHistories.length) {
+                freeHistories = Arrays.copyOf(freeHistories, 2 * freeHistories.length);
+            }
+            freeHistories[numOfFreeHistories++] = historyIndex;
+        } finally {
+            historyLock.unlock();
+        }
+    }
+
+    void lockInterruptibly(int slot) throws InterruptedException {
+        int numOfSpins = 0;
+        if (Thread.currentThread().isVirtual()) {
+            if (tryLock(slot)) {
+                return;
+            }
+        } else {
+            numOfSpins = tryLockFast(slot);
+            if (numOfSpins < 0) {
+                return;
+            }
+        }
+
+        // Slow path, the thread is going to be parked anyway
+        AccountCounters.LOCK_WAITS.increment();
+        AccountContentionEvent event = new AccountContentionEvent();
+        event.begin();
+        long start = System.nanoTime();
+        await(slot);
+        long waitNanos = System.nanoTime() - start;
+        event.end();
+        AccountCounters.recordContention(event, getId(slot), AccountContentionEvent.ACCOUNT_LOCK, waitNanos,
+                numOfSpins, false);
+    }
+
+    // It returns -1 when the lock has been taken, otherwise the number of failed spins
+    private int tryLockFast(int slot) {
+        for (int i = 0; i < MAX_SPINS; i++) {
+            int lockWord = (int) INTS.getVolatile(page(slot), offset(slot) + LOCK_WORD);
+            if (lockWord >= WAITER) {
+                countSpins(i);
+                return i;
+            }
+
+            if (tryLock(slot)) {
+                countSpins(i);
+                return -1;
+            }
+
+            Thread.onSpinWait();
+        }
+
+        countSpins(MAX_SPINS);
+        return MAX_SPINS;
+    }
+
+    private static void countSpins(int numOfSpins) {
+        if (numOfSpins > 0) {
+            AccountCounters.LOCK_SPINS.add(numOfSpins);
+        }
+    }
+
+    // The threads which are not queued only take the lock when nobody is waiting
+    private boolean tryLock(int slot) {
+        ByteBuffer page = page(slot);
+        int offset = offset(slot) + LOCK_WORD;
+        int lockWord = (int) INTS.getVolatile(page, offset);
+        return (lockWord & LOCKED) == 0 && lockWord < WAITER
+                && INTS.compareAndSet(page, offset, lockWord, lockWord | LOCKED);
+    }
+
+    private void await(int slot) throws InterruptedException {
+        ByteBuffer page = page(slot);
+        int offset = offset(slot) + LOCK_WORD;
+        INTS.getAndAdd(page, offset, WAITER);
+
+        WaitQueue queue = waitQueues[slot & (NUM_OF_WAIT_QUEUES - 1)];
+        queue.lock.lock();
+        try {
+            while (true) {
+                int lockWord = (int) INTS.getVolatile(page, offset);
+                if ((lockWord & LOCKED) == 0) {
+                    if (INTS.compareAndSet(page, offset, lockWord, (lockWord - WAITER) | LOCKED)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                try {
+                    queue.condition.await();
+                } catch (InterruptedException ex) {
+                    // All the waiters of the queue are woken up, no wake-up can be lost
+                    INTS.getAndAdd(page, offset, -WAITER);
+                    throw ex;
+                }
+            }
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    void unlock(int slot) {
+        ByteBuffer page = page(slot);
+        int offset = offset(slot) + LOCK_WORD;
+        int lockWord;
+        do {
+            lockWord = (int) INTS.getVolatile(page, offset);
+            if ((lockWord & LOCKED) == 0) {
+                throw new IllegalMonitorStateException("The account lock is not held");
+            }
+        } while (!INTS.compareAndSet(page, offset, lockWord, lockWord & ~LOCKED));
+
+        // A thread which starts waiting afterwards finds the lock released
+        if (lockWord >= WAITER) {
+            WaitQueue queue = waitQueues[slot & (NUM_OF_WAIT_QUEUES - 1)];
+            queue.lock.lock();
+            try {
+                queue.condition.signalAll();
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+    }
+
+    // It has to be called while holding the lock
+    void markAsClosed(int slot) {
+        INTS.getAndBitwiseOr(page(slot), offset(slot) + LOCK_WORD, CLOSED);
+    }
+
+    boolean isClosed(int slot) {
+        return ((int) INTS.getVolatile(page(slot), offset(slot) + LOCK_WORD) & CLOSED) != 0;
+    }
+
+    boolean isLocked(int slot) {
+        return ((int) INTS.getVolatile(page(slot), offset(slot) + LOCK_WORD) & LOCKED) != 0;
+    }
+
+    int getQueueLength(int slot) {
+        return (int) INTS.getVolatile(page(slot), offset(slot) + LOCK_WORD) / WAITER;
+    }
+
+    // Bytes of the records, including the free ones
+    long getOffHeapBytes() {
+        return (long) recordPages.length * RECORDS_PER_PAGE * RECORD_SIZE;
+    }
+
+    private ByteBuffer page(int slot) {
+        return recordPages[slot >>> RECORD_PAGE_SHIFT];
+    }
+
+    private static int offset(int slot) {
+        return (slot & RECORD_PAGE_MASK) * RECORD_SIZE;
+    }
+
+    private static class WaitQueue {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition condition = lock.newCondition();
+    }
+}
@@ -0,0 +1,305 @@
+package net.devaction.transfersservice.core.account;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.devaction.transfersservice.api.util.id.HexIds;
+
+/**
+ * Hash table of the accounts keyed by their ids as primitive longs, see "HexIds".
+ * It is made of two parallel arrays (open addressing, linear probing): a 32-bit
+ * fingerprint of the id of each account and the account itself. There is neither
+ * a node object nor a key object per account: ~14 bytes per account instead of
+ * ~95 bytes of a "ConcurrentHashMap<String, Account>". A lookup only reads the
+ * account whose fingerprint matches and then compares its id.
+ *
+ * The lookups do not take any lock. The updates (opening and closing accounts,
+ * which are much less frequent than the transfers) are serialized by a lock.
+ * The fingerprint of a removed account is replaced by a tombstone, so the slot
+ * can be reused. An account is written before its fingerprint, hence a lookup
+ * which finds the fingerprint also finds the account (its id is checked in case
+ * the slot has been reused meanwhile).
+ *
+ * When the table gets too full a new one is built and published in a single
+ * volatile write. The lookups are never stopped: the ones which are running keep
+ * using the previous table, which is not modified any more.
+ */
+public class OpenAddressingAccountRegistry implements AccountRegistry {
+
+    private static final int EMPTY = 0;
+    private static final int REMOVED = 1;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 30;
+    // Linear probing is still fast at this load factor, the ids are random
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    private static final VarHandle FINGERPRINTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle ACCOUNTS = MethodHandles.arrayElementVarHandle(Account[].class);
+
+    private final int initialCapacity;
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    private volatile Table table;
+    private volatile int size;
+
+    public OpenAddressingAccountRegistry() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    // The expected number of accounts, e.g., when it is known before loading them
+    public OpenAddressingAccountRegistry(int expectedNumOfAccounts) {
+        initialCapacity = capacityFor(expectedNumOfAccounts);
+        table = new Table(initialCapacity);
+    }
+
+    @Override
+    public Account get(String accountId) {
+        return get(HexIds.parse(accountId));
+    }
+
+    @Override
+    public Account get(long encodedAccountId) {
+        if (encodedAccountId < 0L) {
+            return null;
+        }
+
+        Table current = table;
+        int fingerprint = fingerprintOf(encodedAccountId);
+        int index = current.indexOf(encodedAccountId);
+        while (true) {
+            int slotFingerprint = (int) FINGERPRINTS.getAcquire(current.fingerprints, index);
+            if (slotFingerprint == fingerprint) {
+                Account account = (Account) ACCOUNTS.getAcquire(current.accounts, index);
+                // Another account with the same fingerprint, or the slot has been reused
+                // since its fingerprint was read
+                if (account != null && account.getEncodedId() == encodedAccountId) {
+                    return account;
+                }
+            } else if (slotFingerprint == EMPTY) {
+                return null;
+            }
+            index = (index + 1) & current.mask;
+        }
+    }
+
+    @Override
+    public boolean contains(String accountId) {
+        return get(accountId) != null;
+    }
+
+    @Override
+    public void put(Account account) {
+        update(account, true);
+    }
+
+    @Override
+    public Account putIfAbsent(Account account) {
+        return update(account, false);
+    }
+
+    private Account update(Account account, boolean mustReplace) {
+        long encodedAccountId = account.getEncodedId();
+        int fingerprint = fingerprintOf(encodedAccountId);
+
+        updateLock.lock();
+        try {
+            Table current = table;
+            int index = current.indexOf(encodedAccountId);
+            int freeIndex = -1;
+            while (true) {
+                int slotFingerprint = current.fingerprints[index];
+                if (slotFingerprint == fingerprint && current.accounts[index].getEncodedId() == encodedAccountId) {
+                    Account previous = current.accounts[index];
+                    if (mustReplace) {
+                        ACCOUNTS.setRelease(current.accounts, index, account);
+                    }
+                    return previous;
+                }
+                if (slotFingerprint == REMOVED && freeIndex < 0) {
+                    freeIndex = index;
+                }
+                if (slotFingerprint == EMPTY) {
+                    break;
+                }
+                index = (index + 1) & current.mask;
+            }
+
+            if (freeIndex < 0) {
+                // A new slot is going to be used
+                if (current.numOfUsedSlots + 1 > current.maxNumOfUsedSlots) {
+                    current = rebuild(size + 1);
+                    freeIndex = current.findEmptySlot(encodedAccountId);
+                } else {
+                    freeIndex = index;
+                }
+                current.numOfUsedSlots++;
+            }
+
+            ACCOUNTS.setRelease(current.accounts, freeIndex, account);
+            FINGERPRINTS.setRelease(current.fingerprints, freeIndex, fingerprint);
+            size++;
+            return null;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public Account remove(String accountId) {
+        long encodedAccountId = HexIds.parse(accountId);
+        if (encodedAccountId < 0L) {
+            return null;
+        }
+        int fingerprint = fingerprintOf(encodedAccountId);
+
+        updateLock.lock();
+        try {
+            Table current = table;
+            int index = current.indexOf(encodedAccountId);
+            while (true) {
+                int slotFingerprint = current.fingerprints[index];
+                if (slotFingerprint == fingerprint && current.accounts[index].getEncodedId() == encodedAccountId) {
+                    Account account = current.accounts[index];
+                    ACCOUNTS.setRelease(current.accounts, index, null);
+                    FINGERPRINTS.setRelease(current.fingerprints, index, REMOVED);
+                    size--;
+                    return account;
+                }
+                if (slotFingerprint == EMPTY) {
+                    return null;
+                }
+                index = (index + 1) & current.mask;
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        updateLock.lock();
+        try {
+            table = new Table(initialCapacity);
+            size = 0;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    // Called with the lock held, the tombstones are dropped
+    private Table rebuild(int numOfAccounts) {
+        Table current = table;
+        Table rebuilt = new Table(Math.max(current.accounts.length, capacityFor(2 * numOfAccounts)));
+        for (int i = 0; i < current.accounts.length; i++) {
+            if (current.fingerprints[i] != EMPTY && current.fingerprints[i] != REMOVED) {
+                Account account = current.accounts[i];
+                int index = rebuilt.findEmptySlot(account.getEncodedId());
+                rebuilt.fingerprints[index] = current.fingerprints[i];
+                rebuilt.accounts[index] = account;
+                rebuilt.numOfUsedSlots++;
+            }
+        }
+        // The volatile write publishes the whole table
+        table = rebuilt;
+        return rebuilt;
+    }
+
+    private static int capacityFor(int numOfAccounts) {
+        long capacity = Long.highestOneBit(Math.max((long) Math.ceil(numOfAccounts / MAX_LOAD_FACTOR), 16L));
+        if (capacity * MAX_LOAD_FACTOR < numOfAccounts) {
+            capacity <<= 1;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Too many accounts: " + numOfAccounts);
+        }
+        return (int) capacity;
+    }
+
+    // Independent from the index, the values of "EMPTY" and "REMOVED" are never used
+    private static int fingerprintOf(long id) {
+        int fingerprint = (int) ((id * 0xc2b2ae3d27d4eb4fL) >>> 32);
+        return fingerprint == EMPTY || fingerprint == REMOVED ? fingerprint + 2 : fingerprint;
+    }
+
+    @Override
+    public Iterator<Account> iterator() {
+        return new AccountIterator(table);
+    }
+
+    private static class Table {
+        private final int[] fingerprints;
+        private final Account[] accounts;
+        private final int mask;
+        private final int shift;
+        private final int maxNumOfUsedSlots;
+
+        // Accounts and tombstones, only used with the lock held
+        private int numOfUsedSlots;
+
+        private Table(int capacity) {
+            fingerprints = new int[capacity];
+            accounts = new Account[capacity];
+            mask = capacity - 1;
+            shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+            maxNumOfUsedSlots = (int) (capacity * MAX_LOAD_FACTOR);
+        }
+
+        // Fibonacci hashing, the ids of the tests and the benchmarks are not random
+        private int indexOf(long id) {
+            return (int) ((id * 0x9e3779b97f4a7c15L) >>> shift) & mask;
+        }
+
+        private int findEmptySlot(long id) {
+            int index = indexOf(id);
+            while (fingerprints[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+    }
+
+    private static class AccountIterator implements Iterator<Account> {
+        private final Table table;
+        private int index = -1;
+        private Account next;
+
+        private AccountIterator(Table table) {
+            this.table = table;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && ++index < table.accounts.length) {
+                int fingerprint = (int) FINGERPRINTS.getAcquire(table.fingerprints, index);
+                if (fingerprint != EMPTY && fingerprint != REMOVED) {
+                    next = (Account) ACCOUNTS.getAcquire(table.accounts, index);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Account next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Account account = next;
+            advance();
+            return account;
+        }
+    }
+}
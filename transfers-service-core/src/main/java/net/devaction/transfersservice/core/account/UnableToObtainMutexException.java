@@ -1,15 +1,17 @@
 package net.devaction.transfersservice.core.account;
 
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
 /**
  * @author Víctor Gil
  *
  * since February 2020
  */
-public class UnableToObtainMutexException extends Exception {
+public class UnableToObtainMutexException extends RejectedRequestException {
 
     private static final long serialVersionUID = -1584628854777887412L;
 
-    UnableToObtainMutexException(String errorMessage) {
+    public UnableToObtainMutexException(String errorMessage) {
         super(errorMessage);
     }
 }
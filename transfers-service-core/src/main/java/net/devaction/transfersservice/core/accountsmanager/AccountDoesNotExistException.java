@@ -1,11 +1,13 @@
 package net.devaction.transfersservice.core.accountsmanager;
 
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
 /**
  * @author Víctor Gil
  *
  * since February 2020
  */
-public class AccountDoesNotExistException extends Exception {
+public class AccountDoesNotExistException extends RejectedRequestException {
     private static final long serialVersionUID = 1359729895168821041L;
 
     public AccountDoesNotExistException(String errorMessage) {
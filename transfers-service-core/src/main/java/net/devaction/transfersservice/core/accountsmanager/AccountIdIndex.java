@@ -0,0 +1,64 @@
+package net.devaction.transfersservice.core.accountsmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted set of the ids of the open accounts, maintained incrementally when
+ * the accounts are opened and closed. A page of ids is read with a single
+ * descent of the skip list followed by "limit" steps, i.e., in O(log n + limit)
+ * instead of sorting all the ids on every request.
+ *
+ * The iterations are weakly consistent: an account which is opened or closed
+ * while a page is being read may or may not be included.
+ */
+public class AccountIdIndex {
+
+    private final ConcurrentSkipListSet<String> accountIds = new ConcurrentSkipListSet<>();
+
+    public void add(String accountId) {
+        accountIds.add(accountId);
+    }
+
+    public void addAll(Collection<String> accountIds) {
+        this.accountIds.addAll(accountIds);
+    }
+
+    public void remove(String accountId) {
+        accountIds.remove(accountId);
+    }
+
+    public int size() {
+        return accountIds.size();
+    }
+
+    // Read-only sorted view, it is not a copy
+    public Set<String> getAll() {
+        return Collections.unmodifiableSet(accountIds);
+    }
+
+    // It returns up to "limit" ids which start with "prefix" (it can be empty)
+    // and are greater than "after" (it can be null to get the first page)
+    public List<String> getPage(String prefix, String after, int limit) {
+        NavigableSet<String> tail;
+        if (after == null || after.compareTo(prefix) < 0) {
+            tail = accountIds.tailSet(prefix, true);
+        } else {
+            tail = accountIds.tailSet(after, false);
+        }
+
+        List<String> page = new ArrayList<>(Math.min(limit, 1024));
+        for (String accountId : tail) {
+            if (page.size() == limit || !accountId.startsWith(prefix)) {
+                break;
+            }
+            page.add(accountId);
+        }
+        return page;
+    }
+}
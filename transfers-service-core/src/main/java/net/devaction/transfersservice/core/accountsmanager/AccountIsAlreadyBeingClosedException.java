@@ -1,11 +1,13 @@
 package net.devaction.transfersservice.core.accountsmanager;
 
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
 /**
  * @author Víctor Gil
  *
  * since February 2020
  */
-public class AccountIsAlreadyBeingClosedException extends Exception {
+public class AccountIsAlreadyBeingClosedException extends RejectedRequestException {
 
     private static final long serialVersionUID = -1584628854777887663L;
 
@@ -1,5 +1,6 @@
 package net.devaction.transfersservice.core.accountsmanager;
 
+import java.util.List;
 import java.util.Set;
 
 import net.devaction.transfersservice.api.entity.account.AccountInfo;
@@ -21,8 +22,16 @@ public interface AccountsManager {
 
     public long getBalance(String accountId) throws InvalidAccountIdException, AccountDoesNotExistException;
 
-    public AccountInfo getAccountInfo(String accountId) throws InvalidAccountIdException, AccountDoesNotExistException,
-            UnableToObtainMutexException;
+    // They never wait for the writers, see "Account.getAccountInfo"
+    public AccountInfo getAccountInfo(String accountId) throws InvalidAccountIdException, AccountDoesNotExistException;
+
+    // The cursor is null to get the first page, then the "nextCursor" of the previous page
+    public AccountInfo getAccountInfo(String accountId, String cursor, long from, long to, int limit)
+            throws InvalidAccountIdException, AccountDoesNotExistException, InvalidHistoryQueryException;
 
     public Set<String> getAllAccountIds();
+
+    // Sorted ids which start with "prefix" (null for any), "after" is null to get
+    // the first page, then the last id of the previous page
+    public List<String> getAccountIds(String prefix, String after, int limit) throws InvalidAccountIdsQueryException;
 }
@@ -1,9 +1,7 @@
 package net.devaction.transfersservice.core.accountsmanager;
 
-import java.util.Collections;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,8 +10,13 @@ import com.google.inject.Inject;
 
 import net.devaction.transfersservice.api.entity.account.AccountInfo;
 import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountRegistry;
 import net.devaction.transfersservice.core.account.AccountMutex;
 import net.devaction.transfersservice.core.account.UnableToObtainMutexException;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+import net.devaction.transfersservice.core.journal.Journal;
 import net.devaction.transfersservice.core.transfersmanager.InvalidAccountIdException;
 import net.devaction.transfersservice.core.transfersmanager.InvalidCurrencyException;
 import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
@@ -26,13 +29,37 @@ import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
 public class AccountsManagerImpl implements AccountsManager {
     private static final Logger log = LoggerFactory.getLogger(AccountsManagerImpl.class);
 
-    private final Map<String, Account> accountMap;
+    public static final int MAX_HISTORY_PAGE_SIZE = 1000;
+    public static final int MAX_ACCOUNT_IDS_PAGE_SIZE = 10000;
+
+    private final AccountRegistry accountRegistry;
     private final TransferChecker transferChecker;
+    private final AccountLockManager accountLockManager;
+    private final Journal journal;
+    private final HistoryArchive historyArchive;
+    private final AccountIdIndex accountIdIndex = new AccountIdIndex();
+
+    public AccountsManagerImpl(AccountRegistry accountRegistry, TransferChecker transferChecker,
+            AccountLockManager accountLockManager, Journal journal) {
+
+        this(accountRegistry, transferChecker, accountLockManager, journal, new NoOpHistoryArchive());
+    }
 
     @Inject
-    public AccountsManagerImpl(Map<String, Account> accountMap, TransferChecker transferChecker) {
-        this.accountMap = accountMap;
+    public AccountsManagerImpl(AccountRegistry accountRegistry, TransferChecker transferChecker,
+            AccountLockManager accountLockManager, Journal journal, HistoryArchive historyArchive) {
+
+        this.accountRegistry = accountRegistry;
         this.transferChecker = transferChecker;
+        this.accountLockManager = accountLockManager;
+        this.journal = journal;
+        this.historyArchive = historyArchive;
+
+        // The accounts which have been loaded on startup (snapshot and journal) are
+        // already in the registry, see "TransfersServiceMain"
+        for (Account account : accountRegistry) {
+            accountIdIndex.add(account.getId());
+        }
     }
 
     @Override
@@ -41,8 +68,15 @@ public class AccountsManagerImpl implements AccountsManager {
         log.trace("Going to open a new account, currency: {}", currency);
         transferChecker.checkCurrency(currency);
 
-        Account account = new Account(currency);
-        accountMap.put(account.getId(), account);
+        Account account = new Account(currency, historyArchive);
+        // The account has to be journaled before any transfer can reach it
+        long journalSequence = journal.appendAccountOpened(account.getId(), currency);
+        account.setJournalSequence(journalSequence);
+        // The account can only be closed once it is in the registry, by then its id has to be
+        // in the index already, otherwise the id would be added back after being removed
+        accountIdIndex.add(account.getId());
+        accountRegistry.put(account);
+        journal.awaitDurable(journalSequence);
 
         String accountId = account.getId();
         log.trace("New account has been created, account id: {}", accountId);
@@ -54,35 +88,40 @@ public class AccountsManagerImpl implements AccountsManager {
             UnableToObtainMutexException, AccountIsAlreadyBeingClosedException {
 
         log.trace("Going to close the account with id: \"{}\"", accountId);
-        checkAccountExists(accountId);
-
-        Account account = accountMap.get(accountId);
-        log.trace("Going to try to grab the mutex lock object for the account which is going to be closed, id: {}", accountId);
-        AccountMutex mutex = null;
-        mutex = account.getMutex();
+        Account account = getExistingAccount(accountId);
+        log.trace("Going to try to grab the lock for the account which is going to be closed, id: {}", accountId);
+        AccountMutex mutex = accountLockManager.lock(account);
 
         if (mutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
-            account.returnMutex(AccountMutex.ACCOUNT_HAS_BEEN_CLOSED);
-            log.trace("The mutex lock object for the internal source account id \"{}\" has been released",
-                    accountId);
+            accountLockManager.unlock(account);
+            log.trace("The lock for the account id \"{}\" has been released", accountId);
             String errorMessage = "Account with id \"" + accountId + "\" is already being closed";
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new AccountIsAlreadyBeingClosedException(errorMessage);
         }
 
-        accountMap.remove(accountId);
+        long journalSequence;
+        try {
+            journalSequence = journal.appendAccountClosed(accountId);
+            account.setJournalSequence(journalSequence);
+            accountRegistry.remove(accountId);
+            accountIdIndex.remove(accountId);
+        } catch (RuntimeException ex) {
+            // The account is still there, it has not been closed
+            accountLockManager.unlock(account);
+            throw ex;
+        }
+        accountLockManager.closeAndUnlock(account);
+        log.trace("Account with id \"{}\" has been closed and its lock has been released", accountId);
 
-        account.returnMutex(AccountMutex.ACCOUNT_HAS_BEEN_CLOSED);
-        log.trace("Account with id \"{}\" has been closed and its mutex has been released", accountId);
+        journal.awaitDurable(journalSequence);
     }
 
     @Override
     public long getBalance(String accountId) throws InvalidAccountIdException, AccountDoesNotExistException {
 
         log.trace("Going to get the balance of the account with id \"{}\"", accountId);
-        checkAccountExists(accountId);
-
-        long balance = accountMap.get(accountId).getBalance();
+        long balance = getExistingAccount(accountId).getBalance();
 
         log.trace("Current balance of \"{}\" account in cents: {}", accountId, balance);
         return balance;
@@ -90,35 +129,94 @@ public class AccountsManagerImpl implements AccountsManager {
 
     @Override
     public AccountInfo getAccountInfo(String accountId) throws InvalidAccountIdException,
-            AccountDoesNotExistException, UnableToObtainMutexException {
+            AccountDoesNotExistException {
 
         log.trace("Going to get the info and history of the account with id \"{}\"", accountId);
-        checkAccountExists(accountId);
+        return getExistingAccount(accountId).getAccountInfo();
+    }
+
+    @Override
+    public AccountInfo getAccountInfo(String accountId, String cursor, long from, long to, int limit)
+            throws InvalidAccountIdException, AccountDoesNotExistException, InvalidHistoryQueryException {
+
+        log.trace("Going to get the info and a page of the history of the account with id \"{}\", "
+                + "cursor: {}, from: {}, to: {}, limit: {}", accountId, cursor, from, to, limit);
+        Account account = getExistingAccount(accountId);
+
+        if (from > to) {
+            String errorMessage = "Invalid time range, \"from\" (" + from + ") is after \"to\" (" + to + ")";
+            log.debug(errorMessage);
+            throw new InvalidHistoryQueryException(errorMessage);
+        }
+
+        if (limit < 1 || limit > MAX_HISTORY_PAGE_SIZE) {
+            String errorMessage = "Invalid limit: " + limit + ", it must be between 1 and " + MAX_HISTORY_PAGE_SIZE;
+            log.debug(errorMessage);
+            throw new InvalidHistoryQueryException(errorMessage);
+        }
+
+        return account.getAccountInfo(parseCursor(cursor, account), from, to, limit);
+    }
+
+    // The cursor is the index of the first history item of the page
+    int parseCursor(String cursor, Account account) throws InvalidHistoryQueryException {
+        if (cursor == null) {
+            return 0;
+        }
 
-        Account account = accountMap.get(accountId);
+        int startIndex;
+        try {
+            startIndex = Integer.parseInt(cursor);
+        } catch (NumberFormatException ex) {
+            startIndex = -1;
+        }
 
-        return account.getAccountInfo();
+        // The history only grows, hence a cursor which has been returned is always valid
+        if (startIndex < 0 || startIndex > account.getHistory().size()) {
+            String errorMessage = "Invalid cursor: " + cursor;
+            log.debug(errorMessage);
+            throw new InvalidHistoryQueryException(errorMessage);
+        }
+        return startIndex;
     }
 
     @Override
     public Set<String> getAllAccountIds() {
         log.trace("Going to get the ids of all the accounts");
-        Set<String> accountIdsView = accountMap.keySet();
 
-        // We use "defensive copying" because we want to decouple the set from the map
-        Set<String> accountIds = Collections.unmodifiableSet(new TreeSet<>(accountIdsView));
+        // Sorted read-only view of the index, it is not copied (nor counted,
+        // the size of the view is not constant time)
+        return accountIdIndex.getAll();
+    }
+
+    @Override
+    public List<String> getAccountIds(String prefix, String after, int limit) throws InvalidAccountIdsQueryException {
+        log.trace("Going to get a page of the account ids, prefix: \"{}\", after: \"{}\", limit: {}",
+                prefix, after, limit);
+
+        if (limit < 1 || limit > MAX_ACCOUNT_IDS_PAGE_SIZE) {
+            String errorMessage = "Invalid limit: " + limit + ", it must be between 1 and "
+                    + MAX_ACCOUNT_IDS_PAGE_SIZE;
+            log.debug(errorMessage);
+            throw new InvalidAccountIdsQueryException(errorMessage);
+        }
+
+        List<String> accountIds = accountIdIndex.getPage(prefix == null ? "" : prefix, after, limit);
 
-        log.trace("All account ids: {}", accountIds);
+        log.trace("Page of account ids: {}", accountIds);
         return accountIds;
     }
 
-    void checkAccountExists(String accountId) throws InvalidAccountIdException, AccountDoesNotExistException {
+    // A single lookup, the account may be closed right after it but it is never null
+    Account getExistingAccount(String accountId) throws InvalidAccountIdException, AccountDoesNotExistException {
         transferChecker.checkAccountId(accountId);
 
-        if (!accountMap.containsKey(accountId)) {
+        Account account = accountRegistry.get(accountId);
+        if (account == null) {
             String errorMessage = "Account with id \"" + accountId + "\" does not exist";
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new AccountDoesNotExistException(errorMessage);
         }
+        return account;
     }
 }
@@ -0,0 +1,11 @@
+package net.devaction.transfersservice.core.accountsmanager;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+public class InvalidAccountIdsQueryException extends RejectedRequestException {
+    private static final long serialVersionUID = 4417020387139751262L;
+
+    public InvalidAccountIdsQueryException(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -0,0 +1,11 @@
+package net.devaction.transfersservice.core.accountsmanager;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+public class InvalidHistoryQueryException extends RejectedRequestException {
+    private static final long serialVersionUID = -6283945104476315970L;
+
+    public InvalidHistoryQueryException(String errorMessage) {
+        super(errorMessage);
+    }
+}
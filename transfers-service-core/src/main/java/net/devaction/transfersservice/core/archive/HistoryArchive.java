@@ -0,0 +1,35 @@
+package net.devaction.transfersservice.core.archive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Storage for the old items of the histories of the accounts, which are not kept
+ * in the heap (see "AccountHistory"), along with the retention policy: the items
+ * beyond the most recent "getNumOfRetainedItems()" of an account, or older than
+ * "getRetentionMillis()" with respect to its newest item, are archived.
+ *
+ * The archived data is opaque, every piece of data gets a position which is
+ * used to read it back.
+ */
+public interface HistoryArchive {
+
+    // Returned when the data could not be archived, then it is kept in memory
+    public static final long NOT_ARCHIVED = -1L;
+
+    public int getNumOfRetainedItems();
+
+    public long getRetentionMillis();
+
+    // The data is copied, it returns its position or "NOT_ARCHIVED"
+    public long append(byte[] data, int length);
+
+    // Read-only buffer with the data, it can be called concurrently
+    public ByteBuffer read(long position);
+
+    // Number of bytes which have been archived
+    public long getArchivedBytes();
+
+    // The old chunks are encoded and appended by this task instead of by the writer of
+    // the history, which holds the account lock. It may run on another thread.
+    public void submit(Runnable archivingTask);
+}
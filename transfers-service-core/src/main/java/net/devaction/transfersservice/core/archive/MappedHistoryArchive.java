@@ -0,0 +1,221 @@
+package net.devaction.transfersservice.core.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archive stored in a sequence of fixed-size, memory-mapped segment files. The
+ * position of a piece of data is the index of its segment (high 32 bits) and its
+ * offset within the segment (low 32 bits), the data is preceded by its length (int).
+ *
+ * Appending is just a copy into the mapped memory, it is never forced to disk:
+ * the archive is not a persistence mechanism, the items are still in the snapshots
+ * and the journal. Hence the segments of a previous run are deleted on startup,
+ * the loaded histories are archived again.
+ *
+ * The chunks of the histories are encoded and appended by a single background
+ * thread (see "submit"), hence a writer which starts a new chunk does not wait
+ * for the encoding nor for the page faults of the mapped memory.
+ *
+ * Nothing is ever removed from the segments while the process runs (e.g., the
+ * chunks of the closed accounts), hence the archive is bounded by "maxBytes":
+ * once it is full the old items are kept in the heap (see "AccountHistory").
+ */
+public class MappedHistoryArchive implements HistoryArchive {
+    private static final Logger log = LoggerFactory.getLogger(MappedHistoryArchive.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024L * 1024L * 1024L;
+
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int numOfRetainedItems;
+    private final long retentionMillis;
+    private final int maxNumOfSegments;
+
+    // Everything used for appending is guarded by this lock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private MappedByteBuffer segment;
+    // It is replaced (copy on write) when a segment is added, the readers do not take the lock
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    // The first time the archive is full is logged, guarded by the append lock
+    private boolean fullHasBeenLogged;
+
+    private final AtomicLong archivedBytes = new AtomicLong();
+
+    private final ExecutorService archiver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-archiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MappedHistoryArchive(Path directory, int numOfRetainedItems, long retentionMillis) throws IOException {
+        this(directory, numOfRetainedItems, retentionMillis, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    public MappedHistoryArchive(Path directory, int numOfRetainedItems, long retentionMillis, long segmentSize)
+            throws IOException {
+
+        this(directory, numOfRetainedItems, retentionMillis, segmentSize, DEFAULT_MAX_BYTES);
+    }
+
+    // The maximum size is rounded down to a whole number of segments
+    public MappedHistoryArchive(Path directory, int numOfRetainedItems, long retentionMillis, long segmentSize,
+            long maxBytes) throws IOException {
+
+        if (segmentSize < Integer.BYTES || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (maxBytes < segmentSize) {
+            throw new IllegalArgumentException("The maximum size (" + maxBytes + " bytes) is smaller than a segment ("
+                    + segmentSize + " bytes)");
+        }
+        if (numOfRetainedItems < 0 || retentionMillis < 0) {
+            throw new IllegalArgumentException("Invalid retention, number of items: " + numOfRetainedItems
+                    + ", milliseconds: " + retentionMillis);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.numOfRetainedItems = numOfRetainedItems;
+        this.retentionMillis = retentionMillis;
+        this.maxNumOfSegments = (int) Math.min(maxBytes / segmentSize, Integer.MAX_VALUE);
+
+        Files.createDirectories(directory);
+        List<Path> previousSegments = listSegments();
+        for (Path segmentPath : previousSegments) {
+            Files.delete(segmentPath);
+        }
+
+        log.info("History archive opened, directory: {}, retained items per account: {}, retention: {} ms, "
+                + "maximum size: {} bytes, segments of a previous run deleted: {}", directory, numOfRetainedItems,
+                retentionMillis, (long) maxNumOfSegments * segmentSize, previousSegments.size());
+    }
+
+    @Override
+    public int getNumOfRetainedItems() {
+        return numOfRetainedItems;
+    }
+
+    @Override
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    @Override
+    public long append(byte[] data, int length) {
+        if (Integer.BYTES + (long) length > segmentSize) {
+            log.error("Unable to archive {} bytes, the segment size is {} bytes", length, segmentSize);
+            return NOT_ARCHIVED;
+        }
+
+        appendLock.lock();
+        try {
+            if (segment == null || segment.remaining() < Integer.BYTES + length) {
+                segment = addSegment();
+                if (segment == null) {
+                    return NOT_ARCHIVED;
+                }
+            }
+
+            long position = ((long) (segments.length - 1) << 32) | segment.position();
+            segment.putInt(length);
+            segment.put(data, 0, length);
+            archivedBytes.addAndGet(Integer.BYTES + length);
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public ByteBuffer read(long position) {
+        MappedByteBuffer buffer = segments[(int) (position >>> 32)];
+        int offset = (int) position;
+        return buffer.slice(offset + Integer.BYTES, buffer.getInt(offset)).asReadOnlyBuffer();
+    }
+
+    @Override
+    public long getArchivedBytes() {
+        return archivedBytes.get();
+    }
+
+    @Override
+    public void submit(Runnable archivingTask) {
+        archiver.execute(() -> {
+            try {
+                archivingTask.run();
+            } catch (RuntimeException ex) {
+                log.error("Unexpected error while archiving the old items of a history", ex);
+            }
+        });
+    }
+
+    // It waits until the tasks submitted so far have been run, e.g., to measure the archive
+    public void awaitArchiving() throws InterruptedException {
+        try {
+            archiver.submit(() -> { }).get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private MappedByteBuffer addSegment() {
+        if (segments.length == maxNumOfSegments) {
+            if (!fullHasBeenLogged) {
+                fullHasBeenLogged = true;
+                log.warn("The history archive is full ({} segments of {} bytes), from now on the old items "
+                        + "of the histories are kept in the heap", maxNumOfSegments, segmentSize);
+            }
+            return null;
+        }
+
+        Path segmentPath = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segments.length,
+                SEGMENT_SUFFIX));
+        MappedByteBuffer newSegment;
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            newSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException ex) {
+            // The items are kept in memory, it is retried when the next chunk is full
+            log.error("Unable to create the history archive segment " + segmentPath, ex);
+            return null;
+        }
+
+        MappedByteBuffer[] newSegments = Arrays.copyOf(segments, segments.length + 1);
+        newSegments[segments.length] = newSegment;
+        segments = newSegments;
+        log.debug("History archive segment {} has been created", segmentPath);
+        return newSegment;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> {
+                String fileName = path.getFileName().toString();
+                return fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+}
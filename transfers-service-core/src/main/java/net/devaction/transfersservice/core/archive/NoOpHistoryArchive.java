@@ -0,0 +1,40 @@
+package net.devaction.transfersservice.core.archive;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Used when the archive is disabled, the whole history of every account is kept in memory.
+ */
+public class NoOpHistoryArchive implements HistoryArchive {
+
+    @Override
+    public int getNumOfRetainedItems() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public long getRetentionMillis() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long append(byte[] data, int length) {
+        return NOT_ARCHIVED;
+    }
+
+    @Override
+    public ByteBuffer read(long position) {
+        throw new IllegalStateException("Nothing has been archived, position: " + position);
+    }
+
+    @Override
+    public long getArchivedBytes() {
+        return 0L;
+    }
+
+    // Nothing is archived, the task finds it out right away
+    @Override
+    public void submit(Runnable archivingTask) {
+        archivingTask.run();
+    }
+}
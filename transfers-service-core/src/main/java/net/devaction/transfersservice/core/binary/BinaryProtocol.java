@@ -0,0 +1,149 @@
+package net.devaction.transfersservice.core.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.util.id.HexIds;
+
+/**
+ * Length-prefixed binary protocol for high-volume clients, see "BinaryProtocolServer".
+ * All the integers are big-endian.
+ *
+ * Request frame: length (int, number of bytes after the length field), request id
+ * (int, chosen by the client), opcode (byte) and payload.
+ * Response frame: length (int), request id (int, the one of the request), status
+ * (byte) and payload.
+ *
+ * The responses of the pipelined requests of a connection can be sent back in any
+ * order, the request id matches them.
+ *
+ * Payloads (request -> successful response):
+ * - TRANSFER: source account id (id), source account type (byte), target account id
+ *   (id), target account type (byte), amount (long) and currency (3 ASCII bytes)
+ *   -> transfer id (id) and timestamp (long, milliseconds from UNIX epoch)
+ * - GET_BALANCE: account id (id) -> balance (long)
+ * - OPEN_ACCOUNT: currency (3 ASCII bytes) -> account id (id)
+ * - CLOSE_ACCOUNT: account id (id) -> no payload
+ *
+ * An id (account id or transfer id) is the value of its 12 lowercase hexadecimal
+ * digits, stored in 6 bytes. The account types are 0 (internal) and 1 (external).
+ * The payload of an error response is the error message: its length (short)
+ * followed by its UTF-8 bytes.
+ */
+public final class BinaryProtocol {
+
+    public static final byte TRANSFER = 1;
+    public static final byte GET_BALANCE = 2;
+    public static final byte OPEN_ACCOUNT = 3;
+    public static final byte CLOSE_ACCOUNT = 4;
+
+    public static final byte SUCCESS = 0;
+    public static final byte ERROR = 1;
+
+    public static final byte INTERNAL_ACCOUNT = 0;
+    public static final byte EXTERNAL_ACCOUNT = 1;
+
+    // Length field, request id and opcode or status
+    public static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + 1;
+    public static final int ID_SIZE = 6;
+    public static final int CURRENCY_SIZE = 3;
+    public static final int TRANSFER_REQUEST_PAYLOAD_SIZE = 2 * ID_SIZE + 2 + Long.BYTES + CURRENCY_SIZE;
+
+    // The requests are much smaller, a bigger frame means that the client is broken
+    public static final int MAX_FRAME_LENGTH = 1024;
+
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 512;
+
+    private BinaryProtocol() {
+    }
+
+    // It throws an IllegalArgumentException when the id is not made of 12 lowercase hexadecimal digits
+    public static long encodeId(String id) {
+        long value = HexIds.parse(id);
+        if (value == HexIds.NO_ID) {
+            throw new IllegalArgumentException("The id has to be made of " + HexIds.LENGTH
+                    + " lowercase hexadecimal digits: " + id);
+        }
+        return value;
+    }
+
+    public static String decodeId(long value) {
+        return HexIds.toHex(value);
+    }
+
+    public static void putId(ByteBuffer buffer, String id) {
+        putId(buffer, encodeId(id));
+    }
+
+    public static void putId(ByteBuffer buffer, long value) {
+        buffer.putShort((short) (value >>> 32));
+        buffer.putInt((int) value);
+    }
+
+    public static String getId(ByteBuffer buffer) {
+        long high = buffer.getShort() & 0xffffL;
+        long low = buffer.getInt() & 0xffffffffL;
+        return decodeId((high << 32) | low);
+    }
+
+    public static byte encodeAccountType(AccountType accountType) {
+        return accountType == AccountType.INTERNAL ? INTERNAL_ACCOUNT : EXTERNAL_ACCOUNT;
+    }
+
+    public static AccountType decodeAccountType(byte value) {
+        if (value == INTERNAL_ACCOUNT) {
+            return AccountType.INTERNAL;
+        }
+        if (value == EXTERNAL_ACCOUNT) {
+            return AccountType.EXTERNAL;
+        }
+        throw new IllegalArgumentException("Invalid account type: " + value);
+    }
+
+    public static void putCurrency(ByteBuffer buffer, String currency) {
+        if (currency == null || currency.length() != CURRENCY_SIZE) {
+            throw new IllegalArgumentException("The currency code has to be made of " + CURRENCY_SIZE
+                    + " characters: " + currency);
+        }
+        for (int i = 0; i < CURRENCY_SIZE; i++) {
+            buffer.put((byte) currency.charAt(i));
+        }
+    }
+
+    public static String getCurrency(ByteBuffer buffer) {
+        byte[] bytes = new byte[CURRENCY_SIZE];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    // The buffer is ready to be written, the length field is filled in by "endFrame"
+    public static ByteBuffer startFrame(int payloadSize, int requestId, byte opcodeOrStatus) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        frame.putInt(0);
+        frame.putInt(requestId);
+        frame.put(opcodeOrStatus);
+        return frame;
+    }
+
+    public static ByteBuffer endFrame(ByteBuffer frame) {
+        frame.putInt(0, frame.position() - Integer.BYTES);
+        frame.flip();
+        return frame;
+    }
+
+    public static ByteBuffer errorFrame(int requestId, String errorMessage) {
+        byte[] bytes = errorMessage.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_ERROR_MESSAGE_LENGTH);
+        ByteBuffer frame = startFrame(Short.BYTES + length, requestId, ERROR);
+        frame.putShort((short) length);
+        frame.put(bytes, 0, length);
+        return endFrame(frame);
+    }
+
+    public static String getErrorMessage(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.getShort()];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+package net.devaction.transfersservice.core.binary;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import net.devaction.transfersservice.api.entity.account.AccountType;
+
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.CLOSE_ACCOUNT;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.CURRENCY_SIZE;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.GET_BALANCE;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.HEADER_SIZE;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.ID_SIZE;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.OPEN_ACCOUNT;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.TRANSFER;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.TRANSFER_REQUEST_PAYLOAD_SIZE;
+
+/**
+ * Blocking client of the binary protocol. The requests are buffered until
+ * "flush" is called (or the buffer is full), hence many of them can be pipelined
+ * before receiving the responses, which can arrive in any order.
+ *
+ * It is not thread-safe, but one thread can send requests while another one
+ * receives the responses.
+ */
+public class BinaryProtocolClient implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private int nextRequestId;
+
+    public BinaryProtocolClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        readBuffer.flip();
+    }
+
+    // They return the id of the request
+    public int sendTransfer(String sourceAccountId, AccountType sourceAccountType, String targetAccountId,
+            AccountType targetAccountType, long amount, String currency) throws IOException {
+
+        int requestId = startRequest(TRANSFER, TRANSFER_REQUEST_PAYLOAD_SIZE);
+        BinaryProtocol.putId(writeBuffer, sourceAccountId);
+        writeBuffer.put(BinaryProtocol.encodeAccountType(sourceAccountType));
+        BinaryProtocol.putId(writeBuffer, targetAccountId);
+        writeBuffer.put(BinaryProtocol.encodeAccountType(targetAccountType));
+        writeBuffer.putLong(amount);
+        BinaryProtocol.putCurrency(writeBuffer, currency);
+        return requestId;
+    }
+
+    public int sendGetBalance(String accountId) throws IOException {
+        int requestId = startRequest(GET_BALANCE, ID_SIZE);
+        BinaryProtocol.putId(writeBuffer, accountId);
+        return requestId;
+    }
+
+    public int sendOpenAccount(String currency) throws IOException {
+        int requestId = startRequest(OPEN_ACCOUNT, CURRENCY_SIZE);
+        BinaryProtocol.putCurrency(writeBuffer, currency);
+        return requestId;
+    }
+
+    public int sendCloseAccount(String accountId) throws IOException {
+        int requestId = startRequest(CLOSE_ACCOUNT, ID_SIZE);
+        BinaryProtocol.putId(writeBuffer, accountId);
+        return requestId;
+    }
+
+    private int startRequest(byte opcode, int payloadSize) throws IOException {
+        if (writeBuffer.remaining() < HEADER_SIZE + payloadSize) {
+            flush();
+        }
+        int requestId = nextRequestId++;
+        writeBuffer.putInt(HEADER_SIZE - Integer.BYTES + payloadSize);
+        writeBuffer.putInt(requestId);
+        writeBuffer.put(opcode);
+        return requestId;
+    }
+
+    public void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    // It blocks until the next response is received
+    public BinaryResponse receive() throws IOException {
+        fill(Integer.BYTES);
+        int length = readBuffer.getInt();
+        if (length < HEADER_SIZE - Integer.BYTES || length > BUFFER_SIZE - Integer.BYTES) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        fill(length);
+
+        int requestId = readBuffer.getInt();
+        byte status = readBuffer.get();
+        ByteBuffer payload = ByteBuffer.allocate(length - (HEADER_SIZE - Integer.BYTES));
+        int limit = readBuffer.limit();
+        readBuffer.limit(readBuffer.position() + payload.capacity());
+        payload.put(readBuffer);
+        readBuffer.limit(limit);
+        payload.flip();
+
+        return new BinaryResponse(requestId, status, payload);
+    }
+
+    private void fill(int numOfBytes) throws IOException {
+        if (readBuffer.remaining() >= numOfBytes) {
+            return;
+        }
+        readBuffer.compact();
+        while (readBuffer.position() < numOfBytes) {
+            if (channel.read(readBuffer) < 0) {
+                throw new EOFException("The connection has been closed by the server");
+            }
+        }
+        readBuffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,326 @@
+package net.devaction.transfersservice.core.binary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * NIO socket listener of the binary protocol, see "BinaryProtocol".
+ *
+ * A single selector thread accepts the connections and reads the request frames,
+ * which are processed by a pool of worker threads (the transfers can block while
+ * waiting for the account locks) so many requests of the same connection can be in
+ * flight at the same time. The transfers do not keep a worker busy while waiting
+ * for the journal, their responses are written by the thread which completes them.
+ * The response is written straight to the socket, the selector thread only writes
+ * what did not fit in the socket buffer.
+ * A connection stops being read while it has too many requests in flight, a request
+ * is in flight until its response has been completely written: a client which does not
+ * read its responses cannot make the server queue them without a bound.
+ */
+public class BinaryProtocolServer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(BinaryProtocolServer.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION = 4096;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    private final BinaryRequestHandler requestHandler;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+
+    // The connections whose interest operations have to be updated by the selector thread
+    private final Queue<Connection> pendingUpdates = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    public BinaryProtocolServer(int port, int numOfWorkerThreads, BinaryRequestHandler requestHandler)
+            throws IOException {
+
+        this.requestHandler = requestHandler;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger numOfWorkers = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(numOfWorkerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "transfers-binary-worker-" + numOfWorkers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        selectorThread = new Thread(this::runSelectorLoop, "transfers-binary-selector");
+        selectorThread.setDaemon(true);
+    }
+
+    public void start() {
+        selectorThread.start();
+        log.info("The binary protocol server is listening on port {}", getPort());
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // No request is accepted afterwards, the ones which are being processed are
+    // completed before returning (their responses are dropped, the connections are closed)
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            // The selector thread hands the requests over to the workers
+            selectorThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+        }
+
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Some binary protocol requests were still being processed after {} seconds",
+                        SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runSelectorLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+
+                Connection connection;
+                while ((connection = pendingUpdates.poll()) != null) {
+                    connection.updateInterestOps();
+                }
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid()) {
+                            connection.updateInterestOps();
+                        }
+                    } catch (IOException ex) {
+                        log.debug("Closing the connection with {}: {}", connection.remoteAddress, ex.toString());
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            log.error("Unexpected error in the binary protocol server", ex);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+        log.info("The binary protocol server has been stopped");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        log.debug("New binary protocol connection from {}", connection.remoteAddress);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            log.debug("Unable to close {}: {}", closeable, ex.toString());
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final String remoteAddress;
+        private SelectionKey key;
+
+        // Only used by the selector thread
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        // Guarded by "this"
+        private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+
+        private final AtomicInteger numOfInFlightRequests = new AtomicInteger();
+        private volatile boolean readPaused;
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            remoteAddress = String.valueOf(channel.getRemoteAddress());
+        }
+
+        private void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                throw new IOException("The connection has been closed by the client");
+            }
+
+            readBuffer.flip();
+            while (readBuffer.remaining() >= Integer.BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < BinaryProtocol.HEADER_SIZE - Integer.BYTES || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (readBuffer.remaining() < Integer.BYTES + length) {
+                    break;
+                }
+
+                // The read buffer is reused, the request is processed by another thread
+                ByteBuffer request = ByteBuffer.allocate(length);
+                readBuffer.position(readBuffer.position() + Integer.BYTES);
+                int limit = readBuffer.limit();
+                readBuffer.limit(readBuffer.position() + length);
+                request.put(readBuffer);
+                readBuffer.limit(limit);
+                request.flip();
+
+                numOfInFlightRequests.incrementAndGet();
+                workers.execute(() -> process(request));
+            }
+            readBuffer.compact();
+        }
+
+        // Every request gets a response, even when it fails unexpectedly (e.g., the journal
+        // has been closed), otherwise it would be in flight forever and the client would wait for it
+        private void process(ByteBuffer request) {
+            int requestId = request.getInt(0);
+            CompletableFuture<ByteBuffer> future;
+            try {
+                future = requestHandler.handle(request);
+            } catch (RuntimeException ex) {
+                future = CompletableFuture.failedFuture(ex);
+            }
+
+            future.handle((response, failure) -> {
+                if (failure == null) {
+                    return response;
+                }
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure;
+                log.error("Unable to process the request {} from {}", requestId, remoteAddress, cause);
+                return BinaryProtocol.errorFrame(requestId, cause.toString());
+            }).thenAccept(this::send);
+        }
+
+        // Called by the worker threads and the threads which complete the asynchronous transfers,
+        // it does not block (the socket is in non-blocking mode)
+        private void send(ByteBuffer response) {
+            boolean written = false;
+            boolean mustUpdate;
+            synchronized (this) {
+                try {
+                    if (writeQueue.isEmpty()) {
+                        channel.write(response);
+                    }
+                    if (response.hasRemaining()) {
+                        // It is still in flight, see "flush"
+                        writeQueue.add(response);
+                    } else {
+                        written = true;
+                    }
+                } catch (IOException ex) {
+                    // The selector thread closes the connection
+                    log.debug("Unable to send a response to {}: {}", remoteAddress, ex.toString());
+                }
+                mustUpdate = !writeQueue.isEmpty();
+            }
+
+            if (written) {
+                numOfInFlightRequests.decrementAndGet();
+            }
+            if (mustUpdate || readPaused) {
+                pendingUpdates.add(this);
+                selector.wakeup();
+            }
+        }
+
+        private synchronized void flush() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer response = writeQueue.peek();
+                channel.write(response);
+                if (response.hasRemaining()) {
+                    return;
+                }
+                writeQueue.poll();
+                numOfInFlightRequests.decrementAndGet();
+            }
+        }
+
+        // Called by the selector thread
+        private void updateInterestOps() {
+            if (!key.isValid()) {
+                return;
+            }
+
+            boolean mustPauseRead = false;
+            if (numOfInFlightRequests.get() >= MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION) {
+                // A worker which finishes a request after this is seen checks "readPaused"
+                readPaused = true;
+                mustPauseRead = numOfInFlightRequests.get() >= MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION;
+            }
+            readPaused = mustPauseRead;
+
+            int interestOps = mustPauseRead ? 0 : SelectionKey.OP_READ;
+            synchronized (this) {
+                if (!writeQueue.isEmpty()) {
+                    interestOps |= SelectionKey.OP_WRITE;
+                }
+            }
+            key.interestOps(interestOps);
+        }
+
+        private void close() {
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.devaction.transfersservice.core.binary;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.rejection.RejectionLogger;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.CLOSE_ACCOUNT;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.GET_BALANCE;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.ID_SIZE;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.OPEN_ACCOUNT;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.SUCCESS;
+import static net.devaction.transfersservice.core.binary.BinaryProtocol.TRANSFER;
+
+/**
+ * Processes a request frame of the binary protocol by means of the same managers
+ * used by the HTTP API and returns the response frame, see "BinaryProtocol".
+ * The transfers are processed asynchronously (see "TransfersManager.processTransferAsync"),
+ * the calling thread does not wait for them to be durable.
+ */
+public class BinaryRequestHandler {
+    private static final Logger log = LoggerFactory.getLogger(BinaryRequestHandler.class);
+    private static final RejectionLogger rejectionLogger = new RejectionLogger(log);
+
+    private final AccountsManager accountsManager;
+    private final TransfersManager transfersManager;
+
+    public BinaryRequestHandler(AccountsManager accountsManager, TransfersManager transfersManager) {
+        this.accountsManager = accountsManager;
+        this.transfersManager = transfersManager;
+    }
+
+    // The request frame starts with the request id, the length field has already been consumed.
+    // The future may be completed by an internal thread of the service.
+    public CompletableFuture<ByteBuffer> handle(ByteBuffer request) {
+        int requestId = request.getInt();
+        byte opcode = request.get();
+
+        try {
+            switch (opcode) {
+                case TRANSFER:
+                    return processTransfer(requestId, request);
+                case GET_BALANCE:
+                    return CompletableFuture.completedFuture(getBalance(requestId, request));
+                case OPEN_ACCOUNT:
+                    return CompletableFuture.completedFuture(openNewAccount(requestId, request));
+                case CLOSE_ACCOUNT:
+                    return CompletableFuture.completedFuture(closeAccount(requestId, request));
+                default:
+                    String errorMessage = "Unknown opcode: " + opcode;
+                    log.debug(errorMessage);
+                    throw new InvalidBinaryRequestException(errorMessage);
+            }
+        } catch (Exception ex) {
+            return CompletableFuture.completedFuture(errorFrame(requestId, ex));
+        }
+    }
+
+    private CompletableFuture<ByteBuffer> processTransfer(int requestId, ByteBuffer request)
+            throws InvalidBinaryRequestException {
+
+        Transfer transfer;
+        try {
+            String sourceAccountId = BinaryProtocol.getId(request);
+            byte sourceAccountType = request.get();
+            String targetAccountId = BinaryProtocol.getId(request);
+            byte targetAccountType = request.get();
+            long amount = request.getLong();
+            String currency = BinaryProtocol.getCurrency(request);
+
+            transfer = new Transfer(sourceAccountId, BinaryProtocol.decodeAccountType(sourceAccountType),
+                    targetAccountId, BinaryProtocol.decodeAccountType(targetAccountType), amount, currency);
+        } catch (IllegalArgumentException | BufferUnderflowException ex) {
+            String errorMessage = "Invalid transfer request: " + ex.getMessage();
+            log.debug(errorMessage);
+            throw new InvalidBinaryRequestException(errorMessage);
+        }
+        log.trace("Transfer received by means of the binary protocol: {}", transfer);
+
+        return transfersManager.processTransferAsync(transfer).thenApply(result -> {
+            if (!result.isSuccess()) {
+                return errorFrame(requestId, result.getException());
+            }
+
+            ByteBuffer response = BinaryProtocol.startFrame(ID_SIZE + Long.BYTES, requestId, SUCCESS);
+            BinaryProtocol.putId(response, transfer.getEncodedId());
+            response.putLong(transfer.getTimestamp());
+            return BinaryProtocol.endFrame(response);
+        });
+    }
+
+    private ByteBuffer getBalance(int requestId, ByteBuffer request) throws Exception {
+        long balance = accountsManager.getBalance(BinaryProtocol.getId(request));
+
+        ByteBuffer response = BinaryProtocol.startFrame(Long.BYTES, requestId, SUCCESS);
+        response.putLong(balance);
+        return BinaryProtocol.endFrame(response);
+    }
+
+    private ByteBuffer openNewAccount(int requestId, ByteBuffer request) throws Exception {
+        String accountId = accountsManager.openNewAccount(BinaryProtocol.getCurrency(request));
+
+        ByteBuffer response = BinaryProtocol.startFrame(ID_SIZE, requestId, SUCCESS);
+        BinaryProtocol.putId(response, accountId);
+        return BinaryProtocol.endFrame(response);
+    }
+
+    private ByteBuffer closeAccount(int requestId, ByteBuffer request) throws Exception {
+        accountsManager.closeAccount(BinaryProtocol.getId(request));
+
+        return BinaryProtocol.endFrame(BinaryProtocol.startFrame(0, requestId, SUCCESS));
+    }
+
+    private static ByteBuffer errorFrame(int requestId, Exception ex) {
+        rejectionLogger.log(ex);
+        return BinaryProtocol.errorFrame(requestId, ex.toString());
+    }
+}
@@ -0,0 +1,43 @@
+package net.devaction.transfersservice.core.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Response frame of the binary protocol received by "BinaryProtocolClient",
+ * the payload is read with the methods of "BinaryProtocol".
+ */
+public class BinaryResponse {
+
+    private final int requestId;
+    private final byte status;
+    private final ByteBuffer payload;
+
+    public BinaryResponse(int requestId, byte status, ByteBuffer payload) {
+        this.requestId = requestId;
+        this.status = status;
+        this.payload = payload;
+    }
+
+    public boolean isSuccess() {
+        return status == BinaryProtocol.SUCCESS;
+    }
+
+    public String getErrorMessage() {
+        if (isSuccess()) {
+            return null;
+        }
+        return BinaryProtocol.getErrorMessage(payload.duplicate());
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public byte getStatus() {
+        return status;
+    }
+
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+}
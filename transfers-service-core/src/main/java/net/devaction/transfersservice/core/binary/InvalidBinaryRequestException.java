@@ -0,0 +1,11 @@
+package net.devaction.transfersservice.core.binary;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+public class InvalidBinaryRequestException extends RejectedRequestException {
+    private static final long serialVersionUID = -3927154803682149175L;
+
+    public InvalidBinaryRequestException(String errorMessage) {
+        super(errorMessage);
+    }
+}
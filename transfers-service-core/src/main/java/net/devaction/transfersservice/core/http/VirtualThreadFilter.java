@@ -0,0 +1,66 @@
+package net.devaction.transfersservice.core.http;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the wrapped filter (the Spark routes) on a new virtual thread for each
+ * request. The request is put in asynchronous mode, hence the thread of the Jetty
+ * pool goes back to the pool straight away instead of staying blocked while the
+ * request waits for the lock of a hot account or for the journal.
+ */
+public class VirtualThreadFilter implements Filter {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadFilter.class);
+
+    private final Filter filter;
+    private final ThreadFactory threadFactory = Thread.ofVirtual().name("transfers-http-", 1L).factory();
+
+    public VirtualThreadFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        filter.init(filterConfig);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        // The request takes as long as the account locks and the journal need
+        asyncContext.setTimeout(0L);
+        threadFactory.newThread(() -> process(asyncContext, request, response, chain)).start();
+    }
+
+    @Override
+    public void destroy() {
+        filter.destroy();
+    }
+
+    private void process(AsyncContext asyncContext, ServletRequest request, ServletResponse response,
+            FilterChain chain) {
+
+        try {
+            filter.doFilter(request, response, chain);
+        } catch (IOException | ServletException | RuntimeException ex) {
+            log.error("Unable to process the HTTP request", ex);
+            if (!response.isCommitted()) {
+                ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        } finally {
+            asyncContext.complete();
+        }
+    }
+}
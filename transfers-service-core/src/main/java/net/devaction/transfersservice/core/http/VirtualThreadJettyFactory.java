@@ -0,0 +1,57 @@
+package net.devaction.transfersservice.core.http;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import spark.ExceptionMapper;
+import spark.embeddedserver.EmbeddedServer;
+import spark.embeddedserver.EmbeddedServerFactory;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyServer;
+import spark.embeddedserver.jetty.JettyHandler;
+import spark.embeddedserver.jetty.JettyServerFactory;
+import spark.http.matching.MatcherFilter;
+import spark.route.Routes;
+import spark.staticfiles.StaticFilesConfiguration;
+
+/**
+ * Same embedded Jetty server as the default one of Spark but the routes are run
+ * on virtual threads, see "VirtualThreadFilter". The Jetty pool only accepts the
+ * connections, parses the requests and hands them over.
+ */
+public class VirtualThreadJettyFactory implements EmbeddedServerFactory {
+
+    private final JettyServerFactory serverFactory = new JettyServerFactory() {
+        @Override
+        public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+            if (maxThreads > 0) {
+                return new Server(new QueuedThreadPool(maxThreads, Math.max(minThreads, 1), threadTimeoutMillis));
+            }
+            return new Server();
+        }
+
+        @Override
+        public Server create(ThreadPool threadPool) {
+            return threadPool == null ? new Server() : new Server(threadPool);
+        }
+    };
+
+    // It must be called before the first route is added
+    public static void install() {
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new VirtualThreadJettyFactory());
+    }
+
+    @Override
+    public EmbeddedServer create(Routes routeMatcher, StaticFilesConfiguration staticFilesConfiguration,
+            ExceptionMapper exceptionMapper, boolean hasMultipleHandler) {
+
+        MatcherFilter matcherFilter = new MatcherFilter(routeMatcher, staticFilesConfiguration, exceptionMapper,
+                false, hasMultipleHandler);
+        matcherFilter.init(null);
+
+        JettyHandler handler = new JettyHandler(new VirtualThreadFilter(matcherFilter));
+        handler.getSessionCookieConfig().setHttpOnly(true);
+        return new EmbeddedJettyServer(serverFactory, handler);
+    }
+}
@@ -0,0 +1,45 @@
+package net.devaction.transfersservice.core.journal;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+/**
+ * Append-only log of all the changes applied to the accounts, it is replayed
+ * on startup to rebuild the state of the service.
+ *
+ * The records have to be appended while holding the lock(s) of the account(s)
+ * they refer to, so their order in the journal matches the order in which
+ * they were applied. Each append method returns the sequence number of the
+ * new record, which has to be passed to "awaitDurable" once the locks
+ * have been released.
+ */
+public interface Journal {
+
+    public long appendAccountOpened(String accountId, String currency);
+
+    public long appendAccountClosed(String accountId);
+
+    public long appendTransfer(JournalRecordType type, Transfer transfer);
+
+    // It blocks until the record and all the previous ones have been persisted.
+    // Many threads waiting at the same time get served by the same "fsync" call.
+    public void awaitDurable(long sequence);
+
+    // Same as "awaitDurable" but it does not block, the future is completed by
+    // the thread which persists the records (or straight away if they already are),
+    // hence its dependent actions must not block
+    public CompletableFuture<Void> whenDurable(long sequence);
+
+    public void replay(JournalRecordHandler handler) throws IOException;
+
+    // Sequence number of the last appended record
+    public long getLastSequence();
+
+    // It deletes the oldest records (only whole segments), at least the ones whose
+    // sequence number is lower than the given one are no longer needed
+    public void truncateBefore(long sequence) throws IOException;
+
+    public void close();
+}
@@ -0,0 +1,12 @@
+package net.devaction.transfersservice.core.journal;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+public interface JournalRecordHandler {
+
+    public void onAccountOpened(long sequence, String accountId, String currency);
+
+    public void onAccountClosed(long sequence, String accountId);
+
+    public void onTransfer(long sequence, JournalRecordType type, Transfer transfer);
+}
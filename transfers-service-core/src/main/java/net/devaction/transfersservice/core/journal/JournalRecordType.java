@@ -0,0 +1,40 @@
+package net.devaction.transfersservice.core.journal;
+
+public enum JournalRecordType {
+
+    ACCOUNT_OPENED((byte) 1),
+    ACCOUNT_CLOSED((byte) 2),
+
+    // The transfer has been added to all the internal accounts involved
+    TRANSFER((byte) 3),
+
+    // The transfer has only been added to the source account, used when
+    // the two accounts are updated in two different steps
+    TRANSFER_SOURCE((byte) 4),
+
+    // The transfer has only been added to the target account, second step
+    TRANSFER_TARGET((byte) 5),
+
+    // The amount of the transfer has been given back to the source account
+    // because the second step failed
+    TRANSFER_REFUND((byte) 6);
+
+    private final byte code;
+
+    private JournalRecordType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static JournalRecordType fromCode(byte code) {
+        for (JournalRecordType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+package net.devaction.transfersservice.core.journal;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+/**
+ * Rebuilds the accounts from the journal, it has to be run on startup
+ * before any request is processed.
+ *
+ * If the accounts have been loaded from a snapshot first, the records which
+ * were already applied to an account when the snapshot was taken are skipped
+ * (see "Account.getJournalSequence").
+ */
+public class JournalReplayer implements JournalRecordHandler {
+    private static final Logger log = LoggerFactory.getLogger(JournalReplayer.class);
+
+    private final AccountRegistry accountRegistry;
+    private final Journal journal;
+    private final HistoryArchive historyArchive;
+
+    // Transfers whose first step (source account) has been replayed but
+    // neither the second step (target account) nor the refund
+    private final Map<String, Transfer> pendingTransfers = new LinkedHashMap<>();
+
+    private long numOfRecords;
+
+    public JournalReplayer(AccountRegistry accountRegistry, Journal journal) {
+        this(accountRegistry, journal, new NoOpHistoryArchive());
+    }
+
+    @Inject
+    public JournalReplayer(AccountRegistry accountRegistry, Journal journal, HistoryArchive historyArchive) {
+        this.accountRegistry = accountRegistry;
+        this.journal = journal;
+        this.historyArchive = historyArchive;
+    }
+
+    public void replay() throws IOException {
+        log.info("Going to replay the journal");
+        long start = System.nanoTime();
+
+        journal.replay(this);
+
+        // The service stopped between the two steps of these transfers, they
+        // never completed so the amount is given back to the source account
+        for (Transfer transfer : pendingTransfers.values()) {
+            log.warn("Transfer was interrupted before reaching the target account, "
+                    + "the source account gets refunded:\n{}", transfer);
+            Account sourceAccount = accountRegistry.get(transfer.getSourceAccountId());
+            if (sourceAccount != null) {
+                applyRefund(sourceAccount, transfer);
+                long journalSequence = journal.appendTransfer(JournalRecordType.TRANSFER_REFUND, transfer);
+                sourceAccount.setJournalSequence(journalSequence);
+                journal.awaitDurable(journalSequence);
+            }
+        }
+        pendingTransfers.clear();
+
+        log.info("{} journal records have been replayed in {} ms, number of accounts: {}",
+                numOfRecords, (System.nanoTime() - start) / 1000000L, accountRegistry.size());
+    }
+
+    @Override
+    public void onAccountOpened(long sequence, String accountId, String currency) {
+        numOfRecords++;
+        Account account = new Account(accountId, currency, historyArchive);
+        account.setJournalSequence(sequence);
+        accountRegistry.putIfAbsent(account);
+    }
+
+    @Override
+    public void onAccountClosed(long sequence, String accountId) {
+        numOfRecords++;
+        accountRegistry.remove(accountId);
+    }
+
+    @Override
+    public void onTransfer(long sequence, JournalRecordType type, Transfer transfer) {
+        numOfRecords++;
+
+        switch (type) {
+            case TRANSFER:
+                if (transfer.getSourceAccountType() == INTERNAL) {
+                    apply(sequence, transfer.getSourceAccountId(), transfer);
+                }
+                if (transfer.getTargetAccountType() == INTERNAL) {
+                    apply(sequence, transfer.getTargetAccountId(), transfer);
+                }
+                break;
+            case TRANSFER_SOURCE:
+                apply(sequence, transfer.getSourceAccountId(), transfer);
+                pendingTransfers.put(transfer.getId(), transfer);
+                break;
+            case TRANSFER_TARGET:
+                apply(sequence, transfer.getTargetAccountId(), transfer);
+                pendingTransfers.remove(transfer.getId());
+                break;
+            case TRANSFER_REFUND:
+                Account sourceAccount = getAccountToUpdate(sequence, transfer.getSourceAccountId());
+                if (sourceAccount != null) {
+                    applyRefund(sourceAccount, transfer);
+                    sourceAccount.setJournalSequence(sequence);
+                }
+                pendingTransfers.remove(transfer.getId());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected journal record type: " + type);
+        }
+    }
+
+    private void apply(long sequence, String accountId, Transfer transfer) {
+        Account account = getAccountToUpdate(sequence, accountId);
+        if (account == null) {
+            return;
+        }
+
+        try {
+            account.add(transfer);
+            account.setJournalSequence(sequence);
+        } catch (Exception ex) {
+            String errorMessage = "Unable to replay journaled transfer:\n" + transfer;
+            log.error(errorMessage, ex);
+            throw new IllegalStateException(errorMessage, ex);
+        }
+    }
+
+    // It returns null when the record does not have to be applied to the account
+    private Account getAccountToUpdate(long sequence, String accountId) {
+        Account account = accountRegistry.get(accountId);
+        if (account == null) {
+            // The account was closed afterwards and it was not in the snapshot
+            // (the journal records older than the snapshot are kept for a while)
+            log.trace("Journal record {} skipped, account \"{}\" does not exist", sequence, accountId);
+            return null;
+        }
+
+        if (account.getJournalSequence() >= sequence) {
+            // Already in the snapshot
+            return null;
+        }
+
+        return account;
+    }
+
+    private void applyRefund(Account sourceAccount, Transfer transfer) {
+        try {
+            sourceAccount.refund(transfer);
+        } catch (Exception ex) {
+            String errorMessage = "Unable to replay the refund of journaled transfer:\n" + transfer;
+            log.error(errorMessage, ex);
+            throw new IllegalStateException(errorMessage, ex);
+        }
+    }
+}
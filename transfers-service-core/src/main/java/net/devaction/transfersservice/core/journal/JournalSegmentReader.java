@@ -0,0 +1,126 @@
+package net.devaction.transfersservice.core.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+/**
+ * Reads the records of a journal segment, see "MappedJournal" for the format.
+ * It stops at the first record which is not valid (e.g., it was only partially
+ * written when the service crashed) or at the end of the written area.
+ */
+class JournalSegmentReader {
+
+    private final ByteBuffer buffer;
+    private final CRC32C crc = new CRC32C();
+
+    private long lastSequence;
+    private boolean invalidRecordFound;
+
+    JournalSegmentReader(ByteBuffer buffer, long previousSequence) {
+        this.buffer = buffer;
+        this.lastSequence = previousSequence;
+    }
+
+    // The handler can be null when we only need to find the end of the segment
+    void read(JournalRecordHandler handler) {
+        while (buffer.remaining() >= MappedJournal.HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+
+            if (length == 0) {
+                return;
+            }
+
+            if (!isValid(start, length)) {
+                invalidRecordFound = true;
+                return;
+            }
+
+            buffer.position(start + MappedJournal.HEADER_SIZE);
+            JournalRecordType type = JournalRecordType.fromCode(buffer.get());
+            long sequence = buffer.getLong();
+
+            if (handler != null) {
+                dispatch(type, sequence, handler);
+            }
+
+            buffer.position(start + MappedJournal.HEADER_SIZE + length);
+            lastSequence = sequence;
+        }
+    }
+
+    private boolean isValid(int start, int length) {
+        if (length < MappedJournal.MIN_RECORD_LENGTH || length > MappedJournal.MAX_RECORD_LENGTH
+                || start + MappedJournal.HEADER_SIZE + length > buffer.limit()) {
+            return false;
+        }
+
+        ByteBuffer record = buffer.duplicate();
+        record.limit(start + MappedJournal.HEADER_SIZE + length);
+        record.position(start + MappedJournal.HEADER_SIZE);
+
+        crc.reset();
+        crc.update(record);
+        if ((int) crc.getValue() != buffer.getInt(start + Integer.BYTES)) {
+            return false;
+        }
+
+        int payloadStart = start + MappedJournal.HEADER_SIZE;
+        if (JournalRecordType.fromCode(buffer.get(payloadStart)) == null) {
+            return false;
+        }
+
+        // The sequence numbers have no gaps
+        return buffer.getLong(payloadStart + 1) == lastSequence + 1;
+    }
+
+    private void dispatch(JournalRecordType type, long sequence, JournalRecordHandler handler) {
+        switch (type) {
+            case ACCOUNT_OPENED:
+                handler.onAccountOpened(sequence, readString(), readString());
+                break;
+            case ACCOUNT_CLOSED:
+                handler.onAccountClosed(sequence, readString());
+                break;
+            default:
+                handler.onTransfer(sequence, type, readTransfer());
+        }
+    }
+
+    private Transfer readTransfer() {
+        String id = readString();
+        String sourceAccountId = readString();
+        AccountType sourceAccountType = AccountType.values()[buffer.get()];
+        String targetAccountId = readString();
+        AccountType targetAccountType = AccountType.values()[buffer.get()];
+        long amount = buffer.getLong();
+        String currency = readString();
+        long timestamp = buffer.getLong();
+
+        return new Transfer(id, sourceAccountId, sourceAccountType, targetAccountId,
+                targetAccountType, amount, currency, timestamp);
+    }
+
+    private String readString() {
+        int length = buffer.getShort();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int getPosition() {
+        return buffer.position();
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    boolean isInvalidRecordFound() {
+        return invalidRecordFound;
+    }
+}
@@ -0,0 +1,488 @@
+package net.devaction.transfersservice.core.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.api.util.id.HexIds;
+
+/**
+ * Journal stored in a sequence of fixed-size, memory-mapped segment files.
+ * The name of each segment contains the sequence number of its first record.
+ *
+ * Record format:
+ * - int: length of the record body
+ * - int: CRC32C of the record body
+ * - body: type (byte), sequence number (long) and the fields of the record
+ *
+ * Appending a record is just a copy into the mapped memory. When "fsync" is
+ * enabled, a background thread forces the mapped memory to disk whenever
+ * some thread is waiting in "awaitDurable" and then it wakes up all the
+ * waiting threads whose records have been persisted by that single call
+ * (i.e., group commit). The futures returned by "whenDurable" are completed by
+ * that thread too, right after the call.
+ */
+public class MappedJournal implements Journal {
+    private static final Logger log = LoggerFactory.getLogger(MappedJournal.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+    // Type plus sequence number
+    static final int MIN_RECORD_LENGTH = 1 + Long.BYTES;
+    static final int MAX_RECORD_LENGTH = 4096;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean syncEnabled;
+
+    // Everything used for appending is guarded by this lock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(HEADER_SIZE + MAX_RECORD_LENGTH);
+    private final CRC32C crc = new CRC32C();
+    private long lastSequence;
+    private volatile MappedByteBuffer segment;
+
+    // Sequence number of the last record copied into the mapped memory
+    private volatile long writtenSequence;
+    // Sequence number of the last record which has been forced to disk
+    private volatile long durableSequence;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition syncRequested = syncLock.newCondition();
+    private final Condition syncCompleted = syncLock.newCondition();
+    // Guarded by "syncLock", the ones with the lowest sequence number first
+    private final PriorityQueue<DurableWaiter> durableWaiters = new PriorityQueue<>();
+    private final Thread syncThread;
+    private volatile boolean running = true;
+
+    public MappedJournal(Path directory, boolean syncEnabled) throws IOException {
+        this(directory, syncEnabled, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedJournal(Path directory, boolean syncEnabled, long segmentSize) throws IOException {
+        if (segmentSize < HEADER_SIZE + MAX_RECORD_LENGTH || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+
+        this.directory = directory;
+        this.syncEnabled = syncEnabled;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        openLastSegment();
+
+        writtenSequence = lastSequence;
+        durableSequence = lastSequence;
+
+        if (syncEnabled) {
+            syncThread = new Thread(this::syncLoop, "journal-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+
+        log.info("Journal opened, directory: {}, last sequence number: {}, fsync enabled: {}",
+                directory, lastSequence, syncEnabled);
+    }
+
+    @Override
+    public long appendAccountOpened(String accountId, String currency) {
+        appendLock.lock();
+        try {
+            long sequence = startRecord(JournalRecordType.ACCOUNT_OPENED);
+            putString(accountId);
+            putString(currency);
+            return endRecord(sequence);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendAccountClosed(String accountId) {
+        appendLock.lock();
+        try {
+            long sequence = startRecord(JournalRecordType.ACCOUNT_CLOSED);
+            putString(accountId);
+            return endRecord(sequence);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendTransfer(JournalRecordType type, Transfer transfer) {
+        if (type == JournalRecordType.ACCOUNT_OPENED || type == JournalRecordType.ACCOUNT_CLOSED) {
+            throw new IllegalArgumentException("Not a transfer record type: " + type);
+        }
+
+        appendLock.lock();
+        try {
+            long sequence = startRecord(type);
+            putId(transfer.getEncodedId());
+            putString(transfer.getSourceAccountId());
+            recordBuffer.put((byte) transfer.getSourceAccountType().ordinal());
+            putString(transfer.getTargetAccountId());
+            recordBuffer.put((byte) transfer.getTargetAccountType().ordinal());
+            recordBuffer.putLong(transfer.getAmount());
+            putString(transfer.getCurrency());
+            recordBuffer.putLong(transfer.getTimestamp());
+            return endRecord(sequence);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Called with the append lock held, "close" takes it too
+    private long startRecord(JournalRecordType type) {
+        // The segment would never be forced again
+        if (!running) {
+            throw new IllegalStateException("The journal has been closed");
+        }
+
+        recordBuffer.clear();
+        recordBuffer.position(HEADER_SIZE);
+        recordBuffer.put(type.getCode());
+
+        long sequence = lastSequence + 1;
+        recordBuffer.putLong(sequence);
+        return sequence;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > recordBuffer.remaining() - Short.BYTES) {
+            throw new IllegalArgumentException("Value too long to be journaled: " + value);
+        }
+        recordBuffer.putShort((short) bytes.length);
+        recordBuffer.put(bytes);
+    }
+
+    // Same bytes as "putString" with the hexadecimal id, without creating the String
+    private void putId(long id) {
+        recordBuffer.putShort((short) HexIds.LENGTH);
+        HexIds.putHex(recordBuffer, id);
+    }
+
+    private long endRecord(long sequence) {
+        int length = recordBuffer.position() - HEADER_SIZE;
+        recordBuffer.flip();
+
+        ByteBuffer body = recordBuffer.duplicate();
+        body.position(HEADER_SIZE);
+        crc.reset();
+        crc.update(body);
+
+        recordBuffer.putInt(0, length);
+        recordBuffer.putInt(Integer.BYTES, (int) crc.getValue());
+
+        // We keep room for an empty header at the end of the segment
+        if (segment.remaining() < recordBuffer.remaining() + HEADER_SIZE) {
+            rollOver(sequence);
+        }
+
+        segment.put(recordBuffer);
+
+        lastSequence = sequence;
+        writtenSequence = sequence;
+        return sequence;
+    }
+
+    private void rollOver(long firstSequence) {
+        try {
+            // The previous segment must be completely on disk before
+            // the sync thread starts forcing the new one
+            if (syncEnabled) {
+                segment.force();
+            }
+            segment = mapSegment(segmentPath(firstSequence), 0);
+        } catch (IOException ex) {
+            String errorMessage = "Unable to create a new journal segment in " + directory;
+            log.error(errorMessage, ex);
+            throw new UncheckedIOException(errorMessage, ex);
+        }
+        log.debug("New journal segment, first sequence number: {}", firstSequence);
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        if (!syncEnabled || durableSequence >= sequence) {
+            return;
+        }
+
+        syncLock.lock();
+        try {
+            syncRequested.signal();
+            while (durableSequence < sequence) {
+                if (!running) {
+                    throw new IllegalStateException("The journal has been closed");
+                }
+                syncCompleted.awaitUninterruptibly();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> whenDurable(long sequence) {
+        if (!syncEnabled || durableSequence >= sequence) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        DurableWaiter waiter = new DurableWaiter(sequence);
+        syncLock.lock();
+        try {
+            // Nothing is forced any more, the future would never be completed
+            if (!running) {
+                return CompletableFuture.failedFuture(new IllegalStateException("The journal has been closed"));
+            }
+            // The record may have been persisted in the meantime, it is checked again below
+            durableWaiters.add(waiter);
+            syncRequested.signal();
+        } finally {
+            syncLock.unlock();
+        }
+
+        if (durableSequence >= sequence) {
+            completeDurableWaiters();
+        }
+        return waiter.future;
+    }
+
+    // The futures are completed outside of the lock, their dependent actions are run by this thread
+    private void completeDurableWaiters() {
+        List<DurableWaiter> completedWaiters = new ArrayList<>();
+        syncLock.lock();
+        try {
+            while (!durableWaiters.isEmpty() && durableWaiters.peek().sequence <= durableSequence) {
+                completedWaiters.add(durableWaiters.poll());
+            }
+        } finally {
+            syncLock.unlock();
+        }
+
+        for (DurableWaiter waiter : completedWaiters) {
+            waiter.future.complete(null);
+        }
+    }
+
+    private void failDurableWaiters() {
+        List<DurableWaiter> failedWaiters;
+        syncLock.lock();
+        try {
+            failedWaiters = new ArrayList<>(durableWaiters);
+            durableWaiters.clear();
+        } finally {
+            syncLock.unlock();
+        }
+
+        for (DurableWaiter waiter : failedWaiters) {
+            waiter.future.completeExceptionally(new IllegalStateException("The journal has been closed"));
+        }
+    }
+
+    private void syncLoop() {
+        while (running) {
+            syncLock.lock();
+            try {
+                while (running && writtenSequence == durableSequence) {
+                    syncRequested.awaitUninterruptibly();
+                }
+            } finally {
+                syncLock.unlock();
+            }
+
+            // All the records up to this one are either in the current segment
+            // or in the previous ones, which were forced when rolling over
+            long sequence = writtenSequence;
+            segment.force();
+
+            syncLock.lock();
+            try {
+                durableSequence = sequence;
+                syncCompleted.signalAll();
+            } finally {
+                syncLock.unlock();
+            }
+            completeDurableWaiters();
+        }
+    }
+
+    @Override
+    public void replay(JournalRecordHandler handler) throws IOException {
+        long previousSequence = 0L;
+        List<Path> segmentPaths = listSegments();
+        for (int i = 0; i < segmentPaths.size(); i++) {
+            Path segmentPath = segmentPaths.get(i);
+            ByteBuffer buffer = mapReadOnly(segmentPath);
+
+            JournalSegmentReader reader = new JournalSegmentReader(buffer,
+                    Math.max(previousSequence, firstSequenceOf(segmentPath) - 1));
+            reader.read(handler);
+
+            if (reader.isInvalidRecordFound() && i < segmentPaths.size() - 1) {
+                String errorMessage = "Corrupted journal segment: " + segmentPath;
+                log.error(errorMessage);
+                throw new IOException(errorMessage);
+            }
+            previousSequence = reader.getLastSequence();
+        }
+        log.info("The journal has been replayed up to sequence number {}", previousSequence);
+    }
+
+    @Override
+    public void truncateBefore(long sequence) throws IOException {
+        List<Path> segmentPaths = listSegments();
+        // The last segment is never deleted, we are still appending to it
+        for (int i = 0; i < segmentPaths.size() - 1; i++) {
+            if (firstSequenceOf(segmentPaths.get(i + 1)) > sequence) {
+                break;
+            }
+            Files.delete(segmentPaths.get(i));
+            log.debug("Journal segment {} has been deleted", segmentPaths.get(i));
+        }
+    }
+
+    private void openLastSegment() throws IOException {
+        List<Path> segmentPaths = listSegments();
+        if (segmentPaths.isEmpty()) {
+            lastSequence = 0L;
+            segment = mapSegment(segmentPath(1L), 0);
+            return;
+        }
+
+        Path lastSegmentPath = segmentPaths.get(segmentPaths.size() - 1);
+        JournalSegmentReader reader = new JournalSegmentReader(mapReadOnly(lastSegmentPath),
+                firstSequenceOf(lastSegmentPath) - 1);
+        reader.read(null);
+
+        if (reader.isInvalidRecordFound()) {
+            log.warn("Journal segment {} ends with a partially written record, it will be overwritten",
+                    lastSegmentPath);
+        }
+
+        lastSequence = reader.getLastSequence();
+        segment = mapSegment(lastSegmentPath, reader.getPosition());
+    }
+
+    private MappedByteBuffer mapSegment(Path segmentPath, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.position(position);
+            return buffer;
+        }
+    }
+
+    private ByteBuffer mapReadOnly(Path segmentPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    List<Path> listSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            List<Path> segmentPaths = paths.filter(path -> {
+                String fileName = path.getFileName().toString();
+                return fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toCollection(ArrayList::new));
+            return segmentPaths;
+        }
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    static long firstSequenceOf(Path segmentPath) {
+        String fileName = segmentPath.getFileName().toString();
+        return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            segment.force();
+            durableSequence = writtenSequence;
+
+            syncLock.lock();
+            try {
+                running = false;
+                syncRequested.signalAll();
+                syncCompleted.signalAll();
+            } finally {
+                syncLock.unlock();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (syncThread != null) {
+            try {
+                syncThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // All the records have been forced above, the futures of any later
+        // sequence number would never be completed
+        completeDurableWaiters();
+        failDurableWaiters();
+        log.info("Journal closed, last sequence number: {}", lastSequence);
+    }
+
+    @Override
+    public long getLastSequence() {
+        appendLock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private static class DurableWaiter implements Comparable<DurableWaiter> {
+        private final long sequence;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private DurableWaiter(long sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(DurableWaiter other) {
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
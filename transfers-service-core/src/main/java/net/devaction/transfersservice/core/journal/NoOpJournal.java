@@ -0,0 +1,56 @@
+package net.devaction.transfersservice.core.journal;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+/**
+ * Used when the journal is disabled, the state of the service is lost on restart.
+ */
+public class NoOpJournal implements Journal {
+
+    @Override
+    public long appendAccountOpened(String accountId, String currency) {
+        return 0L;
+    }
+
+    @Override
+    public long appendAccountClosed(String accountId) {
+        return 0L;
+    }
+
+    @Override
+    public long appendTransfer(JournalRecordType type, Transfer transfer) {
+        return 0L;
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        // Nothing to wait for
+    }
+
+    @Override
+    public CompletableFuture<Void> whenDurable(long sequence) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void replay(JournalRecordHandler handler) {
+        // Nothing to replay
+    }
+
+    @Override
+    public long getLastSequence() {
+        return 0L;
+    }
+
+    @Override
+    public void truncateBefore(long sequence) {
+        // Nothing to delete
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,91 @@
+package net.devaction.transfersservice.core.metrics;
+
+import net.devaction.transfersservice.core.account.AccountCounters;
+
+/**
+ * One "LatencyRecorder" per stage. They are exposed as Prometheus summaries
+ * (some quantiles, the sum and the count, in seconds) along with the counters
+ * of the contention on the accounts (see "AccountCounters").
+ *
+ * One in "samplingInterval" transfers is sampled (a power of two, 1 samples all
+ * of them), picked by a hash of the transfer id. The exposed sum and count are
+ * scaled up accordingly, hence they are estimates of the totals.
+ */
+public class HistogramTransferMetrics implements TransferMetrics {
+
+    public static final int DEFAULT_SAMPLING_INTERVAL = 16;
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final int samplingInterval;
+    private final long samplingMask;
+    private final LatencyRecorder[] recorders = new LatencyRecorder[STAGES.length];
+
+    public HistogramTransferMetrics() {
+        this(DEFAULT_SAMPLING_INTERVAL);
+    }
+
+    public HistogramTransferMetrics(int samplingInterval) {
+        if (samplingInterval < 1 || Integer.bitCount(samplingInterval) != 1) {
+            throw new IllegalArgumentException("The sampling interval must be a power of two: "
+                    + samplingInterval);
+        }
+
+        this.samplingInterval = samplingInterval;
+        this.samplingMask = samplingInterval - 1L;
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new LatencyRecorder();
+        }
+    }
+
+    @Override
+    public boolean isSampled(long transferId) {
+        // The ids are random but a client could send consecutive ones, the high bits are mixed
+        return (((transferId * 0x9E3779B97F4A7C15L) >>> 40) & samplingMask) == 0L;
+    }
+
+    @Override
+    public void record(Stage stage, long nanos) {
+        recorders[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyRecorder.Snapshot getSnapshot(Stage stage) {
+        return recorders[stage.ordinal()].getSnapshot();
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder builder) {
+        String name = "transfers_stage_latency_seconds";
+        builder.append("# HELP ").append(name).append(" Latency of each stage of the processing of a transfer\n");
+        builder.append("# TYPE ").append(name).append(" summary\n");
+        for (Stage stage : STAGES) {
+            LatencyRecorder.Snapshot snapshot = getSnapshot(stage);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                builder.append(name).append("{stage=\"").append(stage.getLabel()).append("\",quantile=\"")
+                        .append(QUANTILE_LABELS[i]).append("\"} ")
+                        .append(snapshot.getValueAtPercentile(QUANTILES[i] * 100.0) / NANOS_PER_SECOND).append('\n');
+            }
+            builder.append(name).append("_sum{stage=\"").append(stage.getLabel()).append("\"} ")
+                    .append(snapshot.getSum() * samplingInterval / NANOS_PER_SECOND).append('\n');
+            builder.append(name).append("_count{stage=\"").append(stage.getLabel()).append("\"} ")
+                    .append(snapshot.getCount() * samplingInterval).append('\n');
+        }
+
+        writeCounter(builder, "transfers_account_lock_spins_total",
+                "Failed attempts to take an account lock while spinning", AccountCounters.getNumOfLockSpins());
+        writeCounter(builder, "transfers_account_lock_waits_total",
+                "Threads which had to wait in the queue of an account lock", AccountCounters.getNumOfLockWaits());
+        writeCounter(builder, "transfers_account_write_lock_timeouts_total",
+                "Account updates which timed out waiting for the write lock",
+                AccountCounters.getNumOfWriteLockTimeouts());
+    }
+
+    private static void writeCounter(StringBuilder builder, String name, String help, long value) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(" counter\n");
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,101 @@
+package net.devaction.transfersservice.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with the same bucket layout as
+ * HdrHistogram: every power of two range is split into 32 linear sub-buckets,
+ * hence any value is recorded with a relative error below ~3% (the values below
+ * 64 ns are exact) and 1024 buckets cover up to ~68 seconds, bigger values are
+ * recorded as the maximum.
+ *
+ * Recording a value does not allocate anything nor take any lock: the index of
+ * the bucket is computed with a few bit operations and its counter is incremented
+ * atomically. The values can be read at any moment, a concurrent reader can miss
+ * the values which are being recorded at that time.
+ */
+public class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 30;
+    static final int NUM_OF_BUCKETS = (MAX_SHIFT + 2) << SUB_BUCKET_BITS;
+    static final long MAX_VALUE = (2L * SUB_BUCKET_COUNT << MAX_SHIFT) - 1L;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_OF_BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = nanos < 0L ? 0L : Math.min(nanos, MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public Snapshot getSnapshot() {
+        long[] snapshotCounts = new long[NUM_OF_BUCKETS];
+        long count = 0L;
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, sum.sum(), max.get());
+    }
+
+    static int bucketIndex(long value) {
+        // The values below 2 * SUB_BUCKET_COUNT get a bucket each
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    // Highest value which is recorded in the given bucket
+    static long highestValue(int bucketIndex) {
+        int shift = Math.max(0, (bucketIndex >> SUB_BUCKET_BITS) - 1);
+        long lowestValue = (long) (bucketIndex - (shift << SUB_BUCKET_BITS)) << shift;
+        return lowestValue + (1L << shift) - 1L;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        // The highest value of the bucket which contains the percentile, 0 when it is empty
+        public long getValueAtPercentile(double percentile) {
+            long target = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long accumulated = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                accumulated += counts[i];
+                if (accumulated >= target) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return 0L;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package net.devaction.transfersservice.core.metrics;
+
+/**
+ * Used when the metrics are disabled, nothing is recorded nor exposed.
+ */
+public class NoOpTransferMetrics implements TransferMetrics {
+
+    @Override
+    public boolean isSampled(long transferId) {
+        return false;
+    }
+
+    @Override
+    public void record(Stage stage, long nanos) {
+        // Nothing to do
+    }
+
+    @Override
+    public void writePrometheus(StringBuilder builder) {
+        // Nothing to do
+    }
+}
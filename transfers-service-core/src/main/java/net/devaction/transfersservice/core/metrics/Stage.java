@@ -0,0 +1,32 @@
+package net.devaction.transfersservice.core.metrics;
+
+/**
+ * Stages of the processing of a single transfer whose latency is recorded,
+ * see "TransferMetrics".
+ */
+public enum Stage {
+    // "TransferChecker.checkTransfer"
+    VALIDATION("validation"),
+    // Looking up the accounts, see "TransferResolver"
+    LOOKUP("lookup"),
+    // Waiting for the account lock(s)
+    LOCK("lock"),
+    // Updating the account(s) and appending the journal record, the locks are held
+    APPLY("apply"),
+    // Waiting for the journal record to be durable
+    JOURNAL("journal"),
+    // Writing the HTTP response
+    SERIALIZATION("serialization"),
+    // From the validation to the journal, both included
+    TOTAL("total");
+
+    private final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
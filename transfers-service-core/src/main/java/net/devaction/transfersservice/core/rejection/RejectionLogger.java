@@ -0,0 +1,67 @@
+package net.devaction.transfersservice.core.rejection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+/**
+ * Logs the exceptions which made a request fail. The rejections (see "RejectedRequestException")
+ * are logged as warnings without stack trace, up to a maximum per interval, the number of
+ * rejections which were not logged is reported by the first rejection of a later interval. Any other
+ * exception is unexpected and it is always logged as an error with its stack trace.
+ */
+public class RejectionLogger {
+
+    public static final int DEFAULT_MAX_PER_INTERVAL = 10;
+    public static final long DEFAULT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    private final Logger log;
+    private final int maxPerInterval;
+    private final long intervalNanos;
+
+    private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger numOfLogged = new AtomicInteger();
+    private final AtomicLong numOfSkipped = new AtomicLong();
+
+    public RejectionLogger(Logger log) {
+        this(log, DEFAULT_MAX_PER_INTERVAL, DEFAULT_INTERVAL_NANOS);
+    }
+
+    public RejectionLogger(Logger log, int maxPerInterval, long intervalNanos) {
+        this.log = log;
+        this.maxPerInterval = maxPerInterval;
+        this.intervalNanos = intervalNanos;
+    }
+
+    // It returns false when the rejection has not been logged because of the limit
+    public boolean log(Exception ex) {
+        if (!(ex instanceof RejectedRequestException)) {
+            // In case it is a runtime exception which has not been logged yet
+            log.error("{}", ex, ex);
+            return true;
+        }
+
+        long now = System.nanoTime();
+        long start = intervalStart.get();
+        // Only one thread starts the new interval, the counts of the others may be slightly off
+        if (now - start >= intervalNanos && intervalStart.compareAndSet(start, now)) {
+            numOfLogged.set(0);
+            long skipped = numOfSkipped.getAndSet(0L);
+            if (skipped > 0L) {
+                log.warn("{} more requests were rejected in the previous {} ms", skipped,
+                        TimeUnit.NANOSECONDS.toMillis(now - start));
+            }
+        }
+
+        if (numOfLogged.get() >= maxPerInterval || numOfLogged.incrementAndGet() > maxPerInterval) {
+            numOfSkipped.incrementAndGet();
+            return false;
+        }
+        log.warn("Request rejected: {}", ex.toString());
+        return true;
+    }
+}
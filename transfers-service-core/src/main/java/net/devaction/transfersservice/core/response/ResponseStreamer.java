@@ -0,0 +1,161 @@
+package net.devaction.transfersservice.core.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.balance.Balance;
+import net.devaction.transfersservice.core.account.HotAccount;
+import net.devaction.transfersservice.core.transfersmanager.TransferResult;
+
+import static net.devaction.transfersservice.core.response.Status.ERROR;
+import static net.devaction.transfersservice.core.response.Status.SUCCESS;
+
+/**
+ * Writes the responses straight to the HTTP output stream by means of a
+ * "JsonGenerator", instead of building a "Response" (whose data is a "JsonNode"
+ * tree) and then a String with its JSON. The JSON is the same, see "Response".
+ */
+public class ResponseStreamer {
+
+    private static final String NOT_APPLICABLE = "N/A";
+
+    // It is thread-safe, the generators reuse their buffers (per thread)
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public void writeSuccess(OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = createGenerator(outputStream)) {
+            writeStart(generator, SUCCESS, NOT_APPLICABLE);
+            generator.writeStartObject();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    public void writeError(OutputStream outputStream, String errorMessage) throws IOException {
+        try (JsonGenerator generator = createGenerator(outputStream)) {
+            writeStart(generator, ERROR, errorMessage);
+            generator.writeStartObject();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    public void writeSuccess(OutputStream outputStream, Balance balance) throws IOException {
+        try (JsonGenerator generator = createGenerator(outputStream)) {
+            writeStart(generator, SUCCESS, NOT_APPLICABLE);
+            generator.writeStartObject();
+            generator.writeStringField("accountId", balance.getAccountId());
+            generator.writeNumberField("amount", balance.getAmount());
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    public void writeSuccess(OutputStream outputStream, Collection<String> accountIds) throws IOException {
+        try (JsonGenerator generator = createGenerator(outputStream)) {
+            writeStart(generator, SUCCESS, NOT_APPLICABLE);
+            generator.writeStartArray();
+            for (String accountId : accountIds) {
+                generator.writeString(accountId);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    public void writeSuccess(OutputStream outputStream, AccountInfo accountInfo) throws IOException {
+        try (JsonGenerator generator = createGenerator(outputStream)) {
+            writeStart(generator, SUCCESS, NOT_APPLICABLE);
+            generator.writeStartObject();
+            generator.writeStringField("accountId", accountInfo.getAccountId());
+            generator.writeStringField("currency", accountInfo.getCurrency());
+            generator.writeNumberField("balance", accountInfo.getBalance());
+
+            generator.writeArrayFieldStart("history");
+            List<AccountHistoryItem> history = accountInfo.getHistory();
+            for (int i = 0; i < history.size(); i++) {
+                AccountHistoryItem item = history.get(i);
+                generator.writeStartObject();
+                generator.writeStringField("counterpartyAccountId", item.getCounterpartyAccountId());
+                generator.writeStringField("transferId", item.getTransferId());
+                generator.writeNumberField("amount", item.getAmount());
+                generator.writeStringField("direction", item.getDirection().name());
+                generator.writeNumberField("timestamp", item.getTimestamp());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            if (accountInfo.getNextCursor() != null) {
+                generator.writeStringField("nextCursor", accountInfo.getNextCursor());
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    // The status of each transfer of a batch, in the same order
+    public void writeSuccess(OutputStream outputStream, List<TransferResult> transferResults) throws IOException {
+        try (JsonGenerator generator = createGenerator(outputStream)) {
+            writeStart(generator, SUCCESS, NOT_APPLICABLE);
+            generator.writeStartArray();
+            for (int i = 0; i < transferResults.size(); i++) {
+                TransferResult transferResult = transferResults.get(i);
+                generator.writeStartObject();
+                generator.writeStringField("transfer_id", transferResult.getTransferId());
+                if (transferResult.isSuccess()) {
+                    generator.writeStringField("status", SUCCESS.name());
+                    generator.writeStringField("error_message", NOT_APPLICABLE);
+                } else {
+                    generator.writeStringField("status", ERROR.name());
+                    generator.writeStringField("error_message", transferResult.getException().toString());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    // It cannot be another "writeSuccess", its erasure would clash with the one of the batches
+    public void writeHotAccounts(OutputStream outputStream, List<HotAccount> hotAccounts) throws IOException {
+        try (JsonGenerator generator = createGenerator(outputStream)) {
+            writeStart(generator, SUCCESS, NOT_APPLICABLE);
+            generator.writeStartArray();
+            for (int i = 0; i < hotAccounts.size(); i++) {
+                HotAccount hotAccount = hotAccounts.get(i);
+                generator.writeStartObject();
+                generator.writeStringField("accountId", hotAccount.getAccountId());
+                generator.writeNumberField("contentions", hotAccount.getContentions());
+                generator.writeNumberField("overestimation", hotAccount.getOverestimation());
+                generator.writeNumberField("waitNanos", hotAccount.getWaitNanos());
+                generator.writeNumberField("spins", hotAccount.getSpins());
+                generator.writeNumberField("timeouts", hotAccount.getTimeouts());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private JsonGenerator createGenerator(OutputStream outputStream) throws IOException {
+        // The output stream is closed by the HTTP server
+        return jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    // It leaves the generator ready to write the value of the "data" field
+    private static void writeStart(JsonGenerator generator, Status status, String errorMessage) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("status", status.name());
+        generator.writeStringField("error_message", errorMessage);
+        generator.writeFieldName("data");
+    }
+}
@@ -0,0 +1,189 @@
+package net.devaction.transfersservice.core.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.UnableToObtainMutexException;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+import net.devaction.transfersservice.core.journal.Journal;
+
+/**
+ * The snapshots are stored in a directory, the name of each one contains the
+ * journal sequence number when it was started. The two most recent snapshots
+ * are kept, and so are the journal records since the older of them was started:
+ * - the latest snapshot can be corrupted, then the previous one is loaded
+ * - an internal transfer processed by the sharded engine can be in the middle
+ *   of its two steps when a snapshot is started, the replayer needs to see
+ *   both records to know whether the source account has to be refunded
+ */
+public class FileSnapshotManager implements SnapshotManager {
+    private static final Logger log = LoggerFactory.getLogger(FileSnapshotManager.class);
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int NUM_OF_SNAPSHOTS_TO_KEEP = 2;
+
+    private final AccountRegistry accountRegistry;
+    private final Journal journal;
+    private final Path directory;
+    private final long intervalInSeconds;
+
+    private final SnapshotWriter writer;
+    private final SnapshotReader reader;
+
+    private ScheduledExecutorService executor;
+
+    public FileSnapshotManager(AccountRegistry accountRegistry, AccountLockManager accountLockManager,
+            Journal journal, Path directory, long intervalInSeconds) throws IOException {
+
+        this(accountRegistry, accountLockManager, journal, directory, intervalInSeconds, new NoOpHistoryArchive());
+    }
+
+    public FileSnapshotManager(AccountRegistry accountRegistry, AccountLockManager accountLockManager,
+            Journal journal, Path directory, long intervalInSeconds, HistoryArchive historyArchive)
+            throws IOException {
+
+        this.accountRegistry = accountRegistry;
+        this.journal = journal;
+        this.directory = directory;
+        this.intervalInSeconds = intervalInSeconds;
+
+        writer = new SnapshotWriter(accountRegistry, accountLockManager);
+        reader = new SnapshotReader(historyArchive);
+        Files.createDirectories(directory);
+    }
+
+    @Override
+    public boolean loadLatest() throws IOException {
+        List<Path> snapshotPaths = listSnapshots();
+        if (snapshotPaths.isEmpty()) {
+            log.info("There is no snapshot to load in {}", directory);
+            return false;
+        }
+
+        for (int i = snapshotPaths.size() - 1; i >= 0; i--) {
+            Path snapshotPath = snapshotPaths.get(i);
+            long start = System.nanoTime();
+            try {
+                reader.read(snapshotPath, accountRegistry);
+                log.info("Snapshot {} has been loaded in {} ms, number of accounts: {}", snapshotPath,
+                        (System.nanoTime() - start) / 1000000L, accountRegistry.size());
+                return true;
+            } catch (IOException ex) {
+                log.error("Unable to load snapshot {}, going to try the previous one", snapshotPath, ex);
+                accountRegistry.clear();
+            }
+        }
+
+        // The journal records older than the snapshots may have been
+        // deleted already, we cannot rebuild the accounts
+        String errorMessage = "None of the snapshots in " + directory + " can be loaded";
+        log.error(errorMessage);
+        throw new IOException(errorMessage);
+    }
+
+    @Override
+    public synchronized void takeSnapshot() throws IOException, UnableToObtainMutexException {
+        // Every record up to this one has already been applied to the accounts
+        long startSequence = journal.getLastSequence();
+        Path snapshotPath = snapshotPath(startSequence);
+        Path temporaryPath = directory.resolve(snapshotPath.getFileName() + TEMPORARY_SUFFIX);
+
+        long start = System.nanoTime();
+        int numOfAccounts = writer.write(temporaryPath, startSequence);
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        log.info("Snapshot {} has been taken in {} ms, number of accounts: {}", snapshotPath,
+                (System.nanoTime() - start) / 1000000L, numOfAccounts);
+
+        deleteOldSnapshotsAndJournalRecords();
+    }
+
+    private void deleteOldSnapshotsAndJournalRecords() throws IOException {
+        List<Path> snapshotPaths = listSnapshots();
+        if (snapshotPaths.size() < NUM_OF_SNAPSHOTS_TO_KEEP) {
+            return;
+        }
+
+        int firstToKeep = snapshotPaths.size() - NUM_OF_SNAPSHOTS_TO_KEEP;
+        for (int i = 0; i < firstToKeep; i++) {
+            Files.delete(snapshotPaths.get(i));
+            log.debug("Snapshot {} has been deleted", snapshotPaths.get(i));
+        }
+
+        journal.truncateBefore(startSequenceOf(snapshotPaths.get(firstToKeep)));
+    }
+
+    @Override
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (Exception ex) {
+                log.error("Unable to take a snapshot in {}", directory, ex);
+            }
+        }, intervalInSeconds, intervalInSeconds, TimeUnit.SECONDS);
+
+        log.info("A snapshot will be taken every {} seconds in {}", intervalInSeconds, directory);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    List<Path> listSnapshots() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> {
+                String fileName = path.getFileName().toString();
+                return fileName.startsWith(SNAPSHOT_PREFIX) && fileName.endsWith(SNAPSHOT_SUFFIX);
+            }).sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private Path snapshotPath(long startSequence) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, startSequence, SNAPSHOT_SUFFIX));
+    }
+
+    static long startSequenceOf(Path snapshotPath) {
+        String fileName = snapshotPath.getFileName().toString();
+        return Long.parseLong(fileName.substring(SNAPSHOT_PREFIX.length(),
+                fileName.length() - SNAPSHOT_SUFFIX.length()));
+    }
+}
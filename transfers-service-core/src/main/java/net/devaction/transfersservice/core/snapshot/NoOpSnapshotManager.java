@@ -0,0 +1,28 @@
+package net.devaction.transfersservice.core.snapshot;
+
+/**
+ * Used when the journal is disabled, a snapshot on its own would lose
+ * every change made after it.
+ */
+public class NoOpSnapshotManager implements SnapshotManager {
+
+    @Override
+    public boolean loadLatest() {
+        return false;
+    }
+
+    @Override
+    public void takeSnapshot() {
+        // Nothing to take
+    }
+
+    @Override
+    public void start() {
+        // Nothing to start
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
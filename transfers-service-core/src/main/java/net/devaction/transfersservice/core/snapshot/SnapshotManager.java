@@ -0,0 +1,23 @@
+package net.devaction.transfersservice.core.snapshot;
+
+import java.io.IOException;
+
+import net.devaction.transfersservice.core.account.UnableToObtainMutexException;
+
+/**
+ * Periodic snapshots of all the accounts, on startup the latest snapshot
+ * is loaded and then only the journal records appended after it need to be
+ * applied (see "JournalReplayer").
+ */
+public interface SnapshotManager {
+
+    // It returns false when there is no snapshot to load
+    public boolean loadLatest() throws IOException;
+
+    public void takeSnapshot() throws IOException, UnableToObtainMutexException;
+
+    // It starts taking snapshots in the background
+    public void start();
+
+    public void close();
+}
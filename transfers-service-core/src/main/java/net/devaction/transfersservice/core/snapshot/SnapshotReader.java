@@ -0,0 +1,237 @@
+package net.devaction.transfersservice.core.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+
+/**
+ * Loads a snapshot written by "SnapshotWriter". Each chunk is memory-mapped
+ * and decoded independently, in parallel, straight into the account map.
+ */
+public class SnapshotReader {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotReader.class);
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // The old items of the histories are moved to it while they are loaded
+    private final HistoryArchive historyArchive;
+
+    public SnapshotReader() {
+        this(new NoOpHistoryArchive());
+    }
+
+    public SnapshotReader(HistoryArchive historyArchive) {
+        this.historyArchive = historyArchive;
+    }
+
+    // It returns the journal sequence number when the snapshot was started
+    public long read(Path path, AccountRegistry accountRegistry) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SnapshotWriter.TRAILER_SIZE) {
+                throw corrupted(path, "too small");
+            }
+
+            ByteBuffer trailer = readFully(channel, size - SnapshotWriter.TRAILER_SIZE, SnapshotWriter.TRAILER_SIZE);
+            if (trailer.getInt() != SnapshotWriter.MAGIC) {
+                throw corrupted(path, "wrong magic number");
+            }
+            int version = trailer.getInt();
+            if (version != SnapshotWriter.VERSION && version != 1) {
+                throw corrupted(path, "unsupported version " + version);
+            }
+            long startSequence = trailer.getLong();
+            long chunkTableOffset = trailer.getLong();
+            int numOfChunks = trailer.getInt();
+            int chunkTableCrc = trailer.getInt();
+
+            if (chunkTableOffset < 0 || numOfChunks < 0 || chunkTableOffset
+                    + (long) numOfChunks * SnapshotWriter.CHUNK_TABLE_ENTRY_SIZE != size - SnapshotWriter.TRAILER_SIZE) {
+                throw corrupted(path, "wrong chunk table location");
+            }
+
+            ByteBuffer table = readFully(channel, chunkTableOffset, numOfChunks * SnapshotWriter.CHUNK_TABLE_ENTRY_SIZE);
+            if (crc(table) != chunkTableCrc) {
+                throw corrupted(path, "wrong chunk table checksum");
+            }
+
+            List<ChunkEntry> chunks = new ArrayList<>(numOfChunks);
+            for (int i = 0; i < numOfChunks; i++) {
+                chunks.add(new ChunkEntry(table.getLong(), table.getInt(), table.getInt(), table.getInt()));
+            }
+
+            try {
+                IntStream.range(0, numOfChunks).parallel().forEach(i -> {
+                    try {
+                        readChunk(channel, path, version, chunks.get(i), accountRegistry);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+
+            log.debug("Snapshot {} has been read, number of chunks: {}", path, numOfChunks);
+            return startSequence;
+        }
+    }
+
+    private void readChunk(FileChannel channel, Path path, int version, ChunkEntry entry,
+            AccountRegistry accountRegistry) throws IOException {
+
+        ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+        if (crc(chunk) != entry.crc) {
+            throw corrupted(path, "wrong checksum of the chunk at offset " + entry.offset);
+        }
+
+        StringCache counterpartyIds = new StringCache();
+        for (int i = 0; i < entry.numOfAccounts; i++) {
+            String id = readString(chunk);
+            String currency = readString(chunk);
+            long balance = chunk.getLong();
+            long journalSequence = chunk.getLong();
+
+            AccountHistory history = version == 1 ? readVersion1History(chunk, counterpartyIds)
+                    : readHistory(chunk, counterpartyIds);
+            accountRegistry.put(new Account(id, currency, balance, history, journalSequence));
+        }
+    }
+
+    private AccountHistory readHistory(ByteBuffer chunk, StringCache counterpartyIds) {
+        int dictionarySize = chunk.getInt();
+        String[] dictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionary[i] = counterpartyIds.read(chunk);
+        }
+
+        int numOfItems = chunk.getInt();
+        AccountHistory history = new AccountHistory(numOfItems, historyArchive);
+        for (String entry : dictionary) {
+            history.addDictionaryEntry(entry);
+        }
+        for (int i = 0; i < numOfItems; i++) {
+            history.add(chunk.getLong(), chunk.getInt(), chunk.getLong(), chunk.get(), chunk.getLong());
+        }
+        return history;
+    }
+
+    private AccountHistory readVersion1History(ByteBuffer chunk, StringCache counterpartyIds) {
+        AccountHistory history = new AccountHistory(historyArchive);
+
+        int numOfItems = chunk.getInt();
+        for (int i = 0; i < numOfItems; i++) {
+            String transferId = readString(chunk);
+            String counterpartyAccountId = counterpartyIds.read(chunk);
+            long amount = chunk.getLong();
+            Direction direction = DIRECTIONS[chunk.get()];
+            long timestamp = chunk.getLong();
+            history.add(transferId, counterpartyAccountId, amount, direction, timestamp);
+        }
+        return history;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static IOException corrupted(Path path, String reason) {
+        String errorMessage = "Corrupted snapshot " + path + ": " + reason;
+        log.error(errorMessage);
+        return new IOException(errorMessage);
+    }
+
+    // The same counterparty ids appear over and over again, reusing the String
+    // objects means much less garbage (and GC time) while loading the snapshot
+    private static class StringCache {
+        private static final int SIZE = 16384;
+
+        private final byte[][] keys = new byte[SIZE][];
+        private final String[] values = new String[SIZE];
+
+        String read(ByteBuffer buffer) {
+            int length = buffer.getShort();
+            int position = buffer.position();
+
+            int hash = length;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + buffer.get(position + i);
+            }
+            int index = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+            byte[] key = keys[index];
+            if (key != null && key.length == length && matches(buffer, position, key)) {
+                buffer.position(position + length);
+                return values[index];
+            }
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            keys[index] = bytes;
+            values[index] = value;
+            return value;
+        }
+
+        private static boolean matches(ByteBuffer buffer, int position, byte[] key) {
+            for (int i = 0; i < key.length; i++) {
+                if (buffer.get(position + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class ChunkEntry {
+        private final long offset;
+        private final int length;
+        private final int numOfAccounts;
+        private final int crc;
+
+        ChunkEntry(long offset, int length, int numOfAccounts, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.numOfAccounts = numOfAccounts;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package net.devaction.transfersservice.core.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountMutex;
+import net.devaction.transfersservice.core.account.UnableToObtainMutexException;
+
+/**
+ * Writes a binary snapshot of all the accounts. The balance and the size of the
+ * history of each account are captured while holding its lock, so the transfers
+ * keep being processed while the snapshot is being taken (only the account being
+ * captured is blocked, for a moment). The history is append-only so its items
+ * are written afterwards, without holding the lock and without copying them.
+ *
+ * File format:
+ * - chunks: each one contains up to ~1 MB of consecutive account records
+ * - chunk table: offset (long), length (int), number of accounts (int) and
+ *   CRC32C (int) of each chunk
+ * - trailer (fixed size): magic number (int), version (int), journal sequence
+ *   number when the snapshot was started (long), offset of the chunk table (long),
+ *   number of chunks (int) and CRC32C of the chunk table (int)
+ *
+ * Account record: id, currency, balance (long), journal sequence number (long),
+ * number of dictionary entries (int), the dictionary entries, number of history
+ * items (int) and the history items (encoded transfer id (long), dictionary index
+ * of the counterparty account id (int), amount (long), direction (byte) and
+ * timestamp (long)), see "AccountHistory" for the encoding.
+ * Strings are stored as their length (short) followed by their UTF-8 bytes.
+ *
+ * Version 1 stored the history items as strings, without any dictionary.
+ *
+ * The chunks are independent of each other so they can be loaded in parallel,
+ * see "SnapshotReader".
+ */
+public class SnapshotWriter {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotWriter.class);
+
+    static final int MAGIC = 0x54534e50;
+    static final int VERSION = 2;
+    static final int TRAILER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES;
+    static final int CHUNK_TABLE_ENTRY_SIZE = Long.BYTES + 3 * Integer.BYTES;
+
+    static final int HISTORY_ITEM_SIZE = 3 * Long.BYTES + Integer.BYTES + 1;
+
+    private static final int CHUNK_TARGET_SIZE = 1024 * 1024;
+    private static final int INITIAL_CHUNK_CAPACITY = 2 * CHUNK_TARGET_SIZE;
+    // The length of a chunk is stored as an int and a chunk is read as a single buffer
+    private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE - 8;
+
+    private final AccountRegistry accountRegistry;
+    private final AccountLockManager accountLockManager;
+
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer chunk = ByteBuffer.allocate(INITIAL_CHUNK_CAPACITY);
+
+    public SnapshotWriter(AccountRegistry accountRegistry, AccountLockManager accountLockManager) {
+        this.accountRegistry = accountRegistry;
+        this.accountLockManager = accountLockManager;
+    }
+
+    // It returns the number of accounts which have been written
+    public int write(Path path, long startSequence) throws IOException, UnableToObtainMutexException {
+        List<long[]> chunkTable = new ArrayList<>();
+        int numOfAccounts = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            chunk.clear();
+            int numOfAccountsInChunk = 0;
+
+            for (Account account : accountRegistry) {
+                if (!writeAccount(account)) {
+                    continue;
+                }
+                numOfAccounts++;
+                numOfAccountsInChunk++;
+
+                if (chunk.position() >= CHUNK_TARGET_SIZE) {
+                    chunkTable.add(flushChunk(channel, numOfAccountsInChunk));
+                    numOfAccountsInChunk = 0;
+                }
+            }
+            if (numOfAccountsInChunk > 0) {
+                chunkTable.add(flushChunk(channel, numOfAccountsInChunk));
+            }
+
+            writeChunkTableAndTrailer(channel, chunkTable, startSequence);
+            channel.force(true);
+        }
+
+        log.debug("Snapshot {} has been written, number of accounts: {}, number of chunks: {}",
+                path, numOfAccounts, chunkTable.size());
+        return numOfAccounts;
+    }
+
+    // It returns false when the account has been closed
+    private boolean writeAccount(Account account) throws IOException, UnableToObtainMutexException {
+        long balance;
+        long journalSequence;
+        int historySize;
+        AccountHistory history;
+
+        AccountMutex mutex = accountLockManager.lock(account);
+        try {
+            if (mutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
+                return false;
+            }
+            // The history of an off-heap account is only created along with its first item
+            history = account.getHistory();
+            balance = account.getBalance();
+            journalSequence = account.getJournalSequence();
+            historySize = history.size();
+        } finally {
+            accountLockManager.unlock(account);
+        }
+
+        putString(account.getId());
+        putString(account.getCurrency());
+        ensureCapacity(2 * Long.BYTES + Integer.BYTES);
+        chunk.putLong(balance);
+        chunk.putLong(journalSequence);
+
+        // It covers (at least) all the entries used by the first "historySize" items
+        int dictionarySize = history.getDictionarySize();
+        chunk.putInt(dictionarySize);
+        for (int i = 0; i < dictionarySize; i++) {
+            putString(history.getDictionaryEntry(i));
+        }
+
+        long historyBytes = Integer.BYTES + (long) historySize * HISTORY_ITEM_SIZE;
+        if (chunk.position() + historyBytes > MAX_CHUNK_SIZE) {
+            String errorMessage = "The history of account " + account.getId() + " is too long to be stored "
+                    + "in a snapshot, number of items: " + historySize;
+            log.error(errorMessage);
+            throw new IOException(errorMessage);
+        }
+        ensureCapacity((int) historyBytes);
+        chunk.putInt(historySize);
+        for (int i = 0; i < historySize; i++) {
+            chunk.putLong(history.getEncodedTransferId(i));
+            chunk.putInt(history.getCounterpartyIndex(i));
+            chunk.putLong(history.getAmount(i));
+            chunk.put(history.getDirectionCode(i));
+            chunk.putLong(history.getTimestamp(i));
+        }
+        return true;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Value too long to be stored in a snapshot: " + value);
+        }
+        ensureCapacity(Short.BYTES + bytes.length);
+        chunk.putShort((short) bytes.length);
+        chunk.put(bytes);
+    }
+
+    // A single account with a very long history can exceed the chunk target size
+    private void ensureCapacity(int numOfBytes) {
+        if (chunk.remaining() >= numOfBytes) {
+            return;
+        }
+        long capacity = Math.max(2L * chunk.capacity(), (long) chunk.position() + numOfBytes);
+        ByteBuffer biggerChunk = ByteBuffer.allocate((int) Math.min(capacity, MAX_CHUNK_SIZE));
+        chunk.flip();
+        biggerChunk.put(chunk);
+        chunk = biggerChunk;
+    }
+
+    private long[] flushChunk(FileChannel channel, int numOfAccountsInChunk) throws IOException {
+        long offset = channel.position();
+
+        chunk.flip();
+        crc.reset();
+        crc.update(chunk.duplicate());
+        int length = chunk.remaining();
+        writeFully(channel, chunk);
+        // The chunk of an account with a very long history is not kept until the next snapshot
+        if (chunk.capacity() > INITIAL_CHUNK_CAPACITY) {
+            chunk = ByteBuffer.allocate(INITIAL_CHUNK_CAPACITY);
+        } else {
+            chunk.clear();
+        }
+
+        return new long[] {offset, length, numOfAccountsInChunk, (int) crc.getValue()};
+    }
+
+    private void writeChunkTableAndTrailer(FileChannel channel, List<long[]> chunkTable, long startSequence)
+            throws IOException {
+
+        long chunkTableOffset = channel.position();
+        ByteBuffer table = ByteBuffer.allocate(chunkTable.size() * CHUNK_TABLE_ENTRY_SIZE);
+        for (long[] entry : chunkTable) {
+            table.putLong(entry[0]);
+            table.putInt((int) entry[1]);
+            table.putInt((int) entry[2]);
+            table.putInt((int) entry[3]);
+        }
+        table.flip();
+        crc.reset();
+        crc.update(table.duplicate());
+        writeFully(channel, table);
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        trailer.putInt(MAGIC);
+        trailer.putInt(VERSION);
+        trailer.putLong(startSequence);
+        trailer.putLong(chunkTableOffset);
+        trailer.putInt(chunkTable.size());
+        trailer.putInt((int) crc.getValue());
+        trailer.flip();
+        writeFully(channel, trailer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package net.devaction.transfersservice.core.transfersmanager;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+public class BatchTooBigException extends RejectedRequestException {
+    private static final long serialVersionUID = 2564938170271946853L;
+
+    public BatchTooBigException(String errorMessage) {
+        super(errorMessage);
+    }
+}
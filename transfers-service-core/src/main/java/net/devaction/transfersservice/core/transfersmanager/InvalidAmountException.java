@@ -1,11 +1,13 @@
 package net.devaction.transfersservice.core.transfersmanager;
 
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
 /**
  * @author Víctor Gil
  *
  * since February 2020
  */
-public class InvalidAmountException extends Exception {
+public class InvalidAmountException extends RejectedRequestException {
     private static final long serialVersionUID = 1359729895168821308L;
 
     InvalidAmountException(String errorMessage) {
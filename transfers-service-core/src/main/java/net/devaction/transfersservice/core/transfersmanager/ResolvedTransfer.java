@@ -0,0 +1,72 @@
+package net.devaction.transfersservice.core.transfersmanager;
+
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.Account;
+
+/**
+ * A transfer whose internal accounts have already been looked up, see
+ * "TransferResolver". The rest of the processing uses these accounts instead
+ * of looking them up again, hence an account which is closed meanwhile is
+ * detected by its lock (see "AccountMutex") instead of not being found.
+ */
+public class ResolvedTransfer {
+
+    private final Transfer transfer;
+
+    // They are null when the account is external
+    private final Account sourceAccount;
+    private final Account targetAccount;
+
+    // Sequence number of the last journal record written while processing the transfer
+    // (the refund of the source account included), only used by the processing thread.
+    // It stays 0 when nothing has been journaled (e.g., a rejected transfer), there is
+    // nothing to wait for
+    private long journalSequence;
+
+    ResolvedTransfer(Transfer transfer, Account sourceAccount, Account targetAccount) {
+        this.transfer = transfer;
+        this.sourceAccount = sourceAccount;
+        this.targetAccount = targetAccount;
+    }
+
+    public boolean isInternal() {
+        return sourceAccount != null && targetAccount != null;
+    }
+
+    // The only internal account of an external transfer
+    public Account getInternalAccount() {
+        return sourceAccount != null ? sourceAccount : targetAccount;
+    }
+
+    // The direction of the transfer for the only internal account of an external transfer
+    public Direction getInternalAccountDirection() {
+        return sourceAccount != null ? Direction.SENT : Direction.RECEIVED;
+    }
+
+    public Transfer getTransfer() {
+        return transfer;
+    }
+
+    public Account getSourceAccount() {
+        return sourceAccount;
+    }
+
+    public Account getTargetAccount() {
+        return targetAccount;
+    }
+
+    long getJournalSequence() {
+        return journalSequence;
+    }
+
+    void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
+    @Override
+    public String toString() {
+        return "ResolvedTransfer [transfer: " + transfer + ", sourceAccount: " + sourceAccount
+                + ", targetAccount: " + targetAccount + "]";
+    }
+}
@@ -0,0 +1,416 @@
+package net.devaction.transfersservice.core.transfersmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+import net.devaction.transfersservice.api.entity.account.Direction;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.AccountMutex;
+import net.devaction.transfersservice.core.account.AmountTooBigException;
+import net.devaction.transfersservice.core.account.NotEnoughBalanceException;
+import net.devaction.transfersservice.core.account.UnableToObtainMutexException;
+import net.devaction.transfersservice.core.accountsmanager.AccountDoesNotExistException;
+import net.devaction.transfersservice.core.accountsmanager.AccountIsAlreadyBeingClosedException;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.JournalRecordType;
+import net.devaction.transfersservice.core.metrics.NoOpTransferMetrics;
+import net.devaction.transfersservice.core.metrics.Stage;
+import net.devaction.transfersservice.core.metrics.TransferMetrics;
+
+/**
+ * Alternative to "TransfersManagerImpl" where the request threads do not update
+ * the accounts themselves. The accounts are partitioned across a number of shards
+ * (by the hash of the account id) and each shard is owned by a single thread
+ * (see "TransfersShard") which applies all the updates of its accounts,
+ * one after the other.
+ *
+ * An internal transfer whose accounts belong to two different shards is processed
+ * in two steps: the source shard subtracts the amount and then it hands the transfer
+ * over to the target shard, which adds the amount. If the second step fails then the
+ * source shard gives the amount back to the source account.
+ *
+ * The account locks are still grabbed by the shard threads but only to detect
+ * the accounts which are being closed, there is no contention among the shards.
+ *
+ * Each step is journaled by the shard thread while it holds the lock of the account
+ * (see "JournalRecordType") but waiting for the records to be durable is left to the
+ * request thread, so the shard threads never block on disk I/O.
+ *
+ * The lock and apply stages are recorded by the shard threads (see "TransferMetrics"),
+ * once per step: an internal transfer records them twice, once per account.
+ */
+public class ShardedTransfersManager implements TransfersManager {
+    private static final Logger log = LoggerFactory.getLogger(ShardedTransfersManager.class);
+
+    private final TransferResolver transferResolver;
+    private final TransferChecker transferChecker;
+    private final AccountLockManager accountLockManager;
+    private final Journal journal;
+    private final TransferMetrics metrics;
+
+    private final TransfersShard[] shards;
+
+    @Inject
+    public ShardedTransfersManager(AccountRegistry accountRegistry,
+            TransferChecker transferChecker, AccountLockManager accountLockManager, Journal journal,
+            TransferMetrics metrics) {
+
+        this(accountRegistry, transferChecker, accountLockManager, journal, metrics,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedTransfersManager(AccountRegistry accountRegistry,
+            TransferChecker transferChecker, AccountLockManager accountLockManager, Journal journal,
+            int numOfShards) {
+
+        this(accountRegistry, transferChecker, accountLockManager, journal, new NoOpTransferMetrics(),
+                numOfShards);
+    }
+
+    public ShardedTransfersManager(AccountRegistry accountRegistry,
+            TransferChecker transferChecker, AccountLockManager accountLockManager, Journal journal,
+            TransferMetrics metrics, int numOfShards) {
+
+        if (numOfShards < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive: " + numOfShards);
+        }
+
+        this.transferResolver = new TransferResolver(accountRegistry);
+        this.transferChecker = transferChecker;
+        this.accountLockManager = accountLockManager;
+        this.journal = journal;
+        this.metrics = metrics;
+
+        shards = new TransfersShard[numOfShards];
+        for (int i = 0; i < numOfShards; i++) {
+            shards[i] = new TransfersShard(i);
+            shards[i].start();
+        }
+
+        log.info("{} transfers shards have been started", numOfShards);
+    }
+
+    @Override
+    public void processTransfer(Transfer transfer)
+            throws AccountDoesNotExistException, UnableToObtainMutexException, NotEnoughBalanceException,
+            InvalidAccountIdException, InvalidCurrencyException, InvalidAmountException,
+            InvalidTimestampException, AmountTooBigException, BothAccountsAreExternalException,
+            AccountIsAlreadyBeingClosedException {
+
+        log.debug("New \"Transfer\" object to be processed:\n{}", transfer);
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
+        transferChecker.checkTransfer(transfer);
+        record(sampled, Stage.VALIDATION, start);
+
+        // The future carries the sequence number of the last journal record of the transfer
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        submit(transfer, result);
+
+        try {
+            long journalSequence = waitFor(result);
+            long applied = now(sampled);
+            journal.awaitDurable(journalSequence);
+            record(sampled, Stage.JOURNAL, applied);
+        } finally {
+            record(sampled, Stage.TOTAL, start);
+        }
+    }
+
+    /*
+     * Nothing blocks the calling thread, the shard threads apply the transfer and the
+     * journal sync thread completes the future once it is durable.
+     * */
+    @Override
+    public CompletableFuture<TransferResult> processTransferAsync(Transfer transfer) {
+        log.debug("New \"Transfer\" object to be processed asynchronously:\n{}", transfer);
+
+        String transferId = transfer.getId();
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        try {
+            transferChecker.checkTransfer(transfer);
+            record(sampled, Stage.VALIDATION, start);
+            submit(transfer, result);
+        } catch (Exception ex) {
+            return CompletableFuture.completedFuture(new TransferResult(transferId, ex));
+        }
+
+        // The exception is the one the shard failed the future with, it is not wrapped
+        return result.handle((journalSequence, ex) -> {
+            if (ex != null) {
+                record(sampled, Stage.TOTAL, start);
+                return CompletableFuture.completedFuture(new TransferResult(transferId,
+                        ex instanceof Exception ? (Exception) ex : new IllegalStateException(ex)));
+            }
+
+            long applied = now(sampled);
+            return journal.whenDurable(journalSequence).thenApply(ignored -> {
+                record(sampled, Stage.JOURNAL, applied);
+                record(sampled, Stage.TOTAL, start);
+                return new TransferResult(transferId);
+            });
+        }).thenCompose(future -> future);
+    }
+
+    /*
+     * All the transfers are submitted to the shards before waiting for any of them,
+     * the journal records of the whole batch are made durable by a single wait,
+     * each sampled transfer records the whole wait.
+     * */
+    @Override
+    public List<TransferResult> processTransfers(List<Transfer> transfers) {
+        log.debug("New batch of {} transfers to be processed", transfers.size());
+
+        TransferResult[] results = new TransferResult[transfers.size()];
+        List<CompletableFuture<Long>> futures = new ArrayList<>(transfers.size());
+        boolean[] sampled = new boolean[transfers.size()];
+        long[] starts = new long[transfers.size()];
+        boolean anySampled = false;
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            futures.add(future);
+            sampled[i] = metrics.isSampled(transfer.getEncodedId());
+            starts[i] = now(sampled[i]);
+            try {
+                transferChecker.checkTransfer(transfer);
+                record(sampled[i], Stage.VALIDATION, starts[i]);
+                submit(transfer, future);
+            } catch (Exception ex) {
+                results[i] = new TransferResult(transfer.getId(), ex);
+                // Like a single transfer, only the validation is recorded
+                sampled[i] = false;
+                continue;
+            }
+            anySampled |= sampled[i];
+        }
+
+        long lastJournalSequence = 0L;
+        for (int i = 0; i < transfers.size(); i++) {
+            if (results[i] != null) {
+                continue;
+            }
+
+            String transferId = transfers.get(i).getId();
+            try {
+                lastJournalSequence = Math.max(lastJournalSequence, waitFor(futures.get(i)));
+                results[i] = new TransferResult(transferId);
+            } catch (Exception ex) {
+                results[i] = new TransferResult(transferId, ex);
+            }
+        }
+
+        long applied = now(anySampled);
+        journal.awaitDurable(lastJournalSequence);
+        long end = now(anySampled);
+        for (int i = 0; i < transfers.size(); i++) {
+            if (sampled[i]) {
+                metrics.record(Stage.JOURNAL, end - applied);
+                metrics.record(Stage.TOTAL, end - starts[i]);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private void submit(Transfer transfer, CompletableFuture<Long> result) throws AccountDoesNotExistException,
+            BothAccountsAreExternalException {
+
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
+        ResolvedTransfer resolvedTransfer = transferResolver.resolve(transfer);
+        record(sampled, Stage.LOOKUP, start);
+        if (resolvedTransfer.isInternal()) {
+            submitInternalTransfer(resolvedTransfer, result);
+        } else {
+            submitExternalTransfer(resolvedTransfer, result);
+        }
+    }
+
+    void submitExternalTransfer(ResolvedTransfer resolvedTransfer, CompletableFuture<Long> result) {
+        Transfer transfer = resolvedTransfer.getTransfer();
+        Account internalAccount = resolvedTransfer.getInternalAccount();
+        Direction direction = resolvedTransfer.getInternalAccountDirection();
+
+        getShard(internalAccount).execute(() -> {
+            try {
+                result.complete(addToAccount(internalAccount, transfer, direction, JournalRecordType.TRANSFER));
+                log.trace("Successful external transfer processing");
+            } catch (Exception ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+    }
+
+    void submitInternalTransfer(ResolvedTransfer resolvedTransfer, CompletableFuture<Long> result) {
+        Transfer transfer = resolvedTransfer.getTransfer();
+        Account sourceAccount = resolvedTransfer.getSourceAccount();
+        Account targetAccount = resolvedTransfer.getTargetAccount();
+        TransfersShard sourceShard = getShard(sourceAccount);
+        TransfersShard targetShard = getShard(targetAccount);
+
+        // First step, executed by the source shard
+        sourceShard.execute(() -> {
+            try {
+                addToAccount(sourceAccount, transfer, Direction.SENT, JournalRecordType.TRANSFER_SOURCE);
+            } catch (Exception ex) {
+                result.completeExceptionally(ex);
+                return;
+            }
+
+            // Second step, executed by the target shard (it may be the same one)
+            targetShard.execute(() -> {
+                try {
+                    result.complete(addToAccount(targetAccount, transfer, Direction.RECEIVED,
+                            JournalRecordType.TRANSFER_TARGET));
+                    log.trace("Successful internal transfer processing");
+                } catch (Exception ex) {
+                    // Compensation, executed by the source shard
+                    sourceShard.execute(() -> refund(sourceAccount, transfer, ex, result));
+                }
+            });
+        });
+    }
+
+    private long addToAccount(Account account, Transfer transfer, Direction direction,
+            JournalRecordType journalRecordType) throws UnableToObtainMutexException,
+            AccountIsAlreadyBeingClosedException, NotEnoughBalanceException, AmountTooBigException,
+            InvalidCurrencyException {
+
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
+        AccountMutex mutex = accountLockManager.lock(account);
+        long locked = record(sampled, Stage.LOCK, start);
+        try {
+            if (mutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
+                String errorMessage = "Account with id \"" + account.getId()
+                        + "\" is already being closed";
+                log.debug(errorMessage);
+                throw new AccountIsAlreadyBeingClosedException(errorMessage);
+            }
+
+            account.add(transfer, direction);
+            long journalSequence = journal.appendTransfer(journalRecordType, transfer);
+            account.setJournalSequence(journalSequence);
+            return journalSequence;
+        } finally {
+            accountLockManager.unlock(account);
+            record(sampled, Stage.APPLY, locked);
+        }
+    }
+
+    private void refund(Account sourceAccount, Transfer transfer, Exception cause,
+            CompletableFuture<Long> result) {
+
+        log.trace("Going to refund the source account \"{}\" since the transfer could not be "
+                + "added to the target account", sourceAccount.getId());
+        try {
+            AccountMutex mutex = accountLockManager.lock(sourceAccount);
+            try {
+                // The account has been closed (with the amount already debited) between
+                // both steps, it may even have been replaced by another account which
+                // shares its state (see "OffHeapAccount"), nothing can be refunded
+                if (mutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
+                    log.error("Unable to refund the source account \"{}\", it has been closed, transfer:\n{}",
+                            sourceAccount.getId(), transfer);
+                } else {
+                    sourceAccount.refund(transfer);
+                    // If this record gets lost the refund is applied again
+                    // when replaying the journal, no need to wait for it
+                    sourceAccount.setJournalSequence(journal.appendTransfer(JournalRecordType.TRANSFER_REFUND,
+                            transfer));
+                }
+            } finally {
+                accountLockManager.unlock(sourceAccount);
+            }
+        } catch (Exception ex) {
+            log.error("Unable to refund the source account \"{}\", transfer:\n{}",
+                    sourceAccount.getId(), transfer, ex);
+        }
+
+        result.completeExceptionally(cause);
+    }
+
+    // Only the sampled transfers read the clock, see "TransferMetrics"
+    private static long now(boolean sampled) {
+        return sampled ? System.nanoTime() : 0L;
+    }
+
+    // It records the time elapsed since "start" and returns the current time
+    private long record(boolean sampled, Stage stage, long start) {
+        if (!sampled) {
+            return 0L;
+        }
+
+        long now = System.nanoTime();
+        metrics.record(stage, now - start);
+        return now;
+    }
+
+    TransfersShard getShard(Account account) {
+        int hash = Long.hashCode(account.getEncodedId());
+        // We spread the higher bits, like "HashMap" does
+        hash ^= hash >>> 16;
+        return shards[Math.floorMod(hash, shards.length)];
+    }
+
+    private long waitFor(CompletableFuture<Long> result) throws UnableToObtainMutexException,
+            NotEnoughBalanceException, AmountTooBigException, InvalidCurrencyException,
+            AccountIsAlreadyBeingClosedException {
+
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            String errorMessage = "Thread interrupted while waiting for the transfer to be processed";
+            log.error(errorMessage);
+            throw new UnableToObtainMutexException(errorMessage);
+        } catch (ExecutionException ex) {
+            throw rethrow(ex.getCause());
+        }
+    }
+
+    private RuntimeException rethrow(Throwable cause) throws UnableToObtainMutexException, NotEnoughBalanceException,
+            AmountTooBigException, InvalidCurrencyException, AccountIsAlreadyBeingClosedException {
+
+        if (cause instanceof UnableToObtainMutexException) {
+            throw (UnableToObtainMutexException) cause;
+        }
+        if (cause instanceof NotEnoughBalanceException) {
+            throw (NotEnoughBalanceException) cause;
+        }
+        if (cause instanceof AmountTooBigException) {
+            throw (AmountTooBigException) cause;
+        }
+        if (cause instanceof InvalidCurrencyException) {
+            throw (InvalidCurrencyException) cause;
+        }
+        if (cause instanceof AccountIsAlreadyBeingClosedException) {
+            throw (AccountIsAlreadyBeingClosedException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    public void shutdown() throws InterruptedException {
+        for (TransfersShard shard : shards) {
+            shard.shutdown();
+        }
+        log.info("All the transfers shards have been stopped");
+    }
+}
@@ -23,6 +23,14 @@ public class TransferCheckerImpl implements TransferChecker {
 
         checkAccountId(transfer.getSourceAccountId());
         checkAccountId(transfer.getTargetAccountId());
+
+        if (transfer.getSourceAccountId().equals(transfer.getTargetAccountId())) {
+            String errorMessage = "The source account and the target account must be different: "
+                    + transfer.getSourceAccountId();
+            log.debug(errorMessage);
+            throw new InvalidAccountIdException(errorMessage);
+        }
+
         checkCurrency(transfer.getCurrency());
         checkAmount(transfer.getAmount());
         checkTimestamp(transfer.getTimestamp());
@@ -32,7 +40,7 @@ public class TransferCheckerImpl implements TransferChecker {
     public void checkAccountId(String accountId) throws InvalidAccountIdException {
         if (accountId == null || accountId.length() < 12 || accountId.length() > 100) {
             String errorMessage = "Invalid accountId: " + accountId;
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new InvalidAccountIdException(errorMessage);
         }
     }
@@ -41,7 +49,7 @@ public class TransferCheckerImpl implements TransferChecker {
     public void checkTransferId(String transferId) throws InvalidTransferIdException {
         if (transferId == null || transferId.length() < 12 || transferId.length() > 100) {
             String errorMessage = "Invalid accountId: " + transferId;
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new InvalidTransferIdException(errorMessage);
         }
     }
@@ -50,7 +58,7 @@ public class TransferCheckerImpl implements TransferChecker {
     public void checkAmount(long amount) throws InvalidAmountException {
         if (amount <= 0) {
             String errorMessage = "Invalid amount: " + amount;
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new InvalidAmountException(errorMessage);
         }
     }
@@ -67,7 +75,7 @@ public class TransferCheckerImpl implements TransferChecker {
     public void checkTimestamp(long epochMilli) throws InvalidTimestampException {
         if (Instant.ofEpochMilli(epochMilli).isBefore(INSTANT_2020)) {
             String errorMessage = "Invalid timestamp: " + epochMilli;
-            log.error(errorMessage);
+            log.debug(errorMessage);
             throw new InvalidTimestampException(errorMessage);
         }
     }
@@ -0,0 +1,59 @@
+package net.devaction.transfersservice.core.transfersmanager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.entity.account.AccountType;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountDoesNotExistException;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+/**
+ * Looks up the internal accounts of a transfer, each of them exactly once,
+ * see "ResolvedTransfer".
+ */
+public class TransferResolver {
+    private static final Logger log = LoggerFactory.getLogger(TransferResolver.class);
+
+    private final AccountRegistry accountRegistry;
+
+    public TransferResolver(AccountRegistry accountRegistry) {
+        this.accountRegistry = accountRegistry;
+    }
+
+    // The transfer must have been checked already, see "TransferChecker"
+    public ResolvedTransfer resolve(Transfer transfer) throws AccountDoesNotExistException,
+            BothAccountsAreExternalException {
+
+        if (transfer.getSourceAccountType() != INTERNAL && transfer.getTargetAccountType() != INTERNAL) {
+            String errorMessage = "Failed to process transfer, both the source account "
+                    + "and the target account are external";
+            log.debug(errorMessage);
+            throw new BothAccountsAreExternalException(errorMessage);
+        }
+
+        Account sourceAccount = getAccount(transfer.getSourceAccountId(), transfer.getSourceAccountType());
+        Account targetAccount = getAccount(transfer.getTargetAccountId(), transfer.getTargetAccountType());
+        return new ResolvedTransfer(transfer, sourceAccount, targetAccount);
+    }
+
+    // It returns null for an external account
+    private Account getAccount(String accountId, AccountType accountType) throws AccountDoesNotExistException {
+        if (accountType != INTERNAL) {
+            return null;
+        }
+
+        Account account = accountRegistry.get(accountId);
+        if (account == null) {
+            String errorMessage = "Failed to process transfer, internal account with id \"" + accountId
+                    + "\" does not exist";
+            log.debug(errorMessage);
+            throw new AccountDoesNotExistException(errorMessage);
+        }
+
+        return account;
+    }
+}
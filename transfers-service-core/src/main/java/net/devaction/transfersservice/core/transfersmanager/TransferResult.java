@@ -0,0 +1,39 @@
+package net.devaction.transfersservice.core.transfersmanager;
+
+/**
+ * Outcome of each of the transfers of a batch (see "TransfersManager.processTransfers")
+ * and of an asynchronous transfer (see "TransfersManager.processTransferAsync").
+ */
+public class TransferResult {
+
+    private final String transferId;
+
+    // It is null when the transfer has been processed successfully
+    private final Exception exception;
+
+    public TransferResult(String transferId) {
+        this(transferId, null);
+    }
+
+    public TransferResult(String transferId, Exception exception) {
+        this.transferId = transferId;
+        this.exception = exception;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult [transferId: " + transferId + ", exception: " + exception + "]";
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public Exception getException() {
+        return exception;
+    }
+}
@@ -1,5 +1,8 @@
 package net.devaction.transfersservice.core.transfersmanager;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import net.devaction.transfersservice.api.entity.transfer.Transfer;
 import net.devaction.transfersservice.core.account.AmountTooBigException;
 import net.devaction.transfersservice.core.account.NotEnoughBalanceException;
@@ -18,4 +21,14 @@ public interface TransfersManager {
             UnableToObtainMutexException, NotEnoughBalanceException, InvalidAccountIdException,
             InvalidCurrencyException, InvalidAmountException, InvalidTimestampException,
             AmountTooBigException, BothAccountsAreExternalException, AccountIsAlreadyBeingClosedException;
+
+    // Same as "processTransfer" but the outcome is returned (instead of thrown) by the future,
+    // which is completed once the transfer is durable. The calling thread does not wait for the
+    // journal, hence it can have many transfers in flight. The future may be completed by an
+    // internal thread of the service, its dependent actions must not block.
+    public CompletableFuture<TransferResult> processTransferAsync(Transfer transfer);
+
+    // The transfers are processed in order, the outcome of each one is in the same position
+    // of the returned list. It returns once all the successful transfers are durable.
+    public List<TransferResult> processTransfers(List<Transfer> transfers) throws UnableToObtainMutexException;
 }
@@ -1,23 +1,33 @@
 package net.devaction.transfersservice.core.transfersmanager;
 
-import java.util.Map;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
 
-import net.devaction.transfersservice.api.entity.account.AccountType;
-import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+import net.devaction.transfersservice.api.entity.account.Direction;
 
 import net.devaction.transfersservice.api.entity.transfer.Transfer;
 import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountRegistry;
 import net.devaction.transfersservice.core.account.AccountMutex;
 import net.devaction.transfersservice.core.account.AmountTooBigException;
 import net.devaction.transfersservice.core.account.NotEnoughBalanceException;
 import net.devaction.transfersservice.core.account.UnableToObtainMutexException;
 import net.devaction.transfersservice.core.accountsmanager.AccountDoesNotExistException;
 import net.devaction.transfersservice.core.accountsmanager.AccountIsAlreadyBeingClosedException;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.JournalRecordType;
+import net.devaction.transfersservice.core.metrics.NoOpTransferMetrics;
+import net.devaction.transfersservice.core.metrics.Stage;
+import net.devaction.transfersservice.core.metrics.TransferMetrics;
 
 /**
  * @author Víctor Gil
@@ -27,15 +37,29 @@ import net.devaction.transfersservice.core.accountsmanager.AccountIsAlreadyBeing
 public class TransfersManagerImpl implements TransfersManager {
     private static final Logger log = LoggerFactory.getLogger(TransfersManagerImpl.class);
 
-    private final Map<String, Account> accountMap;
+    private final TransferResolver transferResolver;
     private final TransferChecker transferChecker;
+    private final AccountLockManager accountLockManager;
+    private final Journal journal;
+    private final TransferMetrics metrics;
+
+    public TransfersManagerImpl(AccountRegistry accountRegistry,
+            TransferChecker transferChecker, AccountLockManager accountLockManager,
+            Journal journal) {
+
+        this(accountRegistry, transferChecker, accountLockManager, journal, new NoOpTransferMetrics());
+    }
 
     @Inject
-    public TransfersManagerImpl(Map<String, Account> accountMap,
-            TransferChecker transferChecker) {
+    public TransfersManagerImpl(AccountRegistry accountRegistry,
+            TransferChecker transferChecker, AccountLockManager accountLockManager,
+            Journal journal, TransferMetrics metrics) {
 
-        this.accountMap = accountMap;
+        this.transferResolver = new TransferResolver(accountRegistry);
         this.transferChecker = transferChecker;
+        this.accountLockManager = accountLockManager;
+        this.journal = journal;
+        this.metrics = metrics;
     }
 
     @Override
@@ -46,117 +70,315 @@ public class TransfersManagerImpl implements TransfersManager {
             AccountIsAlreadyBeingClosedException {
 
         log.debug("New \"Transfer\" object to be processed:\n{}", transfer);
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
         transferChecker.checkTransfer(transfer);
+        long validated = record(sampled, Stage.VALIDATION, start);
 
-        checkAccountExists(transfer.getSourceAccountId(), transfer.getSourceAccountType());
-        checkAccountExists(transfer.getTargetAccountId(), transfer.getTargetAccountType());
-
-        if (transfer.getSourceAccountType() == INTERNAL && transfer.getTargetAccountType() == INTERNAL) {
-            processInternalTransfer(transfer);
-        } else {
-            processExternalTransfer(transfer);
+        ResolvedTransfer resolvedTransfer = transferResolver.resolve(transfer);
+        record(sampled, Stage.LOOKUP, validated);
+        try {
+            applyTransfer(resolvedTransfer);
+        } finally {
+            // When the source account has been refunded (see "addToBothAccounts")
+            // its last records have to be durable before reporting the failure
+            long applied = now(sampled);
+            journal.awaitDurable(resolvedTransfer.getJournalSequence());
+            record(sampled, Stage.JOURNAL, applied);
+            record(sampled, Stage.TOTAL, start);
         }
     }
 
-    void processExternalTransfer(Transfer transfer) throws BothAccountsAreExternalException,
-            UnableToObtainMutexException, NotEnoughBalanceException, AmountTooBigException,
-            InvalidCurrencyException, AccountIsAlreadyBeingClosedException {
+    /*
+     * The account locks are still grabbed by the calling thread (they are only held
+     * while the transfer is applied in memory), the wait for the journal is not.
+     * */
+    @Override
+    public CompletableFuture<TransferResult> processTransferAsync(Transfer transfer) {
+        log.debug("New \"Transfer\" object to be processed asynchronously:\n{}", transfer);
+
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
+        ResolvedTransfer resolvedTransfer;
+        try {
+            transferChecker.checkTransfer(transfer);
+            long validated = record(sampled, Stage.VALIDATION, start);
+
+            resolvedTransfer = transferResolver.resolve(transfer);
+            record(sampled, Stage.LOOKUP, validated);
+        } catch (Exception ex) {
+            return CompletableFuture.completedFuture(new TransferResult(transfer.getId(), ex));
+        }
 
-        if (transfer.getSourceAccountType() == transfer.getTargetAccountType()) {
-            String errorMessage = "Failed to process transfer, both the source account "
-                    + "and the target account are external";
-            log.error(errorMessage);
-            throw new BothAccountsAreExternalException(errorMessage);
+        Exception exception = null;
+        try {
+            applyTransfer(resolvedTransfer);
+        } catch (Exception ex) {
+            exception = ex;
         }
 
-        Account internalAccount = null;
-        if (transfer.getSourceAccountType() == INTERNAL) {
-            internalAccount = accountMap.get(transfer.getSourceAccountId());
+        TransferResult result = new TransferResult(transfer.getId(), exception);
+        long applied = now(sampled);
+        return journal.whenDurable(resolvedTransfer.getJournalSequence()).thenApply(ignored -> {
+            record(sampled, Stage.JOURNAL, applied);
+            record(sampled, Stage.TOTAL, start);
+            return result;
+        });
+    }
+
+    private void applyTransfer(ResolvedTransfer resolvedTransfer) throws UnableToObtainMutexException,
+            NotEnoughBalanceException, AmountTooBigException, InvalidCurrencyException,
+            AccountIsAlreadyBeingClosedException {
+
+        if (resolvedTransfer.isInternal()) {
+            applyInternalTransfer(resolvedTransfer);
         } else {
-            internalAccount = accountMap.get(transfer.getTargetAccountId());
+            applyExternalTransfer(resolvedTransfer);
         }
+    }
+
+    // The sequence number of the journal record to wait for is left in the resolved transfer
+    void applyExternalTransfer(ResolvedTransfer resolvedTransfer) throws UnableToObtainMutexException,
+            NotEnoughBalanceException, AmountTooBigException, InvalidCurrencyException,
+            AccountIsAlreadyBeingClosedException {
 
-        log.trace("Going to try to grab the mutex lock object for the (internal) account, id: {}",
-                internalAccount.getId());
-        AccountMutex internalAccountMutex = internalAccount.getMutex();
+        Transfer transfer = resolvedTransfer.getTransfer();
+        Account internalAccount = resolvedTransfer.getInternalAccount();
+        Direction direction = resolvedTransfer.getInternalAccountDirection();
+        // The account ids of the transfer are logged, "Account.getId" creates a new String
+        String internalAccountId = direction == Direction.SENT
+                ? transfer.getSourceAccountId() : transfer.getTargetAccountId();
+
+        log.trace("Going to try to grab the lock for the (internal) account, id: {}",
+                internalAccountId);
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
+        AccountMutex internalAccountMutex = accountLockManager.lock(internalAccount);
+        long locked = record(sampled, Stage.LOCK, start);
 
         if (internalAccountMutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
-            internalAccount.returnMutex(internalAccountMutex);
-            String errorMessage = "Account with id \"" + internalAccount.getId()
-                    + "\" is already being closed. Its mutex has been released";
-            log.error(errorMessage);
+            accountLockManager.unlock(internalAccount);
+            String errorMessage = "Account with id \"" + internalAccountId
+                    + "\" is already being closed. Its lock has been released";
+            log.debug(errorMessage);
             throw new AccountIsAlreadyBeingClosedException(errorMessage);
         }
 
         try {
-            internalAccount.add(transfer);
+            internalAccount.add(transfer, direction);
+            long journalSequence = journal.appendTransfer(JournalRecordType.TRANSFER, transfer);
+            internalAccount.setJournalSequence(journalSequence);
+            resolvedTransfer.setJournalSequence(journalSequence);
             log.trace("Successful external transfer processing");
         } finally {
-            internalAccount.returnMutex(internalAccountMutex);
-            log.trace("Mutex lock object for internal account id \"{}\" has been released",
-                    internalAccount.getId());
+            accountLockManager.unlock(internalAccount);
+            record(sampled, Stage.APPLY, locked);
+            log.trace("Lock for internal account id \"{}\" has been released",
+                    internalAccountId);
         }
     }
 
-    void processInternalTransfer(Transfer transfer) throws UnableToObtainMutexException,
+    // The sequence number of the journal record to wait for is left in the resolved transfer
+    void applyInternalTransfer(ResolvedTransfer resolvedTransfer) throws UnableToObtainMutexException,
             NotEnoughBalanceException, AmountTooBigException, InvalidCurrencyException,
             AccountIsAlreadyBeingClosedException {
 
-        Account sourceAccount = accountMap.get(transfer.getSourceAccountId());
+        Transfer transfer = resolvedTransfer.getTransfer();
+        Account sourceAccount = resolvedTransfer.getSourceAccount();
+        Account targetAccount = resolvedTransfer.getTargetAccount();
 
-        Account targetAccount = accountMap.get(transfer.getTargetAccountId());
+        // First we need to grab both locks, one for each of the accounts involved
+        log.trace("Going to try to grab the locks for the source (internal) account \"{}\" "
+                + "and the target (internal) account \"{}\"", transfer.getSourceAccountId(),
+                transfer.getTargetAccountId());
+        boolean sampled = metrics.isSampled(transfer.getEncodedId());
+        long start = now(sampled);
+        accountLockManager.lockBoth(sourceAccount, targetAccount);
+        long locked = record(sampled, Stage.LOCK, start);
 
-        // First we need to grab both mutex objects, one for each of the accounts involved
-        log.trace("Going to try to grab the mutex lock object for the source (internal) account: \"{}\"",
-                sourceAccount.getId());
-        AccountMutex sourceAccountMutex = sourceAccount.getMutex();
+        try {
+            addToBothAccounts(resolvedTransfer);
+        } finally {
+            accountLockManager.unlockBoth(sourceAccount, targetAccount);
+            record(sampled, Stage.APPLY, locked);
+            log.trace("Internal transfer processing finished, both locks "
+                    + "for internal account ids \"{}\" and \"{}\" have been released",
+                    transfer.getSourceAccountId(), transfer.getTargetAccountId());
+        }
+    }
 
-        if (sourceAccountMutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
-            sourceAccount.returnMutex(sourceAccountMutex);
-            String errorMessage = "Source account with id \"" + sourceAccount.getId() + "\" is already being closed"
-                    + ". Its mutex has been released";
-            log.error(errorMessage);
-            throw new AccountIsAlreadyBeingClosedException(errorMessage);
+    /*
+     * The locks of all the accounts of the batch are grabbed once (in account id order,
+     * see "AccountLockManager") and then the transfers are applied one after the other,
+     * the journal records of the whole batch are made durable by a single wait.
+     *
+     * The lock and journal stages are shared by the transfers of the batch, each
+     * sampled transfer records the whole wait.
+     * */
+    @Override
+    public List<TransferResult> processTransfers(List<Transfer> transfers) throws UnableToObtainMutexException {
+        log.debug("New batch of {} transfers to be processed", transfers.size());
+
+        TransferResult[] results = new TransferResult[transfers.size()];
+        ResolvedTransfer[] resolvedTransfers = new ResolvedTransfer[transfers.size()];
+        Set<Account> accounts = new LinkedHashSet<>();
+        boolean[] sampled = new boolean[transfers.size()];
+        long[] starts = new long[transfers.size()];
+        boolean anySampled = false;
+
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            sampled[i] = metrics.isSampled(transfer.getEncodedId());
+            starts[i] = now(sampled[i]);
+            try {
+                transferChecker.checkTransfer(transfer);
+                long validated = record(sampled[i], Stage.VALIDATION, starts[i]);
+
+                resolvedTransfers[i] = transferResolver.resolve(transfer);
+                record(sampled[i], Stage.LOOKUP, validated);
+            } catch (Exception ex) {
+                results[i] = new TransferResult(transfer.getId(), ex);
+                // Like a single transfer, only the validation is recorded
+                sampled[i] = false;
+                continue;
+            }
+            anySampled |= sampled[i];
+
+            if (resolvedTransfers[i].getSourceAccount() != null) {
+                accounts.add(resolvedTransfers[i].getSourceAccount());
+            }
+            if (resolvedTransfers[i].getTargetAccount() != null) {
+                accounts.add(resolvedTransfers[i].getTargetAccount());
+            }
         }
 
-        AccountMutex targetAccountMutex = null;
-        log.trace("Going to try to grab the mutex lock object for the target (internal) account: \"{}\"",
-                targetAccount.getId());
+        long lastJournalSequence = 0L;
+        long lockStart = now(anySampled);
+        Set<Account> closedAccounts = accountLockManager.lockAll(accounts);
+        recordBatch(sampled, Stage.LOCK, lockStart, now(anySampled));
         try {
-            targetAccountMutex = targetAccount.getMutex();
-        } catch (UnableToObtainMutexException ex) {
-            sourceAccount.returnMutex(sourceAccountMutex);
-            log.trace("The mutex lock object for the (internal) source account id \"{}\" has been released",
-                    sourceAccount.getId());
-            throw ex;
+            for (int i = 0; i < transfers.size(); i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                long applyStart = now(sampled[i]);
+                results[i] = applyTransfer(resolvedTransfers[i], closedAccounts);
+                record(sampled[i], Stage.APPLY, applyStart);
+                lastJournalSequence = Math.max(lastJournalSequence, resolvedTransfers[i].getJournalSequence());
+            }
+        } finally {
+            accountLockManager.unlockAll(accounts);
+            log.trace("The locks of the {} accounts of the batch have been released", accounts.size());
         }
 
-        if (targetAccountMutex == AccountMutex.ACCOUNT_HAS_BEEN_CLOSED) {
-            sourceAccount.returnMutex(sourceAccountMutex);
-            targetAccount.returnMutex(targetAccountMutex);
-            String errorMessage = "Target account with id \"" + targetAccount.getId() + "\" is already being closed"
-                    + ". Its mutex has been released and also the source account mutex";
-            log.error(errorMessage);
-            throw new AccountIsAlreadyBeingClosedException(errorMessage);
+        long applied = now(anySampled);
+        journal.awaitDurable(lastJournalSequence);
+        long end = now(anySampled);
+        recordBatch(sampled, Stage.JOURNAL, applied, end);
+        for (int i = 0; i < transfers.size(); i++) {
+            if (sampled[i]) {
+                metrics.record(Stage.TOTAL, end - starts[i]);
+            }
         }
+        return Arrays.asList(results);
+    }
+
+    // The locks of the internal account(s) must be held
+    private TransferResult applyTransfer(ResolvedTransfer resolvedTransfer, Set<Account> closedAccounts) {
+        Transfer transfer = resolvedTransfer.getTransfer();
+        Account sourceAccount = resolvedTransfer.getSourceAccount();
+        Account targetAccount = resolvedTransfer.getTargetAccount();
 
         try {
-            sourceAccount.add(transfer);
-            targetAccount.add(transfer);
-        } finally {
-            sourceAccount.returnMutex(sourceAccountMutex);
-            targetAccount.returnMutex(targetAccountMutex);
-            log.trace("Successful internal transfer processing, both mutex "
-                    + "lock objects for internal account ids \"{}\" and \"{}\" have been released",
-                    sourceAccount.getId(), targetAccount.getId());
+            checkAccountIsOpen(sourceAccount, closedAccounts);
+            checkAccountIsOpen(targetAccount, closedAccounts);
+
+            if (resolvedTransfer.isInternal()) {
+                addToBothAccounts(resolvedTransfer);
+            } else {
+                Account internalAccount = resolvedTransfer.getInternalAccount();
+                internalAccount.add(transfer, resolvedTransfer.getInternalAccountDirection());
+                long journalSequence = journal.appendTransfer(JournalRecordType.TRANSFER, transfer);
+                internalAccount.setJournalSequence(journalSequence);
+                resolvedTransfer.setJournalSequence(journalSequence);
+            }
+        } catch (Exception ex) {
+            return new TransferResult(transfer.getId(), ex);
         }
+
+        return new TransferResult(transfer.getId());
+    }
+
+    // Only the sampled transfers read the clock, see "TransferMetrics"
+    private static long now(boolean sampled) {
+        return sampled ? System.nanoTime() : 0L;
     }
 
-    void checkAccountExists(String accountId, AccountType accountType) throws AccountDoesNotExistException {
-        if (accountType == INTERNAL && !accountMap.containsKey(accountId)) {
-            String errorMessage = "Failed to process transfer, internal account with id \"" + accountId + "\" does not exist";
-            log.error(errorMessage);
-            throw new AccountDoesNotExistException(errorMessage);
+    // It records the time elapsed since "start" and returns the current time
+    private long record(boolean sampled, Stage stage, long start) {
+        if (!sampled) {
+            return 0L;
         }
+
+        long now = System.nanoTime();
+        metrics.record(stage, now - start);
+        return now;
+    }
+
+    private void recordBatch(boolean[] sampled, Stage stage, long start, long end) {
+        for (int i = 0; i < sampled.length; i++) {
+            if (sampled[i]) {
+                metrics.record(stage, end - start);
+            }
+        }
+    }
+
+    private static void checkAccountIsOpen(Account account, Set<Account> closedAccounts)
+            throws AccountIsAlreadyBeingClosedException {
+
+        if (account != null && closedAccounts.contains(account)) {
+            String errorMessage = "Account with id \"" + account.getId() + "\" is already being closed";
+            log.debug(errorMessage);
+            throw new AccountIsAlreadyBeingClosedException(errorMessage);
+        }
+    }
+
+    /*
+     * Both locks are held, hence the target account is checked (currency and overflow)
+     * before debiting the source account: a rejected transfer changes neither account
+     * and it is not journaled. Once checked, the target account can only fail to take
+     * its write lock (see "Account.updateBalanceAndAddItemToHistory"), only then the
+     * source account is refunded.
+     *
+     * The sequence number of the last record, if any, is left in the resolved transfer.
+     * */
+    private void addToBothAccounts(ResolvedTransfer resolvedTransfer) throws NotEnoughBalanceException,
+            AmountTooBigException, InvalidCurrencyException, UnableToObtainMutexException {
+
+        Transfer transfer = resolvedTransfer.getTransfer();
+        Account sourceAccount = resolvedTransfer.getSourceAccount();
+        Account targetAccount = resolvedTransfer.getTargetAccount();
+        targetAccount.checkCanReceive(transfer);
+        sourceAccount.add(transfer, Direction.SENT);
+        try {
+            targetAccount.add(transfer, Direction.RECEIVED);
+        } catch (UnableToObtainMutexException ex) {
+            sourceAccount.refund(transfer);
+            log.trace("The source account \"{}\" has been refunded", sourceAccount.getId());
+
+            // Both the outgoing item and the refund item are in the history of the
+            // source account, the journal has to reflect it too
+            journal.appendTransfer(JournalRecordType.TRANSFER_SOURCE, transfer);
+            long refundSequence = journal.appendTransfer(JournalRecordType.TRANSFER_REFUND, transfer);
+            sourceAccount.setJournalSequence(refundSequence);
+            resolvedTransfer.setJournalSequence(refundSequence);
+            throw ex;
+        }
+
+        long journalSequence = journal.appendTransfer(JournalRecordType.TRANSFER, transfer);
+        sourceAccount.setJournalSequence(journalSequence);
+        targetAccount.setJournalSequence(journalSequence);
+        resolvedTransfer.setJournalSequence(journalSequence);
+        log.trace("Successful internal transfer processing");
     }
 }
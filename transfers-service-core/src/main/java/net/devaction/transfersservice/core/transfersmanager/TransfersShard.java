@@ -0,0 +1,100 @@
+package net.devaction.transfersservice.core.transfersmanager;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event loop which owns a subset of the accounts (see "ShardedTransfersManager").
+ * A single thread consumes the tasks from a lock-free queue, hence the accounts
+ * which belong to this shard only have one writer. When the queue is empty the
+ * thread spins for a while and then it gets parked until a new task is submitted.
+ */
+class TransfersShard implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(TransfersShard.class);
+
+    private static final int MAX_IDLE_SPINS = 1000;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean parked = new AtomicBoolean();
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    TransfersShard(int index) {
+        thread = new Thread(this, "transfers-shard-" + index);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void execute(Runnable task) {
+        // Tasks submitted by the shard itself (e.g., both accounts of an internal
+        // transfer belong to the same shard) do not need to go through the queue
+        if (Thread.currentThread() == thread) {
+            runTask(task);
+            return;
+        }
+
+        tasks.offer(task);
+
+        // The shard thread checks the queue again after setting the flag
+        // so either it sees the new task or we see the flag
+        if (parked.get()) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        log.debug("Shard event loop has been started");
+
+        int idleSpins = 0;
+        while (running) {
+            Runnable task = tasks.poll();
+
+            if (task != null) {
+                runTask(task);
+                idleSpins = 0;
+                continue;
+            }
+
+            if (idleSpins < MAX_IDLE_SPINS) {
+                idleSpins++;
+                Thread.onSpinWait();
+                continue;
+            }
+
+            parked.set(true);
+            if (running && tasks.isEmpty()) {
+                LockSupport.park(this);
+            }
+            parked.set(false);
+            idleSpins = 0;
+        }
+
+        log.debug("Shard event loop has been stopped");
+    }
+
+    void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException ex) {
+            // The tasks are expected to report their own errors,
+            // we just do not want to kill the event loop
+            log.error("Unexpected exception when running shard task", ex);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package net.devaction.transfersservice.core.account;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.util.id.HexIds;
+import net.devaction.transfersservice.core.archive.HistoryArchive;
+import net.devaction.transfersservice.core.archive.MappedHistoryArchive;
+import net.devaction.transfersservice.core.archive.NoOpHistoryArchive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class AccountHistoryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testAddAndGetAcrossChunks() {
+        AccountHistory history = new AccountHistory();
+        final int numOfItems = 3 * AccountHistory.CHUNK_SIZE + 7;
+
+        for (int i = 0; i < numOfItems; i++) {
+            history.add(String.format("%012x", i), "counterparty-" + (i % 5), 100L + i,
+                    i % 2 == 0 ? Direction.RECEIVED : Direction.SENT, 1581000000000L + i);
+        }
+
+        assertThat(history.size()).isEqualTo(numOfItems);
+        // Five counterparties
+        assertThat(history.getDictionarySize()).isEqualTo(5);
+
+        for (int i = 0; i < numOfItems; i++) {
+            AccountHistoryItem item = history.getItem(i);
+            assertThat(item.getTransferId()).isEqualTo(String.format("%012x", i));
+            assertThat(item.getCounterpartyAccountId()).isEqualTo("counterparty-" + (i % 5));
+            assertThat(item.getAmount()).isEqualTo(100L + i);
+            assertThat(item.getDirection()).isEqualTo(i % 2 == 0 ? Direction.RECEIVED : Direction.SENT);
+            assertThat(item.getTimestamp()).isEqualTo(1581000000000L + i);
+        }
+    }
+
+    @Test
+    public void testView() {
+        AccountHistory history = new AccountHistory();
+        for (int i = 0; i < AccountHistory.CHUNK_SIZE + 10; i++) {
+            history.add(String.format("%012x", i), "0e1f2f1b5612", 100L + i, Direction.RECEIVED, 1581000000000L + i);
+        }
+
+        List<AccountHistoryItem> view = history.view(AccountHistory.CHUNK_SIZE - 2, history.size());
+        assertThat(view).hasSize(12);
+        assertThat(view.get(0).getAmount()).isEqualTo(100L + AccountHistory.CHUNK_SIZE - 2);
+        assertThat(view.get(11).getTransferId()).isEqualTo(String.format("%012x", AccountHistory.CHUNK_SIZE + 9));
+
+        // The items added afterwards are not part of the view
+        history.add("00000000ffff", "0e1f2f1b5612", 1L, Direction.SENT, 1581000000000L);
+        assertThat(view).hasSize(12);
+
+        assertThatThrownBy(() -> view.get(12)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> view.add(view.get(0))).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> history.view(0, history.size() + 1)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThat(history.view(5, 5)).isEmpty();
+    }
+
+    @Test
+    public void testTransferIdsWhichAreNotLowerCaseHexadecimal() {
+        AccountHistory history = new AccountHistory();
+        history.add("9B6FFCBB26AB", "0e1f2f1b5612", 1L, Direction.RECEIVED, 1L);
+        history.add("transfer-1234567", "0e1f2f1b5612", 1L, Direction.RECEIVED, 1L);
+        history.add("00000000000a", "0e1f2f1b5612", 1L, Direction.RECEIVED, 1L);
+
+        assertThat(history.getTransferId(0)).isEqualTo("9B6FFCBB26AB");
+        assertThat(history.getTransferId(1)).isEqualTo("transfer-1234567");
+        assertThat(history.getTransferId(2)).isEqualTo("00000000000a");
+        assertThat(history.getEncodedTransferId(2)).isEqualTo(10L);
+    }
+
+    @Test
+    public void testNextIndexInRange() {
+        AccountHistory history = new AccountHistory();
+        final int numOfItems = 10 * AccountHistory.CHUNK_SIZE;
+        SplittableRandom random = new SplittableRandom(7L);
+
+        // Almost increasing timestamps, with a few late items
+        long[] timestamps = new long[numOfItems];
+        for (int i = 0; i < numOfItems; i++) {
+            timestamps[i] = random.nextInt(100) == 0 ? 1000L + random.nextInt(10 * i + 1) : 1000L + 10L * i;
+            history.add(String.format("%012x", i), "counterparty", 1L, Direction.RECEIVED, timestamps[i]);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            long from = 1000L + random.nextInt(10 * numOfItems);
+            long to = from + random.nextInt(20000);
+            int start = random.nextInt(numOfItems);
+
+            int expected = start;
+            while (expected < numOfItems && (timestamps[expected] < from || timestamps[expected] > to)) {
+                expected++;
+            }
+            assertThat(history.nextIndexInRange(start, numOfItems, from, to)).isEqualTo(expected);
+        }
+
+        assertThat(history.nextIndexInRange(0, numOfItems, 0L, 999L)).isEqualTo(numOfItems);
+        assertThat(history.nextIndexInRange(0, numOfItems, Long.MAX_VALUE, Long.MAX_VALUE)).isEqualTo(numOfItems);
+        assertThat(history.nextIndexInRange(0, numOfItems, 1000L, 1000L)).isZero();
+    }
+
+    @Test
+    public void testArchivedItemsAreReadBack() throws IOException, InterruptedException {
+        MappedHistoryArchive archive = new MappedHistoryArchive(directory, AccountHistory.CHUNK_SIZE, Long.MAX_VALUE);
+        AccountHistory history = new AccountHistory(archive);
+        final int numOfItems = 5 * AccountHistory.CHUNK_SIZE + 7;
+        SplittableRandom random = new SplittableRandom(11L);
+
+        // Negative amounts and late items (decreasing timestamps) too
+        long[] amounts = new long[numOfItems];
+        long[] timestamps = new long[numOfItems];
+        for (int i = 0; i < numOfItems; i++) {
+            amounts[i] = random.nextLong() >> random.nextInt(64);
+            timestamps[i] = random.nextInt(100) == 0 ? 1000L + random.nextInt(10 * i + 1) : 1000L + 10L * i;
+            history.add(HexIds.toHex(random.nextLong(1L << 48)), "counterparty-" + (i % 7), amounts[i],
+                    i % 3 == 0 ? Direction.RECEIVED : Direction.SENT, timestamps[i]);
+        }
+
+        // The chunk which is being written and the previous one are kept in memory
+        archive.awaitArchiving();
+        assertThat(history.getNumOfArchivedChunks()).isEqualTo(4);
+
+        for (int i = 0; i < numOfItems; i++) {
+            AccountHistoryItem item = history.getItem(i);
+            assertThat(item.getCounterpartyAccountId()).isEqualTo("counterparty-" + (i % 7));
+            assertThat(item.getAmount()).isEqualTo(amounts[i]);
+            assertThat(item.getDirection()).isEqualTo(i % 3 == 0 ? Direction.RECEIVED : Direction.SENT);
+            assertThat(item.getTimestamp()).isEqualTo(timestamps[i]);
+        }
+        assertThat(history.view(AccountHistory.CHUNK_SIZE - 1, AccountHistory.CHUNK_SIZE + 1)
+                .get(1).getAmount()).isEqualTo(amounts[AccountHistory.CHUNK_SIZE]);
+
+        for (int i = 0; i < 200; i++) {
+            long from = 1000L + random.nextInt(10 * numOfItems);
+            long to = from + random.nextInt(20000);
+            int start = random.nextInt(numOfItems);
+
+            int expected = start;
+            while (expected < numOfItems && (timestamps[expected] < from || timestamps[expected] > to)) {
+                expected++;
+            }
+            assertThat(history.nextIndexInRange(start, numOfItems, from, to)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testItemsOlderThanTheRetentionPeriodAreArchived() throws IOException, InterruptedException {
+        MappedHistoryArchive archive = new MappedHistoryArchive(directory, Integer.MAX_VALUE, 1000L);
+        AccountHistory history = new AccountHistory(archive);
+        for (int i = 0; i <= 3 * AccountHistory.CHUNK_SIZE; i++) {
+            history.add(String.format("%012x", i), "0e1f2f1b5612", 1L, Direction.RECEIVED, i);
+        }
+
+        // The newest item of the second chunk is only 1025 ms older than the newest item
+        archive.awaitArchiving();
+        assertThat(history.getNumOfArchivedChunks()).isEqualTo(2);
+        assertThat(history.getTimestamp(0)).isZero();
+        assertThat(history.getTransferId(2 * AccountHistory.CHUNK_SIZE - 1))
+                .isEqualTo(String.format("%012x", 2 * AccountHistory.CHUNK_SIZE - 1));
+    }
+
+    @Test
+    public void testItemsAreKeptWhenTheyCannotBeArchived() {
+        HistoryArchive fullArchive = new NoOpHistoryArchive() {
+            @Override
+            public int getNumOfRetainedItems() {
+                return 0;
+            }
+        };
+        AccountHistory history = new AccountHistory(fullArchive);
+        final int numOfItems = 3 * AccountHistory.CHUNK_SIZE;
+        for (int i = 0; i < numOfItems; i++) {
+            history.add(String.format("%012x", i), "0e1f2f1b5612", i, Direction.RECEIVED, i);
+        }
+
+        assertThat(history.getNumOfArchivedChunks()).isZero();
+        for (int i = 0; i < numOfItems; i++) {
+            assertThat(history.getAmount(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void testConcurrentReaderSeesCompleteItems() throws InterruptedException {
+        AccountHistory history = new AccountHistory();
+        final int numOfItems = 200000;
+        AtomicInteger numOfWrongItems = new AtomicInteger();
+
+        Thread reader = new Thread(() -> {
+            int size = 0;
+            while (size < numOfItems) {
+                size = history.size();
+                if (size > 0) {
+                    int index = size - 1;
+                    if (history.getAmount(index) != index || history.getCounterpartyAccountId(index) == null) {
+                        numOfWrongItems.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < numOfItems; i++) {
+            history.add(String.format("%012x", i), "counterparty-" + (i % 1000), i, Direction.RECEIVED, i);
+        }
+        reader.join();
+
+        assertThat(numOfWrongItems.get()).isZero();
+    }
+}
@@ -0,0 +1,252 @@
+package net.devaction.transfersservice.core.account;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.devaction.transfersservice.core.accountsmanager.AccountIsAlreadyBeingClosedException;
+
+class AccountLockManagerImplTest {
+
+    @Test
+    public void testLockAndUnlock() throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account = new Account("EUR");
+
+        assertThat(lockManager.lock(account)).isEqualTo(AccountMutex.ACCOUNT_IS_OPEN);
+        assertThat(account.getLock().isLocked()).isTrue();
+
+        lockManager.unlock(account);
+        assertThat(account.getLock().isLocked()).isFalse();
+
+        // The lock can be grabbed again once it has been released
+        assertThat(lockManager.lock(account)).isEqualTo(AccountMutex.ACCOUNT_IS_OPEN);
+        lockManager.unlock(account);
+    }
+
+    @Test
+    public void testWaitingThreadGetsInterrupted() throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account = new Account("EUR");
+
+        lockManager.lock(account);
+
+        AtomicReference<Exception> exceptionRef = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                lockManager.lock(account);
+            } catch (UnableToObtainMutexException ex) {
+                exceptionRef.set(ex);
+            }
+        });
+        thread.start();
+
+        // We wait until the other thread is parked waiting for the lock
+        while (account.getLock().getQueueLength() == 0) {
+            Thread.onSpinWait();
+        }
+
+        thread.interrupt();
+        thread.join();
+
+        lockManager.unlock(account);
+
+        assertThat(exceptionRef.get()).isInstanceOf(UnableToObtainMutexException.class);
+    }
+
+    @Test
+    public void testLockBothReleasesBothLocksWhenOneAccountIsClosed() throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account1 = new Account("EUR");
+        Account account2 = new Account("EUR");
+
+        lockManager.lock(account2);
+        lockManager.closeAndUnlock(account2);
+
+        try {
+            lockManager.lockBoth(account1, account2);
+            fail(AccountIsAlreadyBeingClosedException.class.getSimpleName() + " was not thrown");
+        } catch (AccountIsAlreadyBeingClosedException ex) {
+            // expected
+        }
+
+        assertThat(account1.getLock().isLocked()).isFalse();
+        assertThat(account2.getLock().isLocked()).isFalse();
+    }
+
+    @Test
+    public void testLockBothInOppositeDirections() throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account1 = new Account("EUR");
+        Account account2 = new Account("EUR");
+
+        final int numOfIterations = 20000;
+        AtomicReference<Exception> exceptionRef = new AtomicReference<>();
+
+        Thread thread1 = new Thread(() -> lockBothRepeatedly(lockManager, account1, account2,
+                numOfIterations, exceptionRef));
+        Thread thread2 = new Thread(() -> lockBothRepeatedly(lockManager, account2, account1,
+                numOfIterations, exceptionRef));
+
+        thread1.start();
+        thread2.start();
+        thread1.join();
+        thread2.join();
+
+        assertThat(exceptionRef.get()).isNull();
+    }
+
+    private void lockBothRepeatedly(AccountLockManager lockManager, Account account1, Account account2,
+            int numOfIterations, AtomicReference<Exception> exceptionRef) {
+
+        for (int i = 0; i < numOfIterations; i++) {
+            try {
+                lockManager.lockBoth(account1, account2);
+            } catch (UnableToObtainMutexException | AccountIsAlreadyBeingClosedException ex) {
+                exceptionRef.set(ex);
+                return;
+            }
+            lockManager.unlockBoth(account1, account2);
+        }
+    }
+
+    @Test
+    public void testLockAllReturnsTheClosedAccounts() throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account1 = new Account("EUR");
+        Account account2 = new Account("EUR");
+        Account account3 = new Account("EUR");
+
+        lockManager.lock(account2);
+        lockManager.closeAndUnlock(account2);
+
+        Set<Account> closedAccounts = lockManager.lockAll(Arrays.asList(account3, account1, account2));
+        assertThat(closedAccounts).containsExactly(account2);
+        assertThat(account1.getLock().isLocked()).isTrue();
+        assertThat(account2.getLock().isLocked()).isTrue();
+        assertThat(account3.getLock().isLocked()).isTrue();
+
+        lockManager.unlockAll(Arrays.asList(account1, account2, account3));
+        assertThat(account1.getLock().isLocked()).isFalse();
+        assertThat(account2.getLock().isLocked()).isFalse();
+        assertThat(account3.getLock().isLocked()).isFalse();
+    }
+
+    @Test
+    public void testWaitingThreadIsToldTheAccountHasBeenClosed() throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account = new Account("EUR");
+
+        lockManager.lock(account);
+
+        AtomicReference<AccountMutex> mutexRef = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                mutexRef.set(lockManager.lock(account));
+                lockManager.unlock(account);
+            } catch (UnableToObtainMutexException ex) {
+                fail(ex.getClass().getSimpleName() + " was thrown");
+            }
+        });
+        thread.start();
+
+        // We wait until the other thread is parked waiting for the lock
+        while (account.getLock().getQueueLength() == 0) {
+            Thread.onSpinWait();
+        }
+
+        lockManager.closeAndUnlock(account);
+        thread.join();
+
+        assertThat(mutexRef.get()).isEqualTo(AccountMutex.ACCOUNT_HAS_BEEN_CLOSED);
+    }
+
+    @Test
+    public void testWaitIsReportedAsHotAccount() throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account = new Account("EUR");
+
+        lockManager.lock(account);
+
+        Thread thread = new Thread(() -> {
+            try {
+                lockManager.lock(account);
+                lockManager.unlock(account);
+            } catch (UnableToObtainMutexException ex) {
+                fail(ex.getClass().getSimpleName() + " was thrown");
+            }
+        });
+        thread.start();
+
+        while (account.getLock().getQueueLength() == 0) {
+            Thread.onSpinWait();
+        }
+        Thread.sleep(10);
+
+        lockManager.unlock(account);
+        thread.join();
+
+        List<HotAccount> hotAccounts = AccountCounters.getHotAccounts(AccountCounters.NUM_OF_TRACKED_ACCOUNTS);
+        HotAccount hotAccount = hotAccounts.stream()
+                .filter(candidate -> candidate.getAccountId().equals(account.getId()))
+                .findFirst()
+                .orElseThrow();
+        assertThat(hotAccount.getContentions()).isGreaterThanOrEqualTo(1L);
+        assertThat(hotAccount.getWaitNanos()).isGreaterThanOrEqualTo(1_000_000L);
+        assertThat(hotAccount.getTimeouts()).isZero();
+    }
+
+    @Test
+    public void testContendedCounterIsConsistent() throws Exception {
+        checkContendedCounter(false);
+    }
+
+    @Test
+    public void testContendedCounterIsConsistentWithVirtualThreads() throws Exception {
+        // Half of the threads are virtual, they do not spin while waiting for the lock
+        checkContendedCounter(true);
+    }
+
+    private void checkContendedCounter(boolean virtualThreads) throws Exception {
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        Account account = new Account("EUR");
+
+        final int numOfThreads = 8;
+        final int numOfIncrements = 10000;
+        long[] counter = new long[1];
+
+        Thread[] threads = new Thread[numOfThreads];
+        for (int i = 0; i < numOfThreads; i++) {
+            Thread.Builder builder = virtualThreads && i % 2 == 0 ? Thread.ofVirtual() : Thread.ofPlatform();
+            threads[i] = builder.unstarted(() -> {
+                for (int j = 0; j < numOfIncrements; j++) {
+                    try {
+                        lockManager.lock(account);
+                    } catch (UnableToObtainMutexException ex) {
+                        fail(ex.getClass().getSimpleName() + " was thrown");
+                        return;
+                    }
+                    try {
+                        counter[0]++;
+                    } finally {
+                        lockManager.unlock(account);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(counter[0]).isEqualTo((long) numOfThreads * numOfIncrements);
+    }
+}
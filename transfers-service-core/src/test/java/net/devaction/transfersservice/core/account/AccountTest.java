@@ -0,0 +1,97 @@
+package net.devaction.transfersservice.core.account;
+
+import org.junit.jupiter.api.Test;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+class AccountTest {
+
+    // The readers never wait for the writer and never get a balance
+    // which does not match the history
+    @Test
+    public void testAccountInfoIsConsistentWhileWriting() throws Exception {
+        Account account = new Account("EUR");
+
+        final int numOfTransfers = 2000;
+        final int numOfReaders = 2;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> errorRef = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < numOfTransfers; i++) {
+                    account.add(new Transfer("external-account-3c2f", EXTERNAL, account.getId(), INTERNAL,
+                            100L, "EUR"));
+                }
+            } catch (Exception ex) {
+                errorRef.set(ex);
+            } finally {
+                writing.set(false);
+            }
+        });
+
+        Thread[] readers = new Thread[numOfReaders];
+        for (int i = 0; i < numOfReaders; i++) {
+            readers[i] = new Thread(() -> {
+                try {
+                    do {
+                        AccountInfo accountInfo = account.getAccountInfo();
+                        assertThat(accountInfo.getBalance()).isEqualTo(100L * accountInfo.getHistory().size());
+                    } while (writing.get());
+                } catch (Throwable ex) {
+                    errorRef.set(ex);
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertThat(errorRef.get()).isNull();
+        AccountInfo accountInfo = account.getAccountInfo();
+        assertThat(accountInfo.getBalance()).isEqualTo(100L * numOfTransfers);
+        assertThat(accountInfo.getHistory()).hasSize(numOfTransfers);
+    }
+
+    @Test
+    public void testHistoryPagesWithoutTimeRange() throws Exception {
+        Account account = new Account("EUR");
+        for (int i = 0; i < 25; i++) {
+            account.add(new Transfer("external-account-3c2f", EXTERNAL, account.getId(), INTERNAL, 1L + i, "EUR"));
+        }
+
+        AccountInfo firstPage = account.getAccountInfo(0, Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertThat(firstPage.getHistory()).hasSize(10);
+        assertThat(firstPage.getHistory().get(0).getAmount()).isEqualTo(1L);
+        assertThat(firstPage.getNextCursor()).isEqualTo("10");
+
+        AccountInfo lastPage = account.getAccountInfo(20, Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertThat(lastPage.getHistory()).extracting(item -> item.getAmount())
+                .containsExactly(21L, 22L, 23L, 24L, 25L);
+        assertThat(lastPage.getNextCursor()).isNull();
+
+        // The same page with a time range which includes every item
+        AccountInfo rangePage = account.getAccountInfo(20, 0L, Long.MAX_VALUE - 1L, 10);
+        assertThat(rangePage.getHistory()).extracting(item -> item.getTransferId())
+                .containsExactlyElementsOf(lastPage.getHistory().stream().map(item -> item.getTransferId())
+                        .collect(Collectors.toList()));
+        assertThat(rangePage.getNextCursor()).isNull();
+        assertThat(account.getAccountInfo(25, Long.MIN_VALUE, Long.MAX_VALUE, 10).getHistory()).isEmpty();
+    }
+}
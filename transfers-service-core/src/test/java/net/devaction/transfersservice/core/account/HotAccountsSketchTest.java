@@ -0,0 +1,64 @@
+package net.devaction.transfersservice.core.account;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Random;
+
+import net.devaction.transfersservice.api.util.id.HexIds;
+
+class HotAccountsSketchTest {
+
+    @Test
+    public void testExactCountsBelowCapacity() {
+        HotAccountsSketch sketch = new HotAccountsSketch(4);
+        sketch.record(1L, 100L, 2, false);
+        sketch.record(2L, 50L, 0, true);
+        sketch.record(1L, 300L, 4, false);
+
+        List<HotAccount> hotAccounts = sketch.getHotAccounts(10);
+        assertThat(hotAccounts).hasSize(2);
+
+        HotAccount hottest = hotAccounts.get(0);
+        assertThat(hottest.getAccountId()).isEqualTo(HexIds.toHex(1L));
+        assertThat(hottest.getContentions()).isEqualTo(2L);
+        assertThat(hottest.getOverestimation()).isZero();
+        assertThat(hottest.getWaitNanos()).isEqualTo(400L);
+        assertThat(hottest.getSpins()).isEqualTo(6L);
+        assertThat(hottest.getTimeouts()).isZero();
+
+        assertThat(hotAccounts.get(1).getTimeouts()).isEqualTo(1L);
+        assertThat(sketch.getHotAccounts(1)).hasSize(1);
+
+        sketch.clear();
+        assertThat(sketch.getHotAccounts(10)).isEmpty();
+    }
+
+    // The accounts with more events than the total divided by the capacity are always kept
+    @Test
+    public void testHeavyHittersAreKept() {
+        final int capacity = 16;
+        HotAccountsSketch sketch = new HotAccountsSketch(capacity);
+        Random random = new Random(42L);
+
+        final int numOfEvents = 100000;
+        long[] hotAccountIds = {0xaaaaL, 0xbbbbL, 0xccccL};
+        for (int i = 0; i < numOfEvents; i++) {
+            // 30% of the events go to three accounts, the rest to many cold accounts
+            long accountId = random.nextInt(10) < 3 ? hotAccountIds[random.nextInt(3)] : 0x10000L + random.nextInt(5000);
+            sketch.record(accountId, 1L, 0, false);
+        }
+
+        List<HotAccount> hotAccounts = sketch.getHotAccounts(3);
+        assertThat(hotAccounts).extracting(HotAccount::getAccountId)
+                .containsExactlyInAnyOrder(HexIds.toHex(0xaaaaL), HexIds.toHex(0xbbbbL), HexIds.toHex(0xccccL));
+        for (HotAccount hotAccount : hotAccounts) {
+            // Around 10000 events each, the error is bounded by the total divided by the capacity
+            assertThat(hotAccount.getContentions() - hotAccount.getOverestimation())
+                    .isLessThanOrEqualTo(11000L).isGreaterThan(9000L);
+            assertThat(hotAccount.getOverestimation()).isLessThanOrEqualTo(numOfEvents / capacity);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package net.devaction.transfersservice.core.account;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+class OffHeapAccountRegistryTest {
+
+    private static final String EXTERNAL_ACCOUNT_ID = "external-account-3c2f";
+
+    @Test
+    public void testPutGetAndRemove() {
+        AccountRegistry registry = new OffHeapAccountRegistry(16);
+        AccountHistory history = new AccountHistory();
+        history.add("00000000000a", "0e1f2f1b5612", 500L, Direction.RECEIVED, 1581000000000L);
+        registry.put(new Account("9b6ffcbb26ab", "EUR", 500L, history, 7L));
+        assertThat(registry.putIfAbsent(new Account("0e1f2f1b5612", "USD"))).isNull();
+
+        Account account1 = registry.get("9b6ffcbb26ab");
+        assertThat(account1.getId()).isEqualTo("9b6ffcbb26ab");
+        assertThat(account1.getCurrency()).isEqualTo("EUR");
+        assertThat(account1.getBalance()).isEqualTo(500L);
+        assertThat(account1.getJournalSequence()).isEqualTo(7L);
+        assertThat(account1.getHistory()).isSameAs(history);
+        assertThat(registry.get(0x0e1f2f1b5612L).getCurrency()).isEqualTo("USD");
+        assertThat(registry.get(0x0e1f2f1b5612L).getHistory().size()).isZero();
+        assertThat(registry.size()).isEqualTo(2);
+
+        // Every lookup returns a new object for the same account
+        assertThat(registry.get("9b6ffcbb26ab")).isNotSameAs(account1).isEqualTo(account1);
+        account1.setJournalSequence(8L);
+        assertThat(registry.get("9b6ffcbb26ab").getJournalSequence()).isEqualTo(8L);
+
+        assertThat(registry.putIfAbsent(new Account("9b6ffcbb26ab", "EUR"))).isEqualTo(account1);
+        assertThat(account1.getBalance()).isEqualTo(500L);
+        registry.put(new Account("9b6ffcbb26ab", "EUR"));
+        assertThat(account1.getBalance()).isZero();
+        assertThat(account1.getHistory().size()).isZero();
+        assertThat(registry.size()).isEqualTo(2);
+
+        assertThat(registry.remove("9b6ffcbb26ab")).isEqualTo(account1);
+        assertThat(registry.remove("9b6ffcbb26ab")).isNull();
+        assertThat(registry.get("9b6ffcbb26ab")).isNull();
+        assertThat(registry.contains("0e1f2f1b5612")).isTrue();
+        assertThat(registry.get("external-account-3c2f")).isNull();
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry).extracting(Account::getId).containsExactly("0e1f2f1b5612");
+    }
+
+    @Test
+    public void testTransfers() throws Exception {
+        AccountRegistry registry = new OffHeapAccountRegistry();
+        registry.put(new Account("9b6ffcbb26ab", "EUR"));
+        registry.put(new Account("0e1f2f1b5612", "EUR"));
+
+        Account account1 = registry.get("9b6ffcbb26ab");
+        account1.add(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, "9b6ffcbb26ab", INTERNAL, 1000L, "EUR"));
+        Transfer transfer = new Transfer("9b6ffcbb26ab", INTERNAL, "0e1f2f1b5612", INTERNAL, 300L, "EUR");
+        account1.add(transfer);
+        registry.get("0e1f2f1b5612").add(transfer);
+
+        AccountInfo accountInfo1 = registry.get("9b6ffcbb26ab").getAccountInfo();
+        assertThat(accountInfo1.getBalance()).isEqualTo(700L);
+        assertThat(accountInfo1.getHistory()).extracting(item -> item.getAmount()).containsExactly(1000L, 300L);
+        AccountInfo accountInfo2 = registry.get("0e1f2f1b5612").getAccountInfo(0, Long.MIN_VALUE, Long.MAX_VALUE, 1);
+        assertThat(accountInfo2.getBalance()).isEqualTo(300L);
+        assertThat(accountInfo2.getHistory().get(0).getCounterpartyAccountId()).isEqualTo("9b6ffcbb26ab");
+        assertThat(accountInfo2.getNextCursor()).isNull();
+
+        assertThatThrownBy(() -> account1.add(new Transfer("9b6ffcbb26ab", INTERNAL, "0e1f2f1b5612", INTERNAL,
+                701L, "EUR"))).isInstanceOf(NotEnoughBalanceException.class);
+        // The balance and the history are left untouched
+        assertThat(account1.getBalance()).isEqualTo(700L);
+        assertThat(account1.getHistory().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLocksAreSharedByTheObjectsOfTheSameAccount() throws Exception {
+        AccountRegistry registry = new OffHeapAccountRegistry();
+        registry.put(new Account("9b6ffcbb26ab", "EUR"));
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        OffHeapAccount account = (OffHeapAccount) registry.get("9b6ffcbb26ab");
+
+        assertThat(lockManager.lock(account)).isEqualTo(AccountMutex.ACCOUNT_IS_OPEN);
+
+        AtomicReference<AccountMutex> mutexRef = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                Account sameAccount = registry.get("9b6ffcbb26ab");
+                mutexRef.set(lockManager.lock(sameAccount));
+                lockManager.unlock(sameAccount);
+            } catch (UnableToObtainMutexException ex) {
+                // The assertion below fails
+            }
+        });
+        thread.start();
+
+        // We wait until the other thread is parked waiting for the lock
+        while (account.getTable().getQueueLength(account.getSlot()) == 0) {
+            Thread.onSpinWait();
+        }
+        lockManager.closeAndUnlock(account);
+        thread.join();
+
+        assertThat(mutexRef.get()).isEqualTo(AccountMutex.ACCOUNT_HAS_BEEN_CLOSED);
+        assertThat(account.getTable().isLocked(account.getSlot())).isFalse();
+        assertThat(account.getTable().getQueueLength(account.getSlot())).isZero();
+    }
+
+    @Test
+    public void testWaitingThreadGetsInterrupted() throws Exception {
+        AccountRegistry registry = new OffHeapAccountRegistry();
+        registry.put(new Account("9b6ffcbb26ab", "EUR"));
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        OffHeapAccount account = (OffHeapAccount) registry.get("9b6ffcbb26ab");
+        lockManager.lock(account);
+
+        AtomicReference<Exception> exceptionRef = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                lockManager.lock(registry.get("9b6ffcbb26ab"));
+            } catch (UnableToObtainMutexException ex) {
+                exceptionRef.set(ex);
+            }
+        });
+        thread.start();
+
+        while (account.getTable().getQueueLength(account.getSlot()) == 0) {
+            Thread.onSpinWait();
+        }
+        thread.interrupt();
+        thread.join();
+
+        assertThat(exceptionRef.get()).isInstanceOf(UnableToObtainMutexException.class);
+        assertThat(account.getTable().getQueueLength(account.getSlot())).isZero();
+        lockManager.unlock(account);
+        assertThat(lockManager.lock(account)).isEqualTo(AccountMutex.ACCOUNT_IS_OPEN);
+        lockManager.unlock(account);
+    }
+
+    // The record of a removed account is reused by a new account
+    @Test
+    public void testRemovedAccountIsClosedForThePreviousObjects() throws Exception {
+        AccountRegistry registry = new OffHeapAccountRegistry();
+        registry.put(new Account("9b6ffcbb26ab", "EUR", 500L, new AccountHistory(), 0L));
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        OffHeapAccount removedAccount = (OffHeapAccount) registry.get("9b6ffcbb26ab");
+
+        registry.remove("9b6ffcbb26ab");
+        registry.put(new Account("0e1f2f1b5612", "EUR", 100L, new AccountHistory(), 0L));
+        OffHeapAccount newAccount = (OffHeapAccount) registry.get("0e1f2f1b5612");
+        assertThat(newAccount.getSlot()).isEqualTo(removedAccount.getSlot());
+
+        assertThat(lockManager.lock(removedAccount)).isEqualTo(AccountMutex.ACCOUNT_HAS_BEEN_CLOSED);
+        lockManager.unlock(removedAccount);
+        assertThat(removedAccount.getAccountInfo().getBalance()).isZero();
+        assertThat(lockManager.lock(newAccount)).isEqualTo(AccountMutex.ACCOUNT_IS_OPEN);
+        lockManager.unlock(newAccount);
+        assertThat(newAccount.getAccountInfo().getBalance()).isEqualTo(100L);
+    }
+
+    // The readers never get a balance which does not match the history
+    @Test
+    public void testAccountInfoIsConsistentWhileWriting() throws Exception {
+        AccountRegistry registry = new OffHeapAccountRegistry();
+        registry.put(new Account("9b6ffcbb26ab", "EUR"));
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+
+        final int numOfTransfersPerWriter = 2000;
+        final int numOfWriters = 2;
+        AtomicInteger numOfActiveWriters = new AtomicInteger(numOfWriters);
+        AtomicReference<Throwable> errorRef = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numOfWriters; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < numOfTransfersPerWriter; j++) {
+                        Account account = registry.get("9b6ffcbb26ab");
+                        lockManager.lock(account);
+                        try {
+                            account.add(new Transfer(EXTERNAL_ACCOUNT_ID, EXTERNAL, "9b6ffcbb26ab", INTERNAL,
+                                    100L, "EUR"));
+                        } finally {
+                            lockManager.unlock(account);
+                        }
+                    }
+                } catch (Exception ex) {
+                    errorRef.set(ex);
+                } finally {
+                    numOfActiveWriters.decrementAndGet();
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                do {
+                    AccountInfo accountInfo = registry.get("9b6ffcbb26ab").getAccountInfo();
+                    assertThat(accountInfo.getBalance()).isEqualTo(100L * accountInfo.getHistory().size());
+                } while (numOfActiveWriters.get() > 0);
+            } catch (Throwable ex) {
+                errorRef.set(ex);
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(errorRef.get()).isNull();
+        AccountInfo accountInfo = registry.get("9b6ffcbb26ab").getAccountInfo();
+        assertThat(accountInfo.getBalance()).isEqualTo(100L * numOfWriters * numOfTransfersPerWriter);
+        assertThat(accountInfo.getHistory()).hasSize(numOfWriters * numOfTransfersPerWriter);
+    }
+
+    // A reader which keeps on finding the record being written waits for the lock of the account
+    @Test
+    public void testReaderTakesTheLockAfterRepeatedConflicts() throws Exception {
+        AccountRegistry registry = new OffHeapAccountRegistry();
+        registry.put(new Account("9b6ffcbb26ab", "EUR", 500L, new AccountHistory(), 0L));
+        AccountLockManager lockManager = new AccountLockManagerImpl();
+        OffHeapAccount account = (OffHeapAccount) registry.get("9b6ffcbb26ab");
+        OffHeapAccountTable table = account.getTable();
+
+        lockManager.lock(account);
+        table.beginWrite(account.getSlot());
+        AtomicReference<AccountInfo> accountInfoRef = new AtomicReference<>();
+        Thread reader = new Thread(() -> accountInfoRef.set(registry.get("9b6ffcbb26ab").getAccountInfo()));
+        reader.start();
+
+        while (table.getQueueLength(account.getSlot()) == 0) {
+            Thread.onSpinWait();
+        }
+        table.setBalance(account.getSlot(), 600L);
+        table.endWrite(account.getSlot());
+        lockManager.unlock(account);
+        reader.join();
+
+        assertThat(accountInfoRef.get().getBalance()).isEqualTo(600L);
+        assertThat(table.isLocked(account.getSlot())).isFalse();
+    }
+
+    @Test
+    public void testGrowAndReuseRemovedSlots() throws Exception {
+        OffHeapAccountRegistry registry = new OffHeapAccountRegistry(16);
+        for (int i = 0; i < 100000; i++) {
+            registry.put(new Account(String.format("%012x", i), "EUR"));
+        }
+        for (int i = 0; i < 100000; i += 2) {
+            registry.remove(String.format("%012x", i));
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i++) {
+                registry.put(new Account(String.format("%012x", 1000000 + i), "EUR"));
+            }
+            for (int i = 0; i < 1000; i++) {
+                registry.remove(String.format("%012x", 1000000 + i));
+            }
+        }
+
+        assertThat(registry.size()).isEqualTo(50000);
+        for (int i = 0; i < 100000; i++) {
+            Account account = registry.get(String.format("%012x", i));
+            if (i % 2 == 0) {
+                assertThat(account).isNull();
+            } else {
+                assertThat(account.getId()).isEqualTo(String.format("%012x", i));
+            }
+        }
+
+        List<Account> accounts = new ArrayList<>();
+        registry.forEach(accounts::add);
+        assertThat(accounts).hasSize(50000);
+
+        registry.clear();
+        assertThat(registry.size()).isZero();
+        assertThat(registry).isEmpty();
+    }
+
+    @Test
+    public void testLookupsWhileTheTableGrows() throws Exception {
+        AccountRegistry registry = new OffHeapAccountRegistry(16);
+        registry.put(new Account("9b6ffcbb26ab", "EUR", 500L, new AccountHistory(), 0L));
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger numOfMisses = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    Account account = registry.get("9b6ffcbb26ab");
+                    if (account == null || account.getBalance() != 500L) {
+                        numOfMisses.incrementAndGet();
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        for (int i = 0; i < 500000; i++) {
+            registry.put(new Account(String.format("%012x", i), "EUR"));
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertThat(numOfMisses.get()).isZero();
+        assertThat(registry.size()).isEqualTo(500001);
+    }
+}
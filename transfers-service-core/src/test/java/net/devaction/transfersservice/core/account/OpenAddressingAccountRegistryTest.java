@@ -0,0 +1,124 @@
+package net.devaction.transfersservice.core.account;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OpenAddressingAccountRegistryTest {
+
+    @Test
+    public void testPutGetAndRemove() {
+        AccountRegistry registry = new OpenAddressingAccountRegistry(16);
+        Account account1 = new Account("9b6ffcbb26ab", "EUR");
+        Account account2 = new Account("0e1f2f1b5612", "EUR");
+
+        registry.put(account1);
+        assertThat(registry.putIfAbsent(account2)).isNull();
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(registry.get("9b6ffcbb26ab")).isSameAs(account1);
+        assertThat(registry.get(0x0e1f2f1b5612L)).isSameAs(account2);
+        assertThat(registry.contains("0e1f2f1b5612")).isTrue();
+
+        // An account with the same id
+        Account otherAccount1 = new Account("9b6ffcbb26ab", "EUR");
+        assertThat(registry.putIfAbsent(otherAccount1)).isSameAs(account1);
+        assertThat(registry.get("9b6ffcbb26ab")).isSameAs(account1);
+        registry.put(otherAccount1);
+        assertThat(registry.get("9b6ffcbb26ab")).isSameAs(otherAccount1);
+        assertThat(registry.size()).isEqualTo(2);
+
+        assertThat(registry.remove("9b6ffcbb26ab")).isSameAs(otherAccount1);
+        assertThat(registry.remove("9b6ffcbb26ab")).isNull();
+        assertThat(registry.get("9b6ffcbb26ab")).isNull();
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry).containsExactly(account2);
+    }
+
+    @Test
+    public void testIdsWhichAreNotHexadecimal() {
+        AccountRegistry registry = new OpenAddressingAccountRegistry();
+        registry.put(new Account("9b6ffcbb26ab", "EUR"));
+
+        assertThat(registry.get("external-account-3c2f")).isNull();
+        assertThat(registry.get("9B6FFCBB26AB")).isNull();
+        assertThat(registry.get((String) null)).isNull();
+        assertThat(registry.contains("")).isFalse();
+        assertThat(registry.remove("external-account-3c2f")).isNull();
+    }
+
+    @Test
+    public void testGrowAndReuseRemovedSlots() {
+        AccountRegistry registry = new OpenAddressingAccountRegistry(16);
+        for (int i = 0; i < 100000; i++) {
+            registry.put(new Account(String.format("%012x", i), "EUR"));
+        }
+        for (int i = 0; i < 100000; i += 2) {
+            registry.remove(String.format("%012x", i));
+        }
+        // The slots of the removed accounts are reused or dropped when the table is rebuilt
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 1000; i++) {
+                registry.put(new Account(String.format("%012x", 1000000 + i), "EUR"));
+            }
+            for (int i = 0; i < 1000; i++) {
+                registry.remove(String.format("%012x", 1000000 + i));
+            }
+        }
+
+        assertThat(registry.size()).isEqualTo(50000);
+        for (int i = 0; i < 100000; i++) {
+            Account account = registry.get(String.format("%012x", i));
+            if (i % 2 == 0) {
+                assertThat(account).isNull();
+            } else {
+                assertThat(account.getId()).isEqualTo(String.format("%012x", i));
+            }
+        }
+
+        List<Account> accounts = new ArrayList<>();
+        registry.forEach(accounts::add);
+        assertThat(accounts).hasSize(50000);
+
+        registry.clear();
+        assertThat(registry.size()).isZero();
+        assertThat(registry).isEmpty();
+    }
+
+    @Test
+    public void testLookupsWhileTheTableGrows() throws Exception {
+        AccountRegistry registry = new OpenAddressingAccountRegistry(16);
+        Account account = new Account("9b6ffcbb26ab", "EUR");
+        registry.put(account);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger numOfMisses = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    if (registry.get("9b6ffcbb26ab") != account) {
+                        numOfMisses.incrementAndGet();
+                    }
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        for (int i = 0; i < 500000; i++) {
+            registry.put(new Account(String.format("%012x", i), "EUR"));
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertThat(numOfMisses.get()).isZero();
+        assertThat(registry.size()).isEqualTo(500001);
+    }
+}
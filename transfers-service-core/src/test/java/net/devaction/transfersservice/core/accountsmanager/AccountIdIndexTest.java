@@ -0,0 +1,49 @@
+package net.devaction.transfersservice.core.accountsmanager;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class AccountIdIndexTest {
+
+    @Test
+    public void testGetPage() {
+        AccountIdIndex index = new AccountIdIndex();
+        for (int i = 0; i < 1000; i++) {
+            index.add(String.format("%012x", i));
+        }
+        index.remove(String.format("%012x", 5));
+
+        List<String> firstPage = index.getPage("", null, 3);
+        assertThat(firstPage).containsExactly("000000000000", "000000000001", "000000000002");
+
+        List<String> secondPage = index.getPage("", firstPage.get(2), 3);
+        assertThat(secondPage).containsExactly("000000000003", "000000000004", "000000000006");
+
+        // Ids from 0x100 to 0x1ff
+        List<String> prefixIds = new ArrayList<>();
+        String after = null;
+        List<String> page;
+        do {
+            page = index.getPage("0000000001", after, 30);
+            prefixIds.addAll(page);
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1);
+            }
+        } while (page.size() == 30);
+
+        assertThat(prefixIds).hasSize(256);
+        assertThat(prefixIds.get(0)).isEqualTo("000000000100");
+        assertThat(prefixIds.get(255)).isEqualTo("0000000001ff");
+        assertThat(prefixIds).isSorted();
+
+        // "after" is before the prefix
+        assertThat(index.getPage("0000000003", "000000000001", 2))
+                .containsExactly("000000000300", "000000000301");
+        assertThat(index.getPage("ffff", null, 10)).isEmpty();
+        assertThat(new ArrayList<>(index.getAll())).hasSize(999).isSorted();
+    }
+}
@@ -3,16 +3,26 @@ package net.devaction.transfersservice.core.accountsmanager;
 import org.junit.jupiter.api.Test;
 
 import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.account.Direction;
 import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
 import net.devaction.transfersservice.core.transfersmanager.InvalidCurrencyException;
 import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
 
 import static org.junit.jupiter.api.Assertions.fail;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Víctor Gil
@@ -20,8 +30,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * since February 2020
  */
 class AccountsManagerImplTest {
-    private final AccountsManager manager = new AccountsManagerImpl(
-            new ConcurrentHashMap<String, Account>(), new TransferCheckerImpl());
+    private final AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+    private final AccountsManager manager = new AccountsManagerImpl(accountRegistry, new TransferCheckerImpl(),
+            new AccountLockManagerImpl(), new NoOpJournal());
 
     @Test
     public void testOpenAndCloseAccount() {
@@ -44,6 +55,30 @@ class AccountsManagerImplTest {
         }
     }
 
+    @Test
+    public void testAccountIsStillOpenWhenItsClosingCannotBeJournaled() throws Exception {
+        AtomicBoolean journalFails = new AtomicBoolean(true);
+        Journal journal = new NoOpJournal() {
+            @Override
+            public long appendAccountClosed(String accountId) {
+                if (journalFails.get()) {
+                    throw new IllegalStateException("The journal has been closed");
+                }
+                return super.appendAccountClosed(accountId);
+            }
+        };
+        AccountsManager failingManager = new AccountsManagerImpl(accountRegistry, new TransferCheckerImpl(),
+                new AccountLockManagerImpl(), journal);
+        String accountId = failingManager.openNewAccount("USD");
+
+        assertThatThrownBy(() -> failingManager.closeAccount(accountId)).isInstanceOf(IllegalStateException.class);
+        assertThat(failingManager.getBalance(accountId)).isZero();
+
+        journalFails.set(false);
+        failingManager.closeAccount(accountId);
+        assertThat(accountRegistry.contains(accountId)).isFalse();
+    }
+
     @Test
     public void testGetBalanceAndAccountInfo() {
 
@@ -81,6 +116,44 @@ class AccountsManagerImplTest {
         assertThat(info.getHistory()).hasSize(0);
     }
 
+    @Test
+    public void testGetAccountInfoPages() {
+        final String accountId = "0e1f2f1b5612";
+        AccountHistory history = new AccountHistory();
+        for (int i = 0; i < 25; i++) {
+            history.add(String.format("%012x", i), "9b6ffcbb26ab", 100L, Direction.RECEIVED, 1581000000000L + i);
+        }
+        accountRegistry.put(new Account(accountId, "EUR", 2500L, history, 0L));
+
+        List<String> transferIds = new ArrayList<>();
+        String cursor = null;
+        try {
+            do {
+                AccountInfo info = manager.getAccountInfo(accountId, cursor, 1581000000005L, 1581000000019L, 4);
+                assertThat(info.getBalance()).isEqualTo(2500L);
+                assertThat(info.getHistory().size()).isBetween(1, 4);
+                info.getHistory().forEach(item -> transferIds.add(item.getTransferId()));
+                cursor = info.getNextCursor();
+            } while (cursor != null);
+        } catch (Exception ex) {
+            fail(ex.getClass().getSimpleName() + " was thrown");
+            return;
+        }
+
+        assertThat(transferIds).hasSize(15);
+        assertThat(transferIds.get(0)).isEqualTo(String.format("%012x", 5));
+        assertThat(transferIds.get(14)).isEqualTo(String.format("%012x", 19));
+
+        assertThatThrownBy(() -> manager.getAccountInfo(accountId, "26", Long.MIN_VALUE, Long.MAX_VALUE, 10))
+                .isInstanceOf(InvalidHistoryQueryException.class);
+        assertThatThrownBy(() -> manager.getAccountInfo(accountId, "abc", Long.MIN_VALUE, Long.MAX_VALUE, 10))
+                .isInstanceOf(InvalidHistoryQueryException.class);
+        assertThatThrownBy(() -> manager.getAccountInfo(accountId, null, Long.MIN_VALUE, Long.MAX_VALUE, 0))
+                .isInstanceOf(InvalidHistoryQueryException.class);
+        assertThatThrownBy(() -> manager.getAccountInfo(accountId, null, 2L, 1L, 10))
+                .isInstanceOf(InvalidHistoryQueryException.class);
+    }
+
     @Test
     public void testGetAllAccountIds() {
 
@@ -99,4 +172,58 @@ class AccountsManagerImplTest {
         assertThat(allAccountIds).hasSize(2);
         assertThat(allAccountIds).contains(accountId1, accountId2);
     }
+
+    @Test
+    public void testGetAccountIdsPages() {
+        final int numOfAccounts = 25;
+
+        List<String> openedAccountIds = new ArrayList<>();
+        try {
+            for (int i = 0; i < numOfAccounts; i++) {
+                openedAccountIds.add(manager.openNewAccount("EUR"));
+            }
+            manager.closeAccount(openedAccountIds.remove(0));
+        } catch (Exception ex) {
+            fail(ex.getClass().getSimpleName() + " was thrown");
+            return;
+        }
+
+        List<String> accountIds = new ArrayList<>();
+        String after = null;
+        try {
+            List<String> page;
+            do {
+                page = manager.getAccountIds(null, after, 10);
+                accountIds.addAll(page);
+                if (!page.isEmpty()) {
+                    after = page.get(page.size() - 1);
+                }
+            } while (page.size() == 10);
+        } catch (InvalidAccountIdsQueryException ex) {
+            fail(InvalidAccountIdsQueryException.class.getSimpleName() + " was thrown");
+            return;
+        }
+
+        assertThat(accountIds).hasSize(numOfAccounts - 1);
+        assertThat(accountIds).isSorted();
+        assertThat(accountIds).containsExactlyInAnyOrderElementsOf(openedAccountIds);
+        assertThat(manager.getAllAccountIds()).containsExactlyElementsOf(accountIds);
+
+        assertThatThrownBy(() -> manager.getAccountIds(null, null, 0))
+                .isInstanceOf(InvalidAccountIdsQueryException.class);
+        assertThatThrownBy(() -> manager.getAccountIds(null, null, AccountsManagerImpl.MAX_ACCOUNT_IDS_PAGE_SIZE + 1))
+                .isInstanceOf(InvalidAccountIdsQueryException.class);
+    }
+
+    @Test
+    public void testAccountsLoadedBeforeCreatingTheManagerAreIndexed() {
+        AccountRegistry loadedAccountRegistry = new OpenAddressingAccountRegistry();
+        loadedAccountRegistry.put(new Account("9b6ffcbb26ab", "EUR"));
+        loadedAccountRegistry.put(new Account("0e1f2f1b5612", "EUR"));
+
+        AccountsManager loadedManager = new AccountsManagerImpl(loadedAccountRegistry, new TransferCheckerImpl(),
+                new AccountLockManagerImpl(), new NoOpJournal());
+
+        assertThat(loadedManager.getAllAccountIds()).containsExactly("0e1f2f1b5612", "9b6ffcbb26ab");
+    }
 }
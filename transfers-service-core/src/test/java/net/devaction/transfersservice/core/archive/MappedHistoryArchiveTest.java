@@ -0,0 +1,98 @@
+package net.devaction.transfersservice.core.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+class MappedHistoryArchiveTest {
+
+    private static final long SMALL_SEGMENT_SIZE = 4 * 1024L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testAppendAndReadAcrossSegments() throws IOException {
+        MappedHistoryArchive archive = new MappedHistoryArchive(directory, 10, Long.MAX_VALUE, SMALL_SEGMENT_SIZE);
+
+        final int numOfRecords = 100;
+        long[] positions = new long[numOfRecords];
+        for (int i = 0; i < numOfRecords; i++) {
+            positions[i] = archive.append(record(i), 100 + i);
+            assertThat(positions[i]).isNotEqualTo(HistoryArchive.NOT_ARCHIVED);
+        }
+
+        for (int i = 0; i < numOfRecords; i++) {
+            ByteBuffer buffer = archive.read(positions[i]);
+            assertThat(buffer.remaining()).isEqualTo(100 + i);
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            assertThat(data).isEqualTo(Arrays.copyOf(record(i), 100 + i));
+        }
+
+        assertThat(countSegments()).isGreaterThan(1L);
+        assertThat(archive.getArchivedBytes()).isEqualTo(numOfRecords * (Integer.BYTES + 100L)
+                + (numOfRecords - 1) * numOfRecords / 2);
+    }
+
+    @Test
+    public void testDataLargerThanASegmentIsNotArchived() throws IOException {
+        MappedHistoryArchive archive = new MappedHistoryArchive(directory, 10, Long.MAX_VALUE, SMALL_SEGMENT_SIZE);
+
+        byte[] data = new byte[(int) SMALL_SEGMENT_SIZE];
+        assertThat(archive.append(data, data.length)).isEqualTo(HistoryArchive.NOT_ARCHIVED);
+        assertThat(archive.append(data, data.length - Integer.BYTES)).isNotEqualTo(HistoryArchive.NOT_ARCHIVED);
+    }
+
+    @Test
+    public void testNothingIsArchivedOnceTheArchiveIsFull() throws IOException {
+        MappedHistoryArchive archive = new MappedHistoryArchive(directory, 10, Long.MAX_VALUE, SMALL_SEGMENT_SIZE,
+                2 * SMALL_SEGMENT_SIZE + 1);
+
+        int numOfArchived = 0;
+        for (int i = 0; i < 100; i++) {
+            if (archive.append(record(i), 100) != HistoryArchive.NOT_ARCHIVED) {
+                numOfArchived++;
+            }
+        }
+
+        // 39 records of 104 bytes fit in a segment
+        assertThat(numOfArchived).isEqualTo(2 * 39);
+        assertThat(countSegments()).isEqualTo(2L);
+        assertThat(archive.read(0L).remaining()).isEqualTo(100);
+    }
+
+    @Test
+    public void testSegmentsOfAPreviousRunAreDeleted() throws IOException {
+        MappedHistoryArchive archive = new MappedHistoryArchive(directory, 10, Long.MAX_VALUE, SMALL_SEGMENT_SIZE);
+        for (int i = 0; i < 100; i++) {
+            archive.append(record(i), 100);
+        }
+        assertThat(countSegments()).isGreaterThan(1L);
+
+        new MappedHistoryArchive(directory, 10, Long.MAX_VALUE, SMALL_SEGMENT_SIZE);
+        assertThat(countSegments()).isZero();
+    }
+
+    private static byte[] record(int seed) {
+        byte[] data = new byte[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.count();
+        }
+    }
+}
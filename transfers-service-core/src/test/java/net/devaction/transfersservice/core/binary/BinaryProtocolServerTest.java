@@ -0,0 +1,209 @@
+package net.devaction.transfersservice.core.binary;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class BinaryProtocolServerTest {
+
+    private BinaryProtocolServer server;
+    private AccountsManager accountsManager;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
+        accountsManager = new AccountsManagerImpl(accountRegistry, new TransferCheckerImpl(), accountLockManager, journal);
+        TransfersManager transfersManager = new TransfersManagerImpl(accountRegistry, new TransferCheckerImpl(),
+                accountLockManager, journal);
+
+        // Any free port
+        server = new BinaryProtocolServer(0, 4, new BinaryRequestHandler(accountsManager, transfersManager));
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        final int numOfTransfers = 1000;
+
+        try (BinaryProtocolClient client = new BinaryProtocolClient("localhost", server.getPort())) {
+            client.sendOpenAccount("EUR");
+            client.sendOpenAccount("EUR");
+            client.flush();
+            String accountId1 = BinaryProtocol.getId(receiveSuccess(client).getPayload());
+            String accountId2 = BinaryProtocol.getId(receiveSuccess(client).getPayload());
+
+            // All the requests are sent before reading any response
+            Map<Integer, String> transferRequests = new HashMap<>();
+            for (int i = 0; i < numOfTransfers; i++) {
+                transferRequests.put(client.sendTransfer("157016b32e6c", EXTERNAL, accountId1, INTERNAL, 10L, "EUR"),
+                        accountId1);
+                transferRequests.put(client.sendTransfer("157016b32e6c", EXTERNAL, accountId2, INTERNAL, 20L, "EUR"),
+                        accountId2);
+            }
+            client.flush();
+
+            for (int i = 0; i < 2 * numOfTransfers; i++) {
+                BinaryResponse response = receiveSuccess(client);
+                assertThat(transferRequests.remove(response.getRequestId())).isNotNull();
+                assertThat(BinaryProtocol.getId(response.getPayload())).hasSize(12);
+                assertThat(response.getPayload().getLong()).isPositive();
+            }
+            assertThat(transferRequests).isEmpty();
+
+            client.sendGetBalance(accountId1);
+            client.flush();
+            assertThat(receiveSuccess(client).getPayload().getLong()).isEqualTo(10L * numOfTransfers);
+            assertThat(accountsManager.getBalance(accountId2)).isEqualTo(20L * numOfTransfers);
+
+            client.sendCloseAccount(accountId1);
+            client.flush();
+            receiveSuccess(client);
+            assertThat(accountsManager.getAllAccountIds()).containsExactly(accountId2);
+        }
+    }
+
+    @Test
+    public void testErrorResponses() throws Exception {
+        try (BinaryProtocolClient client = new BinaryProtocolClient("localhost", server.getPort())) {
+            int requestId = client.sendGetBalance("0e1f2f1b5612");
+            client.sendTransfer("157016b32e6c", EXTERNAL, "9b6ffcbb26ab", EXTERNAL, 10L, "EUR");
+            client.flush();
+
+            BinaryResponse response = client.receive();
+            BinaryResponse otherResponse = client.receive();
+            if (response.getRequestId() != requestId) {
+                response = otherResponse;
+            }
+
+            assertThat(response.isSuccess()).isFalse();
+            assertThat(response.getErrorMessage()).contains("AccountDoesNotExistException");
+            assertThat(otherResponse.isSuccess()).isFalse();
+        }
+    }
+
+    @Test
+    public void testFailedRequestsGetAnErrorResponse() throws Exception {
+        // More requests than the maximum in flight per connection, none of them may be left behind
+        final int numOfRequests = 5000;
+
+        BinaryRequestHandler failingHandler = new BinaryRequestHandler(accountsManager, null) {
+            @Override
+            public CompletableFuture<ByteBuffer> handle(ByteBuffer request) {
+                return CompletableFuture.failedFuture(new IllegalStateException("The journal has been closed"));
+            }
+        };
+        try (BinaryProtocolServer failingServer = new BinaryProtocolServer(0, 4, failingHandler)) {
+            failingServer.start();
+            try (BinaryProtocolClient client = new BinaryProtocolClient("localhost", failingServer.getPort())) {
+                for (int i = 0; i < numOfRequests; i++) {
+                    client.sendGetBalance("0e1f2f1b5612");
+                }
+                client.flush();
+
+                for (int i = 0; i < numOfRequests; i++) {
+                    BinaryResponse response = client.receive();
+                    assertThat(response.isSuccess()).isFalse();
+                    assertThat(response.getErrorMessage()).contains("The journal has been closed");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResponsesNotReadByTheClientAreBounded() throws Exception {
+        // The socket buffers (a few MB) still take some of the responses
+        final int numOfRequests = 200000;
+
+        AtomicInteger numOfHandledRequests = new AtomicInteger();
+        BinaryRequestHandler countingHandler = new BinaryRequestHandler(accountsManager, null) {
+            @Override
+            public CompletableFuture<ByteBuffer> handle(ByteBuffer request) {
+                numOfHandledRequests.incrementAndGet();
+                return CompletableFuture.completedFuture(BinaryProtocol.errorFrame(request.getInt(0),
+                        "x".repeat(500)));
+            }
+        };
+        try (BinaryProtocolServer countingServer = new BinaryProtocolServer(0, 4, countingHandler);
+                BinaryProtocolClient client = new BinaryProtocolClient("localhost", countingServer.getPort())) {
+
+            countingServer.start();
+            AtomicReference<Exception> senderException = new AtomicReference<>();
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < numOfRequests; i++) {
+                        client.sendGetBalance("0e1f2f1b5612");
+                    }
+                    client.flush();
+                } catch (IOException ex) {
+                    senderException.set(ex);
+                }
+            });
+            sender.start();
+
+            // Nothing is read, the server stops reading the requests once the responses pile up
+            int previousNumOfHandledRequests;
+            do {
+                previousNumOfHandledRequests = numOfHandledRequests.get();
+                Thread.sleep(300L);
+            } while (numOfHandledRequests.get() != previousNumOfHandledRequests);
+            assertThat(numOfHandledRequests.get()).isLessThan(numOfRequests / 4);
+
+            for (int i = 0; i < numOfRequests; i++) {
+                assertThat(client.receive().isSuccess()).isFalse();
+            }
+            sender.join();
+            assertThat(senderException.get()).isNull();
+            assertThat(numOfHandledRequests.get()).isEqualTo(numOfRequests);
+        }
+    }
+
+    @Test
+    public void testEncodeIds() {
+        assertThat(BinaryProtocol.encodeId("000000000000")).isZero();
+        assertThat(BinaryProtocol.encodeId("ffffffffffff")).isEqualTo((1L << 48) - 1);
+        assertThat(BinaryProtocol.decodeId(BinaryProtocol.encodeId("9b6ffcbb26ab"))).isEqualTo("9b6ffcbb26ab");
+
+        assertThatThrownBy(() -> BinaryProtocol.encodeId("9B6FFCBB26AB")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BinaryProtocol.encodeId("9b6ffcbb26a")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BinaryProtocol.encodeId(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static BinaryResponse receiveSuccess(BinaryProtocolClient client) throws IOException {
+        BinaryResponse response = client.receive();
+        assertThat(response.getErrorMessage()).isNull();
+        return response;
+    }
+}
@@ -0,0 +1,97 @@
+package net.devaction.transfersservice.core.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+
+class JournalReplayerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReplayRebuildsTheAccounts() throws Exception {
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new MappedJournal(directory, true);
+
+        TransfersManager transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+        AccountsManager accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        String accountId3 = accountsManager.openNewAccount("EUR");
+
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL,
+                50000L, "EUR"));
+        transfersManager.processTransfer(new Transfer(accountId1, INTERNAL, accountId2, INTERNAL,
+                15000L, "EUR"));
+        transfersManager.processTransfer(new Transfer(accountId2, INTERNAL, "external-account-0b18", EXTERNAL,
+                5000L, "EUR"));
+        accountsManager.closeAccount(accountId3);
+        journal.close();
+
+        AccountRegistry replayedAccountRegistry = new OpenAddressingAccountRegistry();
+        Journal reopenedJournal = new MappedJournal(directory, true);
+        new JournalReplayer(replayedAccountRegistry, reopenedJournal).replay();
+        reopenedJournal.close();
+
+        assertThat(replayedAccountRegistry).extracting(Account::getId).containsExactlyInAnyOrder(accountId1, accountId2);
+        assertThat(replayedAccountRegistry.get(accountId1).getBalance()).isEqualTo(35000L);
+        assertThat(replayedAccountRegistry.get(accountId2).getBalance()).isEqualTo(10000L);
+        assertThat(replayedAccountRegistry.get(accountId1).getAccountInfo().getHistory()).hasSize(2);
+        assertThat(replayedAccountRegistry.get(accountId2).getAccountInfo().getHistory()).hasSize(2);
+    }
+
+    @Test
+    public void testInterruptedTransferIsRefunded() throws Exception {
+        Journal journal = new MappedJournal(directory, true);
+        journal.appendAccountOpened("9b6ffcbb26ab", "EUR");
+        journal.appendAccountOpened("0e1f2f1b5612", "EUR");
+        journal.appendTransfer(JournalRecordType.TRANSFER, new Transfer("external-account-3c2f", EXTERNAL,
+                "9b6ffcbb26ab", INTERNAL, 1000L, "EUR"));
+        // The service stopped before the second step of this transfer
+        journal.appendTransfer(JournalRecordType.TRANSFER_SOURCE, new Transfer("9b6ffcbb26ab", INTERNAL,
+                "0e1f2f1b5612", INTERNAL, 400L, "EUR"));
+        journal.close();
+
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        journal = new MappedJournal(directory, true);
+        new JournalReplayer(accountRegistry, journal).replay();
+        journal.close();
+
+        assertThat(accountRegistry.get("9b6ffcbb26ab").getBalance()).isEqualTo(1000L);
+        assertThat(accountRegistry.get("0e1f2f1b5612").getBalance()).isZero();
+
+        // The refund has been journaled, replaying again gives the same result
+        accountRegistry = new OpenAddressingAccountRegistry();
+        journal = new MappedJournal(directory, true);
+        new JournalReplayer(accountRegistry, journal).replay();
+        journal.close();
+
+        assertThat(accountRegistry.get("9b6ffcbb26ab").getBalance()).isEqualTo(1000L);
+        assertThat(accountRegistry.get("9b6ffcbb26ab").getAccountInfo().getHistory()).hasSize(3);
+    }
+}
@@ -0,0 +1,213 @@
+package net.devaction.transfersservice.core.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class MappedJournalTest {
+
+    private static final long SMALL_SEGMENT_SIZE = 8 * 1024L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testAppendAndReplay() throws IOException {
+        Transfer transfer = new Transfer("external-account-3c2f", EXTERNAL, "9b6ffcbb26ab", INTERNAL,
+                50000L, "EUR");
+
+        MappedJournal journal = new MappedJournal(directory, true, SMALL_SEGMENT_SIZE);
+        assertThat(journal.appendAccountOpened("9b6ffcbb26ab", "EUR")).isEqualTo(1L);
+        assertThat(journal.appendTransfer(JournalRecordType.TRANSFER, transfer)).isEqualTo(2L);
+        assertThat(journal.appendAccountClosed("9b6ffcbb26ab")).isEqualTo(3L);
+        journal.awaitDurable(3L);
+
+        RecordingHandler handler = new RecordingHandler();
+        journal.replay(handler);
+        journal.close();
+
+        assertThat(handler.records).containsExactly(
+                "1 ACCOUNT_OPENED 9b6ffcbb26ab EUR",
+                "2 TRANSFER " + transfer.getId(),
+                "3 ACCOUNT_CLOSED 9b6ffcbb26ab");
+
+        Transfer replayedTransfer = handler.transfers.get(0);
+        assertThat(replayedTransfer.getSourceAccountId()).isEqualTo(transfer.getSourceAccountId());
+        assertThat(replayedTransfer.getSourceAccountType()).isEqualTo(EXTERNAL);
+        assertThat(replayedTransfer.getTargetAccountId()).isEqualTo(transfer.getTargetAccountId());
+        assertThat(replayedTransfer.getTargetAccountType()).isEqualTo(INTERNAL);
+        assertThat(replayedTransfer.getAmount()).isEqualTo(50000L);
+        assertThat(replayedTransfer.getCurrency()).isEqualTo("EUR");
+        assertThat(replayedTransfer.getTimestamp()).isEqualTo(transfer.getTimestamp());
+    }
+
+    @Test
+    public void testRollOverAndReopen() throws IOException {
+        final int numOfRecords = 1000;
+
+        MappedJournal journal = new MappedJournal(directory, false, SMALL_SEGMENT_SIZE);
+        for (int i = 0; i < numOfRecords; i++) {
+            journal.appendAccountOpened(String.format("%012x", i), "GBP");
+        }
+        journal.close();
+
+        journal = new MappedJournal(directory, false, SMALL_SEGMENT_SIZE);
+        assertThat(journal.listSegments().size()).isGreaterThan(1);
+        assertThat(journal.getLastSequence()).isEqualTo(numOfRecords);
+        // The sequence numbers continue after a restart
+        assertThat(journal.appendAccountClosed(String.format("%012x", 0))).isEqualTo(numOfRecords + 1L);
+
+        RecordingHandler handler = new RecordingHandler();
+        journal.replay(handler);
+        journal.close();
+
+        assertThat(handler.records).hasSize(numOfRecords + 1);
+        assertThat(handler.records.get(numOfRecords - 1)).isEqualTo(numOfRecords + " ACCOUNT_OPENED "
+                + String.format("%012x", numOfRecords - 1) + " GBP");
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsDiscarded() throws IOException {
+        MappedJournal journal = new MappedJournal(directory, false, SMALL_SEGMENT_SIZE);
+        journal.appendAccountOpened("9b6ffcbb26ab", "EUR");
+        journal.appendAccountOpened("0e1f2f1b5612", "EUR");
+        journal.close();
+
+        // We corrupt the last byte of the second record, as if the
+        // service had crashed while it was being written
+        Path segmentPath = journal.listSegments().get(0);
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(header, 0);
+            int secondRecordStart = MappedJournal.HEADER_SIZE + header.getInt(0);
+            header.clear();
+            channel.read(header, secondRecordStart);
+            int lastByte = secondRecordStart + MappedJournal.HEADER_SIZE + header.getInt(0) - 1;
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xff}), lastByte);
+        }
+
+        journal = new MappedJournal(directory, false, SMALL_SEGMENT_SIZE);
+        assertThat(journal.getLastSequence()).isEqualTo(1L);
+        // The new record overwrites the corrupted one
+        assertThat(journal.appendAccountOpened("67f0e6e44d3a", "CHF")).isEqualTo(2L);
+
+        RecordingHandler handler = new RecordingHandler();
+        journal.replay(handler);
+        journal.close();
+
+        assertThat(handler.records).containsExactly(
+                "1 ACCOUNT_OPENED 9b6ffcbb26ab EUR",
+                "2 ACCOUNT_OPENED 67f0e6e44d3a CHF");
+    }
+
+    @Test
+    public void testConcurrentAppendsWithGroupCommit() throws Exception {
+        final int numOfThreads = 8;
+        final int numOfRecordsPerThread = 200;
+
+        MappedJournal journal = new MappedJournal(directory, true);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numOfThreads; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < numOfRecordsPerThread; j++) {
+                    journal.awaitDurable(journal.appendAccountOpened("9b6ffcbb26ab", "EUR"));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        RecordingHandler handler = new RecordingHandler();
+        journal.replay(handler);
+        journal.close();
+
+        assertThat(handler.records).hasSize(numOfThreads * numOfRecordsPerThread);
+    }
+
+    @Test
+    public void testWhenDurable() throws Exception {
+        MappedJournal journal = new MappedJournal(directory, true);
+
+        // Nobody waits for the records, the futures are completed by the sync thread
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(journal.whenDurable(journal.appendAccountOpened("9b6ffcbb26ab", "EUR")));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        // Already durable
+        assertThat(journal.whenDurable(journal.getLastSequence())).isDone();
+        journal.close();
+    }
+
+    @Test
+    public void testWhenDurableAfterClose() throws Exception {
+        MappedJournal journal = new MappedJournal(directory, true);
+        long sequence = journal.appendAccountOpened("9b6ffcbb26ab", "EUR");
+        journal.close();
+
+        // The records appended before closing it are durable
+        assertThat(journal.whenDurable(sequence)).isCompleted();
+        CompletableFuture<Void> future = journal.whenDurable(sequence + 1L);
+        assertThat(future).isCompletedExceptionally();
+        assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testNothingIsAppendedAfterClose() throws Exception {
+        MappedJournal journal = new MappedJournal(directory, false);
+        journal.appendAccountOpened("9b6ffcbb26ab", "EUR");
+        journal.close();
+
+        assertThatThrownBy(() -> journal.appendAccountClosed("9b6ffcbb26ab"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> journal.appendTransfer(JournalRecordType.TRANSFER, new Transfer(
+                "external-account-3c2f", EXTERNAL, "9b6ffcbb26ab", INTERNAL, 100L, "EUR")))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(journal.getLastSequence()).isEqualTo(1L);
+    }
+
+    static class RecordingHandler implements JournalRecordHandler {
+        final List<String> records = new ArrayList<>();
+        final List<Transfer> transfers = new ArrayList<>();
+
+        @Override
+        public void onAccountOpened(long sequence, String accountId, String currency) {
+            records.add(sequence + " " + JournalRecordType.ACCOUNT_OPENED + " " + accountId + " " + currency);
+        }
+
+        @Override
+        public void onAccountClosed(long sequence, String accountId) {
+            records.add(sequence + " " + JournalRecordType.ACCOUNT_CLOSED + " " + accountId);
+        }
+
+        @Override
+        public void onTransfer(long sequence, JournalRecordType type, Transfer transfer) {
+            records.add(sequence + " " + type + " " + transfer.getId());
+            transfers.add(transfer);
+        }
+    }
+}
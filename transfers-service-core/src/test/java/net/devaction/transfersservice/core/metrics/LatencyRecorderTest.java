@@ -0,0 +1,63 @@
+package net.devaction.transfersservice.core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LatencyRecorderTest {
+
+    @Test
+    public void testBuckets() {
+        // Every value is in a single bucket and the buckets are contiguous
+        for (int i = 0; i < LatencyRecorder.NUM_OF_BUCKETS; i++) {
+            long highestValue = LatencyRecorder.highestValue(i);
+            assertThat(LatencyRecorder.bucketIndex(highestValue)).isEqualTo(i);
+            if (i + 1 < LatencyRecorder.NUM_OF_BUCKETS) {
+                assertThat(LatencyRecorder.bucketIndex(highestValue + 1L)).isEqualTo(i + 1);
+            }
+        }
+        assertThat(LatencyRecorder.highestValue(LatencyRecorder.NUM_OF_BUCKETS - 1))
+                .isEqualTo(LatencyRecorder.MAX_VALUE);
+
+        // The values below 64 are exact
+        for (long value = 0L; value < 64L; value++) {
+            assertThat(LatencyRecorder.highestValue(LatencyRecorder.bucketIndex(value))).isEqualTo(value);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (long value = 1L; value <= 100000L; value++) {
+            recorder.record(value * 1000L);
+        }
+
+        LatencyRecorder.Snapshot snapshot = recorder.getSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(100000L);
+        assertThat(snapshot.getMax()).isEqualTo(100000000L);
+        assertThat(snapshot.getSum()).isEqualTo(1000L * 100000L * 100001L / 2L);
+        assertThat((double) snapshot.getValueAtPercentile(50.0)).isCloseTo(50000000.0, within(50000000.0 * 0.035));
+        assertThat((double) snapshot.getValueAtPercentile(99.0)).isCloseTo(99000000.0, within(99000000.0 * 0.035));
+        assertThat(snapshot.getValueAtPercentile(100.0)).isEqualTo(100000000L);
+    }
+
+    @Test
+    public void testOutOfRangeValues() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(-5L);
+        recorder.record(Long.MAX_VALUE);
+
+        LatencyRecorder.Snapshot snapshot = recorder.getSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(2L);
+        assertThat(snapshot.getValueAtPercentile(50.0)).isEqualTo(0L);
+        assertThat(snapshot.getMax()).isEqualTo(LatencyRecorder.MAX_VALUE);
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyRecorder.Snapshot snapshot = new LatencyRecorder().getSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(0L);
+        assertThat(snapshot.getValueAtPercentile(99.0)).isEqualTo(0L);
+    }
+}
@@ -0,0 +1,50 @@
+package net.devaction.transfersservice.core.rejection;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.devaction.transfersservice.api.rejection.RejectedRequestException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+class RejectionLoggerTest {
+    private static final Logger log = LoggerFactory.getLogger(RejectionLoggerTest.class);
+
+    @Test
+    public void testRejectionsAreLimited() throws Exception {
+        RejectionLogger rejectionLogger = new RejectionLogger(log, 2, TimeUnit.MILLISECONDS.toNanos(200L));
+
+        assertThat(rejectionLogger.log(new TestRejectedRequestException("first"))).isTrue();
+        assertThat(rejectionLogger.log(new TestRejectedRequestException("second"))).isTrue();
+        assertThat(rejectionLogger.log(new TestRejectedRequestException("third"))).isFalse();
+        assertThat(rejectionLogger.log(new TestRejectedRequestException("fourth"))).isFalse();
+
+        // The unexpected exceptions are always logged
+        assertThat(rejectionLogger.log(new IllegalStateException("unexpected"))).isTrue();
+
+        // The next interval logs the number of skipped rejections
+        Thread.sleep(250L);
+        assertThat(rejectionLogger.log(new TestRejectedRequestException("fifth"))).isTrue();
+    }
+
+    @Test
+    public void testRejectionHasNoStackTrace() {
+        RejectedRequestException ex = new TestRejectedRequestException("rejected");
+        ex.addSuppressed(new IllegalStateException("suppressed"));
+
+        assertThat(ex.getStackTrace()).isEmpty();
+        assertThat(ex.getSuppressed()).isEmpty();
+        assertThat(ex.getMessage()).isEqualTo("rejected");
+    }
+
+    private static class TestRejectedRequestException extends RejectedRequestException {
+        private static final long serialVersionUID = 1L;
+
+        TestRejectedRequestException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+}
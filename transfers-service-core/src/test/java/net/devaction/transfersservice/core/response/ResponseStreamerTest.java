@@ -0,0 +1,68 @@
+package net.devaction.transfersservice.core.response;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.entity.balance.Balance;
+
+import static net.devaction.transfersservice.core.response.Status.ERROR;
+import static net.devaction.transfersservice.core.response.Status.SUCCESS;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+class ResponseStreamerTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ResponseStreamer streamer = new ResponseStreamer();
+
+    // The streamed JSON has to match the JSON of the equivalent "Response"
+    @Test
+    public void testSameJsonAsResponse() throws IOException {
+        AccountInfo accountInfo = new AccountInfo("0e1f2f1b5612", "EUR", 150L, Arrays.asList(
+                new AccountHistoryItem("00000000000a", "9b6ffcbb26ab", 200L, Direction.RECEIVED, 1581000000000L),
+                new AccountHistoryItem("transfer-\"1\"", "9b6ffcbb26ab", 50L, Direction.SENT, 1581000000001L)),
+                "2");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        streamer.writeSuccess(outputStream, accountInfo);
+        assertSameJson(outputStream, new Response(SUCCESS, accountInfo));
+
+        AccountInfo lastPage = new AccountInfo("0e1f2f1b5612", "EUR", 0L, Collections.emptyList());
+        outputStream = new ByteArrayOutputStream();
+        streamer.writeSuccess(outputStream, lastPage);
+        assertSameJson(outputStream, new Response(SUCCESS, lastPage));
+
+        Balance balance = new Balance("0e1f2f1b5612", 150L);
+        outputStream = new ByteArrayOutputStream();
+        streamer.writeSuccess(outputStream, balance);
+        assertSameJson(outputStream, new Response(SUCCESS, balance));
+
+        TreeSet<String> accountIds = new TreeSet<>(Arrays.asList("0e1f2f1b5612", "9b6ffcbb26ab"));
+        outputStream = new ByteArrayOutputStream();
+        streamer.writeSuccess(outputStream, accountIds);
+        assertSameJson(outputStream, new Response(SUCCESS, accountIds));
+
+        outputStream = new ByteArrayOutputStream();
+        streamer.writeSuccess(outputStream);
+        assertSameJson(outputStream, new Response(SUCCESS));
+
+        outputStream = new ByteArrayOutputStream();
+        streamer.writeError(outputStream, "Invalid accountId: null");
+        assertSameJson(outputStream, new Response(ERROR, "Invalid accountId: null"));
+    }
+
+    private void assertSameJson(ByteArrayOutputStream outputStream, Response response) throws IOException {
+        JsonNode streamed = mapper.readTree(outputStream.toByteArray());
+        JsonNode expected = mapper.readTree(mapper.writeValueAsString(response));
+        assertThat(streamed).isEqualTo(expected);
+    }
+}
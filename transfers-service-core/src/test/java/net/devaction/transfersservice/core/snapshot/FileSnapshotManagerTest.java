@@ -0,0 +1,203 @@
+package net.devaction.transfersservice.core.snapshot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+
+import net.devaction.transfersservice.api.entity.account.AccountHistoryItem;
+import net.devaction.transfersservice.api.entity.account.Direction;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountHistory;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OffHeapAccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.JournalReplayer;
+import net.devaction.transfersservice.core.journal.MappedJournal;
+import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
+import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
+import net.devaction.transfersservice.core.transfersmanager.TransfersManagerImpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+class FileSnapshotManagerTest {
+
+    private static final long SMALL_SEGMENT_SIZE = 8 * 1024L;
+
+    @TempDir
+    Path directory;
+
+    private Supplier<AccountRegistry> accountRegistryFactory = OpenAddressingAccountRegistry::new;
+    private AccountRegistry accountRegistry;
+    private Journal journal;
+    private FileSnapshotManager snapshotManager;
+    private TransfersManager transfersManager;
+    private AccountsManager accountsManager;
+
+    @Test
+    public void testSnapshotPlusJournalRebuildsTheAccounts() throws Exception {
+        checkSnapshotPlusJournalRebuildsTheAccounts();
+    }
+
+    @Test
+    public void testSnapshotPlusJournalRebuildsTheOffHeapAccounts() throws Exception {
+        accountRegistryFactory = OffHeapAccountRegistry::new;
+        checkSnapshotPlusJournalRebuildsTheAccounts();
+    }
+
+    private void checkSnapshotPlusJournalRebuildsTheAccounts() throws Exception {
+        start();
+
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        String accountId3 = accountsManager.openNewAccount("EUR");
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL,
+                50000L, "EUR"));
+        transfersManager.processTransfer(new Transfer(accountId1, INTERNAL, accountId2, INTERNAL,
+                15000L, "EUR"));
+
+        snapshotManager.takeSnapshot();
+
+        // These changes are only in the journal
+        transfersManager.processTransfer(new Transfer(accountId2, INTERNAL, accountId1, INTERNAL,
+                1000L, "EUR"));
+        accountsManager.closeAccount(accountId3);
+        String accountId4 = accountsManager.openNewAccount("EUR");
+
+        AccountRegistry previousAccountRegistry = accountRegistry;
+        restart();
+
+        assertThat(accountRegistry).extracting(Account::getId).containsExactlyInAnyOrder(accountId1, accountId2, accountId4);
+        for (Account account : accountRegistry) {
+            assertSameAccount(account, previousAccountRegistry.get(account.getEncodedId()));
+        }
+        assertThat(accountRegistry.get(accountId1).getBalance()).isEqualTo(36000L);
+        assertThat(accountRegistry.get(accountId2).getBalance()).isEqualTo(14000L);
+    }
+
+    @Test
+    public void testPreviousSnapshotIsLoadedWhenTheLatestOneIsCorrupted() throws Exception {
+        start();
+
+        String accountId = accountsManager.openNewAccount("EUR");
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId, INTERNAL,
+                1000L, "EUR"));
+        snapshotManager.takeSnapshot();
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId, INTERNAL,
+                500L, "EUR"));
+        snapshotManager.takeSnapshot();
+
+        List<Path> snapshotPaths = snapshotManager.listSnapshots();
+        assertThat(snapshotPaths).hasSize(2);
+        try (FileChannel channel = FileChannel.open(snapshotPaths.get(1), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0x7f, 0x7f, 0x7f, 0x7f}), 0);
+        }
+
+        restart();
+
+        assertThat(accountRegistry.get(accountId).getBalance()).isEqualTo(1500L);
+        assertThat(accountRegistry.get(accountId).getAccountInfo().getHistory()).hasSize(2);
+    }
+
+    @Test
+    public void testOldSnapshotsAndJournalSegmentsAreDeleted() throws Exception {
+        start();
+
+        String accountId = accountsManager.openNewAccount("EUR");
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 200; j++) {
+                transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId,
+                        INTERNAL, 10L, "EUR"));
+            }
+            snapshotManager.takeSnapshot();
+        }
+
+        assertThat(snapshotManager.listSnapshots()).hasSize(2);
+        long firstRetainedSequence = FileSnapshotManager.startSequenceOf(snapshotManager.listSnapshots().get(0));
+        long firstSegmentSequence;
+        try (Stream<Path> paths = Files.list(directory.resolve("journal"))) {
+            firstSegmentSequence = paths.map(path -> path.getFileName().toString())
+                    .filter(fileName -> fileName.startsWith("journal-"))
+                    .mapToLong(fileName -> Long.parseLong(fileName.substring(8, 28)))
+                    .min().getAsLong();
+        }
+        assertThat(firstSegmentSequence).isGreaterThan(1L).isLessThanOrEqualTo(firstRetainedSequence + 1);
+
+        restart();
+
+        assertThat(accountRegistry.get(accountId).getBalance()).isEqualTo(8000L);
+        assertThat(accountRegistry.get(accountId).getAccountInfo().getHistory()).hasSize(800);
+    }
+
+    // The history does not fit in the initial chunk buffer
+    @Test
+    public void testLongHistoryIsWrittenAndRead() throws Exception {
+        start();
+
+        String accountId = accountsManager.openNewAccount("EUR");
+        AccountHistory history = accountRegistry.get(accountId).getHistory();
+        for (int i = 0; i < 100000; i++) {
+            history.add("transfer-" + i, "external-account-3c2f", 10L, Direction.RECEIVED, 1580515200000L + i);
+        }
+        snapshotManager.takeSnapshot();
+        snapshotManager.takeSnapshot();
+
+        restart();
+
+        List<AccountHistoryItem> restoredHistory = accountRegistry.get(accountId).getAccountInfo().getHistory();
+        assertThat(restoredHistory).hasSize(100000);
+        assertThat(restoredHistory.get(99999).getTransferId()).isEqualTo("transfer-99999");
+    }
+
+    private void start() throws IOException {
+        accountRegistry = accountRegistryFactory.get();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        journal = new MappedJournal(directory.resolve("journal"), false, SMALL_SEGMENT_SIZE);
+        snapshotManager = new FileSnapshotManager(accountRegistry, accountLockManager, journal,
+                directory.resolve("snapshots"), 3600L);
+
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+        accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+
+        snapshotManager.loadLatest();
+        new JournalReplayer(accountRegistry, journal).replay();
+    }
+
+    private void restart() throws IOException {
+        snapshotManager.close();
+        journal.close();
+        start();
+    }
+
+    private static void assertSameAccount(Account account, Account expectedAccount) throws Exception {
+        assertThat(account.getCurrency()).isEqualTo(expectedAccount.getCurrency());
+        assertThat(account.getBalance()).isEqualTo(expectedAccount.getBalance());
+        assertThat(account.getJournalSequence()).isEqualTo(expectedAccount.getJournalSequence());
+
+        List<AccountHistoryItem> history = account.getAccountInfo().getHistory();
+        List<AccountHistoryItem> expectedHistory = expectedAccount.getAccountInfo().getHistory();
+        assertThat(history).hasSameSizeAs(expectedHistory);
+        for (int i = 0; i < history.size(); i++) {
+            assertThat(history.get(i)).isEqualToComparingFieldByField(expectedHistory.get(i));
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package net.devaction.transfersservice.core.transfersmanager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
+
+import net.devaction.transfersservice.api.entity.account.AccountInfo;
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.AmountTooBigException;
+import net.devaction.transfersservice.core.account.NotEnoughBalanceException;
+import net.devaction.transfersservice.core.account.OffHeapAccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
+import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.metrics.HistogramTransferMetrics;
+import net.devaction.transfersservice.core.metrics.Stage;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ShardedTransfersManagerTest {
+
+    private static final String CURRENCY = "CHF";
+
+    private final ShardedTransfersManager transfersManager;
+    private final AccountsManager accountsManager;
+
+    public ShardedTransfersManagerTest() {
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
+
+        transfersManager = new ShardedTransfersManager(accountRegistry, transferChecker, accountLockManager, journal, 4);
+        accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+    }
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        transfersManager.shutdown();
+    }
+
+    @Test
+    public void testProcessExternalAndInternalTransfers() throws Exception {
+        String accountId1 = accountsManager.openNewAccount(CURRENCY);
+        String accountId2 = accountsManager.openNewAccount(CURRENCY);
+
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL,
+                50000L, CURRENCY));
+        transfersManager.processTransfer(new Transfer(accountId1, INTERNAL, accountId2, INTERNAL,
+                15000L, CURRENCY));
+        transfersManager.processTransfer(new Transfer(accountId2, INTERNAL, "external-account-0b18", EXTERNAL,
+                5000L, CURRENCY));
+
+        assertThat(accountsManager.getBalance(accountId1)).isEqualTo(35000L);
+        assertThat(accountsManager.getBalance(accountId2)).isEqualTo(10000L);
+    }
+
+    // Each step of an internal transfer records its own lock and apply stages
+    @Test
+    public void testMetrics() throws Exception {
+        HistogramTransferMetrics metrics = new HistogramTransferMetrics(1);
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
+        ShardedTransfersManager measuredTransfersManager = new ShardedTransfersManager(accountRegistry,
+                new TransferCheckerImpl(), accountLockManager, journal, metrics, 4);
+        AccountsManager measuredAccountsManager = new AccountsManagerImpl(accountRegistry,
+                new TransferCheckerImpl(), accountLockManager, journal);
+
+        try {
+            String accountId1 = measuredAccountsManager.openNewAccount(CURRENCY);
+            String accountId2 = measuredAccountsManager.openNewAccount(CURRENCY);
+            measuredTransfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1,
+                    INTERNAL, 50000L, CURRENCY));
+            measuredTransfersManager.processTransferAsync(new Transfer(accountId1, INTERNAL, accountId2, INTERNAL,
+                    15000L, CURRENCY)).get();
+            measuredTransfersManager.processTransfers(Arrays.asList(
+                    new Transfer(accountId2, INTERNAL, "external-account-0b18", EXTERNAL, 5000L, CURRENCY),
+                    // The account lookup fails, only the validation is recorded
+                    new Transfer(accountId1, INTERNAL, "ffffffffffff", INTERNAL, 100L, CURRENCY)));
+        } finally {
+            measuredTransfersManager.shutdown();
+        }
+
+        assertThat(metrics.getSnapshot(Stage.VALIDATION).getCount()).isEqualTo(4L);
+        for (Stage stage : Arrays.asList(Stage.LOOKUP, Stage.JOURNAL, Stage.TOTAL)) {
+            assertThat(metrics.getSnapshot(stage).getCount()).isEqualTo(3L);
+        }
+        assertThat(metrics.getSnapshot(Stage.LOCK).getCount()).isEqualTo(4L);
+        assertThat(metrics.getSnapshot(Stage.APPLY).getCount()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testNotEnoughBalance() throws Exception {
+        String accountId1 = accountsManager.openNewAccount(CURRENCY);
+        String accountId2 = accountsManager.openNewAccount(CURRENCY);
+
+        try {
+            transfersManager.processTransfer(new Transfer(accountId1, INTERNAL, accountId2, INTERNAL,
+                    100L, CURRENCY));
+        } catch (NotEnoughBalanceException ex) {
+            assertThat(accountsManager.getAccountInfo(accountId1).getHistory()).isEmpty();
+            assertThat(accountsManager.getAccountInfo(accountId2).getHistory()).isEmpty();
+            return;
+        }
+        fail(NotEnoughBalanceException.class.getSimpleName() + " was not thrown");
+    }
+
+    @Test
+    public void testSourceAccountIsRefundedWhenTheTargetAccountFails() throws Exception {
+        String accountId1 = accountsManager.openNewAccount(CURRENCY);
+        String accountId2 = accountsManager.openNewAccount(CURRENCY);
+
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL,
+                1000L, CURRENCY));
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId2, INTERNAL,
+                Long.MAX_VALUE - 10L, CURRENCY));
+
+        try {
+            transfersManager.processTransfer(new Transfer(accountId1, INTERNAL, accountId2, INTERNAL,
+                    100L, CURRENCY));
+            fail(AmountTooBigException.class.getSimpleName() + " was not thrown");
+        } catch (AmountTooBigException ex) {
+            // expected
+        }
+
+        AccountInfo info1 = accountsManager.getAccountInfo(accountId1);
+        assertThat(info1.getBalance()).isEqualTo(1000L);
+        // The initial transfer, the outgoing transfer and the refund
+        assertThat(info1.getHistory()).hasSize(3);
+
+        assertThat(accountsManager.getBalance(accountId2)).isEqualTo(Long.MAX_VALUE - 10L);
+    }
+
+    @Test
+    public void testClosedSourceAccountIsNotRefunded() throws Exception {
+        // The slot of a closed account is reused by the next account which is opened
+        AccountRegistry accountRegistry = new OffHeapAccountRegistry();
+        TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
+        ShardedTransfersManager offHeapTransfersManager = new ShardedTransfersManager(accountRegistry,
+                transferChecker, accountLockManager, journal, 2);
+        AccountsManager offHeapAccountsManager = new AccountsManagerImpl(accountRegistry, transferChecker,
+                accountLockManager, journal);
+
+        CountDownLatch targetShardReleased = new CountDownLatch(1);
+        try {
+            String targetAccountId = offHeapAccountsManager.openNewAccount(CURRENCY);
+            Account targetAccount = accountRegistry.get(targetAccountId);
+            String sourceAccountId;
+            do {
+                sourceAccountId = offHeapAccountsManager.openNewAccount(CURRENCY);
+            } while (offHeapTransfersManager.getShard(accountRegistry.get(sourceAccountId))
+                    == offHeapTransfersManager.getShard(targetAccount));
+
+            offHeapTransfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL,
+                    sourceAccountId, INTERNAL, 1000L, CURRENCY));
+            offHeapTransfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL,
+                    targetAccountId, INTERNAL, Long.MAX_VALUE - 10L, CURRENCY));
+
+            // The second step of the transfer waits until the source account has been closed
+            // and its slot has been reused, then the target account rejects it
+            offHeapTransfersManager.getShard(targetAccount).execute(() -> {
+                try {
+                    targetShardReleased.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            CompletableFuture<TransferResult> future = offHeapTransfersManager.processTransferAsync(
+                    new Transfer(sourceAccountId, INTERNAL, targetAccountId, INTERNAL, 100L, CURRENCY));
+            while (offHeapAccountsManager.getBalance(sourceAccountId) != 900L) {
+                Thread.sleep(1L);
+            }
+            offHeapAccountsManager.closeAccount(sourceAccountId);
+            String newAccountId = offHeapAccountsManager.openNewAccount(CURRENCY);
+            targetShardReleased.countDown();
+
+            assertThat(future.get(10, TimeUnit.SECONDS).getException()).isInstanceOf(AmountTooBigException.class);
+            AccountInfo newAccountInfo = offHeapAccountsManager.getAccountInfo(newAccountId);
+            assertThat(newAccountInfo.getBalance()).isZero();
+            assertThat(newAccountInfo.getHistory()).isEmpty();
+            assertThat(offHeapAccountsManager.getBalance(targetAccountId)).isEqualTo(Long.MAX_VALUE - 10L);
+        } finally {
+            targetShardReleased.countDown();
+            offHeapTransfersManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcessTransfers() throws Exception {
+        String accountId1 = accountsManager.openNewAccount(CURRENCY);
+        String accountId2 = accountsManager.openNewAccount(CURRENCY);
+
+        List<Transfer> transfers = Arrays.asList(
+                new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL, 50000L, CURRENCY),
+                new Transfer(accountId1, INTERNAL, accountId2, INTERNAL, 15000L, CURRENCY),
+                new Transfer("external-account-3c2f", EXTERNAL, "external-account-0b18", EXTERNAL, 100L, CURRENCY),
+                new Transfer(accountId1, INTERNAL, accountId2, INTERNAL, 100000L, CURRENCY));
+
+        List<TransferResult> results = transfersManager.processTransfers(transfers);
+
+        assertThat(results).hasSize(4);
+        assertThat(results.get(0).isSuccess()).isTrue();
+        assertThat(results.get(1).isSuccess()).isTrue();
+        assertThat(results.get(2).getException()).isInstanceOf(BothAccountsAreExternalException.class);
+        assertThat(results.get(3).getException()).isInstanceOf(NotEnoughBalanceException.class);
+
+        assertThat(accountsManager.getBalance(accountId1)).isEqualTo(35000L);
+        assertThat(accountsManager.getBalance(accountId2)).isEqualTo(15000L);
+    }
+
+    @Test
+    public void testProcessTransferAsync() throws Exception {
+        String accountId1 = accountsManager.openNewAccount(CURRENCY);
+        String accountId2 = accountsManager.openNewAccount(CURRENCY);
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL,
+                5000L, CURRENCY));
+
+        // They are applied by the source shard in the order they have been submitted
+        List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            futures.add(transfersManager.processTransferAsync(new Transfer(accountId1, INTERNAL, accountId2,
+                    INTERNAL, 100L, CURRENCY)));
+        }
+        futures.add(transfersManager.processTransferAsync(new Transfer("external-account-3c2f", EXTERNAL,
+                "external-account-0b18", EXTERNAL, 100L, CURRENCY)));
+
+        List<TransferResult> results = new ArrayList<>();
+        for (CompletableFuture<TransferResult> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+
+        assertThat(results.subList(0, 50)).allMatch(TransferResult::isSuccess);
+        assertThat(results.subList(50, 60)).extracting(TransferResult::getException)
+                .allMatch(ex -> ex instanceof NotEnoughBalanceException);
+        assertThat(results.get(60).getException()).isInstanceOf(BothAccountsAreExternalException.class);
+
+        assertThat(accountsManager.getBalance(accountId1)).isEqualTo(0L);
+        assertThat(accountsManager.getBalance(accountId2)).isEqualTo(5000L);
+    }
+
+    @Test
+    public void testConcurrentBidirectionalTransfers() throws Exception {
+        final int numOfAccounts = 8;
+        final long initialBalance = 1000000L;
+        final int numOfRounds = 500;
+
+        List<String> accountIds = new ArrayList<>();
+        for (int i = 0; i < numOfAccounts; i++) {
+            String accountId = accountsManager.openNewAccount(CURRENCY);
+            transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId, INTERNAL,
+                    initialBalance, CURRENCY));
+            accountIds.add(accountId);
+        }
+
+        AtomicInteger numOfFailedTransfers = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numOfAccounts; i++) {
+            String accountId1 = accountIds.get(i);
+            String accountId2 = accountIds.get((i + 1) % numOfAccounts);
+
+            threads.add(new Thread(() -> submitTransfers(accountId1, accountId2, numOfRounds, numOfFailedTransfers)));
+            threads.add(new Thread(() -> submitTransfers(accountId2, accountId1, numOfRounds, numOfFailedTransfers)));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(numOfFailedTransfers.get()).isZero();
+
+        for (String accountId : accountIds) {
+            AccountInfo info = accountsManager.getAccountInfo(accountId);
+            assertThat(info.getBalance()).isEqualTo(initialBalance);
+            // The initial transfer plus 4 threads sending or receiving money
+            assertThat(info.getHistory()).hasSize(1 + 4 * numOfRounds);
+        }
+    }
+
+    private void submitTransfers(String sourceAccountId, String targetAccountId, int numOfTransfers,
+            AtomicInteger numOfFailedTransfers) {
+
+        for (int i = 0; i < numOfTransfers; i++) {
+            try {
+                transfersManager.processTransfer(new Transfer(sourceAccountId, INTERNAL, targetAccountId, INTERNAL,
+                        100L, CURRENCY));
+            } catch (Exception ex) {
+                numOfFailedTransfers.incrementAndGet();
+            }
+        }
+    }
+}
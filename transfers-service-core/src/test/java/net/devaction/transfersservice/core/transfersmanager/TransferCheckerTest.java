@@ -10,10 +10,14 @@ import net.devaction.transfersservice.core.transfersmanager.InvalidTransferIdExc
 import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
 import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
 
+import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
+
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.time.Instant;
 
+import net.devaction.transfersservice.api.entity.transfer.Transfer;
+
 /**
  * @author Víctor Gil
  *
@@ -121,4 +125,15 @@ class TransferCheckerTest {
         }
         fail(InvalidCurrencyException.class.getSimpleName() + " was not thrown");
     }
+
+    @Test
+    public void testCheckTransfer_01() throws Exception {
+        Transfer transfer = new Transfer("0e1f2f1b5612", INTERNAL, "0e1f2f1b5612", INTERNAL, 100L, "EUR");
+        try {
+            checker.checkTransfer(transfer);
+        } catch (InvalidAccountIdException ex) {
+            return;
+        }
+        fail(InvalidAccountIdException.class.getSimpleName() + " was not thrown");
+    }
 }
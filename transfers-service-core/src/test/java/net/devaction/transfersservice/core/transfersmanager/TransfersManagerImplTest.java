@@ -5,15 +5,24 @@ import org.junit.jupiter.api.Test;
 import static net.devaction.transfersservice.api.entity.account.AccountType.INTERNAL;
 import static net.devaction.transfersservice.api.entity.account.AccountType.EXTERNAL;
 
+import net.devaction.transfersservice.api.entity.account.Direction;
 import net.devaction.transfersservice.api.entity.transfer.Transfer;
-import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
 import net.devaction.transfersservice.core.account.AmountTooBigException;
 import net.devaction.transfersservice.core.account.NotEnoughBalanceException;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
 import net.devaction.transfersservice.core.account.UnableToObtainMutexException;
 import net.devaction.transfersservice.core.accountsmanager.AccountDoesNotExistException;
 import net.devaction.transfersservice.core.accountsmanager.AccountIsAlreadyBeingClosedException;
 import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
 import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.JournalRecordType;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
+import net.devaction.transfersservice.core.metrics.HistogramTransferMetrics;
+import net.devaction.transfersservice.core.metrics.Stage;
 import net.devaction.transfersservice.core.transfersmanager.InvalidAccountIdException;
 import net.devaction.transfersservice.core.transfersmanager.InvalidCurrencyException;
 import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
@@ -21,9 +30,14 @@ import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Víctor Gil
@@ -32,15 +46,18 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 class TransfersManagerImplTest {
 
-    private final TransfersManager transfersManager;
+    private final AccountRegistry accountRegistry;
+    private final TransfersManagerImpl transfersManager;
     private final AccountsManager accountsManager;
 
     public TransfersManagerImplTest() {
-        Map<String, Account> accountMap = new ConcurrentHashMap<>();
+        accountRegistry = new OpenAddressingAccountRegistry();
         TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
 
-        transfersManager = new TransfersManagerImpl(accountMap, transferChecker);
-        accountsManager = new AccountsManagerImpl(accountMap, transferChecker);
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+        accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
     }
 
     @Test
@@ -126,4 +143,231 @@ class TransfersManagerImplTest {
         assertThat(balance1).isEqualTo(35000L);
         assertThat(balance2).isEqualTo(45000L);
     }
+
+    @Test
+    public void testProcessTransfers() throws Exception {
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        String accountId3 = accountsManager.openNewAccount("USD");
+
+        List<Transfer> transfers = Arrays.asList(
+                new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL, 50000L, "EUR"),
+                new Transfer(accountId1, INTERNAL, accountId2, INTERNAL, 15000L, "EUR"),
+                // Not enough balance
+                new Transfer(accountId2, INTERNAL, accountId1, INTERNAL, 20000L, "EUR"),
+                // Different currency, rejected before the source account is debited
+                new Transfer(accountId1, INTERNAL, accountId3, INTERNAL, 100L, "EUR"),
+                new Transfer("external-account-3c2f", EXTERNAL, "0e1f2f1b5612", INTERNAL, 100L, "EUR"),
+                new Transfer(accountId2, INTERNAL, "external-account-0b18", EXTERNAL, 5000L, "EUR"));
+
+        List<TransferResult> results = transfersManager.processTransfers(transfers);
+
+        assertThat(results).hasSize(6);
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).getTransferId()).isEqualTo(transfers.get(i).getId());
+        }
+        assertThat(results.get(0).isSuccess()).isTrue();
+        assertThat(results.get(1).isSuccess()).isTrue();
+        assertThat(results.get(2).getException()).isInstanceOf(NotEnoughBalanceException.class);
+        assertThat(results.get(3).getException()).isInstanceOf(InvalidCurrencyException.class);
+        assertThat(results.get(4).getException()).isInstanceOf(AccountDoesNotExistException.class);
+        assertThat(results.get(5).isSuccess()).isTrue();
+        // The rejections do not capture the stack trace
+        assertThat(results.get(2).getException().getStackTrace()).isEmpty();
+        assertThat(results.get(3).getException().getStackTrace()).isEmpty();
+        assertThat(results.get(4).getException().getStackTrace()).isEmpty();
+
+        assertThat(accountsManager.getBalance(accountId1)).isEqualTo(35000L);
+        assertThat(accountsManager.getBalance(accountId2)).isEqualTo(10000L);
+        assertThat(accountsManager.getBalance(accountId3)).isEqualTo(0L);
+        // The rejected transfers leave no trace
+        assertThat(accountsManager.getAccountInfo(accountId1).getHistory()).hasSize(2);
+    }
+
+    @Test
+    public void testTransferRejectedByTheTargetAccountLeavesNoTrace() throws Exception {
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL,
+                1000L, "EUR"));
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId2, INTERNAL,
+                Long.MAX_VALUE - 10L, "EUR"));
+
+        assertThatThrownBy(() -> transfersManager.processTransfer(new Transfer(accountId1, INTERNAL, accountId2,
+                INTERNAL, 100L, "EUR"))).isInstanceOf(AmountTooBigException.class);
+
+        assertThat(accountsManager.getBalance(accountId1)).isEqualTo(1000L);
+        assertThat(accountsManager.getAccountInfo(accountId1).getHistory()).hasSize(1);
+        assertThat(accountsManager.getAccountInfo(accountId2).getHistory()).hasSize(1);
+    }
+
+    @Test
+    public void testResolveTransfer() throws Exception {
+        String accountId = accountsManager.openNewAccount("EUR");
+        TransferResolver resolver = new TransferResolver(accountRegistry);
+
+        ResolvedTransfer resolvedTransfer = resolver.resolve(new Transfer("external-account-3c2f", EXTERNAL,
+                accountId, INTERNAL, 100L, "EUR"));
+        assertThat(resolvedTransfer.isInternal()).isFalse();
+        assertThat(resolvedTransfer.getSourceAccount()).isNull();
+        assertThat(resolvedTransfer.getInternalAccount()).isSameAs(accountRegistry.get(accountId));
+        assertThat(resolvedTransfer.getInternalAccountDirection()).isEqualTo(Direction.RECEIVED);
+
+        assertThatThrownBy(() -> resolver.resolve(new Transfer(accountId, INTERNAL, "0e1f2f1b5612", INTERNAL,
+                100L, "EUR"))).isInstanceOf(AccountDoesNotExistException.class);
+        assertThatThrownBy(() -> resolver.resolve(new Transfer("external-account-3c2f", EXTERNAL,
+                "external-account-0b18", EXTERNAL, 100L, "EUR"))).isInstanceOf(BothAccountsAreExternalException.class);
+    }
+
+    @Test
+    public void testAccountClosedAfterTheTransferHasBeenResolved() throws Exception {
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        transfersManager.processTransfer(new Transfer("external-account-3c2f", EXTERNAL, accountId1, INTERNAL,
+                50000L, "EUR"));
+
+        ResolvedTransfer resolvedTransfer = new TransferResolver(accountRegistry).resolve(
+                new Transfer(accountId1, INTERNAL, accountId2, INTERNAL, 1000L, "EUR"));
+        // The target account is closed between the lookup and the processing
+        accountsManager.closeAccount(accountId2);
+
+        assertThatThrownBy(() -> transfersManager.applyInternalTransfer(resolvedTransfer))
+                .isInstanceOf(AccountIsAlreadyBeingClosedException.class);
+        assertThat(accountsManager.getBalance(accountId1)).isEqualTo(50000L);
+    }
+
+    @Test
+    public void testProcessTransferAsync() throws Exception {
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        transfersManager.processTransfer(new Transfer("external-account-3bx1", EXTERNAL, accountId1, INTERNAL,
+                5000L, "EUR"));
+
+        // Many transfers in flight from the same thread, the outcomes are results instead of exceptions
+        List<CompletableFuture<TransferResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            futures.add(transfersManager.processTransferAsync(new Transfer(accountId1, INTERNAL, accountId2,
+                    INTERNAL, 100L, "EUR")));
+        }
+        futures.add(transfersManager.processTransferAsync(new Transfer(accountId1, INTERNAL, "ffffffffffff",
+                INTERNAL, 100L, "EUR")));
+
+        List<TransferResult> results = new ArrayList<>();
+        for (CompletableFuture<TransferResult> future : futures) {
+            results.add(future.get(10, TimeUnit.SECONDS));
+        }
+
+        assertThat(results.subList(0, 50)).allMatch(TransferResult::isSuccess);
+        assertThat(results.subList(50, 60)).extracting(TransferResult::getException)
+                .allMatch(ex -> ex instanceof NotEnoughBalanceException);
+        assertThat(results.get(60).getException()).isInstanceOf(AccountDoesNotExistException.class);
+
+        assertThat(accountsManager.getBalance(accountId1)).isEqualTo(0L);
+        assertThat(accountsManager.getBalance(accountId2)).isEqualTo(5000L);
+    }
+
+    // Nothing is journaled for a rejected transfer, hence it does not wait for any previous record
+    @Test
+    public void testRejectedTransferDoesNotWaitForTheJournal() throws Exception {
+        AtomicLong lastSequence = new AtomicLong();
+        List<Long> awaitedSequences = new ArrayList<>();
+        Journal journal = new NoOpJournal() {
+            @Override
+            public long appendAccountOpened(String accountId, String currency) {
+                return lastSequence.incrementAndGet();
+            }
+
+            @Override
+            public long appendTransfer(JournalRecordType type, Transfer transfer) {
+                return lastSequence.incrementAndGet();
+            }
+
+            @Override
+            public void awaitDurable(long sequence) {
+                awaitedSequences.add(sequence);
+            }
+
+            // Nothing ever becomes durable
+            @Override
+            public CompletableFuture<Void> whenDurable(long sequence) {
+                return sequence == 0L ? CompletableFuture.completedFuture(null) : new CompletableFuture<>();
+            }
+        };
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        TransfersManagerImpl journaledTransfersManager = new TransfersManagerImpl(accountRegistry,
+                new TransferCheckerImpl(), accountLockManager, journal);
+        AccountsManager journaledAccountsManager = new AccountsManagerImpl(accountRegistry,
+                new TransferCheckerImpl(), accountLockManager, journal);
+
+        String accountId1 = journaledAccountsManager.openNewAccount("EUR");
+        String accountId2 = journaledAccountsManager.openNewAccount("EUR");
+        journaledTransfersManager.processTransfer(new Transfer("external-account-3bx1", EXTERNAL, accountId1,
+                INTERNAL, 100L, "EUR"));
+
+        CompletableFuture<TransferResult> future = journaledTransfersManager.processTransferAsync(
+                new Transfer(accountId1, INTERNAL, accountId2, INTERNAL, 1000L, "EUR"));
+        assertThat(future).isDone();
+        assertThat(future.get().getException()).isInstanceOf(NotEnoughBalanceException.class);
+
+        awaitedSequences.clear();
+        journaledTransfersManager.processTransfers(Arrays.asList(new Transfer(accountId1, INTERNAL, accountId2,
+                INTERNAL, 1000L, "EUR"), new Transfer(accountId2, INTERNAL, "external-account-3bx1", EXTERNAL,
+                1000L, "EUR")));
+        assertThat(awaitedSequences).containsExactly(0L);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        // Every transfer is sampled
+        HistogramTransferMetrics metrics = new HistogramTransferMetrics(1);
+        TransfersManagerImpl measuredTransfersManager = new TransfersManagerImpl(accountRegistry,
+                new TransferCheckerImpl(), new AccountLockManagerImpl(), new NoOpJournal(), metrics);
+
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        measuredTransfersManager.processTransfer(new Transfer("external-account-3bx1", EXTERNAL, accountId1,
+                INTERNAL, 5000L, "EUR"));
+        measuredTransfersManager.processTransfer(new Transfer(accountId1, INTERNAL, accountId2, INTERNAL,
+                1000L, "EUR"));
+        // The account lookup fails, only the validation is recorded
+        assertThatThrownBy(() -> measuredTransfersManager.processTransfer(new Transfer(accountId1, INTERNAL,
+                "ffffffffffff", INTERNAL, 100L, "EUR"))).isInstanceOf(AccountDoesNotExistException.class);
+
+        assertThat(metrics.getSnapshot(Stage.VALIDATION).getCount()).isEqualTo(3L);
+        for (Stage stage : Arrays.asList(Stage.LOOKUP, Stage.LOCK, Stage.APPLY, Stage.JOURNAL, Stage.TOTAL)) {
+            assertThat(metrics.getSnapshot(stage).getCount()).isEqualTo(2L);
+        }
+        assertThat(metrics.getSnapshot(Stage.TOTAL).getMax())
+                .isGreaterThanOrEqualTo(metrics.getSnapshot(Stage.APPLY).getMax());
+
+        StringBuilder builder = new StringBuilder();
+        metrics.writePrometheus(builder);
+        assertThat(builder.toString())
+                .contains("# TYPE transfers_stage_latency_seconds summary\n")
+                .contains("transfers_stage_latency_seconds_count{stage=\"lock\"} 2\n")
+                .contains("transfers_stage_latency_seconds{stage=\"total\",quantile=\"0.99\"} ")
+                .contains("# TYPE transfers_account_lock_waits_total counter\n");
+    }
+
+    @Test
+    public void testBatchMetrics() throws Exception {
+        HistogramTransferMetrics metrics = new HistogramTransferMetrics(1);
+        TransfersManagerImpl measuredTransfersManager = new TransfersManagerImpl(accountRegistry,
+                new TransferCheckerImpl(), new AccountLockManagerImpl(), new NoOpJournal(), metrics);
+
+        String accountId1 = accountsManager.openNewAccount("EUR");
+        String accountId2 = accountsManager.openNewAccount("EUR");
+        measuredTransfersManager.processTransfers(Arrays.asList(
+                new Transfer("external-account-3bx1", EXTERNAL, accountId1, INTERNAL, 5000L, "EUR"),
+                new Transfer(accountId1, INTERNAL, accountId2, INTERNAL, 1000L, "EUR"),
+                // The account lookup fails, only the validation is recorded
+                new Transfer(accountId1, INTERNAL, "ffffffffffff", INTERNAL, 100L, "EUR")));
+
+        assertThat(metrics.getSnapshot(Stage.VALIDATION).getCount()).isEqualTo(3L);
+        for (Stage stage : Arrays.asList(Stage.LOOKUP, Stage.LOCK, Stage.APPLY, Stage.JOURNAL, Stage.TOTAL)) {
+            assertThat(metrics.getSnapshot(stage).getCount()).isEqualTo(2L);
+        }
+        assertThat(metrics.getSnapshot(Stage.TOTAL).getMax())
+                .isGreaterThanOrEqualTo(metrics.getSnapshot(Stage.LOCK).getMax());
+    }
 }
@@ -17,6 +17,11 @@ public class AccountIndexPair {
         this.targetAccountIndex = targetAccountIndex;
     }
 
+    // The same pair of accounts but the transfer goes in the opposite direction
+    public AccountIndexPair reverse() {
+        return new AccountIndexPair(targetAccountIndex, sourceAccountIndex);
+    }
+
     @Override
     public String toString() {
         return "AccountPair [sourceAccountIndex:" + sourceAccountIndex
@@ -10,7 +10,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.jupiter.api.Assertions.fail;
 import org.junit.jupiter.api.Test;
@@ -22,9 +21,14 @@ import static org.assertj.core.api.Assertions.assertThat;
 import net.devaction.transfersservice.api.entity.account.AccountInfo;
 import net.devaction.transfersservice.api.entity.transfer.Transfer;
 
-import net.devaction.transfersservice.core.account.Account;
+import net.devaction.transfersservice.core.account.AccountLockManager;
+import net.devaction.transfersservice.core.account.AccountLockManagerImpl;
+import net.devaction.transfersservice.core.account.AccountRegistry;
+import net.devaction.transfersservice.core.account.OpenAddressingAccountRegistry;
 import net.devaction.transfersservice.core.accountsmanager.AccountsManager;
 import net.devaction.transfersservice.core.accountsmanager.AccountsManagerImpl;
+import net.devaction.transfersservice.core.journal.Journal;
+import net.devaction.transfersservice.core.journal.NoOpJournal;
 import net.devaction.transfersservice.core.transfersmanager.TransferChecker;
 import net.devaction.transfersservice.core.transfersmanager.TransferCheckerImpl;
 import net.devaction.transfersservice.core.transfersmanager.TransfersManager;
@@ -47,11 +51,13 @@ public class TransfersManagerImplConcurrencyTest {
     private final AccountsManager accountsManager;
 
     public TransfersManagerImplConcurrencyTest() {
-        Map<String, Account> accountMap = new ConcurrentHashMap<>();
+        AccountRegistry accountRegistry = new OpenAddressingAccountRegistry();
         TransferChecker transferChecker = new TransferCheckerImpl();
+        AccountLockManager accountLockManager = new AccountLockManagerImpl();
+        Journal journal = new NoOpJournal();
 
-        transfersManager = new TransfersManagerImpl(accountMap, transferChecker);
-        accountsManager = new AccountsManagerImpl(accountMap, transferChecker);
+        transfersManager = new TransfersManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
+        accountsManager = new AccountsManagerImpl(accountRegistry, transferChecker, accountLockManager, journal);
     }
 
     @Test
@@ -135,20 +141,90 @@ public class TransfersManagerImplConcurrencyTest {
         assertThat(totalNumOfInternalHistoryItems).isGreaterThan((int) (20 * 50 * 5 * 2 * 0.95));
     }
 
-    void performTheTest(long numOfThreads, int numOfAccounts, long numOfRounds,
+    @Test
+    public void concurrencyTestWithBidirectionalTransfers() {
+
+        int numOfFailedTransfers;
+        try {
+            // 16 threads (8 pairs of threads sending money in opposite directions),
+            // 10 accounts, 20 rounds, 3200 internal transfers to be processed
+            numOfFailedTransfers = performTheBidirectionalTest(8, 10, 20, 1000000, 100);
+        } catch (Exception ex) {
+            fail(ex.getClass().getSimpleName() + " was thrown");
+            return;
+        }
+
+        // Since the locks are always grabbed in the same order, reciprocal
+        // transfers between busy accounts must never fail
+        assertThat(numOfFailedTransfers).isZero();
+
+        Set<String> allAccountIds = accountsManager.getAllAccountIds();
+        for (String accountId : allAccountIds) {
+            AccountInfo info = null;
+            try {
+                info = accountsManager.getAccountInfo(accountId);
+            } catch (Exception ex) {
+                fail(ex.getClass().getSimpleName() + " was thrown");
+                return;
+            }
+
+            // The initial external transfer plus 16 threads * 20 rounds * 2 transfer records
+            assertThat(info.getHistory()).hasSize(1 + 16 * 20 * 2);
+
+            // Each transfer has been cancelled out by the transfer in the opposite direction
+            assertThat(info.getBalance()).isEqualTo(1000000);
+        }
+    }
+
+    int performTheTest(long numOfThreads, int numOfAccounts, long numOfRounds,
             long initialBalance, long baseTransferAmount) throws Exception {
 
         Map<Integer, String> indexAccountMap = openAndInitializeAccounts(numOfAccounts, initialBalance);
 
-        List<Thread> threads = new LinkedList<>();
+        List<TransfersSubmitterRunnable> runnables = new LinkedList<>();
 
         for (long i = 1; i <= numOfThreads; i++) {
             List<AccountIndexPair> accountIndexPairs = constructList(numOfAccounts, numOfRounds);
 
-            TransfersSubmitterRunnable runnable = new TransfersSubmitterRunnable(transfersManager,
-                    accountIndexPairs, baseTransferAmount * i, CURRENCY, indexAccountMap);
+            runnables.add(new TransfersSubmitterRunnable(transfersManager,
+                    accountIndexPairs, baseTransferAmount * i, CURRENCY, indexAccountMap));
+        }
 
-            Thread thread = new Thread(runnable, "runnable-thread-" + i);
+        return runAndJoin(runnables);
+    }
+
+    // Every thread has a twin thread which processes the same
+    // transfers and the same amounts but in the opposite direction
+    int performTheBidirectionalTest(long numOfThreadPairs, int numOfAccounts, long numOfRounds,
+            long initialBalance, long baseTransferAmount) throws Exception {
+
+        Map<Integer, String> indexAccountMap = openAndInitializeAccounts(numOfAccounts, initialBalance);
+
+        List<TransfersSubmitterRunnable> runnables = new LinkedList<>();
+
+        for (long i = 1; i <= numOfThreadPairs; i++) {
+            List<AccountIndexPair> accountIndexPairs = constructList(numOfAccounts, numOfRounds);
+
+            List<AccountIndexPair> reversedAccountIndexPairs = new LinkedList<>();
+            for (AccountIndexPair pair : accountIndexPairs) {
+                reversedAccountIndexPairs.add(pair.reverse());
+            }
+
+            runnables.add(new TransfersSubmitterRunnable(transfersManager,
+                    accountIndexPairs, baseTransferAmount * i, CURRENCY, indexAccountMap));
+            runnables.add(new TransfersSubmitterRunnable(transfersManager,
+                    reversedAccountIndexPairs, baseTransferAmount * i, CURRENCY, indexAccountMap));
+        }
+
+        return runAndJoin(runnables);
+    }
+
+    private int runAndJoin(List<TransfersSubmitterRunnable> runnables) throws InterruptedException {
+        List<Thread> threads = new LinkedList<>();
+
+        int count = 1;
+        for (TransfersSubmitterRunnable runnable : runnables) {
+            Thread thread = new Thread(runnable, "runnable-thread-" + count++);
             threads.add(thread);
             thread.start();
         }
@@ -156,6 +232,13 @@ public class TransfersManagerImplConcurrencyTest {
         for (Thread thread : threads) {
             thread.join();
         }
+
+        int numOfFailedTransfers = 0;
+        for (TransfersSubmitterRunnable runnable : runnables) {
+            numOfFailedTransfers += runnable.getNumOfFailedTransfers();
+        }
+
+        return numOfFailedTransfers;
     }
 
     private Map<Integer, String> openAndInitializeAccounts(int numOfAccounts, long initialBalance)
@@ -187,42 +270,30 @@ public class TransfersManagerImplConcurrencyTest {
         return pairs;
     }
 
+    // Every account is the source of one transfer and the target of another one
+    // but never both in the same transfer
     private List<AccountIndexPair> innerConstructList(int numOfAccounts) {
 
-        List<Integer> accountIndices1 = new LinkedList<>();
-        List<Integer> accountIndices2 = new LinkedList<>();
+        List<Integer> accountIndices = new LinkedList<>();
         for (int i = 0; i < numOfAccounts; i++) {
-            accountIndices1.add(i);
-            accountIndices2.add(i);
+            accountIndices.add(i);
         }
 
-        Collections.shuffle(accountIndices1);
-        Collections.shuffle(accountIndices2);
+        Collections.shuffle(accountIndices);
 
-        Iterator<Integer> iter1 = accountIndices1.iterator();
-        Iterator<Integer> iter2 = accountIndices2.iterator();
+        Iterator<Integer> iter = accountIndices.iterator();
+        int firstAccountIndex = iter.next();
+        int account1Index = firstAccountIndex;
 
         List<AccountIndexPair> pairs = new LinkedList<>();
 
-        while (iter1.hasNext()) {
-            int account1Index = iter1.next();
-
-            if (!iter2.hasNext()) {
-                iter2 = accountIndices2.iterator();
-            }
-            int account2Index = iter2.next();
-
-            if (account1Index == account2Index) {
-                if (!iter2.hasNext()) {
-                    iter2 = accountIndices2.iterator();
-                }
-                account2Index = iter2.next();
-            }
-
+        while (iter.hasNext()) {
+            int account2Index = iter.next();
             pairs.add(new AccountIndexPair(account1Index, account2Index));
-            iter1.remove();
-            iter2.remove();
+            account1Index = account2Index;
         }
+
+        pairs.add(new AccountIndexPair(account1Index, firstAccountIndex));
         return pairs;
     }
 }
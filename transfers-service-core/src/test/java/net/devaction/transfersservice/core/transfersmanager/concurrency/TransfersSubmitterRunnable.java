@@ -25,6 +25,10 @@ public class TransfersSubmitterRunnable implements Runnable {
     private final String currency;
     private final Map<Integer, String> indexAccountMap;
 
+    // It is only updated by the thread running this runnable,
+    // it has to be read after that thread has been joined
+    private int numOfFailedTransfers;
+
     public TransfersSubmitterRunnable(TransfersManager transfersManager,
             List<AccountIndexPair> accountIndexPairs, long amount, 
             String currency, Map<Integer, String> indexAccountMap) {
@@ -48,7 +52,12 @@ public class TransfersSubmitterRunnable implements Runnable {
                 transfersManager.processTransfer(transfer);
             } catch (Exception ex) {
                 log.error("{}", ex, ex);
+                numOfFailedTransfers++;
             }
         }
     }
+
+    public int getNumOfFailedTransfers() {
+        return numOfFailedTransfers;
+    }
 }